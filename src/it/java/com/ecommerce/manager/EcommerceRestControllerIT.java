@@ -4,6 +4,17 @@ import static io.restassured.RestAssured.given;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -20,8 +31,10 @@ import com.ecommerce.manager.model.User;
 import com.ecommerce.manager.model.Order;
 import com.ecommerce.manager.repositories.OrderRepository;
 import com.ecommerce.manager.repositories.UserRepository;
+import com.ecommerce.manager.services.TableChangeMarkers;
 
 import io.restassured.RestAssured;
+import io.restassured.path.json.JsonPath;
 import io.restassured.response.Response;
 
 @RunWith(SpringRunner.class)
@@ -34,6 +47,9 @@ public class EcommerceRestControllerIT {
 	@Autowired
 	private OrderRepository orderRepository;
 
+	@Autowired
+	private TableChangeMarkers tableChangeMarkers;
+
 	@LocalServerPort
 	private int port;
 
@@ -48,6 +64,28 @@ public class EcommerceRestControllerIT {
 		userRepository.flush();
 	}
 
+	@Test
+	public void testAllUsersPagesFollowingTheNextLink() {
+		for (int i = 0; i < 5; i++) {
+			userRepository.save(new User(null, "username" + i, "name", "email" + i, 1000));
+		}
+
+		List<String> usernames = new ArrayList<>();
+		String next = "/api/users?limit=2";
+		int pages = 0;
+
+		while (next != null) {
+			Response response = given().when().get(next.replaceFirst("^http://[^/]+", ""));
+			usernames.addAll(response.then().statusCode(200).extract().jsonPath().getList("username"));
+			String link = response.getHeader("Link");
+			next = link == null ? null : link.substring(1, link.indexOf('>'));
+			pages++;
+		}
+
+		assertThat(pages).isEqualTo(3);
+		assertThat(usernames).containsExactly("username0", "username1", "username2", "username3", "username4");
+	}
+
 	@Test
 	public void testNewUser() {
 		Response response = given().contentType(MediaType.APPLICATION_JSON_VALUE)
@@ -58,6 +96,29 @@ public class EcommerceRestControllerIT {
 		assertThat(userRepository.findById(savedUser.getId())).contains(savedUser);
 	}
 
+	@Test
+	public void testImportUsersFromCsv() {
+		userRepository.save(new User(null, "existing", "name", "existing@email", 1000));
+		StringBuilder body = new StringBuilder("username,name,email,balance\n");
+		for (int i = 0; i < 1200; i++) {
+			body.append("user").append(i).append(",name,user").append(i).append("@email,100\n");
+		}
+		body.append("existing,name,other@email,100\n");
+		// Doppioni di un chunk precedente e dello stesso chunk
+		body.append("user0,name,another@email,100\n");
+		body.append("twin,name,twin@email,100\n");
+		body.append("other-twin,name,twin@email,100\n");
+
+		given().contentType("text/csv").body(body.toString().getBytes()).when().post("/api/users/import").then()
+				.statusCode(200)
+				.body("imported", equalTo(1201), "rejected", equalTo(3), "errors.index",
+						contains(1200, 1201, 1203), "errors.error",
+						contains("Username already exists", "Username already exists", "Email already exists"));
+
+		assertThat(userRepository.count()).isEqualTo(1202);
+		assertThat(userRepository.findByUsername("user1199").getEmail()).isEqualTo("user1199@email");
+	}
+
 	@Test
 	public void testUpdateUser() {
 		User savedUser = userRepository.save(new User(null, "og username", "og name", "og email", 1000));
@@ -82,6 +143,72 @@ public class EcommerceRestControllerIT {
 		assertThat(userRepository.findById(savedUser.getId()).orElseThrow().getBalance()).isEqualTo(500);
 	}
 
+	@Test
+	public void testNewOrderReplayedWithIdempotencyKeyChargesOnce() {
+		User savedUser = userRepository.save(new User(null, "username", "name", "email", 1000));
+		String idempotencyKey = UUID.randomUUID().toString();
+
+		Order firstOrder = given().contentType(MediaType.APPLICATION_JSON_VALUE)
+				.header("Idempotency-Key", idempotencyKey).body(new Order(null, Item.BOX1, 500, savedUser)).when()
+				.post("/api/orders/new").then().statusCode(200).extract().as(Order.class);
+		Order replayedOrder = given().contentType(MediaType.APPLICATION_JSON_VALUE)
+				.header("Idempotency-Key", idempotencyKey).body(new Order(null, Item.BOX1, 500, savedUser)).when()
+				.post("/api/orders/new").then().statusCode(200).extract().as(Order.class);
+
+		assertThat(replayedOrder).isEqualTo(firstOrder);
+		assertThat(orderRepository.findAll()).containsExactly(firstOrder);
+		assertThat(userRepository.findById(savedUser.getId()).orElseThrow().getBalance()).isEqualTo(500);
+	}
+
+	@Test
+	public void testImportOrdersFromNdjson() {
+		User user1 = userRepository.save(new User(null, "username 1", "name", "email 1", 1200));
+		User user2 = userRepository.save(new User(null, "username 2", "name", "email 2", 100));
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < 1200; i++) {
+			body.append("{\"item\":\"BOX1\",\"price\":1,\"user\":{\"id\":").append(user1.getId()).append("}}\n");
+		}
+		body.append("{\"item\":\"BOX2\",\"price\":200,\"user\":{\"id\":").append(user2.getId()).append("}}\n");
+
+		given().contentType(MediaType.APPLICATION_NDJSON_VALUE).body(body.toString().getBytes()).when()
+				.post("/api/orders/import").then().statusCode(200).body("size()", equalTo(1201), "[1199].index",
+						equalTo(1199), "[1200].error", equalTo("Not enough balance to perform withdraw"));
+
+		assertThat(orderRepository.count()).isEqualTo(1200);
+		assertThat(userRepository.findById(user1.getId()).orElseThrow().getBalance()).isZero();
+		assertThat(userRepository.findById(user2.getId()).orElseThrow().getBalance()).isEqualTo(100);
+	}
+
+	@Test
+	public void testImportOrdersFromJsonArray() {
+		User savedUser = userRepository.save(new User(null, "username", "name", "email", 1000));
+
+		given().contentType(MediaType.APPLICATION_JSON_VALUE)
+				.body(new Order[] { new Order(null, Item.BOX1, 300, savedUser),
+						new Order(null, Item.BOX2, 900, savedUser), new Order(null, Item.BOX3, 700, savedUser) })
+				.when().post("/api/orders/import").then().statusCode(200)
+				.body("error", contains(null, "Not enough balance to perform withdraw", null));
+
+		assertThat(orderRepository.findAll()).extracting(Order::getPrice).containsExactlyInAnyOrder(300L, 700L);
+		assertThat(userRepository.findById(savedUser.getId()).orElseThrow().getBalance()).isZero();
+	}
+
+	@Test
+	public void testExportOrdersAsNdjson() {
+		User savedUser = userRepository.save(new User(null, "username", "name", "email", 1000));
+		Order order1 = orderRepository.save(new Order(null, Item.BOX1, 300, savedUser));
+		orderRepository.save(new Order(null, Item.BOX2, 900, savedUser));
+		Order order3 = orderRepository.save(new Order(null, Item.BOX1, 700, savedUser));
+
+		String body = given().when().get("/api/orders/export?item=BOX1").then().statusCode(200)
+				.contentType(MediaType.APPLICATION_NDJSON_VALUE).extract().asString();
+
+		assertThat(body.lines().map(line -> new JsonPath(line).getLong("id"))).containsExactly(order1.getId(),
+				order3.getId());
+		assertThat(given().when().get("/api/orders/export?priceAbove=800").then().statusCode(200).extract()
+				.asString().lines()).hasSize(1);
+	}
+
 	@Test
 	public void testNewOrderFails() {
 		User savedUser = new User(null, "username", "name", "email", 1000);
@@ -133,6 +260,44 @@ public class EcommerceRestControllerIT {
 		assertThat(userRepository.findById(savedUser.getId()).orElseThrow().getBalance()).isEqualTo(500);
 	}
 
+	@Test
+	public void testWithdrawReplayedWithIdempotencyKeyWithdrawsOnce() {
+		User savedUser = userRepository.save(new User(null, "username", "name", "email", 1000));
+		String idempotencyKey = UUID.randomUUID().toString();
+
+		for (int i = 0; i < 3; i++) {
+			given().contentType(MediaType.APPLICATION_JSON_VALUE).header("Idempotency-Key", idempotencyKey)
+					.body(300L).when().post("/api/users/" + savedUser.getId() + "/withdraw").then().statusCode(204);
+		}
+
+		assertThat(userRepository.findById(savedUser.getId()).orElseThrow().getBalance()).isEqualTo(700);
+	}
+
+	@Test
+	public void testConcurrentWithdrawalsWithTheSameIdempotencyKeyWithdrawOnce() throws Exception {
+		User savedUser = userRepository.save(new User(null, "username", "name", "email", 1000));
+		String idempotencyKey = UUID.randomUUID().toString();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+
+		// Le richieste con la stessa chiave si contendono la riga: una preleva, le altre attendono o ricevono 409
+		try {
+			List<Future<Integer>> statuses = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				statuses.add(executor.submit(() -> given().contentType(MediaType.APPLICATION_JSON_VALUE)
+						.header("Idempotency-Key", idempotencyKey).body(300L).when()
+						.post("/api/users/" + savedUser.getId() + "/withdraw").statusCode()));
+			}
+
+			for (Future<Integer> status : statuses) {
+				assertThat(status.get()).isIn(204, 409);
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertThat(userRepository.findById(savedUser.getId()).orElseThrow().getBalance()).isEqualTo(700);
+	}
+
 	@Test
 	public void testWithdrawFailsDueToInsufficientBalance() {
 		User savedUser = userRepository.save(new User(null, "username", "name", "email", 1000));
@@ -167,7 +332,8 @@ public class EcommerceRestControllerIT {
 
 		given().accept(MediaType.APPLICATION_JSON_VALUE).when().get("/api/orders/" + savedOrder.getId()).then()
 				.statusCode(200).body("id", equalTo(savedOrder.getId().intValue())).body("item", equalTo("BOX1"))
-				.body("price", equalTo(500)).body("user.id", equalTo(savedUser.getId().intValue()));
+				.body("price", equalTo(500)).body("userId", equalTo(savedUser.getId().intValue()))
+				.body("username", equalTo("username"));
 	}
 
 	@Test
@@ -179,6 +345,110 @@ public class EcommerceRestControllerIT {
 				.body("name", equalTo("name")).body("email", equalTo("email")).body("balance", equalTo(1000));
 	}
 
+	@Test
+	public void testGetUserByIdAfterWithdrawIsNotServedStaleFromCache() {
+		User savedUser = userRepository.save(new User(null, "username", "name", "email", 1000));
+
+		given().when().get("/api/users/" + savedUser.getId()).then().statusCode(200).body("balance", equalTo(1000));
+		given().contentType(MediaType.APPLICATION_JSON_VALUE).body(300L).when()
+				.post("/api/users/" + savedUser.getId() + "/withdraw").then().statusCode(204);
+
+		given().when().get("/api/users/" + savedUser.getId()).then().statusCode(200).body("balance", equalTo(700));
+		given().when().get("/api/users/" + savedUser.getId()).then().statusCode(200).body("balance", equalTo(700));
+	}
+
+	@Test
+	public void testCacheStatisticsAreExposedThroughActuator() {
+		User savedUser = userRepository.save(new User(null, "username", "name", "email", 1000));
+
+		given().when().get("/api/users/" + savedUser.getId()).then().statusCode(200);
+		given().when().get("/api/users/" + savedUser.getId()).then().statusCode(200);
+
+		given().when().get("/actuator/metrics/ecommerce.cache.hits?tag=cache:users").then().statusCode(200)
+				.body("measurements[0].value", greaterThanOrEqualTo(1.0f));
+	}
+
+	@Test
+	public void testRejectedWithdrawalsAreCountedThroughActuator() {
+		User savedUser = userRepository.save(new User(null, "username", "name", "email", 100));
+
+		given().contentType(MediaType.APPLICATION_JSON_VALUE).body(300L).when()
+				.post("/api/users/" + savedUser.getId() + "/withdraw").then().statusCode(400);
+
+		given().when().get("/actuator/metrics/ecommerce.withdrawals.rejected?tag=operation:withdraw").then()
+				.statusCode(200).body("measurements[0].value", greaterThanOrEqualTo(1.0f));
+	}
+
+	@Test
+	public void testSqlFingerprintsAreReportedAndResetThroughActuator() {
+		User savedUser = userRepository.save(new User(null, "username", "name", "email", 100));
+		given().contentType(MediaType.APPLICATION_JSON_VALUE).body(50L).when()
+				.post("/api/users/" + savedUser.getId() + "/deposit").then().statusCode(204);
+
+		given().when().get("/actuator/sqlfingerprints?sort=count").then().statusCode(200).body("fingerprint",
+				hasItem(containsString("update users u1_0 set balance=")));
+
+		given().when().delete("/actuator/sqlfingerprints").then().statusCode(204);
+
+		given().when().get("/actuator/sqlfingerprints").then().statusCode(200).body("fingerprint",
+				not(hasItem(containsString("update users u1_0 set balance="))));
+	}
+
+	@Test
+	public void testPollingAUserIsAnsweredWith304UntilItChanges() {
+		User savedUser = userRepository.save(new User(null, "username", "name", "email", 1000));
+		String path = "/api/users/" + savedUser.getId();
+
+		String etag = given().when().get(path).then().statusCode(200).extract().header("ETag");
+		given().header("If-None-Match", etag).when().get(path).then().statusCode(304);
+
+		given().contentType(MediaType.APPLICATION_JSON_VALUE).body(300L).when().post(path + "/withdraw").then()
+				.statusCode(204);
+
+		given().header("If-None-Match", etag).when().get(path).then().statusCode(200).body("balance", equalTo(700));
+	}
+
+	@Test
+	public void testPollingTheListsIsAnsweredWith304UntilATableChanges() {
+		User user = userRepository.save(new User(null, "username", "name", "email", 1000));
+		orderRepository.save(new Order(null, Item.BOX1, 100, user));
+
+		String usersEtag = given().when().get("/api/users").then().statusCode(200).extract().header("ETag");
+		String ordersEtag = given().when().get("/api/orders").then().statusCode(200).extract().header("ETag");
+		given().header("If-None-Match", usersEtag).when().get("/api/users").then().statusCode(304);
+		given().header("If-None-Match", ordersEtag).when().get("/api/orders").then().statusCode(304);
+
+		// Una nuova username cambia sia la lista degli users sia quella degli ordini
+		given().contentType(MediaType.APPLICATION_JSON_VALUE).body(new User(null, "renamed", "name", "email", 1000))
+				.when().put("/api/users/update/" + user.getId()).then().statusCode(200);
+
+		given().header("If-None-Match", usersEtag).when().get("/api/users").then().statusCode(200)
+				.body("username", contains("renamed"));
+		given().header("If-None-Match", ordersEtag).when().get("/api/orders").then().statusCode(200)
+				.body("username", contains("renamed"));
+	}
+
+	@Test
+	public void testListEtagsComeFromTheDatabaseAndIgnoreRolledBackWrites() {
+		User user = userRepository.save(new User(null, "username", "name", "email", 1000));
+
+		String usersEtag = given().when().get("/api/users").then().statusCode(200).extract().header("ETag");
+
+		// Un'altra istanza legge gli stessi aggregati
+		assertThat("\"" + tableChangeMarkers.users() + "\"").isEqualTo(usersEtag);
+
+		given().contentType(MediaType.APPLICATION_JSON_VALUE).body(new User(null, "username", "name", "other", 1000))
+				.when().post("/api/users/new").then().statusCode(400);
+
+		given().header("If-None-Match", usersEtag).when().get("/api/users").then().statusCode(304);
+
+		// Un deposito cambia solo il balance: la versione dello user cambia l'ETag
+		given().contentType(MediaType.APPLICATION_JSON_VALUE).body(100L).when()
+				.post("/api/users/" + user.getId() + "/deposit").then().statusCode(204);
+
+		given().header("If-None-Match", usersEtag).when().get("/api/users").then().statusCode(200);
+	}
+
 	@Test
 	public void testGetAllUsers() {
 		User user1 = userRepository.save(new User(null, "u1", "n1", "e1", 1000));
@@ -201,6 +471,7 @@ public class EcommerceRestControllerIT {
 		given().accept(MediaType.APPLICATION_JSON_VALUE).when().get("/api/orders").then().statusCode(200)
 				.body("size()", equalTo(2)).body("id", contains(order1.getId().intValue(), order2.getId().intValue()))
 				.body("item", contains("BOX1", "BOX2")).body("price", contains(400, 600))
-				.body("user.id", contains(user1.getId().intValue(), user2.getId().intValue()));
+				.body("userId", contains(user1.getId().intValue(), user2.getId().intValue()))
+				.body("username", contains("u1", "u2"));
 	}
 }
@@ -0,0 +1,180 @@
+package com.ecommerce.manager;
+
+import static com.ecommerce.manager.QueryBudget.assertWithinBudget;
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.hasItem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.ecommerce.manager.model.Item;
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.repositories.OrderRepository;
+import com.ecommerce.manager.repositories.UserRepository;
+
+import io.restassured.RestAssured;
+
+/**
+ * Query budgets of the {@code EcommerceRestController} endpoints. Every order
+ * belongs to its own user and there are more rows than any budget, so loading
+ * users one order at a time would fail the test. The budgets of the inserts
+ * include the call to the id sequence made once per block of ids, those of the
+ * lists the aggregates read for their ETag: one table for the users, two for
+ * the orders.
+ */
+@RunWith(SpringRunner.class)
+// Senza cache di secondo livello: i budget valgono anche a cache fredda
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = { "ecommerce.jdbc-stats.headers=true",
+		"spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+		"spring.jpa.properties.hibernate.cache.use_query_cache=false", "ecommerce.cache.ttl=0s" })
+public class EcommerceRestControllerQueryBudgetIT {
+
+	private static final int ROWS = 30;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@LocalServerPort
+	private int port;
+
+	private List<User> users;
+	private List<Order> orders;
+
+	@Before
+	public void setup() {
+		RestAssured.port = port;
+
+		cleanup();
+
+		users = new ArrayList<>();
+		orders = new ArrayList<>();
+
+		for (int i = 0; i < ROWS; i++) {
+			User user = userRepository.save(new User(null, "username" + i, "name", "email" + i, 10000));
+			users.add(user);
+			orders.add(orderRepository.save(new Order(null, Item.BOX1, 100, user)));
+		}
+	}
+
+	// Il database è condiviso con gli altri IT: non si lasciano righe dietro
+	@After
+	public void cleanup() {
+		orderRepository.deleteAll();
+		userRepository.deleteAll();
+	}
+
+	@Test
+	public void testAllUsers() {
+		assertWithinBudget("GET /api/users", 2, given().when().get("/api/users"));
+	}
+
+	@Test
+	public void testAllOrders() {
+		assertWithinBudget("GET /api/orders", 3, given().when().get("/api/orders"));
+	}
+
+	@Test
+	public void testExportOrders() {
+		assertWithinBudget("GET /api/orders/export", 1,
+				given().accept(MediaType.APPLICATION_NDJSON_VALUE).when().get("/api/orders/export"));
+	}
+
+	@Test
+	public void testOneUser() {
+		assertWithinBudget("GET /api/users/{id}", 1, given().when().get("/api/users/" + users.get(0).getId()));
+	}
+
+	@Test
+	public void testOneOrder() {
+		assertWithinBudget("GET /api/orders/{id}", 1, given().when().get("/api/orders/" + orders.get(0).getId()));
+	}
+
+	@Test
+	public void testNewUser() {
+		assertWithinBudget("POST /api/users/new", 2, given().contentType(MediaType.APPLICATION_JSON_VALUE)
+				.body(new User(null, "new", "name", "new@email", 1000)).when().post("/api/users/new"));
+	}
+
+	@Test
+	public void testImportUsers() {
+		StringBuilder body = new StringBuilder("username,name,email,balance\n");
+		for (int i = 0; i < ROWS; i++) {
+			body.append("imported").append(i).append(",name,imported").append(i).append("@email,100\n");
+		}
+
+		assertWithinBudget("POST /api/users/import", 4,
+				given().contentType("text/csv").body(body.toString().getBytes()).when().post("/api/users/import"));
+	}
+
+	@Test
+	public void testNewOrder() {
+		assertWithinBudget("POST /api/orders/new", 3, given().contentType(MediaType.APPLICATION_JSON_VALUE)
+				.body(new Order(null, Item.BOX2, 100, users.get(0))).when().post("/api/orders/new"));
+	}
+
+	// Il balance si aggiorna con una update per user: il budget vale per un numero fisso di user
+	@Test
+	public void testImportOrders() {
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < ROWS; i++) {
+			body.append("{\"item\":\"BOX1\",\"price\":1,\"user\":{\"id\":").append(users.get(i % 2).getId())
+					.append("}}\n");
+		}
+
+		assertWithinBudget("POST /api/orders/import", 5, given().contentType(MediaType.APPLICATION_NDJSON_VALUE)
+				.body(body.toString().getBytes()).when().post("/api/orders/import"));
+	}
+
+	@Test
+	public void testUpdateUser() {
+		assertWithinBudget("PUT /api/users/update/{id}", 2,
+				given().contentType(MediaType.APPLICATION_JSON_VALUE)
+						.body(new User(null, "updated", "name", "updated@email", 2000)).when()
+						.put("/api/users/update/" + users.get(0).getId()));
+	}
+
+	@Test
+	public void testUpdateOrder() {
+		assertWithinBudget("PUT /api/orders/update/{id}", 6,
+				given().contentType(MediaType.APPLICATION_JSON_VALUE)
+						.body(new Order(null, Item.BOX2, 50, users.get(1))).when()
+						.put("/api/orders/update/" + orders.get(0).getId()));
+	}
+
+	@Test
+	public void testDeposit() {
+		assertWithinBudget("POST /api/users/{id}/deposit", 1, given().contentType(MediaType.APPLICATION_JSON_VALUE)
+				.body(100L).when().post("/api/users/" + users.get(0).getId() + "/deposit"));
+	}
+
+	@Test
+	public void testWithdraw() {
+		assertWithinBudget("POST /api/users/{id}/withdraw", 1, given().contentType(MediaType.APPLICATION_JSON_VALUE)
+				.body(100L).when().post("/api/users/" + users.get(0).getId() + "/withdraw"));
+	}
+
+	@Test
+	public void testWorstEndpointsAreReportedThroughActuator() {
+		given().contentType(MediaType.APPLICATION_JSON_VALUE).body(new Order(null, Item.BOX2, 50, users.get(1))).when()
+				.put("/api/orders/update/" + orders.get(0).getId());
+
+		given().when().get("/actuator/jdbcrequests?sort=statements").then().statusCode(200).body("endpoint",
+				hasItem("PUT /api/orders/update/{id}"));
+		given().when().get("/actuator/jdbcrequests?sort=name").then().statusCode(400);
+	}
+}
@@ -0,0 +1,129 @@
+package com.ecommerce.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.ecommerce.manager.model.BalanceEntry;
+import com.ecommerce.manager.model.Item;
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.repositories.BalanceEntryRepository;
+import com.ecommerce.manager.repositories.OrderRepository;
+import com.ecommerce.manager.repositories.UserRepository;
+import com.ecommerce.manager.services.BalanceLedger;
+import com.ecommerce.manager.services.EcommerceService;
+import com.ecommerce.manager.services.EntityCache;
+import com.ecommerce.manager.services.UserLockManager;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@Import({ EcommerceService.class, UserLockManager.class, BalanceLedger.class, EntityCache.class,
+		SimpleMeterRegistry.class })
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@TestPropertySource(properties = "ecommerce.ledger.enabled=true")
+// Il fold avviene in transazioni separate, quindi i test non sono transactional
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class EcommerceServiceLedgerIT {
+
+	@Autowired
+	private EcommerceService ecommerceService;
+
+	@Autowired
+	private BalanceLedger ledger;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private BalanceEntryRepository entryRepository;
+
+	@Before
+	public void setup() {
+		entryRepository.deleteAll();
+		orderRepository.deleteAll();
+		userRepository.deleteAll();
+	}
+
+	@Test
+	public void testDepositAndWithdrawAppendEntriesWithoutTouchingSnapshot() {
+		User user = ecommerceService.insertNewUser(new User(null, "u1", "n1", "e1", 1000));
+
+		ecommerceService.deposit(user.getId(), 500);
+		ecommerceService.withdraw(user.getId(), 200);
+
+		assertThat(userRepository.findById(user.getId()).orElseThrow().getBalance()).isEqualTo(1000);
+		assertThat(entryRepository.findByUserIdOrderByIdAsc(user.getId())).extracting(BalanceEntry::getAmount)
+				.containsExactly(500L, -200L);
+		assertThat(ecommerceService.getUserById(user.getId()).getBalance()).isEqualTo(1300);
+	}
+
+	@Test
+	public void testWithdrawConsidersPendingEntries() {
+		User user = ecommerceService.insertNewUser(new User(null, "u1", "n1", "e1", 1000));
+		long userId = user.getId();
+
+		ecommerceService.withdraw(userId, 800);
+
+		assertThatThrownBy(() -> ecommerceService.withdraw(userId, 300)).isInstanceOf(IllegalStateException.class)
+				.hasMessage("Not enough balance to perform withdraw");
+		assertThat(ecommerceService.getUserById(userId).getBalance()).isEqualTo(200);
+	}
+
+	@Test
+	public void testSnapshotFoldsPendingEntriesIntoUsers() {
+		User user1 = ecommerceService.insertNewUser(new User(null, "u1", "n1", "e1", 1000));
+		User user2 = ecommerceService.insertNewUser(new User(null, "u2", "n2", "e2", 2000));
+
+		ecommerceService.insertNewOrder(new Order(null, Item.BOX1, 400, user1));
+		ecommerceService.deposit(user2.getId(), 100);
+
+		ledger.snapshot();
+
+		assertThat(userRepository.findById(user1.getId()).orElseThrow().getBalance()).isEqualTo(600);
+		assertThat(userRepository.findById(user2.getId()).orElseThrow().getBalance()).isEqualTo(2100);
+		assertThat(entryRepository.findUserIdsWithPendingEntries()).isEmpty();
+		assertThat(ecommerceService.getAllUsers()).extracting(User::getBalance).containsExactly(600L, 2100L);
+	}
+
+	@Test
+	public void testSnapshotFoldsEntriesIntoANegativeBalance() {
+		User user = ecommerceService.insertNewUser(new User(null, "u1", "n1", "e1", 1000));
+		ecommerceService.updateUserById(user.getId(), new User(null, "u1", "n1", "e1", -300));
+
+		ecommerceService.deposit(user.getId(), 100);
+		ledger.snapshot();
+
+		assertThat(userRepository.findById(user.getId()).orElseThrow().getBalance()).isEqualTo(-200);
+		assertThat(entryRepository.findUserIdsWithPendingEntries()).isEmpty();
+	}
+
+	@Test
+	public void testUpdateUserOverwritesSnapshotAndKeepsTrailConsistent() {
+		User user = ecommerceService.insertNewUser(new User(null, "u1", "n1", "e1", 1000));
+
+		ecommerceService.deposit(user.getId(), 500);
+		ecommerceService.updateUserById(user.getId(), new User(null, "u1", "n1", "e1", 3000));
+
+		assertThat(ecommerceService.getUserById(user.getId()).getBalance()).isEqualTo(3000);
+		assertThat(entryRepository.findByUserIdOrderByIdAsc(user.getId())).extracting(BalanceEntry::getAmount)
+				.containsExactly(500L, 1500L);
+		assertThat(entryRepository.findUserIdsWithPendingEntries()).isEmpty();
+	}
+}
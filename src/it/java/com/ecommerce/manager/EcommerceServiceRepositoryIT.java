@@ -3,7 +3,12 @@ package com.ecommerce.manager;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -22,11 +27,17 @@ import com.ecommerce.manager.model.Order;
 import com.ecommerce.manager.model.User;
 import com.ecommerce.manager.repositories.OrderRepository;
 import com.ecommerce.manager.repositories.UserRepository;
+import com.ecommerce.manager.services.BalanceLedger;
 import com.ecommerce.manager.services.EcommerceService;
+import com.ecommerce.manager.services.EntityCache;
+import com.ecommerce.manager.services.UserLockManager;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 @RunWith(SpringRunner.class)
 @DataJpaTest
-@Import(EcommerceService.class)
+@Import({ EcommerceService.class, UserLockManager.class, BalanceLedger.class, EntityCache.class,
+		SimpleMeterRegistry.class })
 @AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
 public class EcommerceServiceRepositoryIT {
 
@@ -77,6 +88,16 @@ public class EcommerceServiceRepositoryIT {
 		assertThat(userRepository.findById(savedUser.getId())).contains(modifiedUser);
 	}
 
+	@Test
+	public void testDepositIntoANegativeBalanceIsApplied() {
+		User user = ecommerceService.insertNewUser(new User(null, "username", "name", "email", 1000));
+		ecommerceService.updateUserById(user.getId(), new User(null, "username", "name", "email", -300));
+
+		ecommerceService.deposit(user.getId(), 500);
+
+		assertThat(userRepository.findById(user.getId()).orElseThrow().getBalance()).isEqualTo(200);
+	}
+
 	@Test
 	public void testUserRepositoryCorrectlyFindsUserWithLowBalance() {
 		User userShouldBeFound1 = ecommerceService.insertNewUser(new User(null, "u1", "n1", "e1", 800));
@@ -86,7 +107,8 @@ public class EcommerceServiceRepositoryIT {
 
 		List<User> users = userRepository.findAllUsersWithLowBalance(1000);
 
-		assertThat(users).containsExactly(userShouldBeFound1, userShouldBeFound2);
+		// La query non ha order by: con l'indice su balance le righe arrivano in ordine di balance
+		assertThat(users).containsExactlyInAnyOrder(userShouldBeFound1, userShouldBeFound2);
 	}
 
 	@Test
@@ -179,4 +201,37 @@ public class EcommerceServiceRepositoryIT {
 		assertThat(userRepository.findById(user2.getId()).orElseThrow().getBalance()).isEqualTo(2000);
 		assertThat(orderRepository.findById(savedOrder.getId())).contains(savedOrder);
 	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void testServiceConcurrentWithdrawsDoNotLoseUpdates() throws Exception {
+		User user = ecommerceService.insertNewUser(new User(null, "u1", "n1", "e1", 1000));
+		long userId = user.getId();
+
+		List<Callable<Boolean>> withdraws = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			withdraws.add(() -> {
+				try {
+					ecommerceService.withdraw(userId, 100);
+					return true;
+				} catch (IllegalStateException e) {
+					return false;
+				}
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		int succeeded = 0;
+		try {
+			for (Future<Boolean> result : executor.invokeAll(withdraws)) {
+				succeeded += Boolean.TRUE.equals(result.get()) ? 1 : 0;
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		// Esattamente 10 prelievi da 100 possono andare a buon fine, nessun aggiornamento perso
+		assertThat(succeeded).isEqualTo(10);
+		assertThat(userRepository.findById(userId).orElseThrow().getBalance()).isZero();
+	}
 }
@@ -0,0 +1,265 @@
+package com.ecommerce.manager;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.ecommerce.manager.model.Item;
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.repositories.OrderRepository;
+import com.ecommerce.manager.services.BalanceLedger;
+import com.ecommerce.manager.services.EcommerceService;
+import com.ecommerce.manager.services.EntityCache;
+import com.ecommerce.manager.services.UserLockManager;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Pins the number of SQL statements issued by each {@link EcommerceService}
+ * method, so that a change in the fetching strategy cannot silently bring back
+ * per-row queries.
+ */
+@RunWith(SpringRunner.class)
+// Senza cache di secondo livello: si misura la forma delle query, non lo stato della cache
+@DataJpaTest(properties = { "spring.jpa.properties.hibernate.generate_statistics=true",
+		"spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+		"spring.jpa.properties.hibernate.cache.use_query_cache=false",
+		"spring.jpa.properties.hibernate.session_factory.statement_inspector="
+				+ "com.ecommerce.manager.EcommerceServiceStatementCountIT$SequenceCallCounter" })
+@Import({ EcommerceService.class, UserLockManager.class, BalanceLedger.class, EntityCache.class,
+		SimpleMeterRegistry.class })
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+public class EcommerceServiceStatementCountIT {
+
+	private static final int ORDERS = 10;
+
+	@Autowired
+	private EcommerceService ecommerceService;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private TestEntityManager entityManager;
+
+	private Statistics statistics;
+
+	private User user1;
+	private User user2;
+	private Order order1;
+
+	@Before
+	public void setup() {
+		user1 = entityManager.persist(new User(null, "u1", "n1", "e1", 10000));
+		user2 = entityManager.persist(new User(null, "u2", "n2", "e2", 10000));
+		order1 = entityManager.persist(new Order(null, Item.BOX1, 100, user1));
+
+		// Ogni altro ordine ha il suo user, così un caricamento per riga si vedrebbe nel conteggio
+		for (int i = 1; i < ORDERS; i++) {
+			User user = entityManager.persist(new User(null, "user" + i, "name" + i, "email" + i, 1000));
+			entityManager.persist(new Order(null, Item.BOX2, 200, user));
+		}
+
+		entityManager.flush();
+		entityManager.clear();
+
+		statistics = entityManager.getEntityManager().getEntityManagerFactory().unwrap(SessionFactory.class)
+				.getStatistics();
+		statistics.clear();
+		SequenceCallCounter.CALLS.set(0);
+	}
+
+	@Test
+	public void testGetAllUsers() {
+		assertThat(ecommerceService.getAllUsers()).hasSize(ORDERS + 1);
+
+		assertStatements(1);
+	}
+
+	@Test
+	public void testGetUsersAfter() {
+		assertThat(ecommerceService.getUsersAfter(Long.MIN_VALUE, 5)).hasSize(5);
+
+		assertStatements(1);
+	}
+
+	@Test
+	public void testGetAllOrdersFetchesTheUsersInTheSameQuery() {
+		List<Order> orders = ecommerceService.getAllOrders();
+
+		assertThat(orders).hasSize(ORDERS);
+		assertThat(orders).allSatisfy(order -> assertThat(order.getUser().getUsername()).isNotNull());
+		assertStatements(1);
+	}
+
+	@Test
+	public void testGetAllOrderSummaries() {
+		assertThat(ecommerceService.getAllOrderSummaries()).hasSize(ORDERS);
+
+		assertStatements(1);
+	}
+
+	@Test
+	public void testGetOrderSummariesAfter() {
+		assertThat(ecommerceService.getOrderSummariesAfter(Long.MIN_VALUE, 5)).hasSize(5);
+
+		assertStatements(1);
+	}
+
+	@Test
+	public void testGetOrderSummaryById() {
+		assertThat(ecommerceService.getOrderSummaryById(order1.getId()).username()).isEqualTo("u1");
+
+		assertStatements(1);
+	}
+
+	@Test
+	public void testGetUserById() {
+		assertThat(ecommerceService.getUserById(user1.getId())).isNotNull();
+
+		assertStatements(1);
+	}
+
+	@Test
+	public void testGetOrderByIdFetchesTheUserInTheSameQuery() {
+		assertThat(ecommerceService.getOrderById(order1.getId()).getUser().getUsername()).isEqualTo("u1");
+
+		assertStatements(1);
+	}
+
+	@Test
+	public void testLeftoverLazyLoadsAreBatched() {
+		List<Order> orders = orderRepository.findByItem(Item.BOX2);
+
+		// Senza grafo lo user resta lazy: i proxy vengono inizializzati insieme con una query IN
+		orders.forEach(order -> order.getUser().getUsername());
+
+		assertStatements(2);
+	}
+
+	@Test
+	public void testInsertNewUser() {
+		ecommerceService.insertNewUser(new User(null, "new", "new", "new", 1000));
+
+		assertStatements(1);
+	}
+
+	@Test
+	public void testInsertNewUsers() {
+		ecommerceService.insertNewUsers(asList(new User(null, "new1", "n", "new1", 1000),
+				new User(null, "new2", "n", "new2", 1000), new User(null, "u1", "n", "new3", 1000)));
+
+		// Controllo di username ed email, poi un solo insert in batch
+		assertStatements(3);
+	}
+
+	@Test
+	public void testInsertNewOrder() {
+		ecommerceService.insertNewOrder(new Order(null, Item.BOX1, 100, user1));
+
+		// Prelievo con un solo update, poi l'insert
+		assertStatements(2);
+	}
+
+	@Test
+	public void testInsertNewOrders() {
+		ecommerceService.insertNewOrders(asList(new Order(null, Item.BOX1, 100, user1),
+				new Order(null, Item.BOX2, 200, user2), new Order(null, Item.BOX1, 300, user1)));
+
+		// Lettura degli user, un update per user e un solo insert in batch
+		assertStatements(4);
+	}
+
+	@Test
+	public void testUpdateUserById() {
+		ecommerceService.updateUserById(user1.getId(), new User(null, "u1", "new", "e1", 500));
+
+		assertStatements(2);
+	}
+
+	@Test
+	public void testUpdateOrderByIdWithSameUser() {
+		Order updated = ecommerceService.updateOrderById(order1.getId(), new Order(null, Item.BOX2, 300, user1));
+
+		// Ordine con user, deposito, prelievo, rilettura dell'ordine con user e update
+		assertStatements(5);
+		assertThat(updated.getUser().getBalance()).isEqualTo(9800);
+	}
+
+	@Test
+	public void testUpdateOrderByIdWithAnotherUser() {
+		Order updated = ecommerceService.updateOrderById(order1.getId(), new Order(null, Item.BOX2, 300, user2));
+
+		// Rispetto allo stesso user si aggiunge solo la lettura del nuovo
+		assertStatements(6);
+		assertThat(updated.getUser().getBalance()).isEqualTo(9700);
+	}
+
+	@Test
+	public void testDeposit() {
+		ecommerceService.deposit(user1.getId(), 100);
+
+		assertStatements(1);
+	}
+
+	@Test
+	public void testWithdraw() {
+		ecommerceService.withdraw(user1.getId(), 100);
+
+		assertStatements(1);
+	}
+
+	@Test
+	public void testWithdrawWithNotEnoughBalance() {
+		long id = user1.getId();
+
+		assertThatThrownBy(() -> ecommerceService.withdraw(id, 100000)).isInstanceOf(IllegalStateException.class);
+
+		// All'update fallito segue il controllo di esistenza dello user
+		assertStatements(2);
+	}
+
+	private void assertStatements(long expected) {
+		// Gli insert e gli update in coda vengono eseguiti prima del conteggio
+		entityManager.flush();
+
+		// Le letture delle sequence dipendono da dove cade il blocco di id, non dal metodo
+		assertThat(statistics.getPrepareStatementCount() - SequenceCallCounter.CALLS.get()).isEqualTo(expected);
+	}
+
+	public static class SequenceCallCounter implements StatementInspector {
+
+		private static final long serialVersionUID = 1L;
+
+		static final AtomicLong CALLS = new AtomicLong();
+
+		private static final Pattern SEQUENCE_CALL = Pattern.compile("next ?val", Pattern.CASE_INSENSITIVE);
+
+		@Override
+		public String inspect(String sql) {
+			if (SEQUENCE_CALL.matcher(sql).find()) {
+				CALLS.incrementAndGet();
+			}
+
+			return sql;
+		}
+	}
+}
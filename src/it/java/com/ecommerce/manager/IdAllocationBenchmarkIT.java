@@ -0,0 +1,86 @@
+package com.ecommerce.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.repositories.UserRepository;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Insert rate of users with the configured id block size. The statements are
+ * counted too: with pooled ids the sequence is called once per block and the
+ * inserts are sent in JDBC batches. {@link SingleIdAllocationBenchmarkIT} runs
+ * the same inserts fetching one id per row, for comparison.
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class IdAllocationBenchmarkIT {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(IdAllocationBenchmarkIT.class);
+
+	protected static final int USERS = 5000;
+	private static final int CHUNK_SIZE = 500;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Value("${spring.jpa.properties.ecommerce.id.block-size}")
+	protected int blockSize;
+
+	@Value("${spring.jpa.properties.hibernate.jdbc.batch_size}")
+	protected int batchSize;
+
+	@Test
+	public void testInsertRate() {
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.clear();
+
+		long start = System.nanoTime();
+		for (int chunk = 0; chunk < USERS / CHUNK_SIZE; chunk++) {
+			// Username ed email sono univoci
+			List<User> users = IntStream.range(chunk * CHUNK_SIZE, (chunk + 1) * CHUNK_SIZE)
+					.mapToObj(i -> new User(null, "username" + i, "name", "email" + i, 1000)).toList();
+			transactionTemplate.executeWithoutResult(status -> userRepository.saveAll(users));
+		}
+		long elapsedNanos = System.nanoTime() - start;
+
+		LOGGER.info("Id block size {}: {} users inserted in {} ms ({} users/s) with {} statements", blockSize,
+				USERS, elapsedNanos / 1_000_000, USERS * 1_000_000_000L / elapsedNanos,
+				statistics.getPrepareStatementCount());
+
+		assertThat(userRepository.count()).isEqualTo(USERS);
+		assertStatementCount(statistics.getPrepareStatementCount());
+	}
+
+	protected void assertStatementCount(long statements) {
+		// Una chiamata alla sequence per blocco più un batch di insert ogni batchSize righe
+		assertThat(statements).isLessThanOrEqualTo(USERS / blockSize + USERS / batchSize + USERS / CHUNK_SIZE);
+	}
+}
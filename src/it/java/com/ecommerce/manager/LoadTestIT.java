@@ -0,0 +1,77 @@
+package com.ecommerce.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import com.ecommerce.manager.load.LoadTest;
+import com.ecommerce.manager.load.Operation;
+
+/**
+ * Short runs of the load test harness, to keep it working. Each run gets its
+ * own JVM, as it does from the load-test profile: closing the application it
+ * boots would also close the JCache manager shared with the other test
+ * contexts. Its output goes to a file under target/load-test, as writing
+ * straight to the inherited streams would corrupt the channel of the forked
+ * failsafe JVM; the file is attached to the message of a failed assertion.
+ */
+public class LoadTestIT {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Rule
+	public TestName testName = new TestName();
+
+	@Test
+	public void testShortRunPassesAndWritesTheReport() throws Exception {
+		Path report = folder.getRoot().toPath().resolve("load-report.txt");
+
+		runLoadTest(report, "-Dload.max-p99=10s", 0);
+
+		String content = Files.readString(report);
+		assertThat(content).contains("PASSED");
+		for (Operation operation : Operation.values()) {
+			assertThat(content).contains(operation.endpoint());
+		}
+	}
+
+	@Test
+	public void testViolationsFailTheRun() throws Exception {
+		Path report = folder.getRoot().toPath().resolve("load-report.txt");
+
+		// Nessuna risposta può stare sotto un microsecondo
+		runLoadTest(report, "-Dload.max-p99=1us", 1);
+
+		assertThat(Files.readString(report)).contains("FAILED", "p99");
+	}
+
+	private void runLoadTest(Path report, String maxP99, int expectedExitValue) throws Exception {
+		String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+		List<String> command = new ArrayList<>(List.of(java,
+				"-Dload.users=50", "-Dload.orders=200", "-Dload.rate=50", "-Dload.warmup=1s", "-Dload.duration=3s",
+				"-Dload.max-error-rate=0", maxP99, "-Dload.report=" + report, "-cp",
+				System.getProperty("java.class.path"), LoadTest.class.getName()));
+		Path output = Files.createDirectories(Path.of("target", "load-test"))
+				.resolve(testName.getMethodName() + ".log");
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(output.toFile())
+				.start();
+
+		boolean exited = process.waitFor(3, TimeUnit.MINUTES);
+		if (!exited) {
+			process.destroyForcibly().waitFor();
+		}
+		assertThat(exited).as("load test still running, output:%n%s", Files.readString(output)).isTrue();
+		assertThat(process.exitValue()).as("load test output:%n%s", Files.readString(output))
+				.isEqualTo(expectedExitValue);
+	}
+}
@@ -0,0 +1,66 @@
+package com.ecommerce.manager;
+
+import static io.restassured.RestAssured.given;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.repositories.OrderRepository;
+import com.ecommerce.manager.repositories.UserRepository;
+
+import io.restassured.RestAssured;
+
+@RunWith(SpringRunner.class)
+// Nei test l'export delle metriche è disattivato: senza questa annotazione /actuator/prometheus non esiste
+@AutoConfigureObservability(tracing = false)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+public class PrometheusEndpointIT {
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@LocalServerPort
+	private int port;
+
+	@Before
+	public void setup() {
+		RestAssured.port = port;
+
+		cleanup();
+	}
+
+	// Il database è condiviso con gli altri IT: non si lasciano righe dietro
+	@After
+	public void cleanup() {
+		orderRepository.deleteAll();
+		userRepository.deleteAll();
+	}
+
+	@Test
+	public void testServiceMetricsAreScrapedWithHistogramBuckets() {
+		User savedUser = userRepository.save(new User(null, "username", "name", "email", 100));
+
+		given().contentType(MediaType.APPLICATION_JSON_VALUE).body(300L).when()
+				.post("/api/users/" + savedUser.getId() + "/withdraw").then().statusCode(400);
+
+		String scrape = given().when().get("/actuator/prometheus").then().statusCode(200).extract().asString();
+
+		assertThat(scrape).contains("ecommerce_withdrawals_rejected_total{operation=\"withdraw\"}")
+				.contains("ecommerce_service_calls_seconds_bucket{exception=\"IllegalStateException\"")
+				.contains("http_server_requests_seconds_bucket");
+	}
+}
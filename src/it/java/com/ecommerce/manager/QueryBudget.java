@@ -0,0 +1,31 @@
+package com.ecommerce.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.ecommerce.manager.jdbc.JdbcStatisticsFilter;
+
+import io.restassured.response.Response;
+
+/**
+ * Checks the number of SQL statements run by a request against its budget,
+ * reading the {@value JdbcStatisticsFilter#STATEMENTS_HEADER} header. The
+ * application under test must run with {@code ecommerce.jdbc-stats.headers}
+ * enabled, as in the {@code debug} profile.
+ * <p>
+ * Budgets hold for any number of rows: a test should load more rows than the
+ * budget, so that a per-row query (N+1) exceeds it.
+ */
+public final class QueryBudget {
+
+	private QueryBudget() {
+	}
+
+	public static Response assertWithinBudget(String endpoint, int maxStatements, Response response) {
+		String statements = response.getHeader(JdbcStatisticsFilter.STATEMENTS_HEADER);
+
+		assertThat(statements).as("%s header of %s", JdbcStatisticsFilter.STATEMENTS_HEADER, endpoint).isNotNull();
+		assertThat(Long.parseLong(statements)).as("SQL statements of %s", endpoint).isLessThanOrEqualTo(maxStatements);
+
+		return response;
+	}
+}
@@ -0,0 +1,174 @@
+package com.ecommerce.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import com.ecommerce.manager.controllers.EcommerceRestController;
+import com.ecommerce.manager.model.Item;
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.repositories.OrderRepository;
+import com.ecommerce.manager.repositories.UserRepository;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * The reactive profile end to end: WebFlux in front, R2DBC on the same H2
+ * database whose schema is created by Hibernate.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+		"spring.datasource.url=jdbc:h2:mem:reactive;DB_CLOSE_DELAY=-1", "spring.datasource.username=sa",
+		"spring.datasource.password=", "spring.r2dbc.url=r2dbc:h2:mem:///reactive;DB_CLOSE_DELAY=-1",
+		"spring.r2dbc.username=sa", "spring.r2dbc.password=" })
+@ActiveProfiles("reactive")
+public class ReactiveEcommerceRestControllerIT {
+
+	@Autowired
+	private WebTestClient client;
+
+	@Autowired
+	private ApplicationContext context;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Before
+	public void setup() {
+		orderRepository.deleteAll();
+		userRepository.deleteAll();
+	}
+
+	@Test
+	public void testTheServletControllersAreReplaced() {
+		assertThat(context.getBeanNamesForType(EcommerceRestController.class)).isEmpty();
+	}
+
+	@Test
+	public void testNewUserAndGetItBack() {
+		User created = client.post().uri("/api/users/new").contentType(MediaType.APPLICATION_JSON)
+				.bodyValue(new User(null, "username", "name", "email", 1000)).exchange().expectStatus().isOk()
+				.expectBody(User.class).returnResult().getResponseBody();
+
+		assertThat(userRepository.findById(created.getId())).isPresent();
+
+		client.get().uri("/api/users/" + created.getId()).exchange().expectStatus().isOk().expectBody()
+				.jsonPath("$.username").isEqualTo("username").jsonPath("$.balance").isEqualTo(1000);
+	}
+
+	@Test
+	public void testNewUserWithoutNameIsStoredWithANullName() {
+		User created = client.post().uri("/api/users/new").contentType(MediaType.APPLICATION_JSON)
+				.bodyValue(new User(null, "username", null, "email", 1000)).exchange().expectStatus().isOk()
+				.expectBody(User.class).returnResult().getResponseBody();
+
+		assertThat(userRepository.findById(created.getId()).orElseThrow().getName()).isNull();
+	}
+
+	@Test
+	public void testNewUserAndUpdateWithATakenUsernameAreRejected() {
+		userRepository.save(new User(null, "taken", "name", "taken@email", 1000));
+		User user = userRepository.save(new User(null, "username", "name", "email", 1000));
+
+		client.post().uri("/api/users/new").contentType(MediaType.APPLICATION_JSON)
+				.bodyValue(new User(null, "taken", "name", "other@email", 1000)).exchange().expectStatus()
+				.isBadRequest().expectBody().jsonPath("$.message").isEqualTo("Username or email already exists");
+		client.put().uri("/api/users/update/" + user.getId()).contentType(MediaType.APPLICATION_JSON)
+				.bodyValue(new User(null, "taken", "name", "email", 1000)).exchange().expectStatus().isBadRequest()
+				.expectBody().jsonPath("$.message").isEqualTo("Username or email already exists");
+
+		assertThat(userRepository.count()).isEqualTo(2);
+		assertThat(userRepository.findById(user.getId()).orElseThrow().getUsername()).isEqualTo("username");
+	}
+
+	@Test
+	public void testAllUsersPagesFollowingTheNextLink() {
+		for (int i = 0; i < 3; i++) {
+			userRepository.save(new User(null, "username" + i, "name", "email" + i, 1000));
+		}
+
+		client.get().uri("/api/users?limit=2").exchange().expectStatus().isOk().expectHeader()
+				.value("Link", link -> assertThat(link).contains("cursor=")).expectBody().jsonPath("$.length()")
+				.isEqualTo(2);
+	}
+
+	@Test
+	public void testNewOrderChargesTheUserAndIsListed() {
+		User user = userRepository.save(new User(null, "username", "name", "email", 1000));
+
+		client.post().uri("/api/orders/new").contentType(MediaType.APPLICATION_JSON)
+				.bodyValue(new Order(null, Item.BOX2, 400, user)).exchange().expectStatus().isOk().expectBody()
+				.jsonPath("$.item").isEqualTo("BOX2").jsonPath("$.user.balance").isEqualTo(600);
+
+		client.get().uri("/api/orders").exchange().expectStatus().isOk().expectBody().jsonPath("$[0].item")
+				.isEqualTo("BOX2").jsonPath("$[0].username").isEqualTo("username");
+		assertThat(userRepository.findById(user.getId()).orElseThrow().getBalance()).isEqualTo(600);
+	}
+
+	@Test
+	public void testNewOrderWithNotEnoughBalanceIsRejectedAndNothingIsCharged() {
+		User user = userRepository.save(new User(null, "username", "name", "email", 100));
+
+		client.post().uri("/api/orders/new").contentType(MediaType.APPLICATION_JSON)
+				.bodyValue(new Order(null, Item.BOX1, 400, user)).exchange().expectStatus().isBadRequest()
+				.expectBody().jsonPath("$.message").isEqualTo("Unable to insert new order");
+
+		assertThat(orderRepository.count()).isZero();
+		assertThat(userRepository.findById(user.getId()).orElseThrow().getBalance()).isEqualTo(100);
+	}
+
+	@Test
+	public void testUpdateOrderMovesTheChargeToTheNewUser() {
+		User user1 = userRepository.save(new User(null, "u1", "n1", "e1", 1000));
+		User user2 = userRepository.save(new User(null, "u2", "n2", "e2", 1000));
+		Order order = orderRepository.save(new Order(null, Item.BOX1, 300, user1));
+
+		client.put().uri("/api/orders/update/" + order.getId()).contentType(MediaType.APPLICATION_JSON)
+				.bodyValue(new Order(null, Item.BOX2, 500, user2)).exchange().expectStatus().isOk().expectBody()
+				.jsonPath("$.user.id").isEqualTo(user2.getId()).jsonPath("$.user.balance").isEqualTo(500);
+
+		assertThat(userRepository.findById(user1.getId()).orElseThrow().getBalance()).isEqualTo(1300);
+	}
+
+	@Test
+	public void testConcurrentWithdrawalsNeverOverdraw() {
+		User user = userRepository.save(new User(null, "username", "name", "email", 1000));
+		AtomicInteger accepted = new AtomicInteger();
+
+		// 50 prelievi da 100 in parallelo su un balance di 1000: ne passano esattamente 10
+		List<Integer> statuses = Flux.fromStream(IntStream.range(0, 50).boxed())
+				.flatMap(i -> client.post().uri("/api/users/" + user.getId() + "/withdraw")
+						.contentType(MediaType.APPLICATION_JSON).bodyValue(100L).exchange().returnResult(String.class)
+						.getStatus().value() == 204 ? Flux.just(accepted.incrementAndGet()) : Flux.just(0))
+				.collectList().block();
+
+		assertThat(statuses).hasSize(50);
+		assertThat(accepted).hasValue(10);
+		assertThat(userRepository.findById(user.getId()).orElseThrow().getBalance()).isZero();
+	}
+
+	@Test
+	public void testWithdrawFromMissingUserReturns404() {
+		client.post().uri("/api/users/" + Long.MAX_VALUE + "/withdraw").contentType(MediaType.APPLICATION_JSON)
+				.bodyValue(100L).exchange().expectStatus().isNotFound().expectBody().jsonPath("$.message")
+				.isEqualTo("User not found");
+	}
+}
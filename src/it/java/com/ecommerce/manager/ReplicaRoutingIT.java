@@ -0,0 +1,213 @@
+package com.ecommerce.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.ecommerce.manager.model.IdempotencyRecord;
+import com.ecommerce.manager.model.Item;
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.repositories.IdempotencyRecordRepository;
+import com.ecommerce.manager.repositories.OrderRepository;
+import com.ecommerce.manager.repositories.UserRepository;
+import com.ecommerce.manager.services.EcommerceService;
+import com.ecommerce.manager.services.IdempotencyStore;
+import com.ecommerce.manager.services.IdempotencyStore.Outcome;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Read/write splitting over two H2 databases. The replica is a snapshot of the
+ * primary taken with SCRIPT and RUNSCRIPT, so a later write is visible only on
+ * the primary, and the test runs the heartbeat itself around each snapshot.
+ */
+@RunWith(SpringRunner.class)
+// Il battito pianificato gira solo all'avvio: il ritardo della replica lo decide il test
+@SpringBootTest(properties = { "spring.datasource.url=jdbc:h2:mem:primary;DB_CLOSE_DELAY=-1",
+		"spring.datasource.username=sa", "spring.datasource.password=",
+		"spring.datasource.driver-class-name=org.h2.Driver", "ecommerce.replica.url=" + ReplicaRoutingIT.REPLICA_URL,
+		"ecommerce.replica.username=sa", "ecommerce.replica.max-lag=1h",
+		"ecommerce.replica.heartbeat-interval=1h" })
+public class ReplicaRoutingIT {
+
+	static final String REPLICA_URL = "jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1";
+
+	@Autowired
+	private EcommerceService ecommerceService;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	@Qualifier("primaryDataSource")
+	private DataSource primary;
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Autowired
+	private ReplicaLagMonitor lagMonitor;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Autowired
+	private IdempotencyStore idempotencyStore;
+
+	@Autowired
+	private IdempotencyRecordRepository idempotencyRecordRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private User replicated;
+
+	private Order replicatedOrder;
+
+	@Before
+	public void setup() throws IOException {
+		orderRepository.deleteAll();
+		userRepository.deleteAll();
+		idempotencyRecordRepository.deleteAll();
+
+		replicated = ecommerceService.insertNewUser(new User(null, "replicated", "name", "email1", 1000));
+		replicatedOrder = ecommerceService.insertNewOrder(new Order(null, Item.BOX1, 100, replicated));
+		entityManagerFactory.getCache().evictAll();
+
+		lagMonitor.heartbeat();
+		replicate();
+		lagMonitor.heartbeat();
+	}
+
+	@Test
+	public void testRetryOnAnotherInstanceGetsTheCommittedOutcomeWhileTheReplicaLacksTheKey() {
+		idempotencyStore.execute("idempotency-key", "hash", () -> new Outcome(204, null));
+		// Un'altra istanza: la cache in memoria non ha la chiave, la replica nemmeno
+		IdempotencyStore otherInstance = new IdempotencyStore(idempotencyRecordRepository, transactionManager, 10,
+				Duration.ofHours(1));
+
+		assertThat(otherInstance.find("idempotency-key")).hasValueSatisfying(r -> assertThat(r.isPending()).isFalse());
+
+		IdempotencyRecord retried = new IdempotencyStore(idempotencyRecordRepository, transactionManager, 10,
+				Duration.ofHours(1)).execute("idempotency-key", "hash", () -> {
+					throw new AssertionError("Executed twice");
+				});
+
+		assertThat(retried.isPending()).isFalse();
+		assertThat(retried.getStatus()).isEqualTo(204);
+	}
+
+	@Test
+	public void testTheApplicationSeesOnlyTheRoutingDataSource() {
+		assertThat(dataSource).isNotSameAs(primary);
+	}
+
+	@Test
+	public void testReadOnlyMethodsReadFromTheReplica() {
+		User notReplicated = ecommerceService.insertNewUser(new User(null, "primary-only", "name", "email2", 1000));
+
+		assertThat(ecommerceService.getAllUsers()).extracting(User::getUsername).containsExactly("replicated");
+		assertThat(ecommerceService.getUserById(notReplicated.getId())).isNull();
+	}
+
+	@Test
+	public void testWritesGoToThePrimary() {
+		ecommerceService.withdraw(replicated.getId(), 400);
+
+		assertThat(new JdbcTemplate(primary).queryForObject("SELECT balance FROM users WHERE id = ?", Long.class,
+				replicated.getId())).isEqualTo(500);
+		// Sulla replica c'è solo l'addebito dell'ordine
+		assertThat(ecommerceService.getUserById(replicated.getId()).getBalance()).isEqualTo(900);
+	}
+
+	@Test
+	public void testReadsStayOnThePrimaryWhileTheReplicaLags() {
+		User notReplicated = ecommerceService.insertNewUser(new User(null, "primary-only", "name", "email2", 1000));
+
+		// Ultimo battito replicato più vecchio di max-lag
+		replicaTemplate().update("UPDATE " + ReplicaLagMonitor.TABLE + " SET beat_at = beat_at - ?",
+				Duration.ofHours(2).toMillis());
+		lagMonitor.heartbeat();
+
+		assertThat(ecommerceService.getUserById(notReplicated.getId())).isNotNull();
+		assertThat(ecommerceService.getAllUsers()).hasSize(2);
+	}
+
+	@Test
+	public void testReplicaReadsDoNotFillTheCaches() {
+		double userMisses = userCacheMisses();
+
+		assertThat(ecommerceService.getUserById(replicated.getId())).isNotNull();
+		assertThat(ecommerceService.getUserById(replicated.getId())).isNotNull();
+		assertThat(ecommerceService.getOrderById(replicatedOrder.getId())).isNotNull();
+
+		assertThat(userCacheMisses() - userMisses).isEqualTo(2);
+		assertThat(entityManagerFactory.getCache().contains(Order.class, replicatedOrder.getId())).isFalse();
+	}
+
+	@Test
+	public void testPrimaryReadsFillTheCaches() {
+		replicaTemplate().update("UPDATE " + ReplicaLagMonitor.TABLE + " SET beat_at = beat_at - ?",
+				Duration.ofHours(2).toMillis());
+		lagMonitor.heartbeat();
+		double userMisses = userCacheMisses();
+
+		assertThat(ecommerceService.getUserById(replicated.getId())).isNotNull();
+		assertThat(ecommerceService.getUserById(replicated.getId())).isNotNull();
+		assertThat(ecommerceService.getOrderById(replicatedOrder.getId())).isNotNull();
+
+		assertThat(userCacheMisses() - userMisses).isEqualTo(1);
+		assertThat(entityManagerFactory.getCache().contains(Order.class, replicatedOrder.getId())).isTrue();
+	}
+
+	private double userCacheMisses() {
+		return meterRegistry.get("ecommerce.cache.misses").tag("cache", "users").counter().count();
+	}
+
+	private static JdbcTemplate replicaTemplate() {
+		JdbcDataSource replica = new JdbcDataSource();
+		replica.setURL(REPLICA_URL);
+		replica.setUser("sa");
+		return new JdbcTemplate(replica);
+	}
+
+	// Copia l'intero primario sulla replica, come farebbe la replicazione
+	private void replicate() throws IOException {
+		Path script = Files.createTempFile("replica", ".sql");
+
+		try {
+			new JdbcTemplate(primary).execute("SCRIPT TO '" + script + "'");
+
+			JdbcTemplate replicaTemplate = replicaTemplate();
+			replicaTemplate.execute("DROP ALL OBJECTS");
+			replicaTemplate.execute("RUNSCRIPT FROM '" + script + "'");
+		} finally {
+			Files.delete(script);
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package com.ecommerce.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ecommerce.manager.model.Item;
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.repositories.OrderRepository;
+import com.ecommerce.manager.repositories.UserRepository;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Database hits of the cached orders and order finders. In a repeated-read
+ * workload the first round reads from the database and fills the second-level
+ * and query caches, the following rounds should be served by the caches until
+ * a write invalidates them. In a mixed workload the balance writes, bulk
+ * updates on users, must leave the order caches alone.
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class SecondLevelCacheIT {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SecondLevelCacheIT.class);
+
+	private static final int USERS = 20;
+	private static final int ORDERS_PER_USER = 5;
+	private static final int ROUNDS = 10;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private Statistics statistics;
+
+	private List<User> users;
+
+	@Before
+	public void setup() {
+		// Si puliscono le repository perché si fa uso di tests non transactional
+		orderRepository.deleteAll();
+		userRepository.deleteAll();
+
+		users = new ArrayList<>();
+		for (int i = 0; i < USERS; i++) {
+			User user = userRepository.save(new User(null, "username" + i, "name" + i, "email" + i, 1000));
+			users.add(user);
+
+			for (int j = 0; j < ORDERS_PER_USER; j++) {
+				orderRepository.save(new Order(null, Item.values()[j % Item.values().length], 100, user));
+			}
+		}
+
+		statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.clear();
+	}
+
+	@Test
+	public void testRepeatedReadsAreServedByTheCaches() {
+		long[] statementsPerRound = new long[ROUNDS];
+
+		for (int round = 0; round < ROUNDS; round++) {
+			long before = statistics.getPrepareStatementCount();
+			readOrders();
+			statementsPerRound[round] = statistics.getPrepareStatementCount() - before;
+		}
+
+		long cold = statementsPerRound[0];
+		long total = statistics.getPrepareStatementCount();
+		double reduction = 1 - (double) total / (cold * ROUNDS);
+
+		LOGGER.info("{} rounds: {} statements against {} without caches ({}% fewer), "
+				+ "{} second-level hits, {} query cache hits", ROUNDS, total, cold * ROUNDS,
+				Math.round(reduction * 100), statistics.getSecondLevelCacheHitCount(),
+				statistics.getQueryCacheHitCount());
+
+		assertThat(cold).isPositive();
+		for (int round = 1; round < ROUNDS; round++) {
+			assertThat(statementsPerRound[round]).as("statements of round %d", round).isZero();
+		}
+		assertThat(reduction).isGreaterThanOrEqualTo(0.9);
+	}
+
+	@Test
+	public void testBalanceWritesLeaveTheOrderCachesServingTheReads() {
+		readOrders();
+		statistics.clear();
+
+		for (int round = 0; round < ROUNDS; round++) {
+			User user = users.get(round % USERS);
+			new TransactionTemplate(transactionManager)
+					.executeWithoutResult(status -> userRepository.updateBalanceIfNotNegative(user.getId(), 1));
+			readUsers();
+			readOrders();
+		}
+
+		long queryHits = statistics.getQueryCacheHitCount();
+		double queryHitRate = (double) queryHits / (queryHits + statistics.getQueryCacheMissCount());
+
+		LOGGER.info("{} rounds with a balance write each: {} statements, {}% query cache hits", ROUNDS,
+				statistics.getPrepareStatementCount(), Math.round(queryHitRate * 100));
+
+		// Gli user si leggono sempre dal database: un update e tre letture per user a ogni round, nulla per gli ordini
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(ROUNDS * (1 + 3L * USERS));
+		assertThat(queryHitRate).isGreaterThanOrEqualTo(0.9);
+	}
+
+	@Test
+	public void testBalanceUpdateIsSeenByTheUserReads() {
+		User user = users.get(0);
+		readUsers();
+
+		new TransactionTemplate(transactionManager)
+				.executeWithoutResult(status -> userRepository.updateBalanceIfNotNegative(user.getId(), -300));
+
+		long before = statistics.getPrepareStatementCount();
+
+		assertThat(userRepository.findByUsername(user.getUsername()).getBalance()).isEqualTo(700);
+		assertThat(userRepository.findById(user.getId()).orElseThrow().getBalance()).isEqualTo(700);
+		assertThat(statistics.getPrepareStatementCount()).isGreaterThan(before);
+	}
+
+	@Test
+	public void testNewOrderInvalidatesTheOrderFinders() {
+		User user = users.get(0);
+		readOrders();
+
+		orderRepository.save(new Order(null, Item.BOX1, 100, user));
+
+		assertThat(orderRepository.findByUser(user)).hasSize(ORDERS_PER_USER + 1);
+	}
+
+	private void readUsers() {
+		for (User user : users) {
+			assertThat(userRepository.findById(user.getId())).isPresent();
+			assertThat(userRepository.findByUsername(user.getUsername())).isNotNull();
+			assertThat(userRepository.findByEmail(user.getEmail())).isNotNull();
+		}
+	}
+
+	private void readOrders() {
+		for (User user : users) {
+			assertThat(orderRepository.findByUser(user)).hasSize(ORDERS_PER_USER);
+		}
+
+		for (Item item : Item.values()) {
+			assertThat(orderRepository.findByItem(item)).isNotEmpty();
+		}
+	}
+}
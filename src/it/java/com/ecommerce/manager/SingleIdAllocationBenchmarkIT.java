@@ -0,0 +1,18 @@
+package com.ecommerce.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Baseline for {@link IdAllocationBenchmarkIT}: every inserted row first fetches
+ * its own id from the sequence.
+ */
+@TestPropertySource(properties = "spring.jpa.properties.ecommerce.id.block-size=1")
+public class SingleIdAllocationBenchmarkIT extends IdAllocationBenchmarkIT {
+
+	@Override
+	protected void assertStatementCount(long statements) {
+		assertThat(statements).isGreaterThanOrEqualTo(USERS);
+	}
+}
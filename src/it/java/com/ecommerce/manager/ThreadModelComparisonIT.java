@@ -0,0 +1,43 @@
+package com.ecommerce.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ecommerce.manager.load.ThreadModelComparison;
+
+/**
+ * Short run of the platform and virtual threads comparison, to keep it
+ * working. As for {@link LoadTestIT}, the run gets its own JVM.
+ */
+public class ThreadModelComparisonIT {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testShortRunWritesBothModesSideBySide() throws Exception {
+		Path report = folder.getRoot().toPath().resolve("latency-report.txt");
+
+		Process process = new ProcessBuilder(List.of(
+				Path.of(System.getProperty("java.home"), "bin", "java").toString(), "-Dlatency.clients=20",
+				"-Dlatency.requests-per-client=2", "-Dlatency.users=10", "-Dlatency.orders-per-user=2",
+				"-Dlatency.report=" + report, "-cp", System.getProperty("java.class.path"),
+				ThreadModelComparison.class.getName())).inheritIO().start();
+
+		assertThat(process.waitFor(3, TimeUnit.MINUTES)).isTrue();
+		assertThat(process.exitValue()).isZero();
+
+		List<String> lines = Files.readAllLines(report);
+		assertThat(lines.get(0)).contains("20 closed-loop clients", "2 requests each");
+		assertThat(lines.get(2)).contains("Platform threads", "Virtual threads");
+		assertThat(lines).anyMatch(line -> line.startsWith("p99 ms"));
+	}
+}
@@ -0,0 +1,38 @@
+package com.ecommerce.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Settings of the virtual-threads profile. Its latency against the platform
+ * threads is measured by the load-test profile, see
+ * {@link com.ecommerce.manager.load.ThreadModelComparison}.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles("virtual-threads")
+public class VirtualThreadsProfileIT {
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Value("${spring.threads.virtual.enabled}")
+	private boolean virtualThreads;
+
+	@Test
+	public void testProfileBoundsTheConnectionPool() throws Exception {
+		assertThat(virtualThreads).isTrue();
+		assertThat(dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize()).isEqualTo(20);
+	}
+}
@@ -0,0 +1,21 @@
+package com.ecommerce.manager.benchmarks;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Eight threads on the same user and the same order: every operation competes
+ * for the same row and, in the service, for the same user lock.
+ */
+@Threads(8)
+public class ContendedUserBenchmark extends EcommerceServiceBenchmark {
+
+	@Override
+	protected long userId() {
+		return userIds[0];
+	}
+
+	@Override
+	protected int orderIndex() {
+		return 0;
+	}
+}
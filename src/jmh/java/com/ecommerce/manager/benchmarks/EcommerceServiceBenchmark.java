@@ -0,0 +1,166 @@
+package com.ecommerce.manager.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+import com.ecommerce.manager.EcommerceManagerApplication;
+import com.ecommerce.manager.model.Item;
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.services.EcommerceService;
+import com.ecommerce.manager.services.OrderImportResult;
+
+/**
+ * Throughput of the balance and order write paths of {@link EcommerceService}
+ * on an embedded H2 database holding {@value #USERS} users and
+ * {@value #ORDERS} orders. Subclasses choose the scenario: how many threads
+ * run and which user and order each operation touches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class EcommerceServiceBenchmark {
+
+	static final int USERS = 10_000;
+	static final int ORDERS = 50_000;
+
+	private static final int CHUNK_SIZE = 500;
+
+	// Abbastanza da non esaurirsi mai durante i prelievi e i nuovi ordini
+	private static final long BALANCE = 1_000_000_000_000L;
+
+	private ConfigurableApplicationContext context;
+
+	protected EcommerceService ecommerceService;
+
+	protected long[] userIds;
+
+	// Per ogni ordine, lo user a cui appartiene
+	protected long[] orderIds;
+	protected long[] orderUserIds;
+
+	/**
+	 * Update conflicts that were still failing after the retries, reported next
+	 * to the throughput of each thread.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Conflicts {
+
+		public long conflicts;
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		context = new SpringApplicationBuilder(EcommerceManagerApplication.class).web(WebApplicationType.NONE).run(
+				"--spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+				"--spring.datasource.username=sa", "--spring.datasource.password=",
+				"--spring.datasource.driver-class-name=org.h2.Driver", "--spring.jpa.hibernate.ddl-auto=create-drop",
+				"--spring.docker.compose.enabled=false", "--logging.level.root=warn");
+		ecommerceService = context.getBean(EcommerceService.class);
+
+		userIds = insertUsers();
+		insertOrders();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	/**
+	 * The user whose balance the next operation changes.
+	 */
+	protected abstract long userId();
+
+	/**
+	 * The index, in {@link #orderIds}, of the order the next update replaces.
+	 */
+	protected abstract int orderIndex();
+
+	@Benchmark
+	public void deposit() {
+		ecommerceService.deposit(userId(), 1);
+	}
+
+	@Benchmark
+	public void withdraw() {
+		ecommerceService.withdraw(userId(), 1);
+	}
+
+	@Benchmark
+	public Order insertNewOrder() {
+		return ecommerceService.insertNewOrder(new Order(null, Item.BOX1, 1, new User(userId(), null, null, null, 0)));
+	}
+
+	@Benchmark
+	public Order updateOrderById(Conflicts conflicts) {
+		int index = orderIndex();
+		User owner = new User(orderUserIds[index], null, null, null, 0);
+
+		try {
+			return ecommerceService.updateOrderById(orderIds[index], new Order(null, Item.BOX2, 1, owner));
+		} catch (ObjectOptimisticLockingFailureException e) {
+			// Con molti thread sullo stesso ordine i retry possono esaurirsi: si conta e si prosegue
+			conflicts.conflicts++;
+			return null;
+		}
+	}
+
+	private long[] insertUsers() {
+		List<User> users = new ArrayList<>(USERS);
+
+		for (int i = 0; i < USERS; i++) {
+			users.add(new User(null, "user" + i, "name" + i, "email" + i, BALANCE));
+		}
+
+		for (int from = 0; from < USERS; from += CHUNK_SIZE) {
+			ecommerceService.insertNewUsers(users.subList(from, Math.min(from + CHUNK_SIZE, USERS)));
+		}
+
+		return users.stream().mapToLong(User::getId).toArray();
+	}
+
+	private void insertOrders() {
+		orderIds = new long[ORDERS];
+		orderUserIds = new long[ORDERS];
+
+		for (int from = 0; from < ORDERS; from += CHUNK_SIZE) {
+			List<Order> orders = new ArrayList<>(CHUNK_SIZE);
+
+			for (int i = from; i < Math.min(from + CHUNK_SIZE, ORDERS); i++) {
+				orderUserIds[i] = userIds[i % USERS];
+				orders.add(new Order(null, i % 2 == 0 ? Item.BOX1 : Item.BOX2, 100,
+						new User(orderUserIds[i], null, null, null, 0)));
+			}
+
+			List<OrderImportResult> results = ecommerceService.insertNewOrders(orders);
+
+			for (int i = 0; i < results.size(); i++) {
+				orderIds[from + i] = results.get(i).orderId();
+			}
+		}
+	}
+}
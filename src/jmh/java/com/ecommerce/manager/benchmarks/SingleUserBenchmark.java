@@ -0,0 +1,21 @@
+package com.ecommerce.manager.benchmarks;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * One thread on one user and one order: the cost of each operation without
+ * any contention.
+ */
+@Threads(1)
+public class SingleUserBenchmark extends EcommerceServiceBenchmark {
+
+	@Override
+	protected long userId() {
+		return userIds[0];
+	}
+
+	@Override
+	protected int orderIndex() {
+		return 0;
+	}
+}
@@ -0,0 +1,23 @@
+package com.ecommerce.manager.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Eight threads on users and orders picked at random: conflicts are rare and
+ * the throughput is bound by the database and the connection pool.
+ */
+@Threads(8)
+public class SpreadUsersBenchmark extends EcommerceServiceBenchmark {
+
+	@Override
+	protected long userId() {
+		return userIds[ThreadLocalRandom.current().nextInt(userIds.length)];
+	}
+
+	@Override
+	protected int orderIndex() {
+		return ThreadLocalRandom.current().nextInt(orderIds.length);
+	}
+}
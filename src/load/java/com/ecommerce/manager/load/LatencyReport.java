@@ -0,0 +1,147 @@
+package com.ecommerce.manager.load;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latencies and failures of each operation. Latencies are recorded in
+ * microseconds, up to one minute, with three significant digits.
+ */
+public class LatencyReport {
+
+	private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(1);
+	private static final double MICROS_PER_MILLI = 1000.0;
+
+	private final Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+	private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+	private final Map<Operation, LongAdder> drops = new EnumMap<>(Operation.class);
+
+	// Popolati da snapshot(): gli istogrammi sono letti una sola volta, a fine misura
+	private final Map<Operation, Histogram> histograms = new EnumMap<>(Operation.class);
+
+	public LatencyReport() {
+		for (Operation operation : Operation.values()) {
+			recorders.put(operation, new Recorder(HIGHEST_MICROS, 3));
+			errors.put(operation, new LongAdder());
+			drops.put(operation, new LongAdder());
+		}
+	}
+
+	public void record(Operation operation, long latencyNanos, boolean failed) {
+		recorders.get(operation).recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), HIGHEST_MICROS));
+
+		if (failed) {
+			errors.get(operation).increment();
+		}
+	}
+
+	/**
+	 * A request that was never sent, because too many were awaiting a response.
+	 */
+	public void dropped(Operation operation) {
+		drops.get(operation).increment();
+	}
+
+	/**
+	 * Freezes the latencies recorded so far: later recordings are ignored.
+	 */
+	public void snapshot() {
+		recorders.forEach((operation, recorder) -> histograms.put(operation, recorder.getIntervalHistogram()));
+	}
+
+	public long requests(Operation operation) {
+		return histograms.get(operation).getTotalCount();
+	}
+
+	/**
+	 * Requests answered with an error status or not answered at all, including
+	 * the dropped ones.
+	 */
+	public long errors(Operation operation) {
+		return errors.get(operation).sum() + drops.get(operation).sum();
+	}
+
+	public double p99Millis(Operation operation) {
+		return histograms.get(operation).getValueAtPercentile(99.0) / MICROS_PER_MILLI;
+	}
+
+	/**
+	 * The operations that exceed the p99 latency or the error rate allowed by the
+	 * settings, described one per line.
+	 */
+	public List<String> violations(LoadSettings settings) {
+		List<String> violations = new ArrayList<>();
+		double maxP99Millis = settings.maxP99().toNanos() / 1_000_000.0;
+
+		for (Operation operation : Operation.values()) {
+			// Le richieste scartate non hanno latenza ma contano tra i tentativi
+			long attempts = requests(operation) + drops.get(operation).sum();
+
+			if (attempts == 0) {
+				continue;
+			}
+
+			if (p99Millis(operation) > maxP99Millis) {
+				violations.add(String.format("%s: p99 %.1f ms above %.1f ms", operation.endpoint(),
+						p99Millis(operation), maxP99Millis));
+			}
+
+			double errorRate = (double) errors(operation) / attempts;
+
+			if (errorRate > settings.maxErrorRate()) {
+				violations.add(String.format("%s: error rate %.4f above %.4f", operation.endpoint(), errorRate,
+						settings.maxErrorRate()));
+			}
+		}
+
+		return violations;
+	}
+
+	/**
+	 * Writes a summary table followed by the full percentile distribution of each
+	 * operation, in milliseconds.
+	 */
+	public void write(Path file, LoadSettings settings) throws IOException {
+		if (file.getParent() != null) {
+			Files.createDirectories(file.getParent());
+		}
+
+		try (PrintStream out = new PrintStream(Files.newOutputStream(file), false, "UTF-8")) {
+			out.printf("Open-loop load: %d requests/s for %s after %s of warmup, %d users, %d orders%n%n",
+					settings.rate(), settings.duration(), settings.warmup(), settings.users(), settings.orders());
+			out.printf("%-30s %9s %7s %9s %9s %9s %9s %9s%n", "Endpoint", "Requests", "Errors", "p50 ms", "p90 ms",
+					"p99 ms", "p99.9 ms", "max ms");
+
+			for (Operation operation : Operation.values()) {
+				Histogram histogram = histograms.get(operation);
+				out.printf("%-30s %9d %7d %9.1f %9.1f %9.1f %9.1f %9.1f%n", operation.endpoint(),
+						histogram.getTotalCount(), errors(operation), millis(histogram, 50.0), millis(histogram, 90.0),
+						millis(histogram, 99.0), millis(histogram, 99.9), histogram.getMaxValue() / MICROS_PER_MILLI);
+			}
+
+			List<String> violations = violations(settings);
+			out.printf("%n%s%n", violations.isEmpty() ? "PASSED" : "FAILED");
+			violations.forEach(violation -> out.println("  " + violation));
+
+			for (Operation operation : Operation.values()) {
+				out.printf("%n%s%n", operation.endpoint());
+				histograms.get(operation).outputPercentileDistribution(out, MICROS_PER_MILLI);
+			}
+		}
+	}
+
+	private static double millis(Histogram histogram, double percentile) {
+		return histogram.getValueAtPercentile(percentile) / MICROS_PER_MILLI;
+	}
+}
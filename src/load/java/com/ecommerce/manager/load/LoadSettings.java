@@ -0,0 +1,61 @@
+package com.ecommerce.manager.load;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+
+import org.springframework.boot.convert.DurationStyle;
+
+/**
+ * Parameters of a load test run, read from the {@code load.*} system
+ * properties. The weight of an operation is set with
+ * {@code load.weight.<operation>}, e.g. {@code -Dload.weight.withdraw=0}.
+ *
+ * @param users       users seeded before the run
+ * @param orders      orders seeded before the run
+ * @param rate        requests started per second, whatever the response times
+ * @param warmup      time spent at the same rate before measuring
+ * @param duration    measured time
+ * @param maxInFlight requests awaiting a response beyond which new ones are
+ *                    dropped and counted as errors
+ * @param maxP99      p99 latency allowed for every operation
+ * @param maxErrorRate share of failed requests allowed for every operation
+ * @param report      file the report is written to
+ * @param weights     share of the traffic of each operation
+ */
+public record LoadSettings(int users, int orders, int rate, Duration warmup, Duration duration, int maxInFlight,
+		Duration maxP99, double maxErrorRate, Path report, Map<Operation, Integer> weights) {
+
+	public LoadSettings {
+		if (rate < 1) {
+			throw new IllegalArgumentException("Rate must be at least 1 request per second");
+		}
+
+		if (users < 1) {
+			throw new IllegalArgumentException("At least one user is needed");
+		}
+
+		if (weights.values().stream().mapToInt(Integer::intValue).sum() < 1) {
+			throw new IllegalArgumentException("At least one operation must have a positive weight");
+		}
+
+		weights = Map.copyOf(weights);
+	}
+
+	public static LoadSettings fromSystemProperties() {
+		Map<Operation, Integer> weights = Operation.defaultWeights();
+		weights.replaceAll((operation, weight) -> Integer.getInteger(
+				"load.weight." + operation.name().toLowerCase(Locale.ROOT).replace('_', '-'), weight));
+
+		return new LoadSettings(Integer.getInteger("load.users", 1000), Integer.getInteger("load.orders", 10000),
+				Integer.getInteger("load.rate", 200), duration("load.warmup", "30s"), duration("load.duration", "2m"),
+				Integer.getInteger("load.max-in-flight", 1000), duration("load.max-p99", "500ms"),
+				Double.parseDouble(System.getProperty("load.max-error-rate", "0.001")),
+				Path.of(System.getProperty("load.report", "target/load-report.txt")), weights);
+	}
+
+	private static Duration duration(String property, String defaultValue) {
+		return DurationStyle.detectAndParse(System.getProperty(property, defaultValue));
+	}
+}
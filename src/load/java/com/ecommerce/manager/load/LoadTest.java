@@ -0,0 +1,98 @@
+package com.ecommerce.manager.load;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.ecommerce.manager.EcommerceManagerApplication;
+import com.ecommerce.manager.model.Item;
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.services.EcommerceService;
+
+/**
+ * Boots the whole application on an in-memory H2 database, seeds it and
+ * drives an open-loop mixed workload over HTTP, as configured by
+ * {@link LoadSettings}. The latency report is written to a file and the exit
+ * status is 1 when an operation exceeds the allowed p99 latency or error rate,
+ * so that the run can gate a rollout.
+ */
+public class LoadTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoadTest.class);
+
+	private static final int CHUNK_SIZE = 500;
+
+	// Abbastanza da non esaurirsi con i prelievi e i nuovi ordini di tutta la prova
+	private static final long BALANCE = 1_000_000_000L;
+
+	private static final Duration GRACE = Duration.ofSeconds(30);
+
+	public static void main(String[] args) throws IOException {
+		System.exit(run(LoadSettings.fromSystemProperties()));
+	}
+
+	public static int run(LoadSettings settings) throws IOException {
+		try (ConfigurableApplicationContext context = new SpringApplicationBuilder(EcommerceManagerApplication.class)
+				.run("--server.port=0", "--spring.datasource.url=jdbc:h2:mem:load;DB_CLOSE_DELAY=-1",
+						"--spring.datasource.username=sa", "--spring.datasource.password=",
+						"--spring.datasource.driver-class-name=org.h2.Driver",
+						"--spring.jpa.hibernate.ddl-auto=create-drop", "--spring.docker.compose.enabled=false",
+						"--logging.level.root=warn")) {
+			EcommerceService ecommerceService = context.getBean(EcommerceService.class);
+			long[] userIds = seed(ecommerceService, settings);
+
+			String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+			HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+			OpenLoopDriver driver = new OpenLoopDriver(client, baseUrl, userIds, settings);
+
+			// Riscaldamento allo stesso ritmo: JIT, pool JDBC e cache a regime prima della misura
+			driver.run(settings.warmup(), GRACE, new LatencyReport());
+
+			LatencyReport report = new LatencyReport();
+			driver.run(settings.duration(), GRACE, report);
+			report.snapshot();
+			report.write(settings.report(), settings);
+
+			List<String> violations = report.violations(settings);
+			LOGGER.info("Load report written to {}", settings.report().toAbsolutePath());
+			violations.forEach(violation -> LOGGER.error("{}", violation));
+
+			return violations.isEmpty() ? 0 : 1;
+		}
+	}
+
+	private static long[] seed(EcommerceService ecommerceService, LoadSettings settings) {
+		List<User> users = new ArrayList<>(settings.users());
+
+		for (int i = 0; i < settings.users(); i++) {
+			users.add(new User(null, "user" + i, "name" + i, "email" + i, BALANCE));
+		}
+
+		for (int from = 0; from < users.size(); from += CHUNK_SIZE) {
+			ecommerceService.insertNewUsers(users.subList(from, Math.min(from + CHUNK_SIZE, users.size())));
+		}
+
+		long[] userIds = users.stream().mapToLong(User::getId).toArray();
+
+		for (int from = 0; from < settings.orders(); from += CHUNK_SIZE) {
+			List<Order> orders = new ArrayList<>(CHUNK_SIZE);
+
+			for (int i = from; i < Math.min(from + CHUNK_SIZE, settings.orders()); i++) {
+				orders.add(new Order(null, Item.values()[i % Item.values().length], 100,
+						new User(userIds[i % userIds.length], null, null, null, 0)));
+			}
+
+			ecommerceService.insertNewOrders(orders);
+		}
+
+		return userIds;
+	}
+}
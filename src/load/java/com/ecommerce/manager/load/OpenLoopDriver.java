@@ -0,0 +1,84 @@
+package com.ecommerce.manager.load;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Starts requests at a fixed rate, without waiting for the previous responses:
+ * a slow server makes requests pile up instead of slowing down the load. Each
+ * latency is measured from the time the request was due to start, so the time
+ * spent waiting for the sender thread counts as well.
+ */
+public class OpenLoopDriver {
+
+	private final HttpClient client;
+	private final String baseUrl;
+	private final long[] userIds;
+	private final int rate;
+	private final int maxInFlight;
+
+	// Operazioni ripetute secondo il loro peso: un indice casuale sceglie la prossima
+	private final Operation[] mix;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	public OpenLoopDriver(HttpClient client, String baseUrl, long[] userIds, LoadSettings settings) {
+		this.client = client;
+		this.baseUrl = baseUrl;
+		this.userIds = userIds;
+		this.rate = settings.rate();
+		this.maxInFlight = settings.maxInFlight();
+		this.mix = settings.weights().entrySet().stream().sorted(Map.Entry.comparingByKey())
+				.flatMap(entry -> Stream.generate(entry::getKey).limit(entry.getValue()))
+				.toArray(Operation[]::new);
+	}
+
+	/**
+	 * Drives the load for the given time, then waits up to the given grace
+	 * period for the requests still awaiting a response.
+	 */
+	public void run(Duration duration, Duration grace, LatencyReport report) {
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+		long start = System.nanoTime();
+		long end = start + duration.toNanos();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		for (long due = start; due - end < 0; due += intervalNanos) {
+			long wait = due - System.nanoTime();
+
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+
+			send(mix[random.nextInt(mix.length)], userIds[random.nextInt(userIds.length)], due, report);
+		}
+
+		long graceEnd = System.nanoTime() + grace.toNanos();
+
+		while (inFlight.get() > 0 && graceEnd - System.nanoTime() > 0) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+		}
+	}
+
+	private void send(Operation operation, long userId, long due, LatencyReport report) {
+		if (inFlight.incrementAndGet() > maxInFlight) {
+			inFlight.decrementAndGet();
+			report.dropped(operation);
+			return;
+		}
+
+		client.sendAsync(operation.request(baseUrl, userId), BodyHandlers.discarding())
+				.whenComplete((response, failure) -> {
+					inFlight.decrementAndGet();
+					report.record(operation, System.nanoTime() - due,
+							failure != null || response.statusCode() >= 400);
+				});
+	}
+}
@@ -0,0 +1,96 @@
+package com.ecommerce.manager.load;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The requests of the mixed workload, each with its default share of the
+ * traffic. Every request acts on a user picked at random among the seeded ones.
+ */
+public enum Operation {
+
+	LIST_USERS("GET /api/users", 15) {
+		@Override
+		HttpRequest request(String baseUrl, long userId) {
+			return get(baseUrl + "/api/users?limit=20");
+		}
+	},
+	LIST_ORDERS("GET /api/orders", 15) {
+		@Override
+		HttpRequest request(String baseUrl, long userId) {
+			return get(baseUrl + "/api/orders?limit=20");
+		}
+	},
+	GET_USER("GET /api/users/{id}", 20) {
+		@Override
+		HttpRequest request(String baseUrl, long userId) {
+			return get(baseUrl + "/api/users/" + userId);
+		}
+	},
+	WEB_INDEX("GET /", 2) {
+		@Override
+		HttpRequest request(String baseUrl, long userId) {
+			return get(baseUrl + "/");
+		}
+	},
+	WEB_EDIT_USER("GET /editUser/{id}", 3) {
+		@Override
+		HttpRequest request(String baseUrl, long userId) {
+			return get(baseUrl + "/editUser/" + userId);
+		}
+	},
+	NEW_ORDER("POST /api/orders/new", 15) {
+		@Override
+		HttpRequest request(String baseUrl, long userId) {
+			return post(baseUrl + "/api/orders/new", "{\"item\":\"BOX1\",\"price\":1,\"user\":{\"id\":" + userId + "}}");
+		}
+	},
+	DEPOSIT("POST /api/users/{id}/deposit", 15) {
+		@Override
+		HttpRequest request(String baseUrl, long userId) {
+			return post(baseUrl + "/api/users/" + userId + "/deposit", "1");
+		}
+	},
+	WITHDRAW("POST /api/users/{id}/withdraw", 15) {
+		@Override
+		HttpRequest request(String baseUrl, long userId) {
+			return post(baseUrl + "/api/users/" + userId + "/withdraw", "1");
+		}
+	};
+
+	private final String endpoint;
+	private final int defaultWeight;
+
+	Operation(String endpoint, int defaultWeight) {
+		this.endpoint = endpoint;
+		this.defaultWeight = defaultWeight;
+	}
+
+	public String endpoint() {
+		return endpoint;
+	}
+
+	abstract HttpRequest request(String baseUrl, long userId);
+
+	public static Map<Operation, Integer> defaultWeights() {
+		Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+
+		for (Operation operation : values()) {
+			weights.put(operation, operation.defaultWeight);
+		}
+
+		return weights;
+	}
+
+	private static HttpRequest get(String uri) {
+		return HttpRequest.newBuilder(URI.create(uri)).build();
+	}
+
+	private static HttpRequest post(String uri, String json) {
+		return HttpRequest.newBuilder(URI.create(uri)).header("Content-Type", "application/json")
+				.POST(BodyPublishers.ofString(json)).build();
+	}
+}
@@ -0,0 +1,214 @@
+package com.ecommerce.manager.load;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.ecommerce.manager.EcommerceManagerApplication;
+import com.ecommerce.manager.model.Item;
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.services.EcommerceService;
+
+/**
+ * Latency of an order listing, which queries the database on every request,
+ * under many concurrent clients, with the default platform threads and with
+ * the virtual-threads profile. Each client sends its next request as soon as it
+ * receives the previous response. Both runs boot the application on their own
+ * in-memory H2 database with the same data, and their latencies are written
+ * side by side to the report file; the virtual-threads run needs Java 21.
+ * <p>
+ * Configured by the {@code latency.*} system properties: {@code clients},
+ * {@code requests-per-client}, {@code users}, {@code orders-per-user} and
+ * {@code report}.
+ */
+public class ThreadModelComparison {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ThreadModelComparison.class);
+
+	private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(1);
+	private static final double MICROS_PER_MILLI = 1000.0;
+
+	private static final double[] PERCENTILES = { 50.0, 90.0, 99.0, 99.9 };
+	private static final String[] PERCENTILE_NAMES = { "p50 ms", "p90 ms", "p99 ms", "p99.9 ms" };
+
+	private final int clients;
+	private final int requestsPerClient;
+	private final int users;
+	private final int ordersPerUser;
+
+	/**
+	 * Latencies of one run, or the reason it was skipped.
+	 */
+	record Run(String mode, Histogram latencies, long elapsedNanos, String skipped) {
+	}
+
+	public ThreadModelComparison(int clients, int requestsPerClient, int users, int ordersPerUser) {
+		if (clients < 1 || requestsPerClient < 1) {
+			throw new IllegalArgumentException("At least one client and one request per client are needed");
+		}
+
+		this.clients = clients;
+		this.requestsPerClient = requestsPerClient;
+		this.users = users;
+		this.ordersPerUser = ordersPerUser;
+	}
+
+	public static void main(String[] args) throws Exception {
+		ThreadModelComparison comparison = new ThreadModelComparison(Integer.getInteger("latency.clients", 2000),
+				Integer.getInteger("latency.requests-per-client", 5), Integer.getInteger("latency.users", 100),
+				Integer.getInteger("latency.orders-per-user", 10));
+		Path report = Path.of(System.getProperty("latency.report", "target/latency-report.txt"));
+
+		comparison.write(report, List.of(comparison.run("Platform threads"), comparison.run("Virtual threads")));
+		LOGGER.info("Latency report written to {}", report.toAbsolutePath());
+		System.exit(0);
+	}
+
+	Run run(String mode) throws Exception {
+		boolean virtual = mode.startsWith("Virtual");
+
+		if (virtual && Runtime.version().feature() < 21) {
+			return new Run(mode, null, 0, "requires Java 21");
+		}
+
+		List<String> args = new ArrayList<>(List.of("--server.port=0",
+				"--spring.datasource.url=jdbc:h2:mem:latency-" + (virtual ? "virtual" : "platform")
+						+ ";DB_CLOSE_DELAY=-1",
+				"--spring.datasource.username=sa", "--spring.datasource.password=",
+				"--spring.datasource.driver-class-name=org.h2.Driver", "--spring.jpa.hibernate.ddl-auto=create-drop",
+				"--spring.docker.compose.enabled=false", "--logging.level.root=warn"));
+
+		if (virtual) {
+			args.add("--spring.profiles.active=virtual-threads");
+		}
+
+		try (ConfigurableApplicationContext context = new SpringApplicationBuilder(EcommerceManagerApplication.class)
+				.run(args.toArray(String[]::new))) {
+			seed(context.getBean(EcommerceService.class));
+
+			HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+			String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+			HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/orders?limit=20")).build();
+
+			// Riscaldamento: connessioni aperte, JIT e pool JDBC pieno prima della misura
+			measure(client, request, 1);
+
+			long start = System.nanoTime();
+			Histogram latencies = measure(client, request, requestsPerClient);
+
+			return new Run(mode, latencies, System.nanoTime() - start, null);
+		}
+	}
+
+	void write(Path file, List<Run> runs) throws IOException {
+		if (file.getParent() != null) {
+			Files.createDirectories(file.getParent());
+		}
+
+		try (PrintStream out = new PrintStream(Files.newOutputStream(file), false, "UTF-8")) {
+			out.printf("GET /api/orders?limit=20: %d closed-loop clients, %d requests each, %d users, %d orders%n%n",
+					clients, requestsPerClient, users, users * ordersPerUser);
+			out.printf("%-12s", "");
+			runs.forEach(run -> out.printf(" %18s", run.mode()));
+			out.println();
+
+			row(out, "requests/s", runs, run -> String.format("%.0f",
+					run.latencies().getTotalCount() * 1_000_000_000.0 / run.elapsedNanos()));
+
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				double percentile = PERCENTILES[i];
+				row(out, PERCENTILE_NAMES[i], runs, run -> String.format("%.1f",
+						run.latencies().getValueAtPercentile(percentile) / MICROS_PER_MILLI));
+			}
+
+			row(out, "max ms", runs,
+					run -> String.format("%.1f", run.latencies().getMaxValue() / MICROS_PER_MILLI));
+		}
+	}
+
+	// Una colonna per run: quelle saltate riportano il motivo
+	private static void row(PrintStream out, String name, List<Run> runs, Function<Run, String> value) {
+		out.printf("%-12s", name);
+		runs.forEach(run -> out.printf(" %18s", run.skipped() != null ? run.skipped() : value.apply(run)));
+		out.println();
+	}
+
+	private void seed(EcommerceService ecommerceService) {
+		List<User> seeded = new ArrayList<>(users);
+
+		for (int i = 0; i < users; i++) {
+			seeded.add(new User(null, "username" + i, "name" + i, "email" + i, 1000));
+		}
+
+		ecommerceService.insertNewUsers(seeded);
+
+		List<Order> orders = new ArrayList<>();
+		for (User user : seeded) {
+			for (int j = 0; j < ordersPerUser; j++) {
+				orders.add(new Order(null, Item.values()[j % Item.values().length], 100,
+						new User(user.getId(), null, null, null, 0)));
+			}
+		}
+
+		ecommerceService.insertNewOrders(orders);
+	}
+
+	private Histogram measure(HttpClient client, HttpRequest request, int requests) throws Exception {
+		Histogram latencies = new Histogram(HIGHEST_MICROS, 3);
+		AtomicInteger failures = new AtomicInteger();
+		CompletableFuture<?>[] running = new CompletableFuture<?>[clients];
+
+		for (int i = 0; i < clients; i++) {
+			running[i] = send(client, request, requests, latencies, failures);
+		}
+
+		CompletableFuture.allOf(running).get(5, TimeUnit.MINUTES);
+
+		if (failures.get() > 0) {
+			throw new IllegalStateException(failures.get() + " requests did not answer 200");
+		}
+
+		return latencies;
+	}
+
+	private static CompletableFuture<Void> send(HttpClient client, HttpRequest request, int remaining,
+			Histogram latencies, AtomicInteger failures) {
+		if (remaining == 0) {
+			return CompletableFuture.completedFuture(null);
+		}
+
+		long start = System.nanoTime();
+
+		return client.sendAsync(request, BodyHandlers.discarding()).thenCompose(response -> {
+			// Le risposte arrivano su più thread: l'istogramma non è thread-safe
+			synchronized (latencies) {
+				latencies.recordValue(
+						Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start), HIGHEST_MICROS));
+			}
+
+			if (response.statusCode() != 200) {
+				failures.incrementAndGet();
+			}
+
+			return send(client, request, remaining - 1, latencies, failures);
+		});
+	}
+}
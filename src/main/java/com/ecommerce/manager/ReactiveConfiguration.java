@@ -0,0 +1,48 @@
+package com.ecommerce.manager;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.r2dbc.spi.ConnectionFactory;
+
+/**
+ * Transactions of the reactive API. The R2DBC transaction manager is not a
+ * default candidate, so the {@code @Transactional} methods of the JPA services,
+ * which name no transaction manager, keep using the JPA one.
+ * <p>
+ * Spring Boot does not configure a JDBC data source when an R2DBC connection
+ * factory is present, so it is declared here: the schema, the import and the
+ * servlet-only features still run on JPA.
+ */
+@Configuration(proxyBeanMethods = false)
+@Profile("reactive")
+@EnableConfigurationProperties(DataSourceProperties.class)
+public class ReactiveConfiguration {
+
+	@Bean
+	@ConfigurationProperties("spring.datasource.hikari")
+	public HikariDataSource dataSource(DataSourceProperties properties) {
+		return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+	}
+
+	@Bean(defaultCandidate = false)
+	public R2dbcTransactionManager reactiveTransactionManager(ConnectionFactory connectionFactory) {
+		return new R2dbcTransactionManager(connectionFactory);
+	}
+
+	@Bean
+	public TransactionalOperator reactiveTransactionalOperator(
+			@Qualifier("reactiveTransactionManager") ReactiveTransactionManager transactionManager) {
+		return TransactionalOperator.create(transactionManager);
+	}
+}
@@ -0,0 +1,89 @@
+package com.ecommerce.manager;
+
+import java.time.Duration;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Read/write splitting, enabled by setting {@code ecommerce.replica.url}. The
+ * {@code @Transactional(readOnly = true)} service methods read from the
+ * replica pool, everything else uses the primary pool configured by the usual
+ * {@code spring.datasource} properties.
+ * <p>
+ * The two pools are not default candidates: JPA and the rest of the
+ * application only see the routing data source. Whether a read-only
+ * transaction goes to the replica depends on the lag measured by
+ * {@link ReplicaLagMonitor}.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty("ecommerce.replica.url")
+public class ReplicaConfiguration {
+
+	@Bean(defaultCandidate = false)
+	@ConfigurationProperties("spring.datasource.hikari")
+	public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+		HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+		dataSource.setPoolName("primary");
+		return dataSource;
+	}
+
+	@Bean(defaultCandidate = false)
+	@ConfigurationProperties("ecommerce.replica.hikari")
+	public HikariDataSource replicaDataSource(@Value("${ecommerce.replica.url}") String url,
+			@Value("${ecommerce.replica.username:}") String username,
+			@Value("${ecommerce.replica.password:}") String password) {
+		HikariDataSource dataSource = DataSourceBuilder.create().type(HikariDataSource.class).url(url)
+				.username(username).password(password).build();
+		dataSource.setPoolName("replica");
+		dataSource.setReadOnly(true);
+		// Una replica irraggiungibile non blocca l'avvio e fa ripiegare presto sul primario
+		dataSource.setInitializationFailTimeout(-1);
+		dataSource.setConnectionTimeout(1000);
+		return dataSource;
+	}
+
+	@Bean
+	public ReplicaLagMonitor replicaLagMonitor(@Qualifier("primaryDataSource") DataSource primary,
+			@Qualifier("replicaDataSource") DataSource replica, MeterRegistry meterRegistry) {
+		return new ReplicaLagMonitor(primary, replica, meterRegistry);
+	}
+
+	@Bean(defaultCandidate = false)
+	public ReplicaRoutingDataSource replicaRoutingDataSource(@Qualifier("primaryDataSource") DataSource primary,
+			@Qualifier("replicaDataSource") DataSource replica, ReplicaLagMonitor lagMonitor,
+			MeterRegistry meterRegistry, @Value("${ecommerce.replica.max-lag:1s}") Duration maxLag,
+			@Value("${ecommerce.replica.retry-interval:30s}") Duration retryInterval) {
+		return new ReplicaRoutingDataSource(primary, replica, lagMonitor, maxLag, retryInterval, meterRegistry);
+	}
+
+	@Bean
+	@Primary
+	public DataSource dataSource(@Qualifier("replicaRoutingDataSource") ReplicaRoutingDataSource routing) {
+		return new LazyConnectionDataSourceProxy(routing);
+	}
+
+	// Aggiunto da Spring Boot al transaction manager JPA
+	@Bean
+	public ReplicaTransactionListener replicaTransactionListener(
+			@Qualifier("replicaRoutingDataSource") ReplicaRoutingDataSource routing,
+			EntityManagerFactory entityManagerFactory) {
+		return new ReplicaTransactionListener(routing, entityManagerFactory);
+	}
+}
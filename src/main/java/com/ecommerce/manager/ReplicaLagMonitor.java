@@ -0,0 +1,113 @@
+package com.ecommerce.manager;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+
+/**
+ * Measures how far the replica is behind the primary with a heartbeat. At
+ * every beat this instance reads back from the replica the last timestamp it
+ * wrote in its own row of {@value #TABLE}, then writes the current time on the
+ * primary.
+ * <p>
+ * The replica applies the commits in order, so once a beat is there so is every
+ * write committed on the primary before it, by any instance. The lag is the age
+ * of the last beat seen on the replica: it keeps growing when replication
+ * stalls or the heartbeat itself stops running, and it is unknown until a beat
+ * is seen on the replica or while the replica cannot be read.
+ */
+public class ReplicaLagMonitor {
+
+	static final String TABLE = "replica_heartbeat";
+	static final String LAG_METRIC = "ecommerce.datasource.replica.lag";
+
+	/**
+	 * Returned by {@link #lagMillis()} while the lag is unknown.
+	 */
+	public static final long UNKNOWN = Long.MAX_VALUE;
+
+	// Righe delle istanze ferme da più di un giorno, cancellate all'avvio
+	private static final long ABANDONED_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaLagMonitor.class);
+
+	private final JdbcTemplate primary;
+	private final JdbcTemplate replica;
+	private final LongSupplier clock;
+
+	// Ogni istanza confronta solo i propri timestamp: niente errori da orologi non allineati
+	private final String instanceId = UUID.randomUUID().toString();
+
+	private boolean tableReady;
+
+	// Timestamp, nell'orologio di questa istanza, dell'ultimo battito visto sulla replica
+	private volatile Long replicatedBeat;
+
+	public ReplicaLagMonitor(DataSource primary, DataSource replica, MeterRegistry meterRegistry) {
+		this(primary, replica, meterRegistry, System::currentTimeMillis);
+	}
+
+	ReplicaLagMonitor(DataSource primary, DataSource replica, MeterRegistry meterRegistry, LongSupplier clock) {
+		this.primary = new JdbcTemplate(primary);
+		this.replica = new JdbcTemplate(replica);
+		this.clock = clock;
+
+		TimeGauge.builder(LAG_METRIC, this, TimeUnit.MILLISECONDS,
+				monitor -> monitor.lagMillis() == UNKNOWN ? Double.NaN : monitor.lagMillis())
+				.description("Age of the last heartbeat replicated from the primary").register(meterRegistry);
+	}
+
+	/**
+	 * Milliseconds the replica is behind this instance's writes on the primary,
+	 * or {@link #UNKNOWN}.
+	 */
+	public long lagMillis() {
+		Long beat = replicatedBeat;
+		return beat == null ? UNKNOWN : Math.max(0, clock.getAsLong() - beat);
+	}
+
+	@Scheduled(fixedDelayString = "${ecommerce.replica.heartbeat-interval:250ms}")
+	public synchronized void heartbeat() {
+		try {
+			replicatedBeat = replica.query("SELECT beat_at FROM " + TABLE + " WHERE instance_id = ?",
+					rs -> rs.next() ? rs.getLong(1) : null, instanceId);
+		} catch (DataAccessException e) {
+			// Replica irraggiungibile o tabella non ancora replicata
+			replicatedBeat = null;
+			LOGGER.debug("Unable to read the heartbeat from the replica", e);
+		}
+
+		try {
+			long now = clock.getAsLong();
+			createTable(now);
+
+			if (primary.update("UPDATE " + TABLE + " SET beat_at = ? WHERE instance_id = ?", now, instanceId) == 0) {
+				primary.update("INSERT INTO " + TABLE + " (instance_id, beat_at) VALUES (?, ?)", instanceId, now);
+			}
+		} catch (DataAccessException e) {
+			LOGGER.warn("Unable to write the heartbeat on the primary", e);
+		}
+	}
+
+	private void createTable(long now) {
+		if (tableReady) {
+			return;
+		}
+
+		primary.execute("CREATE TABLE IF NOT EXISTS " + TABLE
+				+ " (instance_id VARCHAR(36) NOT NULL PRIMARY KEY, beat_at BIGINT NOT NULL)");
+		primary.update("DELETE FROM " + TABLE + " WHERE beat_at < ?", now - ABANDONED_MILLIS);
+		tableReady = true;
+	}
+}
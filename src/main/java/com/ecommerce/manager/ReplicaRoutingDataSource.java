@@ -0,0 +1,143 @@
+package com.ecommerce.manager;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Sends the connections of the read-only transactions routed by
+ * {@link ReplicaTransactionListener} to a replica and every other connection to
+ * the primary. Must be wrapped in a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}, so
+ * that the connection is obtained at the first statement, when the route of
+ * the transaction is already known.
+ * <p>
+ * The replica is usable while the lag measured by {@link ReplicaLagMonitor} is
+ * at most {@code max-lag}. When a replica connection cannot be obtained, reads
+ * fall back to the primary and the replica is not tried again for
+ * {@code retry-interval}.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+	static final String ROUTES_METRIC = "ecommerce.datasource.routes";
+	static final String REPLICA_FAILURES_METRIC = "ecommerce.datasource.replica.failures";
+
+	enum Route {
+		PRIMARY, REPLICA
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+	// Risorsa legata alla transazione che legge dalla replica
+	private static final Object REPLICA_READ = new Object();
+
+	private final DataSource primary;
+	private final DataSource replica;
+	private final ReplicaLagMonitor lagMonitor;
+	private final long maxLagMillis;
+	private final long retryIntervalNanos;
+
+	// Istante in System.nanoTime() da cui la replica torna utilizzabile
+	private final AtomicLong replicaDownUntil;
+
+	private final Counter primaryRoutes;
+	private final Counter replicaRoutes;
+	private final Counter fallbackRoutes;
+	private final Counter replicaFailures;
+
+	public ReplicaRoutingDataSource(DataSource primary, DataSource replica, ReplicaLagMonitor lagMonitor,
+			Duration maxLag, Duration retryInterval, MeterRegistry meterRegistry) {
+		if (maxLag.isNegative()) {
+			throw new IllegalArgumentException("Max lag cannot be negative");
+		}
+
+		if (retryInterval.isNegative()) {
+			throw new IllegalArgumentException("Retry interval cannot be negative");
+		}
+
+		this.primary = primary;
+		this.replica = replica;
+		this.lagMonitor = lagMonitor;
+		this.maxLagMillis = maxLag.toMillis();
+		this.retryIntervalNanos = retryInterval.toNanos();
+		replicaDownUntil = new AtomicLong(System.nanoTime());
+
+		primaryRoutes = meterRegistry.counter(ROUTES_METRIC, "target", "primary");
+		replicaRoutes = meterRegistry.counter(ROUTES_METRIC, "target", "replica");
+		fallbackRoutes = meterRegistry.counter(ROUTES_METRIC, "target", "fallback");
+		replicaFailures = meterRegistry.counter(REPLICA_FAILURES_METRIC);
+
+		setTargetDataSources(Map.of(Route.PRIMARY, primary, Route.REPLICA, replica));
+		setDefaultTargetDataSource(primary);
+		setLenientFallback(false);
+		afterPropertiesSet();
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		if (determineCurrentLookupKey() == Route.PRIMARY) {
+			primaryRoutes.increment();
+			return primary.getConnection();
+		}
+
+		try {
+			Connection connection = replica.getConnection();
+			replicaRoutes.increment();
+			return connection;
+		} catch (SQLException e) {
+			replicaFailures.increment();
+			replicaDownUntil.set(System.nanoTime() + retryIntervalNanos);
+			LOGGER.warn("Replica unavailable, reads go to the primary for the next {} ms",
+					Duration.ofNanos(retryIntervalNanos).toMillis(), e);
+		}
+
+		fallbackRoutes.increment();
+		return primary.getConnection();
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		// Le credenziali esplicite sono quelle del primario
+		return primary.getConnection(username, password);
+	}
+
+	/**
+	 * Whether a read-only transaction starting now can read from the replica.
+	 */
+	public boolean isReplicaUsable() {
+		return System.nanoTime() - replicaDownUntil.get() >= 0 && lagMonitor.lagMillis() <= maxLagMillis;
+	}
+
+	/**
+	 * Whether the current transaction has been routed to the replica, so what it
+	 * reads may be stale and must not fill the shared caches.
+	 */
+	public static boolean isCurrentTransactionOnReplica() {
+		return TransactionSynchronizationManager.hasResource(REPLICA_READ);
+	}
+
+	static void bindReplicaRead() {
+		TransactionSynchronizationManager.bindResource(REPLICA_READ, Boolean.TRUE);
+	}
+
+	static void unbindReplicaRead() {
+		TransactionSynchronizationManager.unbindResourceIfPossible(REPLICA_READ);
+	}
+
+	@Override
+	protected Route determineCurrentLookupKey() {
+		return isCurrentTransactionOnReplica() ? Route.REPLICA : Route.PRIMARY;
+	}
+}
@@ -0,0 +1,72 @@
+package com.ecommerce.manager;
+
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.transaction.TransactionExecution;
+import org.springframework.transaction.TransactionExecutionListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Chooses the route of each new read-only transaction when it begins: while
+ * {@link ReplicaRoutingDataSource#isReplicaUsable()} it goes to the replica for
+ * its whole duration, otherwise to the primary.
+ * <p>
+ * A transaction on the replica may read rows older than the primary's, so its
+ * Hibernate session uses {@link CacheMode#GET}: it reads the second-level and
+ * query caches but never puts what it loaded into them.
+ */
+public class ReplicaTransactionListener implements TransactionExecutionListener {
+
+	private final ReplicaRoutingDataSource routing;
+	private final EntityManagerFactory entityManagerFactory;
+
+	public ReplicaTransactionListener(ReplicaRoutingDataSource routing, EntityManagerFactory entityManagerFactory) {
+		this.routing = routing;
+		this.entityManagerFactory = entityManagerFactory;
+	}
+
+	@Override
+	public void afterBegin(TransactionExecution transaction, Throwable beginFailure) {
+		if (beginFailure != null || !transaction.isNewTransaction() || !transaction.isReadOnly()
+				|| !TransactionSynchronizationManager.isSynchronizationActive() || !routing.isReplicaUsable()) {
+			return;
+		}
+
+		EntityManagerHolder holder = (EntityManagerHolder) TransactionSynchronizationManager
+				.getResource(entityManagerFactory);
+		// Transazioni solo JDBC: nessuna sessione Hibernate da configurare
+		Session session = holder == null ? null : holder.getEntityManager().unwrap(Session.class);
+		CacheMode previous = session == null ? null : session.getCacheMode();
+
+		if (session != null) {
+			session.setCacheMode(CacheMode.GET);
+		}
+
+		ReplicaRoutingDataSource.bindReplicaRead();
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			// Una transazione REQUIRES_NEW annidata sceglie il proprio percorso
+			@Override
+			public void suspend() {
+				ReplicaRoutingDataSource.unbindReplicaRead();
+			}
+
+			@Override
+			public void resume() {
+				ReplicaRoutingDataSource.bindReplicaRead();
+			}
+
+			@Override
+			public void afterCompletion(int status) {
+				ReplicaRoutingDataSource.unbindReplicaRead();
+
+				if (session != null && session.isOpen()) {
+					session.setCacheMode(previous);
+				}
+			}
+		});
+	}
+}
@@ -1,53 +1,141 @@
 package com.ecommerce.manager.controllers;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import com.ecommerce.manager.model.IdempotencyRecord;
+import com.ecommerce.manager.model.Item;
 import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.OrderSummary;
 import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.services.BalanceBatcher;
 import com.ecommerce.manager.services.EcommerceService;
+import com.ecommerce.manager.services.IdempotencyStore;
+import com.ecommerce.manager.services.IdempotencyStore.Outcome;
+import com.ecommerce.manager.services.OrderExporter;
+import com.ecommerce.manager.services.OrderImportResult;
+import com.ecommerce.manager.services.OrderImporter;
+import com.ecommerce.manager.services.TableChangeMarkers;
+import com.ecommerce.manager.services.UserImportReport;
+import com.ecommerce.manager.services.UserImporter;
+import com.ecommerce.manager.services.UserImporter.Format;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.servlet.http.HttpServletResponse;
 
 @RestController
 @RequestMapping("/api")
+// Con il profilo reactive le stesse API sono servite da ReactiveEcommerceRestController
+@Profile("!reactive")
 public class EcommerceRestController {
 
 	private EcommerceService ecommerceService;
+	private BalanceBatcher balanceBatcher;
+	private IdempotencyStore idempotencyStore;
+	private OrderImporter orderImporter;
+	private UserImporter userImporter;
+	private OrderExporter orderExporter;
+	private ObjectMapper objectMapper;
+	private TableChangeMarkers changeMarkers;
+	private int defaultLimit;
+	private int maxLimit;
 
 	private static final String MESSAGE_ATTRIBUTE = "message";
 
-	public EcommerceRestController(EcommerceService ecommerceService) {
+	static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+	static final String TEXT_CSV_VALUE = "text/csv";
+
+	public EcommerceRestController(EcommerceService ecommerceService, BalanceBatcher balanceBatcher,
+			IdempotencyStore idempotencyStore, OrderImporter orderImporter, UserImporter userImporter,
+			OrderExporter orderExporter, ObjectMapper objectMapper, TableChangeMarkers changeMarkers,
+			@Value("${ecommerce.pagination.default-limit:100}") int defaultLimit,
+			@Value("${ecommerce.pagination.max-limit:1000}") int maxLimit) {
 		this.ecommerceService = ecommerceService;
+		this.balanceBatcher = balanceBatcher;
+		this.idempotencyStore = idempotencyStore;
+		this.orderImporter = orderImporter;
+		this.userImporter = userImporter;
+		this.orderExporter = orderExporter;
+		this.objectMapper = objectMapper;
+		this.changeMarkers = changeMarkers;
+		this.defaultLimit = defaultLimit;
+		this.maxLimit = maxLimit;
 	}
 
 	@GetMapping("/users")
-	public List<User> allUsers() {
-		return ecommerceService.getAllUsers();
+	public ResponseEntity<List<User>> allUsers(@RequestParam(required = false) Integer limit,
+			@RequestParam(required = false) String cursor, WebRequest request) {
+		int pageSize = pageSize(limit);
+		long afterId = decodeCursor(cursor);
+
+		// Il marker va letto prima dei dati: una scrittura successiva lo fa avanzare
+		String etag = listEtag(changeMarkers.users());
+
+		if (request.checkNotModified(etag)) {
+			return null;
+		}
+
+		return page(ecommerceService.getUsersAfter(afterId, pageSize + 1), pageSize, User::getId, etag);
 	}
 
 	@GetMapping("/orders")
-	public List<Order> allOrders() {
-		return ecommerceService.getAllOrders();
+	public ResponseEntity<List<OrderSummary>> allOrders(@RequestParam(required = false) Integer limit,
+			@RequestParam(required = false) String cursor, WebRequest request) {
+		int pageSize = pageSize(limit);
+		long afterId = decodeCursor(cursor);
+		String etag = listEtag(changeMarkers.orders());
+
+		if (request.checkNotModified(etag)) {
+			return null;
+		}
+
+		return page(ecommerceService.getOrderSummariesAfter(afterId, pageSize + 1), pageSize, OrderSummary::id,
+				etag);
+	}
+
+	@GetMapping(path = "/orders/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public void exportOrders(@RequestParam(required = false) Item item,
+			@RequestParam(required = false) Long priceAbove, HttpServletResponse response) throws IOException {
+		response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+		orderExporter.exportOrders(item, priceAbove, response.getOutputStream());
 	}
 
 	@GetMapping("/users/{id}")
-	public User oneUser(@PathVariable long id) {
-		return ecommerceService.getUserById(id);
+	public ResponseEntity<Object> oneUser(@PathVariable long id, WebRequest request) {
+		return withContentEtag(ecommerceService.getUserById(id), request);
 	}
 
 	@GetMapping("/orders/{id}")
-	public Order oneOrder(@PathVariable long id) {
-		return ecommerceService.getOrderById(id);
+	public ResponseEntity<Object> oneOrder(@PathVariable long id, WebRequest request) {
+		return withContentEtag(ecommerceService.getOrderSummaryById(id), request);
 	}
 
 	@PostMapping("/users/new")
@@ -55,9 +143,28 @@ public class EcommerceRestController {
 		return ecommerceService.insertNewUser(user);
 	}
 
+	@PostMapping(path = "/users/import", consumes = TEXT_CSV_VALUE)
+	public UserImportReport importUsersFromCsv(InputStream body) throws IOException {
+		return userImporter.importUsers(body, Format.CSV);
+	}
+
+	@PostMapping(path = "/users/import", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+	public UserImportReport importUsersFromNdjson(InputStream body) throws IOException {
+		return userImporter.importUsers(body, Format.NDJSON);
+	}
+
 	@PostMapping("/orders/new")
-	public Order newOrder(@RequestBody Order order) {
-		return ecommerceService.insertNewOrder(order);
+	public ResponseEntity<Object> newOrder(
+			@RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+			@RequestBody Order order) {
+		return idempotent(idempotencyKey, "orders/new", order,
+				() -> ResponseEntity.ok(ecommerceService.insertNewOrder(order)));
+	}
+
+	@PostMapping(path = "/orders/import", consumes = { MediaType.APPLICATION_JSON_VALUE,
+			MediaType.APPLICATION_NDJSON_VALUE })
+	public List<OrderImportResult> importOrders(InputStream body) throws IOException {
+		return orderImporter.importOrders(body);
 	}
 
 	@PutMapping("/users/update/{id}")
@@ -72,14 +179,145 @@ public class EcommerceRestController {
 
 	@PostMapping("/users/{id}/deposit")
 	public ResponseEntity<Void> deposit(@PathVariable long id, @RequestBody long amount) {
-		ecommerceService.deposit(id, amount);
+		if (balanceBatcher.isEnabled()) {
+			balanceBatcher.deposit(id, amount);
+		} else {
+			ecommerceService.deposit(id, amount);
+		}
+
 		return ResponseEntity.noContent().build();
 	}
 
 	@PostMapping("/users/{id}/withdraw")
-	public ResponseEntity<Void> withdraw(@PathVariable long id, @RequestBody long amount) {
-		ecommerceService.withdraw(id, amount);
-		return ResponseEntity.noContent().build();
+	public ResponseEntity<Object> withdraw(
+			@RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+			@PathVariable long id, @RequestBody long amount) {
+		return idempotent(idempotencyKey, "users/" + id + "/withdraw", amount, () -> {
+			// Con la chiave il prelievo va nella transazione che la registra, il batcher userebbe la sua
+			if (idempotencyKey == null && balanceBatcher.isEnabled()) {
+				balanceBatcher.withdraw(id, amount);
+			} else {
+				ecommerceService.withdraw(id, amount);
+			}
+
+			return ResponseEntity.noContent().build();
+		});
+	}
+
+	private int pageSize(Integer limit) {
+		if (limit == null) {
+			return defaultLimit;
+		}
+
+		if (limit < 1) {
+			throw new IllegalArgumentException("Limit must be at least 1");
+		}
+
+		return Math.min(limit, maxLimit);
+	}
+
+	// Si legge un elemento in più per sapere se esiste una pagina successiva, indicata nell'header Link
+	private <T> ResponseEntity<List<T>> page(List<T> elements, int pageSize, Function<T, Long> idOf, String etag) {
+		if (elements.size() <= pageSize) {
+			return ResponseEntity.ok().eTag(etag).body(elements);
+		}
+
+		List<T> page = elements.subList(0, pageSize);
+		String next = ServletUriComponentsBuilder.fromCurrentRequest().replaceQueryParam("limit", pageSize)
+				.replaceQueryParam("cursor", encodeCursor(idOf.apply(page.get(pageSize - 1)))).toUriString();
+
+		return ResponseEntity.ok().eTag(etag).header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"").body(page);
+	}
+
+	// L'ETag vale per l'URL richiesto: limit e cursor distinguono già le pagine
+	private static String listEtag(String marker) {
+		return "\"" + marker + "\"";
+	}
+
+	// Il balance di uno user può cambiare per il ledger senza nuova versione: l'ETag viene dal contenuto
+	private ResponseEntity<Object> withContentEtag(Object resource, WebRequest request) {
+		if (resource == null) {
+			return ResponseEntity.ok().build();
+		}
+
+		String json = toJson(resource);
+		String etag = "\"" + DigestUtils.md5DigestAsHex(json.getBytes(StandardCharsets.UTF_8)) + "\"";
+
+		if (request.checkNotModified(etag)) {
+			return null;
+		}
+
+		return ResponseEntity.ok().eTag(etag).contentType(MediaType.APPLICATION_JSON).body(json);
+	}
+
+	// Il cursore è opaco per il client: l'id dell'ultimo elemento restituito
+	static String encodeCursor(long lastId) {
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(Long.toString(lastId).getBytes(StandardCharsets.UTF_8));
+	}
+
+	static long decodeCursor(String cursor) {
+		if (cursor == null) {
+			return Long.MIN_VALUE;
+		}
+
+		try {
+			return Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid cursor");
+		}
+	}
+
+	// Un replay restituisce la risposta salvata senza passare dal service. La prima esecuzione restituisce
+	// la stessa risposta serializzata, così client e replay ricevono gli stessi byte
+	private ResponseEntity<Object> idempotent(String idempotencyKey, String endpoint, Object request,
+			Supplier<ResponseEntity<Object>> action) {
+		if (idempotencyKey == null) {
+			return action.get();
+		}
+
+		String key = endpoint + ":" + idempotencyKey;
+
+		if (idempotencyKey.isBlank() || key.length() > IdempotencyRecord.MAX_KEY_LENGTH) {
+			throw new IllegalArgumentException("Invalid Idempotency-Key");
+		}
+
+		String requestHash = DigestUtils.md5DigestAsHex(toJson(request).getBytes(StandardCharsets.UTF_8));
+
+		IdempotencyRecord stored = idempotencyStore.execute(key, requestHash, () -> {
+			ResponseEntity<Object> response = action.get();
+			String body = response.hasBody() ? toJson(response.getBody()) : null;
+			return new Outcome(response.getStatusCode().value(), body);
+		});
+
+		return replay(stored, requestHash);
+	}
+
+	private ResponseEntity<Object> replay(IdempotencyRecord stored, String requestHash) {
+		if (!stored.getRequestHash().equals(requestHash)) {
+			return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY)
+					.body(Map.of(MESSAGE_ATTRIBUTE, "Idempotency-Key already used for a different request"));
+		}
+
+		if (stored.isPending()) {
+			return ResponseEntity.status(HttpStatus.CONFLICT)
+					.body(Map.of(MESSAGE_ATTRIBUTE, "A request with the same Idempotency-Key is in progress"));
+		}
+
+		if (stored.getBody() == null) {
+			return ResponseEntity.status(stored.getStatus()).build();
+		}
+
+		return ResponseEntity.status(stored.getStatus()).contentType(MediaType.APPLICATION_JSON)
+				.body(stored.getBody());
+	}
+
+	private String toJson(Object value) {
+		try {
+			return objectMapper.writeValueAsString(value);
+		} catch (JsonProcessingException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
 
 	@ExceptionHandler(IllegalArgumentException.class)
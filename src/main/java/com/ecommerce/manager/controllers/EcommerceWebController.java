@@ -1,7 +1,10 @@
 package com.ecommerce.manager.controllers;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -9,17 +12,26 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.OrderSummary;
 import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.services.BalanceBatcher;
 import com.ecommerce.manager.services.EcommerceService;
+import com.ecommerce.manager.services.UserImportReport;
+import com.ecommerce.manager.services.UserImporter;
+import com.ecommerce.manager.services.UserImporter.Format;
 
 @Controller
+// Le pagine Thymeleaf sono servite solo dallo stack servlet
+@Profile("!reactive")
 public class EcommerceWebController {
 
 	private static final String MESSAGE_ATTRIBUTE = "message";
 	private static final String ERROR_ATTRIBUTE = "error";
+	private static final String IMPORT_ATTRIBUTE = "imported";
 
 	private static final String USER_ATTRIBUTE = "user";
 	private static final String ORDER_ATTRIBUTE = "order";
@@ -31,9 +43,14 @@ public class EcommerceWebController {
 	private static final String REDIRECT_TO_MAPPING_ORDERS = "redirect:/orders";
 
 	private EcommerceService ecommerceService;
+	private BalanceBatcher balanceBatcher;
+	private UserImporter userImporter;
 
-	public EcommerceWebController(EcommerceService ecommerceService) {
+	public EcommerceWebController(EcommerceService ecommerceService, BalanceBatcher balanceBatcher,
+			UserImporter userImporter) {
 		this.ecommerceService = ecommerceService;
+		this.balanceBatcher = balanceBatcher;
+		this.userImporter = userImporter;
 	}
 
 	@GetMapping("/")
@@ -48,7 +65,7 @@ public class EcommerceWebController {
 
 	@GetMapping("/orders")
 	public String orders(Model model) {
-		List<Order> allOrders = ecommerceService.getAllOrders();
+		List<OrderSummary> allOrders = ecommerceService.getAllOrderSummaries();
 
 		model.addAttribute(ORDERS_ATTRIBUTE, allOrders);
 		model.addAttribute(MESSAGE_ATTRIBUTE, allOrders.isEmpty() ? "No order to show" : "");
@@ -105,6 +122,23 @@ public class EcommerceWebController {
 		return REDIRECT_TO_MAPPING_USERS;
 	}
 
+	@PostMapping("/importUsers")
+	public String importUsers(@RequestParam MultipartFile file, RedirectAttributes redirectAttributes)
+			throws IOException {
+		String filename = file.getOriginalFilename();
+		Format format = filename != null && filename.toLowerCase().endsWith(".csv") ? Format.CSV : Format.NDJSON;
+		UserImportReport report;
+
+		try (InputStream input = file.getInputStream()) {
+			report = userImporter.importUsers(input, format);
+		}
+
+		redirectAttributes.addFlashAttribute(IMPORT_ATTRIBUTE,
+				"Imported " + report.imported() + " users, rejected " + report.rejected());
+
+		return REDIRECT_TO_MAPPING_USERS;
+	}
+
 	@PostMapping("/saveOrder")
 	public String saveOrder(Order order) {
 		final Long id = order.getId();
@@ -130,14 +164,22 @@ public class EcommerceWebController {
 
 	@PostMapping("/{id}/deposit")
 	public String deposit(@PathVariable long id, @RequestParam long amount) {
-		ecommerceService.deposit(id, amount);
+		if (balanceBatcher.isEnabled()) {
+			balanceBatcher.deposit(id, amount);
+		} else {
+			ecommerceService.deposit(id, amount);
+		}
 
 		return REDIRECT_TO_MAPPING_USERS;
 	}
 
 	@PostMapping("/{id}/withdraw")
 	public String withdraw(@PathVariable long id, @RequestParam long amount) {
-		ecommerceService.withdraw(id, amount);
+		if (balanceBatcher.isEnabled()) {
+			balanceBatcher.withdraw(id, amount);
+		} else {
+			ecommerceService.withdraw(id, amount);
+		}
 
 		return REDIRECT_TO_MAPPING_USERS;
 	}
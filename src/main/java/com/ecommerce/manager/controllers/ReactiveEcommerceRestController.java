@@ -0,0 +1,153 @@
+package com.ecommerce.manager.controllers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.OrderSummary;
+import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.services.ReactiveEcommerceService;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * The endpoints of {@link EcommerceRestController} on WebFlux, served by
+ * {@link ReactiveEcommerceService} without blocking a thread per request.
+ */
+@RestController
+@RequestMapping("/api")
+@Profile("reactive")
+public class ReactiveEcommerceRestController {
+
+	private static final String MESSAGE_ATTRIBUTE = "message";
+
+	private ReactiveEcommerceService ecommerceService;
+	private int defaultLimit;
+	private int maxLimit;
+
+	public ReactiveEcommerceRestController(ReactiveEcommerceService ecommerceService,
+			@Value("${ecommerce.pagination.default-limit:100}") int defaultLimit,
+			@Value("${ecommerce.pagination.max-limit:1000}") int maxLimit) {
+		this.ecommerceService = ecommerceService;
+		this.defaultLimit = defaultLimit;
+		this.maxLimit = maxLimit;
+	}
+
+	@GetMapping("/users")
+	public Mono<ResponseEntity<List<User>>> allUsers(@RequestParam(required = false) Integer limit,
+			@RequestParam(required = false) String cursor, ServerHttpRequest request) {
+		int pageSize = pageSize(limit);
+
+		return ecommerceService.getUsersAfter(EcommerceRestController.decodeCursor(cursor), pageSize + 1)
+				.collectList().map(users -> page(users, pageSize, User::getId, request));
+	}
+
+	@GetMapping("/orders")
+	public Mono<ResponseEntity<List<OrderSummary>>> allOrders(@RequestParam(required = false) Integer limit,
+			@RequestParam(required = false) String cursor, ServerHttpRequest request) {
+		int pageSize = pageSize(limit);
+
+		return ecommerceService.getOrderSummariesAfter(EcommerceRestController.decodeCursor(cursor), pageSize + 1)
+				.collectList().map(orders -> page(orders, pageSize, OrderSummary::id, request));
+	}
+
+	@GetMapping("/users/{id}")
+	public Mono<User> oneUser(@PathVariable long id) {
+		return ecommerceService.getUserById(id);
+	}
+
+	@GetMapping("/orders/{id}")
+	public Mono<OrderSummary> oneOrder(@PathVariable long id) {
+		return ecommerceService.getOrderSummaryById(id);
+	}
+
+	@PostMapping("/users/new")
+	public Mono<User> newUser(@RequestBody User user) {
+		return ecommerceService.insertNewUser(user);
+	}
+
+	@PostMapping("/orders/new")
+	public Mono<Order> newOrder(@RequestBody Order order) {
+		return ecommerceService.insertNewOrder(order);
+	}
+
+	@PutMapping("/users/update/{id}")
+	public Mono<User> updateUser(@PathVariable long id, @RequestBody User user) {
+		return ecommerceService.updateUserById(id, user);
+	}
+
+	@PutMapping("/orders/update/{id}")
+	public Mono<Order> updateOrder(@PathVariable long id, @RequestBody Order order) {
+		return ecommerceService.updateOrderById(id, order);
+	}
+
+	@PostMapping("/users/{id}/deposit")
+	public Mono<ResponseEntity<Void>> deposit(@PathVariable long id, @RequestBody long amount) {
+		return ecommerceService.deposit(id, amount).then(Mono.fromSupplier(() -> ResponseEntity.noContent().build()));
+	}
+
+	@PostMapping("/users/{id}/withdraw")
+	public Mono<ResponseEntity<Void>> withdraw(@PathVariable long id, @RequestBody long amount) {
+		return ecommerceService.withdraw(id, amount).then(Mono.fromSupplier(() -> ResponseEntity.noContent().build()));
+	}
+
+	private int pageSize(Integer limit) {
+		if (limit == null) {
+			return defaultLimit;
+		}
+
+		if (limit < 1) {
+			throw new IllegalArgumentException("Limit must be at least 1");
+		}
+
+		return Math.min(limit, maxLimit);
+	}
+
+	// Si legge un elemento in più per sapere se esiste una pagina successiva, indicata nell'header Link
+	private static <T> ResponseEntity<List<T>> page(List<T> elements, int pageSize, Function<T, Long> idOf,
+			ServerHttpRequest request) {
+		if (elements.size() <= pageSize) {
+			return ResponseEntity.ok(elements);
+		}
+
+		List<T> page = elements.subList(0, pageSize);
+		String next = UriComponentsBuilder.fromUri(request.getURI()).replaceQueryParam("limit", pageSize)
+				.replaceQueryParam("cursor", EcommerceRestController.encodeCursor(idOf.apply(page.get(pageSize - 1))))
+				.toUriString();
+
+		return ResponseEntity.ok().header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"").body(page);
+	}
+
+	@ExceptionHandler(IllegalArgumentException.class)
+	public ResponseEntity<Map<String, String>> handleIllegalArgument(IllegalArgumentException ex) {
+		return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of(MESSAGE_ATTRIBUTE, ex.getMessage()));
+	}
+
+	@ExceptionHandler(IllegalStateException.class)
+	public ResponseEntity<Map<String, String>> handleIllegalState(IllegalStateException ex) {
+		if (ex.getMessage().contains("Not enough balance to perform withdraw")
+				|| ex.getMessage().contains("Unable to")) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of(MESSAGE_ATTRIBUTE, ex.getMessage()));
+		}
+
+		return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of(MESSAGE_ATTRIBUTE, ex.getMessage()));
+	}
+}
@@ -0,0 +1,165 @@
+package com.ecommerce.manager.jdbc;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+
+/**
+ * Rolling report of the JDBC work of each endpoint over the last
+ * {@code window}, exposed on {@code /actuator/jdbcrequests}. The window is
+ * split into {@value #SLOTS} slots, each dropped as a whole once it is older
+ * than the window.
+ * <p>
+ * The report lists the {@code top} worst endpoints, by total JDBC time or,
+ * with {@code ?sort=statements} or {@code ?sort=rows}, by statements or rows
+ * per request.
+ */
+@Endpoint(id = "jdbcrequests")
+public class JdbcRequestReport {
+
+	static final int SLOTS = 5;
+
+	private static final Map<String, Comparator<EndpointStatistics>> SORTS = Map.of("time",
+			Comparator.comparingDouble(EndpointStatistics::jdbcMillis), "statements",
+			Comparator.comparingDouble(EndpointStatistics::statementsPerRequest), "rows",
+			Comparator.comparingDouble(EndpointStatistics::rowsPerRequest));
+
+	/**
+	 * Totals of one endpoint in the window; {@code jdbcMillis} is the time of
+	 * all its requests together.
+	 */
+	public record EndpointStatistics(String endpoint, long requests, long statements, long maxStatements, long rows,
+			double jdbcMillis) {
+
+		public double statementsPerRequest() {
+			return (double) statements / requests;
+		}
+
+		public double rowsPerRequest() {
+			return (double) rows / requests;
+		}
+
+		public double jdbcMillisPerRequest() {
+			return jdbcMillis / requests;
+		}
+	}
+
+	private final long slotNanos;
+	private final int top;
+	private final LongSupplier nanoTime;
+	private final Slot[] slots = new Slot[SLOTS];
+
+	public JdbcRequestReport(Duration window, int top) {
+		this(window, top, System::nanoTime);
+	}
+
+	JdbcRequestReport(Duration window, int top, LongSupplier nanoTime) {
+		if (window.toNanos() < SLOTS) {
+			throw new IllegalArgumentException("Window must be positive");
+		}
+
+		if (top < 1) {
+			throw new IllegalArgumentException("Top must be at least 1");
+		}
+
+		this.slotNanos = window.toNanos() / SLOTS;
+		this.top = top;
+		this.nanoTime = nanoTime;
+
+		for (int i = 0; i < SLOTS; i++) {
+			slots[i] = new Slot();
+		}
+	}
+
+	public void record(String endpoint, JdbcStatistics statistics) {
+		long epoch = Math.floorDiv(nanoTime.getAsLong(), slotNanos);
+		Slot slot = slots[(int) Math.floorMod(epoch, SLOTS)];
+
+		if (slot.epoch != epoch) {
+			synchronized (slot) {
+				// Lo slot apparteneva a un giro precedente della finestra: si riparte da zero
+				if (slot.epoch != epoch) {
+					slot.totals.clear();
+					slot.epoch = epoch;
+				}
+			}
+		}
+
+		slot.totals.computeIfAbsent(endpoint, key -> new Totals()).add(statistics);
+	}
+
+	@ReadOperation
+	public List<EndpointStatistics> worst(@Nullable String sort) {
+		Comparator<EndpointStatistics> order = SORTS.get(sort == null ? "time" : sort);
+
+		if (order == null) {
+			throw new InvalidEndpointRequestException("Unknown sort " + sort, "Sort must be one of " + SORTS.keySet());
+		}
+
+		long current = Math.floorDiv(nanoTime.getAsLong(), slotNanos);
+		Map<String, long[]> merged = new HashMap<>();
+
+		for (Slot slot : slots) {
+			long epoch = slot.epoch;
+
+			if (epoch > current - SLOTS && epoch <= current) {
+				slot.totals.forEach((endpoint, totals) -> totals.mergeInto(merged.computeIfAbsent(endpoint,
+						key -> new long[Totals.FIELDS])));
+			}
+		}
+
+		return merged.entrySet().stream().map(entry -> Totals.toStatistics(entry.getKey(), entry.getValue()))
+				.sorted(order.reversed()).limit(top).toList();
+	}
+
+	private static final class Slot {
+
+		// Indice dello slot da System.nanoTime(), Long.MIN_VALUE finché non viene usato
+		private volatile long epoch = Long.MIN_VALUE;
+
+		private final Map<String, Totals> totals = new ConcurrentHashMap<>();
+	}
+
+	// Una richiesta che registra mentre lo slot viene riciclato può finire nel giro nuovo: è un'approssimazione accettata
+	private static final class Totals {
+
+		private static final int FIELDS = 5;
+
+		private final LongAdder requests = new LongAdder();
+		private final LongAdder statements = new LongAdder();
+		private final LongAdder rows = new LongAdder();
+		private final LongAdder nanos = new LongAdder();
+		private final LongAccumulator maxStatements = new LongAccumulator(Math::max, 0);
+
+		void add(JdbcStatistics statistics) {
+			requests.increment();
+			statements.add(statistics.getStatements());
+			rows.add(statistics.getRows());
+			nanos.add(statistics.getTime().toNanos());
+			maxStatements.accumulate(statistics.getStatements());
+		}
+
+		void mergeInto(long[] merged) {
+			merged[0] += requests.sum();
+			merged[1] += statements.sum();
+			merged[2] += rows.sum();
+			merged[3] += nanos.sum();
+			merged[4] = Math.max(merged[4], maxStatements.get());
+		}
+
+		static EndpointStatistics toStatistics(String endpoint, long[] merged) {
+			return new EndpointStatistics(endpoint, merged[0], merged[1], merged[4], merged[2], merged[3] / 1e6);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package com.ecommerce.manager.jdbc;
+
+import java.time.Duration;
+
+/**
+ * Statements executed, rows fetched and time spent in JDBC calls by one HTTP
+ * request. The statistics of the request being served are bound to its
+ * thread between {@link #start()} and {@link #stop()}; work handed over to
+ * other threads (e.g. the group commit of the balance) is not counted.
+ */
+public final class JdbcStatistics {
+
+	private static final ThreadLocal<JdbcStatistics> CURRENT = new ThreadLocal<>();
+
+	// Letti e scritti solo dal thread della richiesta
+	private long statements;
+	private long rows;
+	private long nanos;
+
+	JdbcStatistics() {
+	}
+
+	public static JdbcStatistics start() {
+		JdbcStatistics statistics = new JdbcStatistics();
+		CURRENT.set(statistics);
+		return statistics;
+	}
+
+	public static void stop() {
+		CURRENT.remove();
+	}
+
+	static JdbcStatistics current() {
+		return CURRENT.get();
+	}
+
+	void statementExecuted(long elapsedNanos) {
+		statements++;
+		nanos += elapsedNanos;
+	}
+
+	void rowFetched(boolean fetched, long elapsedNanos) {
+		if (fetched) {
+			rows++;
+		}
+
+		nanos += elapsedNanos;
+	}
+
+	public long getStatements() {
+		return statements;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public Duration getTime() {
+		return Duration.ofNanos(nanos);
+	}
+}
@@ -0,0 +1,79 @@
+package com.ecommerce.manager.jdbc;
+
+import java.time.Duration;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * JDBC accounting. Per-request statistics are on unless
+ * {@code ecommerce.jdbc-stats.enabled} is false: every servlet request goes
+ * through the {@link JdbcStatisticsFilter}. SQL fingerprints are on unless
+ * {@code ecommerce.sql-fingerprints.enabled} is false. With either of them, the
+ * data source used by the application is wrapped in a
+ * {@link JdbcStatisticsDataSource}.
+ */
+@Configuration(proxyBeanMethods = false)
+public class JdbcStatisticsConfiguration {
+
+	// Solo il bean "dataSource": con la replica i due pool sono dietro di lui e verrebbero contati due volte
+	@Bean
+	public static BeanPostProcessor jdbcStatisticsDataSourceWrapper(ObjectProvider<JdbcRequestReport> requestReport,
+			ObjectProvider<SqlFingerprintReport> fingerprintReport) {
+		return new BeanPostProcessor() {
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if (!beanName.equals("dataSource") || !(bean instanceof DataSource dataSource)
+						|| bean instanceof JdbcStatisticsDataSource) {
+					return bean;
+				}
+
+				SqlFingerprintReport fingerprints = fingerprintReport.getIfAvailable();
+
+				if (fingerprints == null && requestReport.getIfAvailable() == null) {
+					return bean;
+				}
+
+				return new JdbcStatisticsDataSource(dataSource, fingerprints);
+			}
+		};
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "ecommerce.jdbc-stats.enabled", matchIfMissing = true)
+	public JdbcRequestReport jdbcRequestReport(@Value("${ecommerce.jdbc-stats.window:5m}") Duration window,
+			@Value("${ecommerce.jdbc-stats.top:10}") int top) {
+		return new JdbcRequestReport(window, top);
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "ecommerce.jdbc-stats.enabled", matchIfMissing = true)
+	@ConditionalOnWebApplication(type = Type.SERVLET)
+	public FilterRegistrationBean<JdbcStatisticsFilter> jdbcStatisticsFilter(JdbcRequestReport report,
+			@Value("${ecommerce.jdbc-stats.headers:false}") boolean headers) {
+		FilterRegistrationBean<JdbcStatisticsFilter> registration = new FilterRegistrationBean<>(
+				new JdbcStatisticsFilter(report, headers));
+		// Per primo, così il buffer della risposta racchiude tutti gli altri filtri
+		registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+		return registration;
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "ecommerce.sql-fingerprints.enabled", matchIfMissing = true)
+	public SqlFingerprintReport sqlFingerprintReport(
+			@Value("${ecommerce.sql-fingerprints.slow-threshold:200ms}") Duration slowThreshold,
+			@Value("${ecommerce.sql-fingerprints.top:20}") int top,
+			@Value("${ecommerce.sql-fingerprints.max-entries:500}") int maxEntries) {
+		return new SqlFingerprintReport(slowThreshold, top, maxEntries);
+	}
+}
@@ -0,0 +1,247 @@
+package com.ecommerce.manager.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.lang.Nullable;
+
+/**
+ * Adds the JDBC work of the current request to its {@link JdbcStatistics}.
+ * Each {@code execute*} call of a statement counts as one statement, a batch
+ * included, and each {@code ResultSet.next()} that returns a row counts as a
+ * fetched row; the time of both is added to the request.
+ * <p>
+ * When a {@link SqlFingerprintReport} is given, every execution is also
+ * recorded there with its SQL and the types of its bind parameters, requests
+ * or not. Without it, connections obtained outside a request are returned as
+ * they are, so scheduled jobs and startup pay nothing for the accounting.
+ */
+public class JdbcStatisticsDataSource extends DelegatingDataSource {
+
+	private final SqlFingerprintReport fingerprints;
+
+	public JdbcStatisticsDataSource(DataSource target) {
+		this(target, null);
+	}
+
+	public JdbcStatisticsDataSource(DataSource target, @Nullable SqlFingerprintReport fingerprints) {
+		super(target);
+		this.fingerprints = fingerprints;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return account(super.getConnection());
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return account(super.getConnection(username, password));
+	}
+
+	private Connection account(Connection connection) {
+		JdbcStatistics statistics = JdbcStatistics.current();
+
+		if (statistics == null && fingerprints == null) {
+			return connection;
+		}
+
+		return proxy(Connection.class, new ConnectionHandler(connection, statistics, fingerprints));
+	}
+
+	private static <T> T proxy(Class<T> type, Handler handler) {
+		return type.cast(Proxy.newProxyInstance(JdbcStatisticsDataSource.class.getClassLoader(),
+				new Class<?>[] { type }, handler));
+	}
+
+	private abstract static class Handler implements InvocationHandler {
+
+		final Object target;
+
+		// Le statistiche sono quelle della richiesta che ha aperto la connessione, null fuori da una richiesta
+		final JdbcStatistics statistics;
+		final SqlFingerprintReport fingerprints;
+
+		Handler(Object target, JdbcStatistics statistics, SqlFingerprintReport fingerprints) {
+			this.target = target;
+			this.statistics = statistics;
+			this.fingerprints = fingerprints;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getName().equals("equals")) {
+				return proxy == args[0];
+			}
+
+			if (method.getName().equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			}
+
+			return handle(method, args);
+		}
+
+		abstract Object handle(Method method, Object[] args) throws Throwable;
+
+		Object call(Method method, Object[] args) throws Throwable {
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	private static final class ConnectionHandler extends Handler {
+
+		ConnectionHandler(Connection target, JdbcStatistics statistics, SqlFingerprintReport fingerprints) {
+			super(target, statistics, fingerprints);
+		}
+
+		@Override
+		Object handle(Method method, Object[] args) throws Throwable {
+			Object result = call(method, args);
+
+			// prepareStatement e prepareCall ricevono l'SQL per primo, createStatement lo riceve a ogni execute
+			if (result instanceof Statement) {
+				String sql = args != null && args.length > 0 && args[0] instanceof String text ? text : null;
+				return proxy(method.getReturnType().asSubclass(Statement.class),
+						new StatementHandler((Statement) result, sql, statistics, fingerprints));
+			}
+
+			return result;
+		}
+	}
+
+	private static final class StatementHandler extends Handler {
+
+		private String sql;
+
+		// Tipi dei parametri impostati per posizione e righe accumulate nel batch
+		private final List<String> parameterTypes = new ArrayList<>();
+		private int batchRows;
+
+		StatementHandler(Statement target, String sql, JdbcStatistics statistics,
+				SqlFingerprintReport fingerprints) {
+			super(target, statistics, fingerprints);
+			this.sql = sql;
+		}
+
+		@Override
+		Object handle(Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+
+			if (name.startsWith("execute")) {
+				return execute(method, args);
+			}
+
+			if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer index
+					&& target instanceof PreparedStatement) {
+				parameterType(index, name, args[1]);
+			} else if (name.equals("clearParameters")) {
+				parameterTypes.clear();
+			} else if (name.equals("addBatch")) {
+				batchRows++;
+
+				if (args != null && args.length == 1) {
+					sql = (String) args[0];
+				}
+			} else if (name.equals("clearBatch")) {
+				batchRows = 0;
+			}
+
+			return wrapResultSet(call(method, args));
+		}
+
+		private Object execute(Method method, Object[] args) throws Throwable {
+			String executed = args != null && args.length > 0 && args[0] instanceof String text ? text : sql;
+			long start = System.nanoTime();
+
+			try {
+				return wrapResultSet(call(method, args));
+			} finally {
+				// Anche una query fallita ha occupato il database
+				long elapsed = System.nanoTime() - start;
+
+				if (statistics != null) {
+					statistics.statementExecuted(elapsed);
+				}
+
+				if (fingerprints != null && executed != null) {
+					fingerprints.record(executed, elapsed, parameterShape());
+				}
+
+				if (method.getName().contains("Batch")) {
+					batchRows = 0;
+				}
+			}
+		}
+
+		private void parameterType(int index, String setter, Object value) {
+			String type;
+
+			if (setter.equals("setNull") || value == null) {
+				type = "null";
+			} else if (setter.equals("setObject")) {
+				type = value.getClass().getSimpleName();
+			} else {
+				type = setter.substring("set".length());
+			}
+
+			while (parameterTypes.size() < index) {
+				parameterTypes.add("?");
+			}
+
+			parameterTypes.set(index - 1, type);
+		}
+
+		private String parameterShape() {
+			String shape = "(" + String.join(", ", parameterTypes) + ")";
+			return batchRows > 1 ? shape + " x " + batchRows : shape;
+		}
+
+		private Object wrapResultSet(Object result) {
+			if (result instanceof ResultSet resultSet && statistics != null) {
+				return proxy(ResultSet.class, new ResultSetHandler(resultSet, statistics));
+			}
+
+			return result;
+		}
+	}
+
+	private static final class ResultSetHandler extends Handler {
+
+		ResultSetHandler(ResultSet target, JdbcStatistics statistics) {
+			super(target, statistics, null);
+		}
+
+		@Override
+		Object handle(Method method, Object[] args) throws Throwable {
+			if (!method.getName().equals("next")) {
+				return call(method, args);
+			}
+
+			long start = System.nanoTime();
+			Object result = null;
+
+			try {
+				result = call(method, args);
+				return result;
+			} finally {
+				statistics.rowFetched(Boolean.TRUE.equals(result), System.nanoTime() - start);
+			}
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.ecommerce.manager.jdbc;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Collects the {@link JdbcStatistics} of each request and records them in the
+ * {@link JdbcRequestReport} under the method and the matched path pattern
+ * (e.g. {@code GET /api/users/{id}}). Requests that match no handler are not
+ * recorded.
+ * <p>
+ * With {@code headers} enabled the totals are also returned in the
+ * {@value #STATEMENTS_HEADER}, {@value #ROWS_HEADER} and
+ * {@value #MILLIS_HEADER} response headers. The body is then buffered until the
+ * request completes, streamed responses included, so this is meant for the
+ * {@code debug} profile only.
+ */
+public class JdbcStatisticsFilter extends OncePerRequestFilter {
+
+	public static final String STATEMENTS_HEADER = "X-Jdbc-Statements";
+	public static final String ROWS_HEADER = "X-Jdbc-Rows";
+	public static final String MILLIS_HEADER = "X-Jdbc-Millis";
+
+	private final JdbcRequestReport report;
+	private final boolean headers;
+
+	public JdbcStatisticsFilter(JdbcRequestReport report, boolean headers) {
+		this.report = report;
+		this.headers = headers;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		// Gli header vanno scritti prima del body: lo si trattiene fino alla fine della richiesta
+		ContentCachingResponseWrapper buffered = headers ? new ContentCachingResponseWrapper(response) : null;
+		JdbcStatistics statistics = JdbcStatistics.start();
+
+		try {
+			filterChain.doFilter(request, buffered != null ? buffered : response);
+		} finally {
+			JdbcStatistics.stop();
+			Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+
+			if (pattern != null) {
+				report.record(request.getMethod() + " " + pattern, statistics);
+			}
+		}
+
+		if (buffered != null) {
+			buffered.setHeader(STATEMENTS_HEADER, Long.toString(statistics.getStatements()));
+			buffered.setHeader(ROWS_HEADER, Long.toString(statistics.getRows()));
+			buffered.setHeader(MILLIS_HEADER,
+					String.format(Locale.ROOT, "%.3f", statistics.getTime().toNanos() / 1e6));
+			buffered.copyBodyToResponse();
+		}
+	}
+}
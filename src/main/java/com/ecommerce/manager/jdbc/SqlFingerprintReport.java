@@ -0,0 +1,178 @@
+package com.ecommerce.manager.jdbc;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import org.HdrHistogram.AtomicHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+
+/**
+ * Aggregates of every SQL statement executed by the application, grouped by
+ * fingerprint: the SQL with literals replaced by {@code ?}, {@code IN} lists
+ * collapsed and whitespace normalized, so that the same repository query
+ * always lands on the same entry. Each fingerprint keeps its count, total and
+ * maximum time and a histogram for the p99; recording takes no locks.
+ * <p>
+ * Executions slower than {@code slow-threshold} are logged with their
+ * fingerprint and the types of their bind parameters, never the values.
+ * <p>
+ * The {@code top} fingerprints are exposed on {@code /actuator/sqlfingerprints},
+ * by total time or, with {@code ?sort=count}, {@code max} or {@code p99}, by
+ * the other aggregates; a {@code DELETE} resets them. Beyond
+ * {@code max-entries} fingerprints, new ones are counted under
+ * {@value #OTHER}.
+ */
+@Endpoint(id = "sqlfingerprints")
+public class SqlFingerprintReport {
+
+	static final String OTHER = "(other)";
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SqlFingerprintReport.class);
+
+	// Tempi in microsecondi fino a un'ora, con due cifre significative
+	private static final long HIGHEST_MICROS = TimeUnit.HOURS.toMicros(1);
+	private static final int SIGNIFICANT_DIGITS = 2;
+
+	private static final Pattern COMMENTS = Pattern.compile("/\\*.*?\\*/|--[^\\n]*", Pattern.DOTALL);
+	private static final Pattern STRINGS = Pattern.compile("'(?:[^']|'')*'");
+	private static final Pattern NUMBERS = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+	private static final Pattern IN_LISTS = Pattern.compile("(?i)\\bin\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	private static final Map<String, Comparator<FingerprintStatistics>> SORTS = Map.of("time",
+			Comparator.comparingDouble(FingerprintStatistics::totalMillis), "count",
+			Comparator.comparingLong(FingerprintStatistics::count), "max",
+			Comparator.comparingDouble(FingerprintStatistics::maxMillis), "p99",
+			Comparator.comparingDouble(FingerprintStatistics::p99Millis));
+
+	/**
+	 * Aggregates of one fingerprint since the last reset.
+	 */
+	public record FingerprintStatistics(String fingerprint, long count, double totalMillis, double maxMillis,
+			double p99Millis) {
+
+		public double meanMillis() {
+			return totalMillis / count;
+		}
+	}
+
+	private final long slowThresholdNanos;
+	private final int top;
+	private final int maxEntries;
+
+	private final Map<String, Aggregate> aggregates = new ConcurrentHashMap<>();
+
+	// L'SQL di Hibernate si ripete identico: la normalizzazione si fa una volta per testo
+	private final Map<String, String> fingerprints = new ConcurrentHashMap<>();
+
+	public SqlFingerprintReport(Duration slowThreshold, int top, int maxEntries) {
+		if (slowThreshold.isNegative()) {
+			throw new IllegalArgumentException("Slow threshold cannot be negative");
+		}
+
+		if (top < 1) {
+			throw new IllegalArgumentException("Top must be at least 1");
+		}
+
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("Max entries must be at least 1");
+		}
+
+		this.slowThresholdNanos = slowThreshold.toNanos();
+		this.top = top;
+		this.maxEntries = maxEntries;
+	}
+
+	public void record(String sql, long elapsedNanos, String parameterShape) {
+		String fingerprint = fingerprintOf(sql);
+		Aggregate aggregate = aggregates.get(fingerprint);
+
+		if (aggregate == null) {
+			// Il limite è indicativo: più thread possono superarlo di poco insieme
+			aggregate = aggregates.size() < maxEntries ? aggregates.computeIfAbsent(fingerprint, key -> new Aggregate())
+					: aggregates.computeIfAbsent(OTHER, key -> new Aggregate());
+		}
+
+		aggregate.add(elapsedNanos);
+
+		if (elapsedNanos >= slowThresholdNanos) {
+			LOGGER.warn("Slow query took {} ms: {} with parameters {}",
+					String.format(Locale.ROOT, "%.3f", elapsedNanos / 1e6), fingerprint, parameterShape);
+		}
+	}
+
+	@ReadOperation
+	public List<FingerprintStatistics> top(@Nullable String sort) {
+		Comparator<FingerprintStatistics> order = SORTS.get(sort == null ? "time" : sort);
+
+		if (order == null) {
+			throw new InvalidEndpointRequestException("Unknown sort " + sort, "Sort must be one of " + SORTS.keySet());
+		}
+
+		return aggregates.entrySet().stream().map(entry -> entry.getValue().toStatistics(entry.getKey()))
+				.sorted(order.reversed()).limit(top).toList();
+	}
+
+	// Un'esecuzione in corso durante il reset può finire nell'aggregato appena rimosso
+	@DeleteOperation
+	public void reset() {
+		aggregates.clear();
+	}
+
+	String fingerprintOf(String sql) {
+		String fingerprint = fingerprints.get(sql);
+
+		if (fingerprint == null) {
+			fingerprint = normalize(sql);
+
+			// Testi con i valori nell'SQL non si ripetono: oltre il limite non si conservano
+			if (fingerprints.size() < maxEntries * 4) {
+				fingerprints.put(sql, fingerprint);
+			}
+		}
+
+		return fingerprint;
+	}
+
+	static String normalize(String sql) {
+		String normalized = COMMENTS.matcher(sql).replaceAll(" ");
+		normalized = STRINGS.matcher(normalized).replaceAll("?");
+		normalized = NUMBERS.matcher(normalized).replaceAll("?");
+		normalized = IN_LISTS.matcher(normalized).replaceAll("in (?+)");
+		return WHITESPACE.matcher(normalized).replaceAll(" ").trim().toLowerCase(Locale.ROOT);
+	}
+
+	private static final class Aggregate {
+
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+		private final AtomicHistogram micros = new AtomicHistogram(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+
+		void add(long elapsedNanos) {
+			count.increment();
+			totalNanos.add(elapsedNanos);
+			maxNanos.accumulate(elapsedNanos);
+			micros.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(elapsedNanos), HIGHEST_MICROS));
+		}
+
+		FingerprintStatistics toStatistics(String fingerprint) {
+			return new FingerprintStatistics(fingerprint, count.sum(), totalNanos.sum() / 1e6, maxNanos.get() / 1e6,
+					micros.getValueAtPercentile(99.0) / 1e3);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package com.ecommerce.manager.model;
+
+import java.time.Instant;
+import java.util.Objects;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+@Entity
+@Table(name = "balance_entries") // Plurale per evitare conflitti
+public class BalanceEntry {
+
+	@Id
+	@GeneratedValue
+	private Long id;
+
+	@Column(name = "user_id", nullable = false)
+	private long userId;
+	private long amount;
+
+	@Column(nullable = false)
+	private Instant createdAt;
+
+	// Vero quando l'importo è già stato riportato nel balance dello user
+	private boolean folded;
+
+	public BalanceEntry() {
+		// required for serialization/deserialization
+	}
+
+	public BalanceEntry(Long id, long userId, long amount, Instant createdAt, boolean folded) {
+		this.id = id;
+		this.userId = userId;
+		this.amount = amount;
+		this.createdAt = createdAt;
+		this.folded = folded;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public long getUserId() {
+		return userId;
+	}
+
+	public void setUserId(long userId) {
+		this.userId = userId;
+	}
+
+	public long getAmount() {
+		return amount;
+	}
+
+	public void setAmount(long amount) {
+		this.amount = amount;
+	}
+
+	public Instant getCreatedAt() {
+		return createdAt;
+	}
+
+	public void setCreatedAt(Instant createdAt) {
+		this.createdAt = createdAt;
+	}
+
+	public boolean isFolded() {
+		return folded;
+	}
+
+	public void setFolded(boolean folded) {
+		this.folded = folded;
+	}
+
+	@Override
+	public String toString() {
+		return "BalanceEntry [id=" + id + ", userId=" + userId + ", amount=" + amount + ", createdAt=" + createdAt
+				+ ", folded=" + folded + "]";
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(amount, createdAt, folded, id, userId);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		BalanceEntry other = (BalanceEntry) obj;
+		return amount == other.amount && Objects.equals(createdAt, other.createdAt) && folded == other.folded
+				&& Objects.equals(id, other.id) && userId == other.userId;
+	}
+}
@@ -0,0 +1,150 @@
+package com.ecommerce.manager.model;
+
+import java.time.Instant;
+import java.util.Objects;
+
+import org.springframework.data.domain.Persistable;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+
+@Entity
+@Table(name = "idempotency_keys")
+public class IdempotencyRecord implements Persistable<String> {
+
+	public static final int MAX_KEY_LENGTH = 255;
+
+	// Status di una chiave inserita insieme all'operazione, finché la risposta non è nota
+	public static final int PENDING = 0;
+
+	// Endpoint più Idempotency-Key del client, "key" è riservata in MySQL
+	@Id
+	@Column(name = "idempotency_key", length = MAX_KEY_LENGTH)
+	private String key;
+
+	// Digest del body della richiesta originale, per riconoscere chiavi riusate
+	@Column(nullable = false)
+	private String requestHash;
+	private int status;
+
+	@Column(length = 4000)
+	private String body;
+
+	@Column(nullable = false)
+	private Instant createdAt;
+
+	// Con l'id assegnato dal client il save deve fare un insert, non un merge: una chiave già usata lo fa fallire
+	@Transient
+	private boolean isNew = true;
+
+	public IdempotencyRecord() {
+		// required for serialization/deserialization
+	}
+
+	public IdempotencyRecord(String key, String requestHash, int status, String body, Instant createdAt) {
+		this.key = key;
+		this.requestHash = requestHash;
+		this.status = status;
+		this.body = body;
+		this.createdAt = createdAt;
+	}
+
+	public static IdempotencyRecord pending(String key, String requestHash, Instant createdAt) {
+		return new IdempotencyRecord(key, requestHash, PENDING, null, createdAt);
+	}
+
+	public void complete(int status, String body) {
+		this.status = status;
+		this.body = body;
+	}
+
+	public boolean isPending() {
+		return status == PENDING;
+	}
+
+	@Override
+	public String getId() {
+		return key;
+	}
+
+	@Override
+	public boolean isNew() {
+		return isNew;
+	}
+
+	@PostLoad
+	@PostPersist
+	void markNotNew() {
+		isNew = false;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public void setKey(String key) {
+		this.key = key;
+	}
+
+	public String getRequestHash() {
+		return requestHash;
+	}
+
+	public void setRequestHash(String requestHash) {
+		this.requestHash = requestHash;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public void setStatus(int status) {
+		this.status = status;
+	}
+
+	public String getBody() {
+		return body;
+	}
+
+	public void setBody(String body) {
+		this.body = body;
+	}
+
+	public Instant getCreatedAt() {
+		return createdAt;
+	}
+
+	public void setCreatedAt(Instant createdAt) {
+		this.createdAt = createdAt;
+	}
+
+	@Override
+	public String toString() {
+		return "IdempotencyRecord [key=" + key + ", requestHash=" + requestHash + ", status=" + status + ", body="
+				+ body + ", createdAt=" + createdAt + "]";
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(body, createdAt, key, requestHash, status);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		IdempotencyRecord other = (IdempotencyRecord) obj;
+		return Objects.equals(body, other.body) && Objects.equals(createdAt, other.createdAt)
+				&& Objects.equals(key, other.key) && Objects.equals(requestHash, other.requestHash)
+				&& status == other.status;
+	}
+}
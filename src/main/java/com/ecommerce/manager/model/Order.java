@@ -2,23 +2,44 @@ package com.ecommerce.manager.model;
 
 import java.util.Objects;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.springframework.lang.NonNull;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.FetchType;
-import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.NamedAttributeNode;
+import jakarta.persistence.NamedEntityGraph;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 
 @Entity
-@Table(name = "orders") // Plurale per evitare conflitti
+// Plurale per evitare conflitti. user_id da solo serve a findByUser e alle foreign key, con item davanti a findByItem
+@Table(name = "orders", indexes = { @Index(name = "orders_user_id_idx", columnList = "user_id"),
+		@Index(name = "orders_item_user_id_idx", columnList = "item, user_id"),
+		@Index(name = "orders_price_idx", columnList = "price") })
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+// Lo user viene caricato in join solo dai finder che dichiarano il grafo
+@NamedEntityGraph(name = Order.WITH_USER_GRAPH, attributeNodes = @NamedAttributeNode("user"))
 public class Order {
 
+	/**
+	 * Orders read together with their full user: the list, the edit form and the
+	 * order returned by an update.
+	 */
+	public static final String WITH_USER_GRAPH = "Order.withUser";
+
 	@Id
-	@GeneratedValue
+	@PooledSequence("orders_seq")
 	private Long id;
 
 	@NonNull
@@ -26,10 +47,15 @@ public class Order {
 	private Item item;
 	private long price;
 
-	@ManyToOne(fetch = FetchType.EAGER)
+	@ManyToOne(fetch = FetchType.LAZY)
 	@JoinColumn(name = "user_id")
 	private User user;
 
+	// Gestita dal server per il controllo di concorrenza ottimistico
+	@Version
+	@JsonIgnore
+	private long version;
+
 	public Order() {
 		// required for serialization/deserialization
 	}
@@ -73,6 +99,14 @@ public class Order {
 		this.user = user;
 	}
 
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
 	@Override
 	public String toString() {
 		return "Order [id=" + id + ", item=" + item + ", price=" + price + "]";
@@ -0,0 +1,8 @@
+package com.ecommerce.manager.model;
+
+/**
+ * Read-only view of an order with the identity of its user, loaded with a
+ * single join query instead of hydrating the {@link User} entity.
+ */
+public record OrderSummary(Long id, Item item, long price, Long userId, String username) {
+}
@@ -0,0 +1,25 @@
+package com.ecommerce.manager.model;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import org.hibernate.annotations.IdGeneratorType;
+
+/**
+ * Identifier taken from a database sequence in blocks: a single call to the
+ * sequence reserves a whole block of ids, which are then handed out in memory.
+ * The block size is the {@code ecommerce.id.block-size} Hibernate setting.
+ */
+@IdGeneratorType(PooledSequenceGenerator.class)
+@Retention(RUNTIME)
+@Target(FIELD)
+public @interface PooledSequence {
+
+	/**
+	 * Name of the database sequence.
+	 */
+	String value();
+}
@@ -0,0 +1,43 @@
+package com.ecommerce.manager.model;
+
+import java.util.Properties;
+
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.config.spi.StandardConverters;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+/**
+ * Sequence generator whose block size is read from the Hibernate settings
+ * instead of being fixed in the mapping, so that it can be tuned per
+ * environment. The ids of a block are assigned with the pooled-lo optimizer.
+ */
+public class PooledSequenceGenerator extends SequenceStyleGenerator {
+
+	public static final String BLOCK_SIZE_SETTING = "ecommerce.id.block-size";
+	public static final int DEFAULT_BLOCK_SIZE = 50;
+
+	private final String sequenceName;
+
+	public PooledSequenceGenerator(PooledSequence config) {
+		this.sequenceName = config.value();
+	}
+
+	@Override
+	public void configure(Type type, Properties parameters, ServiceRegistry serviceRegistry) throws MappingException {
+		int blockSize = serviceRegistry.requireService(ConfigurationService.class).getSetting(BLOCK_SIZE_SETTING,
+				StandardConverters.INTEGER, DEFAULT_BLOCK_SIZE);
+
+		if (blockSize < 1) {
+			throw new MappingException("Id block size must be at least 1");
+		}
+
+		parameters.put(SEQUENCE_PARAM, sequenceName);
+		parameters.put(INCREMENT_PARAM, String.valueOf(blockSize));
+		parameters.put(OPT_PARAM, "pooled-lo");
+
+		super.configure(type, parameters, serviceRegistry);
+	}
+}
@@ -0,0 +1,17 @@
+package com.ecommerce.manager.model;
+
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Aggregates of a table that change with every committed write: an insert or a
+ * delete changes the rows and the sum of the ids, an update raises the sum of
+ * the versions. Append-only tables have no versions.
+ */
+public record TableState(long rows, long ids, long versions) {
+
+	public String marker() {
+		return LongStream.of(rows, ids, versions).mapToObj(value -> Long.toString(value, 36))
+				.collect(Collectors.joining("."));
+	}
+}
@@ -2,23 +2,36 @@ package com.ecommerce.manager.model;
 
 import java.util.Objects;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import jakarta.persistence.Entity;
-import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 
 @Entity
-@Table(name = "users") // Plurale per evitare conflitti
+// Plurale per evitare conflitti. Un indice per ogni finder: username ed email sono anche univoci
+@Table(name = "users", indexes = { @Index(name = "users_username_idx", columnList = "username", unique = true),
+		@Index(name = "users_email_idx", columnList = "email", unique = true),
+		@Index(name = "users_name_idx", columnList = "name"),
+		@Index(name = "users_balance_idx", columnList = "balance") })
+// Fuori dalla cache di secondo livello: dopo ogni update bulk del balance Hibernate ne svuota l'intera region
 public class User {
 
 	@Id
-	@GeneratedValue
+	@PooledSequence("users_seq")
 	private Long id;
 	private String username;
 	private String name;
 	private String email;
 	private long balance;
 
+	// Gestita dal server per il controllo di concorrenza ottimistico
+	@Version
+	@JsonIgnore
+	private long version;
+
 	public User() {
 		// required for serialization/deserialization
 	}
@@ -71,6 +84,14 @@ public class User {
 		this.balance = balance;
 	}
 
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
 	@Override
 	public String toString() {
 		return "User [id=" + id + ", username=" + username + ", name=" + name + ", email=" + email + ", balance="
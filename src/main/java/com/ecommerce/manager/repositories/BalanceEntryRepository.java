@@ -0,0 +1,47 @@
+package com.ecommerce.manager.repositories;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import com.ecommerce.manager.model.BalanceEntry;
+import com.ecommerce.manager.model.TableState;
+
+public interface BalanceEntryRepository extends JpaRepository<BalanceEntry, Long> {
+
+	interface PendingAmount {
+		long getUserId();
+
+		long getAmount();
+	}
+
+	List<BalanceEntry> findByUserIdOrderByIdAsc(long userId);
+
+	// Snapshot dello user più le entry non ancora riportate, null se lo user non esiste
+	@Query("Select u.balance + coalesce((Select sum(e.amount) from BalanceEntry e "
+			+ "where e.userId = u.id and e.folded = false), 0) from User u where u.id = :userId")
+	Long findCurrentBalance(@Param("userId") long userId);
+
+	@Query("Select coalesce(sum(e.amount), 0) from BalanceEntry e where e.userId = :userId and e.folded = false")
+	long sumPendingAmount(@Param("userId") long userId);
+
+	@Query("Select e.userId as userId, sum(e.amount) as amount from BalanceEntry e "
+			+ "where e.userId in :userIds and e.folded = false group by e.userId")
+	List<PendingAmount> sumPendingAmounts(@Param("userIds") Collection<Long> userIds);
+
+	// Le entry non vengono mai modificate, solo riportate: bastano le righe e gli id
+	@Query("Select new com.ecommerce.manager.model.TableState(count(e), coalesce(sum(e.id), 0L), 0L) "
+			+ "from BalanceEntry e")
+	TableState findTableState();
+
+	@Query("Select distinct e.userId from BalanceEntry e where e.folded = false")
+	List<Long> findUserIdsWithPendingEntries();
+
+	@Modifying(flushAutomatically = true)
+	@Query("Update BalanceEntry e set e.folded = true where e.userId = :userId and e.folded = false")
+	int markFolded(@Param("userId") long userId);
+}
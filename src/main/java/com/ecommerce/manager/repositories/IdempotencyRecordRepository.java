@@ -0,0 +1,19 @@
+package com.ecommerce.manager.repositories;
+
+import java.time.Instant;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.ecommerce.manager.model.IdempotencyRecord;
+
+public interface IdempotencyRecordRepository extends JpaRepository<IdempotencyRecord, String> {
+
+	@Transactional
+	@Modifying
+	@Query("Delete from IdempotencyRecord r where r.createdAt < :threshold")
+	int deleteCreatedBefore(@Param("threshold") Instant threshold);
+}
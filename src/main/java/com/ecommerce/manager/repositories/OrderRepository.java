@@ -1,21 +1,54 @@
 package com.ecommerce.manager.repositories;
 
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
 import com.ecommerce.manager.model.Item;
 import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.OrderSummary;
+import com.ecommerce.manager.model.TableState;
 import com.ecommerce.manager.model.User;
 
+import jakarta.persistence.QueryHint;
+
 public interface OrderRepository extends JpaRepository<Order, Long> {
 
+	String EXPORT_FETCH_SIZE = "500";
+
+	String FINDERS_CACHE_REGION = "orders-finders";
+
+	String SUMMARY_SELECT = "Select new com.ecommerce.manager.model.OrderSummary("
+			+ "o.id, o.item, o.price, u.id, u.username) from Order o join o.user u ";
+
+	// Order.user è lazy: chi usa lo user dichiara il grafo, gli altri leggono solo la tabella orders
+	@Override
+	@EntityGraph(Order.WITH_USER_GRAPH)
+	List<Order> findAll();
+
+	@EntityGraph(Order.WITH_USER_GRAPH)
+	Optional<Order> findForEditingById(long id);
+
+	@EntityGraph(Order.WITH_USER_GRAPH)
+	Optional<Order> findForPlacementById(long id);
+
+	// Risultati nella cache delle query, invalidati da Hibernate a ogni scrittura su orders
+	@QueryHints({ @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+			@QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = FINDERS_CACHE_REGION) })
 	List<Order> findByItem(Item item);
 
 	List<Order> findByPrice(long price);
 
+	@QueryHints({ @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+			@QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = FINDERS_CACHE_REGION) })
 	List<Order> findByUser(User user);
 
 	List<Order> findByItemOrPrice(Item item, long price);
@@ -25,4 +58,30 @@ public interface OrderRepository extends JpaRepository<Order, Long> {
 	@Query("Select o from Order o where o.price > :threshold")
 	List<Order> findAllOrdersWithHighPrice(@Param("threshold") long threshold);
 
+	// Lettura a cursore per l'export: le righe arrivano dal driver a blocchi di EXPORT_FETCH_SIZE
+	@QueryHints({ @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE),
+			@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true") })
+	@Query("Select o from Order o join fetch o.user where o.price > :threshold order by o.id")
+	Stream<Order> streamByPriceGreaterThan(@Param("threshold") long threshold);
+
+	@QueryHints({ @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE),
+			@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true") })
+	@Query("Select o from Order o join fetch o.user where o.item = :item and o.price > :threshold order by o.id")
+	Stream<Order> streamByItemAndPriceGreaterThan(@Param("item") Item item, @Param("threshold") long threshold);
+
+	// Proiezioni in sola lettura: una sola query, senza caricare le entity User
+	@Query(SUMMARY_SELECT + "order by o.id")
+	List<OrderSummary> findAllSummaries();
+
+	// Paginazione keyset: il costo di una pagina non dipende da quante la precedono
+	@Query(SUMMARY_SELECT + "where o.id > :id order by o.id")
+	List<OrderSummary> findSummariesByIdGreaterThan(@Param("id") long id, Limit limit);
+
+	@Query(SUMMARY_SELECT + "where o.id = :id")
+	Optional<OrderSummary> findSummaryById(@Param("id") long id);
+
+	// Aggregati per gli ETag delle liste: letti senza bloccare nulla, cambiano a ogni scrittura
+	@Query("Select new com.ecommerce.manager.model.TableState(count(o), coalesce(sum(o.id), 0L), "
+			+ "coalesce(sum(o.version), 0L)) from Order o")
+	TableState findTableState();
 }
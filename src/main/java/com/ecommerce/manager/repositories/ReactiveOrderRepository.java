@@ -0,0 +1,84 @@
+package com.ecommerce.manager.repositories;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+
+import com.ecommerce.manager.model.Item;
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.OrderSummary;
+
+import io.r2dbc.spi.Readable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking access to the orders table for the reactive API, with the same
+ * queries as {@link OrderRepository}. The item is stored as its ordinal, as in
+ * the JPA mapping.
+ */
+@Repository
+@Profile("reactive")
+public class ReactiveOrderRepository {
+
+	private static final String SUMMARY_SELECT = "Select o.id, o.item, o.price, o.user_id, u.username "
+			+ "from orders o join users u on u.id = o.user_id ";
+
+	private final DatabaseClient client;
+
+	public ReactiveOrderRepository(DatabaseClient client) {
+		this.client = client;
+	}
+
+	// L'ordine con il suo user in una sola query, come il grafo Order.withUser
+	public Mono<Order> findById(long id) {
+		return client
+				.sql("Select o.id as order_id, o.item, o.price, o.version as order_version, "
+						+ ReactiveUserRepository.COLUMNS + " from orders o join users u on u.id = o.user_id "
+						+ "where o.id = :id")
+				.bind("id", id).map(row -> {
+					Order order = new Order(row.get("order_id", Long.class), toItem(row), row.get("price", Long.class),
+							ReactiveUserRepository.toUser(row));
+					order.setVersion(row.get("order_version", Long.class));
+					return order;
+				}).one();
+	}
+
+	// Paginazione keyset: il costo di una pagina non dipende da quante la precedono
+	public Flux<OrderSummary> findSummariesByIdGreaterThan(long id, int limit) {
+		return client.sql(SUMMARY_SELECT + "where o.id > :id order by o.id limit :limit").bind("id", id)
+				.bind("limit", limit).map(ReactiveOrderRepository::toSummary).all();
+	}
+
+	public Mono<OrderSummary> findSummaryById(long id) {
+		return client.sql(SUMMARY_SELECT + "where o.id = :id").bind("id", id)
+				.map(ReactiveOrderRepository::toSummary).one();
+	}
+
+	public Mono<Long> insert(Item item, long price, long userId) {
+		return client.sql("Select next value for orders_seq").map(row -> row.get(0, Long.class)).one()
+				.flatMap(id -> client
+						.sql("Insert into orders (id, item, price, user_id, version) "
+								+ "values (:id, :item, :price, :userId, 0)")
+						.bind("id", id).bind("item", item.ordinal()).bind("price", price).bind("userId", userId)
+						.fetch().rowsUpdated().thenReturn(id));
+	}
+
+	// Controllo di versione come nel save JPA: zero righe se l'ordine è cambiato dopo la lettura
+	public Mono<Long> updateIfVersion(long id, long version, Item item, long price, long userId) {
+		return client
+				.sql("Update orders set item = :item, price = :price, user_id = :userId, version = version + 1 "
+						+ "where id = :id and version = :version")
+				.bind("item", item.ordinal()).bind("price", price).bind("userId", userId).bind("id", id)
+				.bind("version", version).fetch().rowsUpdated();
+	}
+
+	private static OrderSummary toSummary(Readable row) {
+		return new OrderSummary(row.get("id", Long.class), toItem(row), row.get("price", Long.class),
+				row.get("user_id", Long.class), row.get("username", String.class));
+	}
+
+	private static Item toItem(Readable row) {
+		return Item.values()[row.get("item", Number.class).intValue()];
+	}
+}
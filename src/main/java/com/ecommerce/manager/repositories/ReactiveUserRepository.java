@@ -0,0 +1,95 @@
+package com.ecommerce.manager.repositories;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+
+import com.ecommerce.manager.model.User;
+
+import io.r2dbc.spi.Parameter;
+import io.r2dbc.spi.Parameters;
+import io.r2dbc.spi.R2dbcType;
+import io.r2dbc.spi.Readable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking access to the users table for the reactive API, with the same
+ * queries as {@link UserRepository}.
+ */
+@Repository
+@Profile("reactive")
+public class ReactiveUserRepository {
+
+	static final String COLUMNS = "u.id, u.username, u.name, u.email, u.balance, u.version";
+
+	private final DatabaseClient client;
+
+	public ReactiveUserRepository(DatabaseClient client) {
+		this.client = client;
+	}
+
+	public Mono<User> findById(long id) {
+		return client.sql("Select " + COLUMNS + " from users u where u.id = :id").bind("id", id)
+				.map(ReactiveUserRepository::toUser).one();
+	}
+
+	// Paginazione keyset: il costo di una pagina non dipende da quante la precedono
+	public Flux<User> findByIdGreaterThanOrderByIdAsc(long id, int limit) {
+		return client.sql("Select " + COLUMNS + " from users u where u.id > :id order by u.id limit :limit")
+				.bind("id", id).bind("limit", limit).map(ReactiveUserRepository::toUser).all();
+	}
+
+	public Mono<Boolean> existsById(long id) {
+		return client.sql("Select 1 from users where id = :id").bind("id", id).map(row -> Boolean.TRUE).first()
+				.defaultIfEmpty(Boolean.FALSE);
+	}
+
+	// Un valore preso dalla sequence di JPA qui non è mai l'inizio di un blocco di Hibernate
+	public Mono<User> insert(User user) {
+		return client.sql("Select next value for users_seq").map(row -> row.get(0, Long.class)).one()
+				.flatMap(id -> client
+						.sql("Insert into users (id, username, name, email, balance, version) "
+								+ "values (:id, :username, :name, :email, :balance, 0)")
+						.bind("id", id).bind("username", varchar(user.getUsername()))
+						.bind("name", varchar(user.getName())).bind("email", varchar(user.getEmail()))
+						.bind("balance", user.getBalance()).fetch().rowsUpdated()
+						.thenReturn(new User(id, user.getUsername(), user.getName(), user.getEmail(),
+								user.getBalance())));
+	}
+
+	public Mono<Long> update(long id, User replacement) {
+		return client
+				.sql("Update users set username = :username, name = :name, email = :email, balance = :balance, "
+						+ "version = version + 1 where id = :id")
+				.bind("username", varchar(replacement.getUsername())).bind("name", varchar(replacement.getName()))
+				.bind("email", varchar(replacement.getEmail())).bind("balance", replacement.getBalance()).bind("id", id)
+				.fetch().rowsUpdated();
+	}
+
+	// Aggiorna il balance in un solo statement, solo se il risultato non diventa negativo
+	public Mono<Long> updateBalanceIfNotNegative(long id, long amount) {
+		return client
+				.sql("Update users set balance = balance + :amount, version = version + 1 "
+						+ "where id = :id and balance + :amount >= 0")
+				.bind("amount", amount).bind("id", id).fetch().rowsUpdated();
+	}
+
+	// Senza condizione sul risultato, per gli accrediti: vale anche su un balance negativo
+	public Mono<Long> updateBalance(long id, long amount) {
+		return client.sql("Update users set balance = balance + :amount, version = version + 1 where id = :id")
+				.bind("amount", amount).bind("id", id).fetch().rowsUpdated();
+	}
+
+	// Con il tipo esplicito anche un valore null si può legare
+	private static Parameter varchar(String value) {
+		return Parameters.in(R2dbcType.VARCHAR, value);
+	}
+
+	static User toUser(Readable row) {
+		User user = new User(row.get("id", Long.class), row.get("username", String.class),
+				row.get("name", String.class), row.get("email", String.class), row.get("balance", Long.class));
+		user.setVersion(row.get("version", Long.class));
+		return user;
+	}
+}
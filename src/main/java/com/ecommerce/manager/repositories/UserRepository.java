@@ -1,15 +1,20 @@
 package com.ecommerce.manager.repositories;
 
+import java.util.Collection;
 import java.util.List;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import com.ecommerce.manager.model.TableState;
 import com.ecommerce.manager.model.User;
 
 public interface UserRepository extends JpaRepository<User, Long> {
 
+	// Niente cache delle query: ogni scrittura del balance la invaliderebbe
 	User findByUsername(String username);
 
 	User findByName(String name);
@@ -26,4 +31,30 @@ public interface UserRepository extends JpaRepository<User, Long> {
 
 	@Query("Select u from User u where u.balance < :threshold")
 	List<User> findAllUsersWithLowBalance(@Param("threshold") long threshold);
-}
\ No newline at end of file
+
+	// Paginazione keyset: il costo di una pagina non dipende da quante la precedono
+	List<User> findByIdGreaterThanOrderByIdAsc(long id, Limit limit);
+
+	// Aggregati per gli ETag delle liste: letti senza bloccare nulla, cambiano a ogni scrittura
+	@Query("Select new com.ecommerce.manager.model.TableState(count(u), coalesce(sum(u.id), 0L), "
+			+ "coalesce(sum(u.version), 0L)) from User u")
+	TableState findTableState();
+
+	@Query("Select u.username from User u where u.username in :usernames")
+	List<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
+
+	@Query("Select u.email from User u where u.email in :emails")
+	List<String> findExistingEmails(@Param("emails") Collection<String> emails);
+
+	// Aggiorna il balance in un solo statement, solo se il risultato non diventa negativo.
+	// La versione viene incrementata per invalidare le copie lette in precedenza
+	@Modifying(flushAutomatically = true, clearAutomatically = true)
+	@Query("Update User u set u.balance = u.balance + :amount, u.version = u.version + 1 "
+			+ "where u.id = :id and u.balance + :amount >= 0")
+	int updateBalanceIfNotNegative(@Param("id") long id, @Param("amount") long amount);
+
+	// Senza il controllo sul risultato: per importi già accettati, anche su un balance negativo
+	@Modifying(flushAutomatically = true, clearAutomatically = true)
+	@Query("Update User u set u.balance = u.balance + :amount, u.version = u.version + 1 where u.id = :id")
+	int updateBalance(@Param("id") long id, @Param("amount") long amount);
+}
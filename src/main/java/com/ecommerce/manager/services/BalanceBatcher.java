@@ -0,0 +1,259 @@
+package com.ecommerce.manager.services;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Optional group commit of deposits and withdrawals. Operations are queued and
+ * a single writer applies them in batches of up to {@code batch-size}
+ * operations or {@code linger} time, committing each batch in one transaction.
+ * Callers block until their batch is committed, for at most {@code timeout},
+ * and get back their own rejection, if any. Operations still queued when the
+ * batcher stops are rejected.
+ */
+@Component
+public class BalanceBatcher implements SmartLifecycle {
+
+	static final String BATCH_SIZE_METRIC = "ecommerce.group-commit.batch.size";
+	static final String COMMIT_METRIC = "ecommerce.group-commit.batch.commit";
+	static final String WAIT_METRIC = "ecommerce.group-commit.wait";
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BalanceBatcher.class);
+
+	private static final String NOT_RUNNING = "Group commit is not running";
+
+	record BalanceOperation(long userId, long amount, boolean deposit, CompletableFuture<Void> result) {
+	}
+
+	private final EcommerceService ecommerceService;
+	private final UserLockManager userLocks;
+	private final TransactionOperations transactionOperations;
+
+	private final boolean enabled;
+	private final int batchSize;
+	private final Duration linger;
+	private final Duration timeout;
+	private final BlockingQueue<BalanceOperation> queue;
+
+	private final DistributionSummary batchSizes;
+	private final Timer commitTimer;
+	private final Timer waitTimer;
+
+	private volatile boolean running;
+	private Thread writer;
+
+	public BalanceBatcher(EcommerceService ecommerceService, UserLockManager userLocks,
+			TransactionOperations transactionOperations, MeterRegistry meterRegistry,
+			@Value("${ecommerce.group-commit.enabled:false}") boolean enabled,
+			@Value("${ecommerce.group-commit.batch-size:64}") int batchSize,
+			@Value("${ecommerce.group-commit.linger:5ms}") Duration linger,
+			@Value("${ecommerce.group-commit.queue-capacity:1024}") int queueCapacity,
+			@Value("${ecommerce.group-commit.timeout:30s}") Duration timeout) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be at least 1");
+		}
+
+		this.ecommerceService = ecommerceService;
+		this.userLocks = userLocks;
+		this.transactionOperations = transactionOperations;
+		this.enabled = enabled;
+		this.batchSize = batchSize;
+		this.linger = linger;
+		this.timeout = timeout;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+		batchSizes = DistributionSummary.builder(BATCH_SIZE_METRIC).maximumExpectedValue((double) batchSize)
+				.register(meterRegistry);
+		commitTimer = meterRegistry.timer(COMMIT_METRIC);
+		waitTimer = meterRegistry.timer(WAIT_METRIC);
+		meterRegistry.gaugeCollectionSize("ecommerce.group-commit.queue.size", List.of(), queue);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void deposit(long userId, long amount) {
+		submit(new BalanceOperation(userId, amount, true, new CompletableFuture<>()));
+	}
+
+	public void withdraw(long userId, long amount) {
+		submit(new BalanceOperation(userId, amount, false, new CompletableFuture<>()));
+	}
+
+	@Override
+	public synchronized void start() {
+		if (!enabled || running) {
+			return;
+		}
+
+		running = true;
+		writer = new Thread(this::drain, "balance-group-commit");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+
+		// Il writer termina dopo aver svuotato la coda
+		running = false;
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		// Accodate dopo l'ultimo giro del writer, o rimaste per un'interruzione
+		IllegalStateException stopped = new IllegalStateException(NOT_RUNNING);
+		for (BalanceOperation operation = queue.poll(); operation != null; operation = queue.poll()) {
+			operation.result().completeExceptionally(stopped);
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	private void submit(BalanceOperation operation) {
+		if (!running) {
+			throw new IllegalStateException(NOT_RUNNING);
+		}
+
+		long start = System.nanoTime();
+		try {
+			if (!queue.offer(operation, timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+				throw new IllegalStateException("Group commit queue is full");
+			}
+
+			// stop() può aver svuotato la coda per l'ultima volta tra il controllo e l'inserimento
+			if (!running && queue.remove(operation)) {
+				throw new IllegalStateException(NOT_RUNNING);
+			}
+
+			operation.result().get(timeout.toNanos() - (System.nanoTime() - start), TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the balance operation", e);
+		} catch (ExecutionException e) {
+			// Al chiamante arriva la sua eccezione originale (es. balance insufficiente)
+			throw (RuntimeException) e.getCause();
+		} catch (TimeoutException e) {
+			// Ancora in coda: non verrà mai applicata. Altrimenti il suo batch è già in corso
+			if (queue.remove(operation)) {
+				throw new IllegalStateException("Group commit did not reach the balance operation in " + timeout);
+			}
+			throw new IllegalStateException("Balance operation not confirmed in " + timeout + ", outcome unknown");
+		} finally {
+			waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private void drain() {
+		List<BalanceOperation> batch = new ArrayList<>(batchSize);
+
+		while (running || !queue.isEmpty()) {
+			try {
+				BalanceOperation first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+
+				batch.add(first);
+				collect(batch);
+				commit(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				IllegalStateException interrupted = new IllegalStateException("Group commit interrupted", e);
+				batch.forEach(operation -> operation.result().completeExceptionally(interrupted));
+				return;
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	private void collect(List<BalanceOperation> batch) throws InterruptedException {
+		long deadline = System.nanoTime() + linger.toNanos();
+
+		while (batch.size() < batchSize) {
+			long remaining = deadline - System.nanoTime();
+			BalanceOperation next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+
+			if (next == null) {
+				return;
+			}
+
+			batch.add(next);
+		}
+	}
+
+	void commit(List<BalanceOperation> batch) {
+		Map<BalanceOperation, RuntimeException> rejections = new IdentityHashMap<>();
+		long start = System.nanoTime();
+
+		try {
+			transactionOperations.executeWithoutResult(status -> {
+				// Tutti gli user del batch vengono bloccati subito e in ordine, per evitare deadlock
+				userLocks.lockUntilCompletion(batch.stream().mapToLong(BalanceOperation::userId).toArray());
+
+				for (BalanceOperation operation : batch) {
+					try {
+						apply(operation);
+					} catch (IllegalArgumentException | IllegalStateException e) {
+						rejections.put(operation, e);
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			LOGGER.warn("Group commit of {} balance operations failed", batch.size(), e);
+			batch.forEach(operation -> operation.result().completeExceptionally(e));
+			return;
+		}
+
+		commitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		batchSizes.record(batch.size());
+
+		for (BalanceOperation operation : batch) {
+			RuntimeException rejection = rejections.get(operation);
+
+			if (rejection == null) {
+				operation.result().complete(null);
+			} else {
+				operation.result().completeExceptionally(rejection);
+			}
+		}
+	}
+
+	private void apply(BalanceOperation operation) {
+		if (operation.deposit()) {
+			ecommerceService.deposit(operation.userId(), operation.amount());
+		} else {
+			ecommerceService.withdraw(operation.userId(), operation.amount());
+		}
+	}
+}
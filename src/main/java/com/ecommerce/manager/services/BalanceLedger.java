@@ -0,0 +1,155 @@
+package com.ecommerce.manager.services;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+
+import com.ecommerce.manager.model.BalanceEntry;
+import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.repositories.BalanceEntryRepository;
+import com.ecommerce.manager.repositories.BalanceEntryRepository.PendingAmount;
+import com.ecommerce.manager.repositories.UserRepository;
+
+/**
+ * Append-only ledger of balance changes. When enabled, deposits and withdrawals
+ * only insert a {@link BalanceEntry}; the entries are periodically folded into
+ * the balance column of the users, which acts as a snapshot. The current balance
+ * of a user is its snapshot plus the entries that have not been folded yet.
+ */
+@Component
+public class BalanceLedger {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BalanceLedger.class);
+
+	private final BalanceEntryRepository entryRepository;
+	private final UserRepository userRepository;
+	private final UserLockManager userLocks;
+	private final TransactionOperations transactionOperations;
+	private final EntityCache cache;
+	private final boolean enabled;
+
+	public BalanceLedger(BalanceEntryRepository entryRepository, UserRepository userRepository,
+			UserLockManager userLocks, TransactionOperations transactionOperations, EntityCache cache,
+			@Value("${ecommerce.ledger.enabled:false}") boolean enabled) {
+		this.entryRepository = entryRepository;
+		this.userRepository = userRepository;
+		this.userLocks = userLocks;
+		this.transactionOperations = transactionOperations;
+		this.cache = cache;
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void deposit(long userId, long amount) {
+		if (entryRepository.findCurrentBalance(userId) == null) {
+			throw new IllegalStateException("User not found");
+		}
+
+		append(userId, amount, false);
+	}
+
+	public void withdraw(long userId, long amount) {
+		Long currentBalance = entryRepository.findCurrentBalance(userId);
+
+		if (currentBalance == null) {
+			throw new IllegalStateException("User not found");
+		}
+
+		if (currentBalance - amount < 0) {
+			throw new IllegalStateException("Not enough balance to perform withdraw");
+		}
+
+		append(userId, -amount, false);
+	}
+
+	/**
+	 * Records a change of balance that has already been written in the snapshot,
+	 * so that the trail of entries keeps matching the balance of the user.
+	 */
+	public void recordAdjustment(long userId, long amount) {
+		if (amount != 0) {
+			append(userId, amount, true);
+		}
+	}
+
+	/**
+	 * Folds the pending entries of the user into its balance. The caller must hold
+	 * the lock of the user, so that no entry is appended in the meantime.
+	 */
+	public void fold(long userId) {
+		long pending = entryRepository.sumPendingAmount(userId);
+
+		if (entryRepository.markFolded(userId) > 0) {
+			// Ogni prelievo è già stato controllato sul balance corrente: lo snapshot, anche se reso
+			// negativo da updateUserById, prende le entry così come sono
+			userRepository.updateBalance(userId, pending);
+			// Lo snapshot è cambiato: la copia in cache non va più sommata alle entry rimaste
+			cache.evictUser(userId);
+		}
+	}
+
+	public User withCurrentBalance(User user) {
+		return withCurrentBalances(List.of(user)).get(0);
+	}
+
+	/**
+	 * Adds the pending entries to the balance of the given users. Users shared by
+	 * more elements (e.g. the user of several orders) are updated only once.
+	 */
+	public List<User> withCurrentBalances(List<User> users) {
+		Set<User> distinctUsers = Collections.newSetFromMap(new IdentityHashMap<>());
+		distinctUsers.addAll(users);
+
+		Set<Long> userIds = distinctUsers.stream().map(User::getId).collect(Collectors.toSet());
+		if (userIds.isEmpty()) {
+			return users;
+		}
+
+		Map<Long, Long> pending = entryRepository.sumPendingAmounts(userIds).stream()
+				.collect(Collectors.toMap(PendingAmount::getUserId, PendingAmount::getAmount));
+
+		for (User user : distinctUsers) {
+			user.setBalance(user.getBalance() + pending.getOrDefault(user.getId(), 0L));
+		}
+
+		return users;
+	}
+
+	@Scheduled(fixedDelayString = "${ecommerce.ledger.snapshot-interval:5s}")
+	public void snapshot() {
+		if (!enabled) {
+			return;
+		}
+
+		Collection<Long> userIds = entryRepository.findUserIdsWithPendingEntries();
+
+		// Una transazione per user, così il lock resta breve
+		for (long userId : userIds) {
+			transactionOperations.executeWithoutResult(status -> {
+				userLocks.lockUntilCompletion(userId);
+				fold(userId);
+			});
+		}
+
+		LOGGER.debug("Ledger snapshot folded the entries of {} users", userIds.size());
+	}
+
+	private void append(long userId, long amount, boolean folded) {
+		entryRepository.save(new BalanceEntry(null, userId, amount, Instant.now(), folded));
+	}
+}
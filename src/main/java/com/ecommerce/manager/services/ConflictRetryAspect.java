@@ -0,0 +1,96 @@
+package com.ecommerce.manager.services;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Retries the methods annotated with {@link RetryOnConflict} when they fail with
+ * an {@link OptimisticLockingFailureException}, waiting a jittered exponential
+ * backoff between the attempts. A method called inside a transaction that is
+ * already active is not retried: the conflict has marked that transaction for
+ * rollback, so only whoever started it can retry.
+ */
+@Aspect
+@Component
+// Deve avvolgere l'advice transazionale, così ogni tentativo usa una nuova transazione
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+public class ConflictRetryAspect {
+
+	static final String RETRIES_METRIC = "ecommerce.service.retries";
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConflictRetryAspect.class);
+
+	private final MeterRegistry meterRegistry;
+	private final int maxAttempts;
+	private final Duration initialBackoff;
+	private final Duration maxBackoff;
+
+	public ConflictRetryAspect(MeterRegistry meterRegistry,
+			@Value("${ecommerce.retry.max-attempts:3}") int maxAttempts,
+			@Value("${ecommerce.retry.initial-backoff:10ms}") Duration initialBackoff,
+			@Value("${ecommerce.retry.max-backoff:200ms}") Duration maxBackoff) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("Max attempts must be at least 1");
+		}
+
+		this.meterRegistry = meterRegistry;
+		this.maxAttempts = maxAttempts;
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+	}
+
+	@Around("@annotation(com.ecommerce.manager.services.RetryOnConflict)")
+	public Object retryOnConflict(ProceedingJoinPoint joinPoint) throws Throwable {
+		String operation = joinPoint.getSignature().getName();
+
+		if (TransactionSynchronizationManager.isActualTransactionActive()) {
+			return joinPoint.proceed();
+		}
+
+		for (int attempt = 1;; attempt++) {
+			try {
+				return joinPoint.proceed();
+			} catch (OptimisticLockingFailureException e) {
+				if (attempt >= maxAttempts) {
+					throw e;
+				}
+
+				meterRegistry.counter(RETRIES_METRIC, "operation", operation).increment();
+				LOGGER.debug("Conflict on {} at attempt {}, retrying", operation, attempt);
+
+				waitBeforeRetry(attempt, e);
+			}
+		}
+	}
+
+	long backoffMillis(int attempt) {
+		// Full jitter: attesa casuale fino al backoff esponenziale, limitato da maxBackoff
+		long exponential = initialBackoff.toMillis() << Math.min(attempt - 1, 30);
+		long bound = Math.min(exponential, maxBackoff.toMillis());
+
+		return bound <= 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+	}
+
+	private void waitBeforeRetry(int attempt, OptimisticLockingFailureException conflict) {
+		try {
+			Thread.sleep(backoffMillis(attempt));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw conflict;
+		}
+	}
+}
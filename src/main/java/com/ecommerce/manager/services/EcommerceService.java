@@ -1,11 +1,24 @@
 package com.ecommerce.manager.services;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.OrderSummary;
 import com.ecommerce.manager.model.User;
 import com.ecommerce.manager.repositories.OrderRepository;
 import com.ecommerce.manager.repositories.UserRepository;
@@ -13,35 +26,137 @@ import com.ecommerce.manager.repositories.UserRepository;
 @Service
 public class EcommerceService {
 
+	static final String DUPLICATE_USER = "Username or email already exists";
+
 	private UserRepository userRepository;
 	private OrderRepository orderRepository;
+	private UserLockManager userLocks;
+	private BalanceLedger ledger;
+	private EntityCache cache;
 
-	public EcommerceService(UserRepository userRepository, OrderRepository orderRepository) {
+	public EcommerceService(UserRepository userRepository, OrderRepository orderRepository,
+			UserLockManager userLocks, BalanceLedger ledger, EntityCache cache) {
 		this.userRepository = userRepository;
 		this.orderRepository = orderRepository;
+		this.userLocks = userLocks;
+		this.ledger = ledger;
+		this.cache = cache;
 	}
 
+	@Transactional(readOnly = true)
 	public List<User> getAllUsers() {
-		return userRepository.findAll();
+		List<User> users = userRepository.findAll();
+
+		return ledger.isEnabled() ? ledger.withCurrentBalances(users) : users;
 	}
 
+	@Transactional(readOnly = true)
 	public List<Order> getAllOrders() {
-		return orderRepository.findAll();
+		List<Order> orders = orderRepository.findAll();
+
+		if (ledger.isEnabled()) {
+			ledger.withCurrentBalances(orders.stream().map(Order::getUser).toList());
+		}
+
+		return orders;
 	}
 
+	@Transactional(readOnly = true)
+	public List<User> getUsersAfter(long afterId, int limit) {
+		List<User> users = userRepository.findByIdGreaterThanOrderByIdAsc(afterId, Limit.of(limit));
+
+		return ledger.isEnabled() ? ledger.withCurrentBalances(users) : users;
+	}
+
+	@Transactional(readOnly = true)
+	public List<OrderSummary> getAllOrderSummaries() {
+		return orderRepository.findAllSummaries();
+	}
+
+	@Transactional(readOnly = true)
+	public List<OrderSummary> getOrderSummariesAfter(long afterId, int limit) {
+		return orderRepository.findSummariesByIdGreaterThan(afterId, Limit.of(limit));
+	}
+
+	@Transactional(readOnly = true)
+	public OrderSummary getOrderSummaryById(long id) {
+		return orderRepository.findSummaryById(id).orElse(null);
+	}
+
+	@Transactional(readOnly = true)
 	public User getUserById(long id) {
-		return userRepository.findById(id).orElse(null);
+		User user = cache.getUser(id, () -> userRepository.findById(id).orElse(null));
+
+		return user != null && ledger.isEnabled() ? ledger.withCurrentBalance(user) : user;
 	}
 
+	@Transactional(readOnly = true)
 	public Order getOrderById(long id) {
-		return orderRepository.findById(id).orElse(null);
+		Order order = cache.getOrder(id, () -> orderRepository.findForEditingById(id).orElse(null));
+
+		if (order != null && ledger.isEnabled()) {
+			ledger.withCurrentBalance(order.getUser());
+		}
+
+		return order;
 	}
 
+	@RetryOnConflict
 	public User insertNewUser(User user) {
 		user.setId(null);
-		return userRepository.save(user);
+
+		try {
+			return userRepository.save(user);
+		} catch (DataIntegrityViolationException e) {
+			// Gli indici univoci su username ed email decidono tra due inserimenti concorrenti
+			throw new IllegalArgumentException(DUPLICATE_USER);
+		}
+	}
+
+	/**
+	 * Inserts a chunk of users in a single transaction, skipping those whose
+	 * username or email is already taken, by another user or by a previous one of
+	 * the same chunk. Returns, for each user, null if it was
+	 * inserted or the reason why it was rejected. A user inserted concurrently
+	 * after the check makes the chunk start over, so that it is rejected too.
+	 */
+	@RetryOnConflict
+	@Transactional
+	public List<String> insertNewUsers(List<User> users) {
+		// Modificabili: gli user accettati occupano username ed email per i successivi del chunk
+		Set<String> usernames = new HashSet<>(
+				userRepository.findExistingUsernames(users.stream().map(User::getUsername).toList()));
+		Set<String> emails = new HashSet<>(
+				userRepository.findExistingEmails(users.stream().map(User::getEmail).toList()));
+		List<String> errors = new ArrayList<>(users.size());
+		List<User> accepted = new ArrayList<>();
+
+		for (User user : users) {
+			if (usernames.contains(user.getUsername())) {
+				errors.add("Username already exists");
+			} else if (emails.contains(user.getEmail())) {
+				errors.add("Email already exists");
+			} else {
+				user.setId(null);
+				accepted.add(user);
+				usernames.add(user.getUsername());
+				emails.add(user.getEmail());
+				errors.add(null);
+			}
+		}
+
+		try {
+			// Flush immediato: una violazione degli indici univoci emerge qui e non al commit
+			userRepository.saveAllAndFlush(accepted);
+		} catch (DataIntegrityViolationException e) {
+			// Username o email inseriti da un'altra richiesta dopo la lettura: si rilegge tutto il chunk
+			throw new ObjectOptimisticLockingFailureException(DUPLICATE_USER, e);
+		}
+
+		return errors;
 	}
 
+	@RetryOnConflict
 	@Transactional
 	public Order insertNewOrder(Order order) {
 		order.setId(null);
@@ -55,59 +170,203 @@ public class EcommerceService {
 		return orderRepository.save(order);
 	}
 
+	/**
+	 * Inserts a chunk of orders in a single transaction. The debits are summed per
+	 * user and applied with one update each, the orders are then saved together so
+	 * that Hibernate can batch the inserts. Records that cannot be accepted are
+	 * reported without affecting the others.
+	 */
+	@RetryOnConflict
+	@Transactional
+	public List<OrderImportResult> insertNewOrders(List<Order> orders) {
+		long[] userIds = orders.stream().filter(EcommerceService::isValidNewOrder)
+				.mapToLong(order -> order.getUser().getId()).distinct().toArray();
+
+		userLocks.lockUntilCompletion(userIds);
+
+		if (ledger.isEnabled()) {
+			for (long userId : userIds) {
+				ledger.fold(userId);
+			}
+		}
+
+		Map<Long, User> users = userRepository.findAllById(Arrays.stream(userIds).boxed().toList()).stream()
+				.collect(Collectors.toMap(User::getId, Function.identity()));
+		Map<Long, Long> debits = new LinkedHashMap<>();
+		List<OrderImportResult> results = new ArrayList<>(orders.size());
+		List<Order> accepted = new ArrayList<>();
+		List<Integer> acceptedIndexes = new ArrayList<>();
+
+		for (int i = 0; i < orders.size(); i++) {
+			Order order = orders.get(i);
+			String error = null;
+
+			if (!isValidNewOrder(order)) {
+				error = "Invalid order";
+			} else if (!users.containsKey(order.getUser().getId())) {
+				error = "User not found";
+			} else {
+				User user = users.get(order.getUser().getId());
+				long debit = debits.getOrDefault(user.getId(), 0L) + order.getPrice();
+
+				if (user.getBalance() < debit) {
+					error = "Not enough balance to perform withdraw";
+				} else {
+					debits.put(user.getId(), debit);
+					order.setId(null);
+					order.setUser(user);
+					accepted.add(order);
+					acceptedIndexes.add(i);
+				}
+			}
+
+			results.add(error == null ? null : OrderImportResult.failed(i, error));
+		}
+
+		debits.forEach((userId, debit) -> {
+			// Gli user sono bloccati: un aggiornamento mancato è una scrittura concorrente, si ritenta il chunk
+			if (userRepository.updateBalanceIfNotNegative(userId, -debit) == 0) {
+				throw new ObjectOptimisticLockingFailureException(User.class, userId);
+			}
+
+			cache.evictUser(userId);
+
+			if (ledger.isEnabled()) {
+				ledger.recordAdjustment(userId, -debit);
+			}
+		});
+
+		List<Order> saved = orderRepository.saveAll(accepted);
+
+		for (int i = 0; i < saved.size(); i++) {
+			int index = acceptedIndexes.get(i);
+			results.set(index, OrderImportResult.created(index, saved.get(i).getId()));
+		}
+
+		return results;
+	}
+
+	@RetryOnConflict
+	@Transactional
 	public User updateUserById(long id, User replacement) {
+		if (ledger.isEnabled()) {
+			// Il balance sovrascritto diventa il nuovo snapshot: prima si riportano le entry pendenti
+			userLocks.lockUntilCompletion(id);
+			ledger.fold(id);
+		}
+
+		User existing = userRepository.findById(id).orElse(null);
+
+		if (existing == null) {
+			throw new IllegalStateException("User not found");
+		}
+
 		replacement.setId(id);
-		return userRepository.save(replacement);
+		// La versione è gestita dal server: un aggiornamento concorrente fa fallire il save
+		replacement.setVersion(existing.getVersion());
+
+		if (ledger.isEnabled()) {
+			ledger.recordAdjustment(id, replacement.getBalance() - existing.getBalance());
+		}
+
+		cache.evictUser(id);
+
+		try {
+			// Flush immediato: una violazione degli indici univoci emerge qui e non al commit
+			return userRepository.saveAndFlush(replacement);
+		} catch (DataIntegrityViolationException e) {
+			throw new IllegalArgumentException(DUPLICATE_USER);
+		}
 	}
 
+	@RetryOnConflict
 	@Transactional
 	public Order updateOrderById(long id, Order replacement) {
-		Order existing = orderRepository.findById(id).orElse(null);
+		Order existing = orderRepository.findForPlacementById(id).orElse(null);
 
-		replacement.setId(id);
+		long existingUserId = existing.getUser().getId();
+		long replacementUserId = replacement.getUser().getId();
+
+		// Vecchio e nuovo user vengono bloccati insieme, in ordine, per evitare deadlock
+		userLocks.lockUntilCompletion(existingUserId, replacementUserId);
 
 		try {
-			deposit(existing.getUser().getId(), existing.getPrice());
-			withdraw(replacement.getUser().getId(), replacement.getPrice());
+			deposit(existingUserId, existing.getPrice());
+			withdraw(replacementUserId, replacement.getPrice());
 		} catch (IllegalArgumentException | IllegalStateException e) {
 			throw new IllegalStateException("Unable to update the order");
 		}
 
-		return orderRepository.save(replacement);
+		// Gli update dei balance svuotano il persistence context: ordine e user vengono riletti insieme
+		// e la sostituzione si applica all'ordine riletto, che torna con il balance aggiornato
+		Order placed = orderRepository.findForPlacementById(id)
+				.filter(order -> order.getVersion() == existing.getVersion())
+				.orElseThrow(() -> new ObjectOptimisticLockingFailureException(Order.class, id));
+		User user = existingUserId == replacementUserId ? placed.getUser()
+				: userRepository.findById(replacementUserId)
+						.orElseThrow(() -> new ObjectOptimisticLockingFailureException(User.class, replacementUserId));
+
+		placed.setItem(replacement.getItem());
+		placed.setPrice(replacement.getPrice());
+		placed.setUser(user);
+
+		cache.evictOrder(id);
+
+		return orderRepository.save(placed);
 	}
 
+	// Un rifiuto non rende rollback-only un batch di group commit a cui il metodo partecipa
+	@RetryOnConflict
+	@Transactional(noRollbackFor = { IllegalArgumentException.class, IllegalStateException.class })
 	public void deposit(long id, long amount) {
 		if (amount < 0) {
 			throw new IllegalArgumentException("Deposit amount cannot be negative");
 		}
 
-		User user = userRepository.findById(id).orElse(null);
+		userLocks.lockUntilCompletion(id);
 
-		if (user == null) {
+		// Con il ledger si aggiunge solo una entry: lo snapshot in cache resta valido
+		if (ledger.isEnabled()) {
+			ledger.deposit(id, amount);
+			return;
+		}
+
+		// Un accredito non può rendere negativo il balance: senza condizione, anche se già negativo
+		if (userRepository.updateBalance(id, amount) == 0) {
 			throw new IllegalStateException("User not found");
 		}
 
-		user.setBalance(user.getBalance() + amount);
-		userRepository.save(user);
+		cache.evictUser(id);
 	}
 
+	@RetryOnConflict
+	@Transactional(noRollbackFor = { IllegalArgumentException.class, IllegalStateException.class })
 	public void withdraw(long id, long amount) {
 		if (amount < 0) {
 			throw new IllegalArgumentException("Withdraw amount cannot be negative");
 		}
 
-		User user = userRepository.findById(id).orElse(null);
+		userLocks.lockUntilCompletion(id);
 
-		if (user == null) {
-			throw new IllegalStateException("User not found");
+		if (ledger.isEnabled()) {
+			ledger.withdraw(id, amount);
+			return;
 		}
 
-		if (user.getBalance() - amount < 0) {
+		if (userRepository.updateBalanceIfNotNegative(id, -amount) == 0) {
+			// Nessuna riga aggiornata: si distingue l'utente inesistente dal balance insufficiente
+			if (!userRepository.existsById(id)) {
+				throw new IllegalStateException("User not found");
+			}
+
 			throw new IllegalStateException("Not enough balance to perform withdraw");
 		}
 
-		user.setBalance(user.getBalance() - amount);
-		userRepository.save(user);
+		cache.evictUser(id);
 	}
 
+	private static boolean isValidNewOrder(Order order) {
+		return order != null && order.getItem() != null && order.getPrice() >= 0 && order.getUser() != null
+				&& order.getUser().getId() != null;
+	}
 }
@@ -0,0 +1,271 @@
+package com.ecommerce.manager.services;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.ecommerce.manager.ReplicaRoutingDataSource;
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.User;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * Bounded read-through cache of the users and orders read by id. Each cache
+ * keeps at most the configured number of entries, dropping the least recently
+ * used one, and an entry expires after the TTL. Callers always receive a copy,
+ * so they can change it (e.g. with the ledger overlay) without touching the
+ * cached state.
+ * <p>
+ * Write methods evict the entries they change both immediately and when their
+ * transaction completes, and a load that overlaps an eviction is not stored, so
+ * a reader can never put back a value read before the commit. Neither is a
+ * load from a transaction routed to the replica, which may lag behind.
+ * <p>
+ * This is the only cache of users: they are not in the Hibernate second-level
+ * cache, because after every bulk update of the balance Hibernate empties the
+ * whole user region. Orders are also in the second-level cache, which Hibernate
+ * keeps up to date itself since they are only written as entities.
+ */
+@Component
+public class EntityCache {
+
+	static final String HITS_METRIC = "ecommerce.cache.hits";
+	static final String MISSES_METRIC = "ecommerce.cache.misses";
+	static final String EVICTIONS_METRIC = "ecommerce.cache.evictions";
+	static final String INVALIDATIONS_METRIC = "ecommerce.cache.invalidations";
+
+	private final Region<User> users;
+
+	// Gli ordini in cache contengono una copia del loro user e vengono invalidati insieme a lui
+	private final Region<Order> orders;
+
+	// Incrementato a ogni invalidazione: un caricamento iniziato prima non viene salvato
+	private long generation;
+
+	public EntityCache(MeterRegistry meterRegistry, @Value("${ecommerce.cache.max-entries:10000}") int maxEntries,
+			@Value("${ecommerce.cache.ttl:30s}") Duration ttl) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("Max entries must be at least 1");
+		}
+
+		if (ttl.isNegative()) {
+			throw new IllegalArgumentException("TTL cannot be negative");
+		}
+
+		users = new Region<>("users", maxEntries, ttl, EntityCache::copyOf, null, meterRegistry);
+		orders = new Region<>("orders", maxEntries, ttl, EntityCache::copyOf, order -> order.getUser().getId(),
+				meterRegistry);
+	}
+
+	public User getUser(long id, Supplier<User> loader) {
+		return get(users, id, loader);
+	}
+
+	public Order getOrder(long id, Supplier<Order> loader) {
+		return get(orders, id, loader);
+	}
+
+	/**
+	 * Evicts the user and the cached orders that embed it.
+	 */
+	public void evictUser(long id) {
+		evictNowAndOnCompletion(() -> {
+			users.invalidate(id);
+			orders.invalidateOwnedBy(id);
+		});
+	}
+
+	public void evictOrder(long id) {
+		evictNowAndOnCompletion(() -> orders.invalidate(id));
+	}
+
+	private <V> V get(Region<V> region, long id, Supplier<V> loader) {
+		long stamp;
+
+		synchronized (this) {
+			V cached = region.lookup(id);
+			if (cached != null) {
+				return region.copier.apply(cached);
+			}
+
+			stamp = generation;
+		}
+
+		V loaded = loader.get();
+
+		// Una lettura dalla replica può essere in ritardo sul primario: la si restituisce senza salvarla
+		if (loaded != null && !ReplicaRoutingDataSource.isCurrentTransactionOnReplica()) {
+			V copy = region.copier.apply(loaded);
+
+			synchronized (this) {
+				if (stamp == generation) {
+					region.store(id, copy);
+				}
+			}
+		}
+
+		return loaded;
+	}
+
+	private void evictNowAndOnCompletion(Runnable eviction) {
+		evict(eviction);
+
+		// Fino al commit una lettura concorrente può ancora caricare il valore vecchio
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					evict(eviction);
+				}
+			});
+		}
+	}
+
+	private synchronized void evict(Runnable eviction) {
+		generation++;
+		eviction.run();
+	}
+
+	private static User copyOf(User user) {
+		User copy = new User(user.getId(), user.getUsername(), user.getName(), user.getEmail(), user.getBalance());
+		copy.setVersion(user.getVersion());
+		return copy;
+	}
+
+	private static Order copyOf(Order order) {
+		Order copy = new Order(order.getId(), order.getItem(), order.getPrice(), copyOf(order.getUser()));
+		copy.setVersion(order.getVersion());
+		return copy;
+	}
+
+	/**
+	 * LRU map with TTL of one entity type. Not thread-safe: every access happens
+	 * while holding the lock of the enclosing cache.
+	 */
+	private static final class Region<V> {
+
+		private final Duration ttl;
+		private final UnaryOperator<V> copier;
+		private final Map<Long, Entry<V>> entries;
+
+		// Indice facoltativo delle entry per id del proprietario (lo user di un ordine)
+		private final ToLongFunction<V> ownerOf;
+		private final Map<Long, Set<Long>> idsByOwner = new HashMap<>();
+
+		private final Counter hits;
+		private final Counter misses;
+		private final Counter sizeEvictions;
+		private final Counter expiredEvictions;
+		private final Counter invalidations;
+
+		Region(String name, int maxEntries, Duration ttl, UnaryOperator<V> copier, ToLongFunction<V> ownerOf,
+				MeterRegistry meterRegistry) {
+			this.ttl = ttl;
+			this.copier = copier;
+			this.ownerOf = ownerOf;
+			this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Long, Entry<V>> eldest) {
+					if (size() <= maxEntries) {
+						return false;
+					}
+
+					sizeEvictions.increment();
+					unindex(eldest.getKey(), eldest.getValue().value());
+					return true;
+				}
+			};
+
+			Tags tags = Tags.of("cache", name);
+			hits = meterRegistry.counter(HITS_METRIC, tags);
+			misses = meterRegistry.counter(MISSES_METRIC, tags);
+			sizeEvictions = meterRegistry.counter(EVICTIONS_METRIC, tags.and("cause", "size"));
+			expiredEvictions = meterRegistry.counter(EVICTIONS_METRIC, tags.and("cause", "expired"));
+			invalidations = meterRegistry.counter(INVALIDATIONS_METRIC, tags);
+			meterRegistry.gaugeMapSize("ecommerce.cache.size", tags, entries);
+		}
+
+		V lookup(long id) {
+			Entry<V> entry = entries.get(id);
+
+			if (entry != null && entry.expiresAt() - System.nanoTime() > 0) {
+				hits.increment();
+				return entry.value();
+			}
+
+			if (entry != null) {
+				entries.remove(id);
+				unindex(id, entry.value());
+				expiredEvictions.increment();
+			}
+
+			misses.increment();
+			return null;
+		}
+
+		void store(long id, V value) {
+			entries.put(id, new Entry<>(value, System.nanoTime() + ttl.toNanos()));
+
+			if (ownerOf != null) {
+				idsByOwner.computeIfAbsent(ownerOf.applyAsLong(value), owner -> new HashSet<>()).add(id);
+			}
+		}
+
+		void invalidate(long id) {
+			Entry<V> entry = entries.remove(id);
+
+			if (entry != null) {
+				unindex(id, entry.value());
+				invalidations.increment();
+			}
+		}
+
+		void invalidateOwnedBy(long ownerId) {
+			Set<Long> ids = idsByOwner.remove(ownerId);
+
+			if (ids != null) {
+				for (long id : ids) {
+					if (entries.remove(id) != null) {
+						invalidations.increment();
+					}
+				}
+			}
+		}
+
+		private void unindex(long id, V value) {
+			if (ownerOf == null) {
+				return;
+			}
+
+			long ownerId = ownerOf.applyAsLong(value);
+			Set<Long> ids = idsByOwner.get(ownerId);
+
+			if (ids != null) {
+				ids.remove(id);
+
+				if (ids.isEmpty()) {
+					idsByOwner.remove(ownerId);
+				}
+			}
+		}
+	}
+
+	private record Entry<V>(V value, long expiresAt) {
+	}
+}
@@ -0,0 +1,152 @@
+package com.ecommerce.manager.services;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ecommerce.manager.model.IdempotencyRecord;
+import com.ecommerce.manager.repositories.IdempotencyRecordRepository;
+
+/**
+ * Outcomes of requests carrying an Idempotency-Key. The key is inserted, as
+ * pending, in the same transaction as the operation it protects and completed
+ * with the response before the commit: either both are durable or neither is,
+ * and a concurrent request with the same key, on any instance, fails on the
+ * primary key instead of running the operation again.
+ * <p>
+ * The most recently used outcomes are kept in a bounded in-memory cache; both
+ * the cache and the persisted outcomes expire after the TTL. Stored outcomes
+ * are always read from the primary, never from a lagging replica.
+ */
+@Component
+public class IdempotencyStore {
+
+	/**
+	 * Status and JSON body of the response of an operation.
+	 */
+	public record Outcome(int status, String body) {
+	}
+
+	private final IdempotencyRecordRepository repository;
+	private final TransactionTemplate transactionTemplate;
+	private final Duration ttl;
+	private final Map<String, IdempotencyRecord> cache;
+
+	public IdempotencyStore(IdempotencyRecordRepository repository, PlatformTransactionManager transactionManager,
+			@Value("${ecommerce.idempotency.max-entries:10000}") int maxEntries,
+			@Value("${ecommerce.idempotency.ttl:24h}") Duration ttl) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("Max entries must be at least 1");
+		}
+
+		this.repository = repository;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.ttl = ttl;
+		this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, IdempotencyRecord> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Runs the action, unless the key was already used, and returns the record
+	 * of the key: the one just completed, the stored one of a previous request,
+	 * or a pending one if another request with the same key is still running.
+	 * An exception of the action rolls back the key with the operation.
+	 */
+	// Ogni tentativo è una nuova transazione: chiave e operazione vengono ritentate insieme
+	@RetryOnConflict
+	public IdempotencyRecord execute(String key, String requestHash, Supplier<Outcome> action) {
+		Optional<IdempotencyRecord> stored = find(key);
+
+		if (stored.isPresent()) {
+			return stored.get();
+		}
+
+		IdempotencyRecord executed = transactionTemplate.execute(status -> {
+			IdempotencyRecord pending;
+
+			try {
+				pending = repository.saveAndFlush(IdempotencyRecord.pending(key, requestHash, Instant.now()));
+			} catch (DataIntegrityViolationException e) {
+				// Chiave inserita da un'altra richiesta, su questa o su un'altra istanza
+				status.setRollbackOnly();
+				return null;
+			}
+
+			Outcome outcome = action.get();
+			pending.complete(outcome.status(), outcome.body());
+			return pending;
+		});
+
+		if (executed == null) {
+			// L'esito dell'altra richiesta se ha già fatto commit, altrimenti è ancora in corso.
+			// Una chiave scaduta ma non ancora cancellata dal purge resta in corso fino al purge
+			return findStored(key, Instant.now())
+					.orElseGet(() -> IdempotencyRecord.pending(key, requestHash, Instant.now()));
+		}
+
+		cache(executed);
+
+		return executed;
+	}
+
+	public Optional<IdempotencyRecord> find(String key) {
+		Instant now = Instant.now();
+		IdempotencyRecord cached;
+
+		synchronized (cache) {
+			cached = cache.get(key);
+		}
+
+		if (cached != null) {
+			return isExpired(cached, now) ? Optional.empty() : Optional.of(cached);
+		}
+
+		Optional<IdempotencyRecord> stored = findStored(key, now);
+		stored.ifPresent(this::cache);
+
+		return stored;
+	}
+
+	// Transazione in lettura e scrittura, quindi sul primario: una in sola lettura andrebbe sulla replica,
+	// che può non avere ancora la chiave e far rispondere "in corso" a una richiesta già completata
+	private Optional<IdempotencyRecord> findStored(String key, Instant now) {
+		return transactionTemplate.execute(status -> repository.findById(key)).filter(r -> !isExpired(r, now));
+	}
+
+	@Scheduled(fixedDelayString = "${ecommerce.idempotency.purge-interval:1m}")
+	public void purgeExpired() {
+		Instant now = Instant.now();
+
+		synchronized (cache) {
+			cache.values().removeIf(r -> isExpired(r, now));
+		}
+
+		repository.deleteCreatedBefore(now.minus(ttl));
+	}
+
+	private void cache(IdempotencyRecord idempotencyRecord) {
+		synchronized (cache) {
+			cache.put(idempotencyRecord.getKey(), idempotencyRecord);
+		}
+	}
+
+	private boolean isExpired(IdempotencyRecord idempotencyRecord, Instant now) {
+		return !idempotencyRecord.getCreatedAt().plus(ttl).isAfter(now);
+	}
+}
@@ -0,0 +1,97 @@
+package com.ecommerce.manager.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.ecommerce.manager.model.Item;
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.repositories.OrderRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * Export of orders as newline-delimited JSON. The orders are read through a
+ * database cursor, a page of {@value OrderRepository#EXPORT_FETCH_SIZE} at a
+ * time, and each page is detached as soon as it has been written, so the memory
+ * used does not depend on the number of orders. With the ledger enabled the
+ * pending entries of the users are added with one query per page.
+ */
+@Component
+public class OrderExporter {
+
+	// Una pagina per ogni blocco di righe letto dal driver
+	private static final int PAGE_SIZE = Integer.parseInt(OrderRepository.EXPORT_FETCH_SIZE);
+
+	private final OrderRepository orderRepository;
+	private final BalanceLedger ledger;
+	private final EntityManager entityManager;
+	private final ObjectWriter orderWriter;
+
+	public OrderExporter(OrderRepository orderRepository, BalanceLedger ledger, EntityManager entityManager,
+			ObjectMapper objectMapper) {
+		this.orderRepository = orderRepository;
+		this.ledger = ledger;
+		this.entityManager = entityManager;
+		this.orderWriter = objectMapper.writerFor(Order.class);
+	}
+
+	// Il cursore resta aperto solo dentro la transazione, che dura quanto la scrittura
+	@Transactional(readOnly = true)
+	public long exportOrders(Item item, Long priceAbove, OutputStream output) throws IOException {
+		long threshold = priceAbove == null ? Long.MIN_VALUE : priceAbove;
+		long exported = 0;
+
+		try (Stream<Order> orders = item == null ? orderRepository.streamByPriceGreaterThan(threshold)
+				: orderRepository.streamByItemAndPriceGreaterThan(item, threshold)) {
+			Iterator<Order> iterator = orders.iterator();
+			List<Order> page = new ArrayList<>(PAGE_SIZE);
+
+			while (iterator.hasNext()) {
+				page.add(iterator.next());
+
+				if (page.size() == PAGE_SIZE || !iterator.hasNext()) {
+					exported += writePage(page, exported == 0, output);
+					page.clear();
+				}
+			}
+		}
+
+		output.flush();
+
+		return exported;
+	}
+
+	private int writePage(List<Order> page, boolean first, OutputStream output) throws IOException {
+		if (ledger.isEnabled()) {
+			ledger.withCurrentBalances(page.stream().map(Order::getUser).toList());
+		}
+
+		for (Order order : page) {
+			output.write(orderWriter.writeValueAsBytes(order));
+			output.write('\n');
+
+			// Il primo ordine esce subito, i successivi seguono il buffer della risposta
+			if (first) {
+				output.flush();
+				first = false;
+			}
+		}
+
+		// Gli user condivisi da più ordini della pagina sono la stessa istanza
+		for (Order order : page) {
+			entityManager.detach(order);
+			entityManager.detach(order.getUser());
+		}
+
+		return page.size();
+	}
+}
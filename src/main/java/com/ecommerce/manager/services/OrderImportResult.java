@@ -0,0 +1,20 @@
+package com.ecommerce.manager.services;
+
+/**
+ * Outcome of a single record of a bulk order import: the id of the created
+ * order, or the reason why the record was rejected.
+ */
+public record OrderImportResult(int index, Long orderId, String error) {
+
+	public static OrderImportResult created(int index, long orderId) {
+		return new OrderImportResult(index, orderId, null);
+	}
+
+	public static OrderImportResult failed(int index, String error) {
+		return new OrderImportResult(index, null, error);
+	}
+
+	public OrderImportResult withOffset(int offset) {
+		return new OrderImportResult(offset + index, orderId, error);
+	}
+}
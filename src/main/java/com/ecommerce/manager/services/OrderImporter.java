@@ -0,0 +1,84 @@
+package com.ecommerce.manager.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.ecommerce.manager.model.Order;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Bulk import of orders from a JSON array or from newline-delimited JSON. The
+ * payload is read one record at a time and inserted in chunks, each chunk in
+ * its own transaction, so the whole body is never held in memory.
+ */
+@Component
+public class OrderImporter {
+
+	private final EcommerceService ecommerceService;
+	private final ObjectReader orderReader;
+	private final int chunkSize;
+
+	public OrderImporter(EcommerceService ecommerceService, ObjectMapper objectMapper,
+			@Value("${ecommerce.import.chunk-size:500}") int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be at least 1");
+		}
+
+		this.ecommerceService = ecommerceService;
+		this.orderReader = objectMapper.readerFor(Order.class);
+		this.chunkSize = chunkSize;
+	}
+
+	public List<OrderImportResult> importOrders(InputStream input) throws IOException {
+		List<OrderImportResult> results = new ArrayList<>();
+		List<Order> chunk = new ArrayList<>(chunkSize);
+
+		// Un array radice viene percorso elemento per elemento, come i valori NDJSON
+		try (MappingIterator<Order> orders = orderReader.readValues(input)) {
+			while (true) {
+				Order order;
+
+				try {
+					if (!orders.hasNextValue()) {
+						break;
+					}
+
+					order = orders.nextValue();
+				} catch (JsonProcessingException e) {
+					// Dopo un record malformato non si può riprendere la lettura in modo affidabile
+					flush(chunk, results);
+					results.add(OrderImportResult.failed(results.size(), "Malformed order"));
+					break;
+				}
+
+				chunk.add(order);
+
+				if (chunk.size() == chunkSize) {
+					flush(chunk, results);
+				}
+			}
+		}
+
+		flush(chunk, results);
+
+		return results;
+	}
+
+	private void flush(List<Order> chunk, List<OrderImportResult> results) {
+		if (chunk.isEmpty()) {
+			return;
+		}
+
+		int offset = results.size();
+		ecommerceService.insertNewOrders(chunk).forEach(result -> results.add(result.withOffset(offset)));
+		chunk.clear();
+	}
+}
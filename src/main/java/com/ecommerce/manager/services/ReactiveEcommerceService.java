@@ -0,0 +1,170 @@
+package com.ecommerce.manager.services;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.OrderSummary;
+import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.repositories.ReactiveOrderRepository;
+import com.ecommerce.manager.repositories.ReactiveUserRepository;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+/**
+ * Non-blocking counterpart of {@link EcommerceService} for the reactive API.
+ * Balances change only through the same conditional update, so a withdraw can
+ * never make a balance negative, and every write that touches more than one row
+ * runs in a single R2DBC transaction.
+ * <p>
+ * Instead of the in-process user locks, which would block the event loop, the
+ * balance updates of an order update are applied in user id order: the
+ * database row locks are then always taken in the same order.
+ */
+@Service
+@Profile("reactive")
+public class ReactiveEcommerceService {
+
+	private final ReactiveUserRepository userRepository;
+	private final ReactiveOrderRepository orderRepository;
+	private final TransactionalOperator transactions;
+	private final Retry conflictRetry;
+
+	public ReactiveEcommerceService(ReactiveUserRepository userRepository, ReactiveOrderRepository orderRepository,
+			TransactionalOperator transactions, @Value("${ecommerce.ledger.enabled:false}") boolean ledgerEnabled,
+			@Value("${ecommerce.retry.max-attempts:3}") int maxAttempts,
+			@Value("${ecommerce.retry.initial-backoff:10ms}") Duration initialBackoff,
+			@Value("${ecommerce.retry.max-backoff:200ms}") Duration maxBackoff) {
+		// Il ledger vive nel persistence context JPA: i balance letti qui sarebbero incompleti
+		if (ledgerEnabled) {
+			throw new IllegalStateException("The reactive API does not support the balance ledger");
+		}
+
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("Max attempts must be at least 1");
+		}
+
+		this.userRepository = userRepository;
+		this.orderRepository = orderRepository;
+		this.transactions = transactions;
+		this.conflictRetry = Retry.backoff(maxAttempts - 1L, initialBackoff).maxBackoff(maxBackoff)
+				.filter(ObjectOptimisticLockingFailureException.class::isInstance)
+				.onRetryExhaustedThrow((spec, signal) -> signal.failure());
+	}
+
+	public Flux<User> getUsersAfter(long afterId, int limit) {
+		return userRepository.findByIdGreaterThanOrderByIdAsc(afterId, limit);
+	}
+
+	public Flux<OrderSummary> getOrderSummariesAfter(long afterId, int limit) {
+		return orderRepository.findSummariesByIdGreaterThan(afterId, limit);
+	}
+
+	public Mono<OrderSummary> getOrderSummaryById(long id) {
+		return orderRepository.findSummaryById(id);
+	}
+
+	public Mono<User> getUserById(long id) {
+		return userRepository.findById(id);
+	}
+
+	public Mono<User> insertNewUser(User user) {
+		// Gli indici univoci su username ed email decidono tra due inserimenti concorrenti
+		return userRepository.insert(user).onErrorMap(DataIntegrityViolationException.class,
+				e -> new IllegalArgumentException(EcommerceService.DUPLICATE_USER));
+	}
+
+	public Mono<Order> insertNewOrder(Order order) {
+		long userId = order.getUser().getId();
+
+		// Prelievo e insert nella stessa transazione: un insert fallito restituisce il balance
+		return transactions.transactional(withdraw(userId, order.getPrice())
+				.onErrorMap(ReactiveEcommerceService::isRejection,
+						e -> new IllegalStateException("Unable to insert new order"))
+				.then(orderRepository.insert(order.getItem(), order.getPrice(), userId))
+				.flatMap(id -> userRepository.findById(userId)
+						.map(user -> new Order(id, order.getItem(), order.getPrice(), user))));
+	}
+
+	public Mono<User> updateUserById(long id, User replacement) {
+		return transactions.transactional(userRepository.update(id, replacement)
+				.onErrorMap(DataIntegrityViolationException.class,
+						e -> new IllegalArgumentException(EcommerceService.DUPLICATE_USER))
+				.flatMap(updated -> updated == 0 ? Mono.error(new IllegalStateException("User not found"))
+						: userRepository.findById(id)));
+	}
+
+	public Mono<Order> updateOrderById(long id, Order replacement) {
+		long replacementUserId = replacement.getUser().getId();
+
+		// Un update concorrente dello stesso ordine annulla la transazione, compresi i balance, e si ritenta
+		return transactions.transactional(orderRepository.findById(id)
+				.switchIfEmpty(Mono.error(() -> new IllegalStateException("Order not found")))
+				.flatMap(existing -> moveCharge(existing, replacementUserId, replacement.getPrice())
+						.then(orderRepository.updateIfVersion(id, existing.getVersion(), replacement.getItem(),
+								replacement.getPrice(), replacementUserId))
+						.flatMap(updated -> updated == 0
+								? Mono.error(new ObjectOptimisticLockingFailureException(Order.class, id))
+								: orderRepository.findById(id))))
+				.retryWhen(conflictRetry);
+	}
+
+	public Mono<Void> deposit(long id, long amount) {
+		if (amount < 0) {
+			return Mono.error(new IllegalArgumentException("Deposit amount cannot be negative"));
+		}
+
+		return transactions.transactional(userRepository.updateBalance(id, amount)
+				.flatMap(updated -> updated == 0 ? Mono.error(new IllegalStateException("User not found"))
+						: Mono.empty()));
+	}
+
+	public Mono<Void> withdraw(long id, long amount) {
+		if (amount < 0) {
+			return Mono.error(new IllegalArgumentException("Withdraw amount cannot be negative"));
+		}
+
+		return transactions.transactional(userRepository.updateBalanceIfNotNegative(id, -amount)
+				.flatMap(updated -> updated == 0 ? notWithdrawn(id) : Mono.empty()));
+	}
+
+	// Nessuna riga aggiornata: si distingue l'utente inesistente dal balance insufficiente
+	private Mono<Void> notWithdrawn(long id) {
+		return userRepository.existsById(id)
+				.flatMap(exists -> Mono.error(new IllegalStateException(
+						exists ? "Not enough balance to perform withdraw" : "User not found")));
+	}
+
+	// Rimborso del vecchio prezzo e addebito del nuovo, in ordine di id per evitare deadlock sulle righe
+	private Mono<Void> moveCharge(Order existing, long replacementUserId, long replacementPrice) {
+		long existingUserId = existing.getUser().getId();
+		Mono<Void> charges;
+
+		if (replacementPrice < 0) {
+			charges = Mono.error(new IllegalArgumentException("Withdraw amount cannot be negative"));
+		} else if (existingUserId == replacementUserId) {
+			// Stesso user: la differenza di prezzo con un solo update condizionale
+			long refund = existing.getPrice() - replacementPrice;
+			charges = refund >= 0 ? deposit(existingUserId, refund) : withdraw(existingUserId, -refund);
+		} else if (existingUserId < replacementUserId) {
+			charges = deposit(existingUserId, existing.getPrice()).then(withdraw(replacementUserId, replacementPrice));
+		} else {
+			charges = withdraw(replacementUserId, replacementPrice).then(deposit(existingUserId, existing.getPrice()));
+		}
+
+		return charges.onErrorMap(ReactiveEcommerceService::isRejection,
+				e -> new IllegalStateException("Unable to update the order"));
+	}
+
+	private static boolean isRejection(Throwable e) {
+		return e instanceof IllegalArgumentException || e instanceof IllegalStateException;
+	}
+}
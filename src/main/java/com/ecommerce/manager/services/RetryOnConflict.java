@@ -0,0 +1,15 @@
+package com.ecommerce.manager.services;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a write method that is re-executed, in a new transaction, when it fails
+ * because of a concurrent modification detected by optimistic locking.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RetryOnConflict {
+}
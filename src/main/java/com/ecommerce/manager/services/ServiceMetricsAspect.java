@@ -0,0 +1,124 @@
+package com.ecommerce.manager.services;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Times every public method of {@link EcommerceService} and counts the
+ * business failures: withdrawals rejected for lack of balance, orders that
+ * could not be inserted and users not found. Deposits and withdrawals in
+ * progress are exposed as gauges.
+ * <p>
+ * Tags are limited to the method name, the outcome and the exception class, so
+ * the number of series does not grow with users or orders.
+ */
+@Aspect
+@Component
+// Esterno al retry e alla transazione: il timer misura la chiamata intera, tentativi compresi
+@Order(Ordered.LOWEST_PRECEDENCE - 2)
+public class ServiceMetricsAspect {
+
+	static final String CALLS_METRIC = "ecommerce.service.calls";
+	static final String REJECTED_WITHDRAWALS_METRIC = "ecommerce.withdrawals.rejected";
+	static final String FAILED_ORDER_INSERTS_METRIC = "ecommerce.orders.insert.failed";
+	static final String USERS_NOT_FOUND_METRIC = "ecommerce.users.not-found";
+	static final String IN_FLIGHT_METRIC = "ecommerce.balance.in-flight";
+
+	// Messaggi con cui EcommerceService segnala i rifiuti
+	private static final String NOT_ENOUGH_BALANCE = "Not enough balance to perform withdraw";
+	private static final String UNABLE_TO_INSERT_ORDER = "Unable to insert new order";
+	private static final String USER_NOT_FOUND = "User not found";
+
+	private final MeterRegistry meterRegistry;
+
+	private final Map<String, AtomicInteger> inFlight;
+
+	public ServiceMetricsAspect(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+		this.inFlight = Map.of("deposit", new AtomicInteger(), "withdraw", new AtomicInteger());
+
+		inFlight.forEach((operation, count) -> meterRegistry.gauge(IN_FLIGHT_METRIC, Tags.of("operation", operation),
+				count));
+	}
+
+	@Around("execution(public * com.ecommerce.manager.services.EcommerceService.*(..))")
+	public Object measure(ProceedingJoinPoint joinPoint) throws Throwable {
+		String operation = joinPoint.getSignature().getName();
+		AtomicInteger running = inFlight.get(operation);
+		long start = System.nanoTime();
+
+		if (running != null) {
+			running.incrementAndGet();
+		}
+
+		try {
+			Object result = joinPoint.proceed();
+			timer(operation, "success", "none").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			countResult(operation, result);
+			return result;
+		} catch (Throwable e) {
+			timer(operation, "error", e.getClass().getSimpleName()).record(System.nanoTime() - start,
+					TimeUnit.NANOSECONDS);
+			countFailure(operation, e);
+			throw e;
+		} finally {
+			if (running != null) {
+				running.decrementAndGet();
+			}
+		}
+	}
+
+	private Timer timer(String operation, String outcome, String exception) {
+		return Timer.builder(CALLS_METRIC).description("Calls to EcommerceService")
+				.tags("operation", operation, "outcome", outcome, "exception", exception).publishPercentileHistogram()
+				.minimumExpectedValue(Duration.ofMillis(1)).maximumExpectedValue(Duration.ofSeconds(10))
+				.register(meterRegistry);
+	}
+
+	private void countResult(String operation, Object result) {
+		// Una lettura per id senza risultato è uno user non trovato, non un errore
+		if (result == null && operation.equals("getUserById")) {
+			meterRegistry.counter(USERS_NOT_FOUND_METRIC, "operation", operation).increment();
+		}
+
+		// L'import non fallisce: i record scartati sono nei risultati
+		if (result instanceof List<?> results && operation.equals("insertNewOrders")) {
+			long failed = results.stream().filter(OrderImportResult.class::isInstance).map(OrderImportResult.class::cast)
+					.filter(importResult -> importResult.error() != null).count();
+
+			if (failed > 0) {
+				meterRegistry.counter(FAILED_ORDER_INSERTS_METRIC, "operation", operation).increment(failed);
+			}
+		}
+	}
+
+	private void countFailure(String operation, Throwable e) {
+		if (!(e instanceof IllegalStateException)) {
+			return;
+		}
+
+		String message = String.valueOf(e.getMessage());
+
+		if (message.equals(NOT_ENOUGH_BALANCE)) {
+			meterRegistry.counter(REJECTED_WITHDRAWALS_METRIC, "operation", operation).increment();
+		} else if (message.equals(UNABLE_TO_INSERT_ORDER)) {
+			meterRegistry.counter(FAILED_ORDER_INSERTS_METRIC, "operation", operation).increment();
+		} else if (message.equals(USER_NOT_FOUND)) {
+			meterRegistry.counter(USERS_NOT_FOUND_METRIC, "operation", operation).increment();
+		}
+	}
+}
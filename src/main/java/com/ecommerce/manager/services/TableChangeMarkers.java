@@ -0,0 +1,48 @@
+package com.ecommerce.manager.services;
+
+import org.springframework.stereotype.Component;
+
+import com.ecommerce.manager.model.TableState;
+import com.ecommerce.manager.repositories.BalanceEntryRepository;
+import com.ecommerce.manager.repositories.OrderRepository;
+import com.ecommerce.manager.repositories.UserRepository;
+
+/**
+ * Change markers of the users and orders tables, used as ETags of the list
+ * endpoints. A marker is made of the {@link TableState} aggregates of the
+ * tables, read from the database like the list itself: it changes with every
+ * committed write on any instance, and writes pay nothing for it.
+ * <p>
+ * A marker read before the data can only be older than what was read, which
+ * costs at most one more full response.
+ */
+@Component
+public class TableChangeMarkers {
+
+	private final UserRepository userRepository;
+	private final OrderRepository orderRepository;
+	private final BalanceEntryRepository entryRepository;
+	private final BalanceLedger ledger;
+
+	public TableChangeMarkers(UserRepository userRepository, OrderRepository orderRepository,
+			BalanceEntryRepository entryRepository, BalanceLedger ledger) {
+		this.userRepository = userRepository;
+		this.orderRepository = orderRepository;
+		this.entryRepository = entryRepository;
+		this.ledger = ledger;
+	}
+
+	// Le entry del ledger cambiano il balance corrente degli users
+	public String users() {
+		String users = userRepository.findTableState().marker();
+
+		return ledger.isEnabled() ? users + "-" + entryRepository.findTableState().marker() : users;
+	}
+
+	// Le liste degli ordini contengono anche lo username, quindi cambiano con gli users
+	public String orders() {
+		TableState orders = orderRepository.findTableState();
+
+		return orders.marker() + "-" + userRepository.findTableState().marker();
+	}
+}
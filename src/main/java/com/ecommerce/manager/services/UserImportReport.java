@@ -0,0 +1,13 @@
+package com.ecommerce.manager.services;
+
+import java.util.List;
+
+/**
+ * Summary of a bulk user import. Only the first rejections are detailed, so
+ * that the report stays small whatever the size of the file.
+ */
+public record UserImportReport(long imported, long rejected, List<RejectedRecord> errors) {
+
+	public record RejectedRecord(long index, String error) {
+	}
+}
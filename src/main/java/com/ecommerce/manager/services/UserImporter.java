@@ -0,0 +1,221 @@
+package com.ecommerce.manager.services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.services.UserImportReport.RejectedRecord;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Bulk import of users from CSV, with a header naming the columns, or from
+ * newline-delimited JSON. The payload is read one line at a time and the valid
+ * users are inserted in chunks, each chunk in its own transaction, so only the
+ * current chunk is retained. Duplicates within the file are rejected by the
+ * service like those already in the database, since the earlier chunks are
+ * committed.
+ */
+@Component
+public class UserImporter {
+
+	public enum Format {
+		CSV, NDJSON
+	}
+
+	static final int MAX_REPORTED_ERRORS = 1000;
+
+	private static final List<String> CSV_COLUMNS = List.of("username", "name", "email", "balance");
+
+	private final EcommerceService ecommerceService;
+	private final ObjectReader userReader;
+	private final int chunkSize;
+
+	public UserImporter(EcommerceService ecommerceService, ObjectMapper objectMapper,
+			@Value("${ecommerce.import.chunk-size:500}") int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be at least 1");
+		}
+
+		this.ecommerceService = ecommerceService;
+		this.userReader = objectMapper.readerFor(User.class);
+		this.chunkSize = chunkSize;
+	}
+
+	public UserImportReport importUsers(InputStream input, Format format) throws IOException {
+		Import running = new Import();
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+			Map<String, Integer> columns = format == Format.CSV ? readCsvHeader(reader.readLine()) : null;
+			String line;
+			long index = 0;
+
+			while ((line = reader.readLine()) != null) {
+				if (line.isBlank()) {
+					continue;
+				}
+
+				User user = format == Format.CSV ? parseCsv(line, columns) : parseJson(line);
+				running.add(index++, user);
+			}
+		}
+
+		running.flush();
+
+		return new UserImportReport(running.imported, running.rejected, running.errors);
+	}
+
+	private Map<String, Integer> readCsvHeader(String header) {
+		if (header == null) {
+			return Map.of();
+		}
+
+		List<String> names = splitCsv(header);
+		Map<String, Integer> columns = new HashMap<>();
+
+		for (int i = 0; i < names.size(); i++) {
+			columns.put(names.get(i).trim().toLowerCase(), i);
+		}
+
+		if (!columns.keySet().containsAll(CSV_COLUMNS)) {
+			throw new IllegalArgumentException("CSV header must contain the columns " + String.join(",", CSV_COLUMNS));
+		}
+
+		return columns;
+	}
+
+	private static User parseCsv(String line, Map<String, Integer> columns) {
+		List<String> fields = splitCsv(line);
+
+		if (fields.size() != columns.size()) {
+			return null;
+		}
+
+		try {
+			return new User(null, fields.get(columns.get("username")), fields.get(columns.get("name")),
+					fields.get(columns.get("email")), Long.parseLong(fields.get(columns.get("balance")).trim()));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private User parseJson(String line) {
+		try {
+			return userReader.readValue(line);
+		} catch (JsonProcessingException e) {
+			return null;
+		}
+	}
+
+	// Campi separati da virgola, eventualmente tra doppi apici con "" per l'apice letterale
+	static List<String> splitCsv(String line) {
+		List<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+
+			if (quoted) {
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else if (c == '"') {
+					quoted = false;
+				} else {
+					field.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+
+		fields.add(field.toString());
+
+		return fields;
+	}
+
+	private final class Import {
+
+		private final List<User> chunk = new ArrayList<>(chunkSize);
+		private final List<Long> chunkIndexes = new ArrayList<>(chunkSize);
+		private final List<RejectedRecord> errors = new ArrayList<>();
+		private long imported;
+		private long rejected;
+
+		void add(long index, User user) {
+			String error = validate(user);
+
+			if (error != null) {
+				reject(index, error);
+				return;
+			}
+
+			chunk.add(user);
+			chunkIndexes.add(index);
+
+			if (chunk.size() == chunkSize) {
+				flush();
+			}
+		}
+
+		private String validate(User user) {
+			if (user == null) {
+				return "Malformed user";
+			}
+
+			if (isBlank(user.getUsername()) || isBlank(user.getEmail()) || user.getBalance() < 0) {
+				return "Invalid user";
+			}
+
+			return null;
+		}
+
+		void flush() {
+			if (chunk.isEmpty()) {
+				return;
+			}
+
+			List<String> chunkErrors = ecommerceService.insertNewUsers(chunk);
+
+			for (int i = 0; i < chunkErrors.size(); i++) {
+				if (chunkErrors.get(i) == null) {
+					imported++;
+				} else {
+					reject(chunkIndexes.get(i), chunkErrors.get(i));
+				}
+			}
+
+			chunk.clear();
+			chunkIndexes.clear();
+		}
+
+		private void reject(long index, String error) {
+			rejected++;
+
+			if (errors.size() < MAX_REPORTED_ERRORS) {
+				errors.add(new RejectedRecord(index, error));
+			}
+		}
+	}
+
+	private static boolean isBlank(String value) {
+		return value == null || value.isBlank();
+	}
+}
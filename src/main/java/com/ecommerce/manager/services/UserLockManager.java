@@ -0,0 +1,97 @@
+package com.ecommerce.manager.services;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Serializes, inside the JVM, the balance operations on the same user. Users
+ * are hashed on a fixed number of lock stripes, so operations on unrelated
+ * users proceed in parallel unless they share a stripe.
+ */
+@Component
+public class UserLockManager {
+
+	static final String ACQUIRED_METRIC = "ecommerce.locks.acquired";
+	static final String CONTENDED_METRIC = "ecommerce.locks.contended";
+	static final String WAIT_METRIC = "ecommerce.locks.wait";
+
+	private final ReentrantLock[] stripes;
+
+	private final Counter acquired;
+	private final Counter contended;
+	private final Timer waitTimer;
+
+	public UserLockManager(MeterRegistry meterRegistry, @Value("${ecommerce.locks.stripes:64}") int stripeCount) {
+		if (stripeCount < 1) {
+			throw new IllegalArgumentException("Stripe count must be at least 1");
+		}
+
+		stripes = new ReentrantLock[stripeCount];
+		for (int i = 0; i < stripeCount; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+
+		acquired = meterRegistry.counter(ACQUIRED_METRIC);
+		contended = meterRegistry.counter(CONTENDED_METRIC);
+		waitTimer = meterRegistry.timer(WAIT_METRIC);
+		Gauge.builder("ecommerce.locks.stripes", stripes, s -> s.length).register(meterRegistry);
+	}
+
+	/**
+	 * Locks the stripes of the given users until the current transaction
+	 * completes. Stripes are always acquired in ascending order, so two callers
+	 * locking the same pair of users can never deadlock.
+	 */
+	public void lockUntilCompletion(long... userIds) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			throw new IllegalStateException("User locks require an active transaction");
+		}
+
+		int[] indexes = Arrays.stream(userIds).mapToInt(this::stripeIndex).sorted().distinct().toArray();
+
+		for (int index : indexes) {
+			acquire(stripes[index]);
+		}
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCompletion(int status) {
+				// Rilascio in ordine inverso rispetto all'acquisizione
+				for (int i = indexes.length - 1; i >= 0; i--) {
+					stripes[indexes[i]].unlock();
+				}
+			}
+		});
+	}
+
+	int stripeIndex(long userId) {
+		// Mescola i bit alti, così id consecutivi finiscono su stripe diverse
+		long hash = userId * 0x9E3779B97F4A7C15L;
+		return Math.floorMod((int) (hash ^ (hash >>> 32)), stripes.length);
+	}
+
+	private void acquire(ReentrantLock lock) {
+		acquired.increment();
+
+		if (lock.tryLock()) {
+			return;
+		}
+
+		contended.increment();
+
+		long start = System.nanoTime();
+		lock.lock();
+		waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+}
@@ -0,0 +1,108 @@
+package com.ecommerce.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ReplicaLagMonitorTest {
+
+	private JdbcDataSource primary;
+
+	private MeterRegistry meterRegistry;
+
+	private AtomicLong clock;
+
+	@Before
+	public void setup() {
+		primary = h2("lag_primary");
+		new JdbcTemplate(primary).execute("DROP TABLE IF EXISTS " + ReplicaLagMonitor.TABLE);
+		meterRegistry = new SimpleMeterRegistry();
+		clock = new AtomicLong(1_000_000);
+	}
+
+	@Test
+	public void testLagIsUnknownBeforeABeatIsReplicated() {
+		ReplicaLagMonitor monitor = monitor(primary);
+
+		assertThat(monitor.lagMillis()).isEqualTo(ReplicaLagMonitor.UNKNOWN);
+
+		monitor.heartbeat();
+
+		assertThat(monitor.lagMillis()).isEqualTo(ReplicaLagMonitor.UNKNOWN);
+		assertThat(meterRegistry.get(ReplicaLagMonitor.LAG_METRIC).timeGauge().value()).isNaN();
+	}
+
+	@Test
+	public void testLagIsTheAgeOfTheLastReplicatedBeat() {
+		// La replica è lo stesso database: ogni battito è replicato subito
+		ReplicaLagMonitor monitor = monitor(primary);
+		monitor.heartbeat();
+		clock.addAndGet(200);
+
+		monitor.heartbeat();
+
+		assertThat(monitor.lagMillis()).isEqualTo(200);
+		assertThat(meterRegistry.get(ReplicaLagMonitor.LAG_METRIC).timeGauge().value(TimeUnit.MILLISECONDS))
+				.isEqualTo(200);
+	}
+
+	@Test
+	public void testLagKeepsGrowingWhenTheHeartbeatStops() {
+		ReplicaLagMonitor monitor = monitor(primary);
+		monitor.heartbeat();
+		monitor.heartbeat();
+
+		clock.addAndGet(5000);
+
+		assertThat(monitor.lagMillis()).isEqualTo(5000);
+	}
+
+	@Test
+	public void testLagIsUnknownWhileTheReplicaCannotBeRead() {
+		ReplicaLagMonitor monitor = monitor(primary);
+		monitor.heartbeat();
+		monitor.heartbeat();
+
+		// Database vuoto: manca la tabella del battito
+		ReplicaLagMonitor unreplicated = monitor(h2("lag_unreplicated"));
+		unreplicated.heartbeat();
+		unreplicated.heartbeat();
+
+		assertThat(monitor.lagMillis()).isZero();
+		assertThat(unreplicated.lagMillis()).isEqualTo(ReplicaLagMonitor.UNKNOWN);
+		assertThat(new JdbcTemplate(primary).queryForObject("SELECT COUNT(*) FROM " + ReplicaLagMonitor.TABLE,
+				Integer.class)).isEqualTo(2);
+	}
+
+	@Test
+	public void testAbandonedInstancesAreDeletedWhenTheTableIsChecked() {
+		ReplicaLagMonitor abandoned = monitor(primary);
+		abandoned.heartbeat();
+		clock.addAndGet(TimeUnit.DAYS.toMillis(2));
+
+		monitor(primary).heartbeat();
+
+		assertThat(new JdbcTemplate(primary).queryForObject("SELECT COUNT(*) FROM " + ReplicaLagMonitor.TABLE,
+				Integer.class)).isEqualTo(1);
+	}
+
+	private ReplicaLagMonitor monitor(JdbcDataSource replica) {
+		return new ReplicaLagMonitor(primary, replica, meterRegistry, clock::get);
+	}
+
+	private static JdbcDataSource h2(String name) {
+		JdbcDataSource dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+		dataSource.setUser("sa");
+		return dataSource;
+	}
+}
@@ -0,0 +1,206 @@
+package com.ecommerce.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import jakarta.persistence.EntityManagerFactory;
+
+public class ReplicaRoutingDataSourceTest {
+
+	private static final Duration MAX_LAG = Duration.ofSeconds(1);
+
+	@Rule
+	public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+	@Mock
+	private DataSource unavailableReplica;
+
+	@Mock
+	private ReplicaLagMonitor lagMonitor;
+
+	@Mock
+	private EntityManagerFactory entityManagerFactory;
+
+	private JdbcDataSource primary;
+	private JdbcDataSource replica;
+
+	private MeterRegistry meterRegistry;
+
+	private DataSource dataSource;
+
+	private DataSourceTransactionManager transactionManager;
+
+	@Before
+	public void setup() {
+		// Due database H2 distinti: il nome restituito da DATABASE() dice dove è finita la query
+		primary = h2("routing_primary");
+		replica = h2("routing_replica");
+		meterRegistry = new SimpleMeterRegistry();
+		routing(replica, Duration.ofMinutes(1));
+	}
+
+	@Test
+	public void testNegativeMaxLag() {
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> new ReplicaRoutingDataSource(primary, replica, lagMonitor, Duration.ofSeconds(-1),
+						Duration.ZERO, meterRegistry));
+
+		assertThat(e.getMessage()).isEqualTo("Max lag cannot be negative");
+	}
+
+	@Test
+	public void testNegativeRetryInterval() {
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> new ReplicaRoutingDataSource(primary, replica, lagMonitor, Duration.ZERO,
+						Duration.ofSeconds(-1), meterRegistry));
+
+		assertThat(e.getMessage()).isEqualTo("Retry interval cannot be negative");
+	}
+
+	@Test
+	public void testReadOnlyTransactionsGoToTheReplica() {
+		assertThat(databaseIn(true)).isEqualTo("ROUTING_REPLICA");
+		assertThat(routes("replica")).isEqualTo(1.0);
+	}
+
+	@Test
+	public void testReadWriteTransactionsGoToThePrimary() {
+		assertThat(databaseIn(false)).isEqualTo("ROUTING_PRIMARY");
+		assertThat(routes("replica")).isZero();
+	}
+
+	@Test
+	public void testConnectionsOutsideTransactionsGoToThePrimary() {
+		assertThat(database()).isEqualTo("ROUTING_PRIMARY");
+	}
+
+	@Test
+	public void testReadsStayOnThePrimaryWhileTheReplicaLags() {
+		when(lagMonitor.lagMillis()).thenReturn(MAX_LAG.toMillis() + 1);
+
+		assertThat(databaseIn(true)).isEqualTo("ROUTING_PRIMARY");
+		assertThat(routes("replica")).isZero();
+	}
+
+	@Test
+	public void testReadsStayOnThePrimaryWhileTheLagIsUnknown() {
+		when(lagMonitor.lagMillis()).thenReturn(ReplicaLagMonitor.UNKNOWN);
+
+		assertThat(databaseIn(true)).isEqualTo("ROUTING_PRIMARY");
+	}
+
+	@Test
+	public void testReadsGoBackToTheReplicaWhenItCatchesUp() {
+		when(lagMonitor.lagMillis()).thenReturn(MAX_LAG.toMillis() + 1, MAX_LAG.toMillis());
+
+		assertThat(databaseIn(true)).isEqualTo("ROUTING_PRIMARY");
+		assertThat(databaseIn(true)).isEqualTo("ROUTING_REPLICA");
+	}
+
+	@Test
+	public void testTheRouteIsChosenWhenTheTransactionBegins() {
+		when(lagMonitor.lagMillis()).thenReturn(0L, MAX_LAG.toMillis() + 1);
+
+		List<String> databases = transaction(true).execute(status -> {
+			assertThat(ReplicaRoutingDataSource.isCurrentTransactionOnReplica()).isTrue();
+			return List.of(database(), database());
+		});
+
+		assertThat(databases).containsExactly("ROUTING_REPLICA", "ROUTING_REPLICA");
+		assertThat(ReplicaRoutingDataSource.isCurrentTransactionOnReplica()).isFalse();
+	}
+
+	@Test
+	public void testNewReadWriteTransactionWithinAReplicaReadGoesToThePrimary() {
+		TransactionTemplate inner = transaction(false);
+		inner.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+		List<String> databases = transaction(true)
+				.execute(status -> List.of(database(), inner.execute(nested -> database()), database()));
+
+		assertThat(databases).containsExactly("ROUTING_REPLICA", "ROUTING_PRIMARY", "ROUTING_REPLICA");
+	}
+
+	@Test
+	public void testUnavailableReplicaFallsBackToThePrimaryUntilTheRetryInterval() throws SQLException {
+		when(unavailableReplica.getConnection()).thenThrow(new SQLException("Connection refused"));
+		routing(unavailableReplica, Duration.ofMinutes(1));
+
+		assertThat(databaseIn(true)).isEqualTo("ROUTING_PRIMARY");
+		assertThat(databaseIn(true)).isEqualTo("ROUTING_PRIMARY");
+
+		verify(unavailableReplica, times(1)).getConnection();
+		assertThat(routes("fallback")).isEqualTo(1.0);
+		assertThat(meterRegistry.get(ReplicaRoutingDataSource.REPLICA_FAILURES_METRIC).counter().count())
+				.isEqualTo(1.0);
+	}
+
+	@Test
+	public void testReplicaIsTriedAgainAfterTheRetryInterval() throws SQLException {
+		when(unavailableReplica.getConnection()).thenThrow(new SQLException("Connection refused"))
+				.thenAnswer(invocation -> replica.getConnection());
+		routing(unavailableReplica, Duration.ZERO);
+
+		assertThat(databaseIn(true)).isEqualTo("ROUTING_PRIMARY");
+		assertThat(databaseIn(true)).isEqualTo("ROUTING_REPLICA");
+	}
+
+	private String databaseIn(boolean readOnly) {
+		return transaction(readOnly).execute(status -> database());
+	}
+
+	private String database() {
+		return new JdbcTemplate(dataSource).queryForObject("SELECT DATABASE()", String.class);
+	}
+
+	private TransactionTemplate transaction(boolean readOnly) {
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		transaction.setReadOnly(readOnly);
+		return transaction;
+	}
+
+	private void routing(DataSource replica, Duration retryInterval) {
+		ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(primary, replica, lagMonitor, MAX_LAG,
+				retryInterval, meterRegistry);
+		dataSource = new LazyConnectionDataSourceProxy(routing);
+		transactionManager = new DataSourceTransactionManager(dataSource);
+		// Transazioni solo JDBC: il listener non trova sessioni Hibernate
+		transactionManager.addListener(new ReplicaTransactionListener(routing, entityManagerFactory));
+	}
+
+	private double routes(String target) {
+		return meterRegistry.get(ReplicaRoutingDataSource.ROUTES_METRIC).tag("target", target).counter().count();
+	}
+
+	private static JdbcDataSource h2(String name) {
+		JdbcDataSource dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+		dataSource.setUser("sa");
+		return dataSource;
+	}
+}
@@ -1,19 +1,30 @@
 package com.ecommerce.manager.controllers;
 
 import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.CoreMatchers.is;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Supplier;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,11 +33,25 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.util.DigestUtils;
 
+import com.ecommerce.manager.model.IdempotencyRecord;
 import com.ecommerce.manager.model.Item;
 import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.OrderSummary;
 import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.services.BalanceBatcher;
 import com.ecommerce.manager.services.EcommerceService;
+import com.ecommerce.manager.services.UserImportReport;
+import com.ecommerce.manager.services.UserImporter;
+import com.ecommerce.manager.services.UserImporter.Format;
+import com.ecommerce.manager.services.IdempotencyStore;
+import com.ecommerce.manager.services.IdempotencyStore.Outcome;
+import com.ecommerce.manager.services.OrderExporter;
+import com.ecommerce.manager.services.OrderImportResult;
+import com.ecommerce.manager.services.OrderImporter;
+import com.ecommerce.manager.services.TableChangeMarkers;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 @RunWith(SpringRunner.class)
 @WebMvcTest(controllers = EcommerceRestController.class)
@@ -38,6 +63,30 @@ public class EcommerceRestControllerTest {
 	@MockitoBean
 	private EcommerceService ecommerceService;
 
+	@MockitoBean
+	private BalanceBatcher balanceBatcher;
+
+	@MockitoBean
+	private UserImporter userImporter;
+
+	@MockitoBean
+	private IdempotencyStore idempotencyStore;
+
+	@MockitoBean
+	private OrderImporter orderImporter;
+
+	@MockitoBean
+	private OrderExporter orderExporter;
+
+	@MockitoBean
+	private TableChangeMarkers changeMarkers;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	private static final String ORDER_JSON = "{\"item\":\"BOX1\", \"price\":800, \"user\":{\"id\":1, "
+			+ "\"username\":\"user 1\", \"name\":\"test\", \"email\":\"test\", \"balance\":3000}}";
+
 	@Test
 	public void testAllUsersEmpty() throws Exception {
 		this.mvc.perform(get("/api/users").accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
@@ -46,7 +95,7 @@ public class EcommerceRestControllerTest {
 
 	@Test
 	public void testAllUsersWhenThereIsSome() throws Exception {
-		when(ecommerceService.getAllUsers()).thenReturn(
+		when(ecommerceService.getUsersAfter(Long.MIN_VALUE, 101)).thenReturn(
 				asList(new User(1L, "user 1", "test", "test", 3000), new User(2L, "user 2", "test", "test", 4000)));
 
 		this.mvc.perform(get("/api/users").accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
@@ -65,20 +114,133 @@ public class EcommerceRestControllerTest {
 
 	@Test
 	public void testAllOrdersWhenThereIsSome() throws Exception {
-		User user = new User(1L, "user 1", "test", "test", 3000);
-
-		when(ecommerceService.getAllOrders())
-				.thenReturn(asList(new Order(1L, Item.BOX1, 800, user), new Order(2L, Item.BOX2, 500, user)));
+		when(ecommerceService.getOrderSummariesAfter(Long.MIN_VALUE, 101)).thenReturn(asList(
+				new OrderSummary(1L, Item.BOX1, 800, 1L, "user 1"), new OrderSummary(2L, Item.BOX2, 500, 1L, "user 1")));
 
 		this.mvc.perform(get("/api/orders").accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
 				.andExpect(jsonPath("$[0].id", is(1))).andExpect(jsonPath("$[0].item", is("BOX1")))
-				.andExpect(jsonPath("$[0].price", is(800))).andExpect(jsonPath("$[0].user.username", is("user 1")))
-				.andExpect(jsonPath("$[0].user.name", is("test"))).andExpect(jsonPath("$[0].user.email", is("test")))
-				.andExpect(jsonPath("$[0].user.balance", is(3000))).andExpect(jsonPath("$[1].id", is(2)))
+				.andExpect(jsonPath("$[0].price", is(800))).andExpect(jsonPath("$[0].userId", is(1)))
+				.andExpect(jsonPath("$[0].username", is("user 1"))).andExpect(jsonPath("$[1].id", is(2)))
 				.andExpect(jsonPath("$[1].item", is("BOX2"))).andExpect(jsonPath("$[1].price", is(500)))
-				.andExpect(jsonPath("$[1].user.id", is(1))).andExpect(jsonPath("$[1].user.username", is("user 1")))
-				.andExpect(jsonPath("$[1].user.name", is("test"))).andExpect(jsonPath("$[1].user.email", is("test")))
-				.andExpect(jsonPath("$[1].user.balance", is(3000)));
+				.andExpect(jsonPath("$[1].userId", is(1))).andExpect(jsonPath("$[1].username", is("user 1")))
+				.andExpect(jsonPath("$[0].user").doesNotExist());
+	}
+
+	@Test
+	public void testAllUsersWithMorePagesLinksTheNextOne() throws Exception {
+		when(ecommerceService.getUsersAfter(Long.MIN_VALUE, 3)).thenReturn(asList(new User(1L, "u1", "n", "e", 0),
+				new User(4L, "u4", "n", "e", 0), new User(7L, "u7", "n", "e", 0)));
+
+		this.mvc.perform(get("/api/users").param("limit", "2").accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk()).andExpect(jsonPath("$.length()", is(2)))
+				.andExpect(jsonPath("$[1].id", is(4))).andExpect(header().string("Link",
+						"<http://localhost/api/users?limit=2&cursor=" + EcommerceRestController.encodeCursor(4L)
+								+ ">; rel=\"next\""));
+	}
+
+	@Test
+	public void testAllUsersLastPageHasNoLink() throws Exception {
+		when(ecommerceService.getUsersAfter(4L, 3)).thenReturn(asList(new User(7L, "u7", "n", "e", 0)));
+
+		this.mvc.perform(get("/api/users").param("limit", "2").param("cursor", EcommerceRestController.encodeCursor(4L))
+				.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+				.andExpect(jsonPath("$[0].id", is(7))).andExpect(header().doesNotExist("Link"));
+	}
+
+	@Test
+	public void testAllOrdersWithMorePagesLinksTheNextOne() throws Exception {
+		when(ecommerceService.getOrderSummariesAfter(5L, 2)).thenReturn(asList(
+				new OrderSummary(6L, Item.BOX1, 800, 1L, "user 1"), new OrderSummary(9L, Item.BOX2, 500, 1L, "user 1")));
+
+		this.mvc.perform(get("/api/orders").param("limit", "1").param("cursor", EcommerceRestController.encodeCursor(5L))
+				.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+				.andExpect(jsonPath("$.length()", is(1))).andExpect(header().string("Link",
+						"<http://localhost/api/orders?limit=1&cursor=" + EcommerceRestController.encodeCursor(6L)
+								+ ">; rel=\"next\""));
+	}
+
+	@Test
+	public void testAllUsersEtagIsTheUsersMarker() throws Exception {
+		when(changeMarkers.users()).thenReturn("m-1");
+
+		this.mvc.perform(get("/api/users").accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+				.andExpect(header().string("ETag", "\"m-1\""));
+	}
+
+	@Test
+	public void testAllUsersWithMatchingEtagReturns304WithoutQuerying() throws Exception {
+		when(changeMarkers.users()).thenReturn("m-1");
+
+		this.mvc.perform(get("/api/users").header("If-None-Match", "\"m-1\"").accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isNotModified()).andExpect(header().string("ETag", "\"m-1\""))
+				.andExpect(content().string(""));
+
+		verifyNoInteractions(ecommerceService);
+	}
+
+	@Test
+	public void testAllOrdersWithStaleEtagReturnsTheList() throws Exception {
+		when(changeMarkers.orders()).thenReturn("m-2-1");
+		when(ecommerceService.getOrderSummariesAfter(Long.MIN_VALUE, 101))
+				.thenReturn(asList(new OrderSummary(1L, Item.BOX1, 800, 1L, "user 1")));
+
+		this.mvc.perform(get("/api/orders").header("If-None-Match", "\"m-1-1\"").accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk()).andExpect(header().string("ETag", "\"m-2-1\""))
+				.andExpect(jsonPath("$[0].id", is(1)));
+	}
+
+	@Test
+	public void testAllUsersLimitIsCappedToTheMaximum() throws Exception {
+		this.mvc.perform(get("/api/users").param("limit", "1000000").accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk());
+
+		verify(ecommerceService).getUsersAfter(Long.MIN_VALUE, 1001);
+	}
+
+	@Test
+	public void testAllUsersWithInvalidLimitReturns400() throws Exception {
+		this.mvc.perform(get("/api/users").param("limit", "0").accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isBadRequest()).andExpect(jsonPath("$.message", is("Limit must be at least 1")));
+	}
+
+	@Test
+	public void testAllOrdersWithInvalidCursorReturns400() throws Exception {
+		this.mvc.perform(get("/api/orders").param("cursor", "not a cursor!").accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isBadRequest()).andExpect(jsonPath("$.message", is("Invalid cursor")));
+
+		verifyNoInteractions(ecommerceService);
+	}
+
+	@Test
+	public void testCursorRoundTrip() {
+		assertThat(EcommerceRestController.decodeCursor(EcommerceRestController.encodeCursor(42L))).isEqualTo(42L);
+		assertThat(EcommerceRestController.decodeCursor(null)).isEqualTo(Long.MIN_VALUE);
+	}
+
+	@Test
+	public void testExportOrdersStreamsNdjson() throws Exception {
+		when(orderExporter.exportOrders(eq(Item.BOX2), eq(500L), any())).thenAnswer(invocation -> {
+			invocation.getArgument(2, OutputStream.class).write("{\"id\":1}\n".getBytes());
+			return 1L;
+		});
+
+		this.mvc.perform(get("/api/orders/export").param("item", "BOX2").param("priceAbove", "500"))
+				.andExpect(status().isOk()).andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+				.andExpect(content().string("{\"id\":1}\n"));
+	}
+
+	@Test
+	public void testExportOrdersWithoutFilters() throws Exception {
+		this.mvc.perform(get("/api/orders/export")).andExpect(status().isOk());
+
+		verify(orderExporter).exportOrders(eq(null), eq(null), any());
+	}
+
+	@Test
+	public void testExportOrdersWithUnknownItemReturns400() throws Exception {
+		this.mvc.perform(get("/api/orders/export").param("item", "BOX9")).andExpect(status().isBadRequest());
+
+		verifyNoInteractions(orderExporter);
 	}
 
 	@Test
@@ -91,6 +253,36 @@ public class EcommerceRestControllerTest {
 				.andExpect(jsonPath("$.balance", is(3000)));
 	}
 
+	@Test
+	public void testOneUserByIdEtagIsTheHashOfTheBody() throws Exception {
+		User user = new User(1L, "user 1", "test", "test", 3000);
+		when(ecommerceService.getUserById(1L)).thenReturn(user);
+
+		this.mvc.perform(get("/api/users/1").accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+				.andExpect(header().string("ETag",
+						"\"" + DigestUtils.md5DigestAsHex(objectMapper.writeValueAsBytes(user)) + "\""));
+	}
+
+	@Test
+	public void testOneUserByIdWithMatchingEtagReturns304() throws Exception {
+		User user = new User(1L, "user 1", "test", "test", 3000);
+		when(ecommerceService.getUserById(1L)).thenReturn(user);
+		String etag = "\"" + DigestUtils.md5DigestAsHex(objectMapper.writeValueAsBytes(user)) + "\"";
+
+		this.mvc.perform(get("/api/users/1").header("If-None-Match", etag).accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isNotModified()).andExpect(content().string(""));
+	}
+
+	@Test
+	public void testOneUserByIdChangedSinceTheEtagReturnsTheNewBody() throws Exception {
+		User user = new User(1L, "user 1", "test", "test", 3000);
+		String etag = "\"" + DigestUtils.md5DigestAsHex(objectMapper.writeValueAsBytes(user)) + "\"";
+		when(ecommerceService.getUserById(1L)).thenReturn(new User(1L, "user 1", "test", "test", 2500));
+
+		this.mvc.perform(get("/api/users/1").header("If-None-Match", etag).accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk()).andExpect(jsonPath("$.balance", is(2500)));
+	}
+
 	@Test
 	public void testOneUserByIdWithNotFoundUser() throws Exception {
 		when(ecommerceService.getUserById(anyLong())).thenReturn(null);
@@ -101,19 +293,28 @@ public class EcommerceRestControllerTest {
 
 	@Test
 	public void testOneOrderByIdWithExistingOrder() throws Exception {
-		when(ecommerceService.getOrderById(anyLong()))
-				.thenReturn(new Order(1L, Item.BOX1, 800, new User(1L, "user 1", "test", "test", 3000)));
+		when(ecommerceService.getOrderSummaryById(anyLong()))
+				.thenReturn(new OrderSummary(1L, Item.BOX1, 800, 1L, "user 1"));
 
 		this.mvc.perform(get("/api/orders/1").accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
 				.andExpect(jsonPath("$.id", is(1))).andExpect(jsonPath("$.item", is("BOX1")))
-				.andExpect(jsonPath("$.price", is(800))).andExpect(jsonPath("$.user.username", is("user 1")))
-				.andExpect(jsonPath("$.user.name", is("test"))).andExpect(jsonPath("$.user.email", is("test")))
-				.andExpect(jsonPath("$.user.balance", is(3000)));
+				.andExpect(jsonPath("$.price", is(800))).andExpect(jsonPath("$.userId", is(1)))
+				.andExpect(jsonPath("$.username", is("user 1")));
+	}
+
+	@Test
+	public void testOneOrderByIdWithMatchingEtagReturns304() throws Exception {
+		OrderSummary order = new OrderSummary(1L, Item.BOX1, 800, 1L, "user 1");
+		when(ecommerceService.getOrderSummaryById(1L)).thenReturn(order);
+		String etag = "\"" + DigestUtils.md5DigestAsHex(objectMapper.writeValueAsBytes(order)) + "\"";
+
+		this.mvc.perform(get("/api/orders/1").header("If-None-Match", etag).accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isNotModified());
 	}
 
 	@Test
 	public void testOneOrderByIdWithNotFoundOrder() throws Exception {
-		when(ecommerceService.getOrderById(anyLong())).thenReturn(null);
+		when(ecommerceService.getOrderSummaryById(anyLong())).thenReturn(null);
 
 		this.mvc.perform(get("/api/orders/1").accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
 				.andExpect(content().string(""));
@@ -161,6 +362,56 @@ public class EcommerceRestControllerTest {
 				.andExpect(jsonPath("$.message", is("Unable to insert new order")));
 	}
 
+	@Test
+	public void testImportOrdersReturnsReportOfEveryRecord() throws Exception {
+		when(orderImporter.importOrders(any())).thenReturn(asList(OrderImportResult.created(0, 5L),
+				OrderImportResult.failed(1, "Not enough balance to perform withdraw")));
+
+		this.mvc.perform(post("/api/orders/import").contentType(MediaType.APPLICATION_NDJSON)
+				.content(ORDER_JSON + "\n" + ORDER_JSON + "\n").accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk()).andExpect(jsonPath("$[0].index", is(0)))
+				.andExpect(jsonPath("$[0].orderId", is(5))).andExpect(jsonPath("$[1].index", is(1)))
+				.andExpect(jsonPath("$[1].error", is("Not enough balance to perform withdraw")));
+	}
+
+	@Test
+	public void testImportOrdersWithUnsupportedContentTypeReturns415() throws Exception {
+		this.mvc.perform(post("/api/orders/import").contentType(MediaType.TEXT_PLAIN).content(ORDER_JSON))
+				.andExpect(status().isUnsupportedMediaType());
+
+		verifyNoInteractions(orderImporter);
+	}
+
+	@Test
+	public void testImportUsersFromCsv() throws Exception {
+		when(userImporter.importUsers(any(), eq(Format.CSV))).thenReturn(new UserImportReport(1, 1,
+				List.of(new UserImportReport.RejectedRecord(1, "Duplicate username"))));
+
+		this.mvc.perform(post("/api/users/import").contentType("text/csv")
+				.content("username,name,email,balance\nu1,n1,e1,100\nu1,n2,e2,100\n")
+				.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+				.andExpect(jsonPath("$.imported", is(1))).andExpect(jsonPath("$.rejected", is(1)))
+				.andExpect(jsonPath("$.errors[0].index", is(1)))
+				.andExpect(jsonPath("$.errors[0].error", is("Duplicate username")));
+	}
+
+	@Test
+	public void testImportUsersFromNdjson() throws Exception {
+		when(userImporter.importUsers(any(), eq(Format.NDJSON))).thenReturn(new UserImportReport(2, 0, List.of()));
+
+		this.mvc.perform(post("/api/users/import").contentType(MediaType.APPLICATION_NDJSON).content("{}\n{}\n")
+				.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+				.andExpect(jsonPath("$.imported", is(2)));
+	}
+
+	@Test
+	public void testImportUsersWithInvalidCsvHeaderReturns400() throws Exception {
+		when(userImporter.importUsers(any(), eq(Format.CSV))).thenThrow(new IllegalArgumentException("Invalid header"));
+
+		this.mvc.perform(post("/api/users/import").contentType("text/csv").content("id\n"))
+				.andExpect(status().isBadRequest()).andExpect(jsonPath("$.message", is("Invalid header")));
+	}
+
 	@Test
 	public void testUpdateUser() throws Exception {
 		User requestBodyUser = new User(null, "username", "new user", "email", 4000);
@@ -261,4 +512,155 @@ public class EcommerceRestControllerTest {
 				.accept(MediaType.APPLICATION_JSON)).andExpect(status().isBadRequest())
 				.andExpect(jsonPath("$.message", is("Not enough balance to perform withdraw")));
 	}
+
+	@Test
+	public void testDepositWithGroupCommitGoesThroughBatcher() throws Exception {
+		when(balanceBatcher.isEnabled()).thenReturn(true);
+
+		this.mvc.perform(post("/api/users/1/deposit").contentType(MediaType.APPLICATION_JSON).content("500")
+				.accept(MediaType.APPLICATION_JSON)).andExpect(status().isNoContent());
+
+		verify(balanceBatcher).deposit(1L, 500L);
+		verifyNoInteractions(ecommerceService);
+	}
+
+	@Test
+	public void testWithdrawWithGroupCommitWhenBalanceNotEnoughReturns400() throws Exception {
+		when(balanceBatcher.isEnabled()).thenReturn(true);
+		doThrow(new IllegalStateException("Not enough balance to perform withdraw")).when(balanceBatcher)
+				.withdraw(anyLong(), anyLong());
+
+		this.mvc.perform(post("/api/users/1/withdraw").contentType(MediaType.APPLICATION_JSON).content("500")
+				.accept(MediaType.APPLICATION_JSON)).andExpect(status().isBadRequest())
+				.andExpect(jsonPath("$.message", is("Not enough balance to perform withdraw")));
+
+		verifyNoInteractions(ecommerceService);
+	}
+
+	@Test
+	public void testPostOrderWithIdempotencyKeyStoresTheOutcome() throws Exception {
+		User user = new User(1L, "user 1", "test", "test", 3000);
+		Order requestBodyOrder = new Order(null, Item.BOX1, 800, user);
+		executeIdempotentActions();
+		when(ecommerceService.insertNewOrder(requestBodyOrder)).thenReturn(new Order(1L, Item.BOX1, 800, user));
+
+		this.mvc.perform(post("/api/orders/new").header("Idempotency-Key", "key")
+				.contentType(MediaType.APPLICATION_JSON).content(ORDER_JSON).accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk()).andExpect(jsonPath("$.id", is(1)));
+
+		verify(idempotencyStore).execute(eq("orders/new:key"), eq(hashOf(requestBodyOrder)), any());
+	}
+
+	@Test
+	public void testPostOrderReplayReturnsStoredResponseWithoutCallingService() throws Exception {
+		Order requestBodyOrder = new Order(null, Item.BOX1, 800, new User(1L, "user 1", "test", "test", 3000));
+		when(idempotencyStore.execute(eq("orders/new:key"), anyString(), any())).thenReturn(new IdempotencyRecord(
+				"orders/new:key", hashOf(requestBodyOrder), 200, "{\"id\":1,\"item\":\"BOX1\"}", Instant.now()));
+
+		this.mvc.perform(post("/api/orders/new").header("Idempotency-Key", "key")
+				.contentType(MediaType.APPLICATION_JSON).content(ORDER_JSON).accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk()).andExpect(jsonPath("$.id", is(1)))
+				.andExpect(jsonPath("$.item", is("BOX1")));
+
+		verifyNoInteractions(ecommerceService);
+	}
+
+	@Test
+	public void testPostOrderWithIdempotencyKeyOfDifferentRequestReturns422() throws Exception {
+		when(idempotencyStore.execute(eq("orders/new:key"), anyString(), any()))
+				.thenReturn(new IdempotencyRecord("orders/new:key", "other", 200, "{}", Instant.now()));
+
+		this.mvc.perform(post("/api/orders/new").header("Idempotency-Key", "key")
+				.contentType(MediaType.APPLICATION_JSON).content(ORDER_JSON).accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isUnprocessableEntity())
+				.andExpect(jsonPath("$.message", is("Idempotency-Key already used for a different request")));
+
+		verifyNoInteractions(ecommerceService);
+	}
+
+	@Test
+	public void testPostOrderWithIdempotencyKeyInProgressReturns409() throws Exception {
+		Order requestBodyOrder = new Order(null, Item.BOX1, 800, new User(1L, "user 1", "test", "test", 3000));
+		when(idempotencyStore.execute(eq("orders/new:key"), anyString(), any())).thenReturn(
+				IdempotencyRecord.pending("orders/new:key", hashOf(requestBodyOrder), Instant.now()));
+
+		this.mvc.perform(post("/api/orders/new").header("Idempotency-Key", "key")
+				.contentType(MediaType.APPLICATION_JSON).content(ORDER_JSON).accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isConflict())
+				.andExpect(jsonPath("$.message", is("A request with the same Idempotency-Key is in progress")));
+
+		verifyNoInteractions(ecommerceService);
+	}
+
+	@Test
+	public void testPostOrderWithBlankIdempotencyKeyReturns400() throws Exception {
+		this.mvc.perform(post("/api/orders/new").header("Idempotency-Key", " ")
+				.contentType(MediaType.APPLICATION_JSON).content(ORDER_JSON).accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isBadRequest()).andExpect(jsonPath("$.message", is("Invalid Idempotency-Key")));
+
+		verifyNoInteractions(ecommerceService, idempotencyStore);
+	}
+
+	@Test
+	public void testWithdrawWithIdempotencyKeyStoresTheOutcome() throws Exception {
+		executeIdempotentActions();
+
+		this.mvc.perform(post("/api/users/1/withdraw").header("Idempotency-Key", "key")
+				.contentType(MediaType.APPLICATION_JSON).content("500").accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isNoContent());
+
+		verify(ecommerceService).withdraw(1L, 500L);
+		verify(idempotencyStore).execute(eq("users/1/withdraw:key"), eq(hashOf(500L)), any());
+	}
+
+	@Test
+	public void testWithdrawWithIdempotencyKeyBypassesTheBatcher() throws Exception {
+		when(balanceBatcher.isEnabled()).thenReturn(true);
+		executeIdempotentActions();
+
+		this.mvc.perform(post("/api/users/1/withdraw").header("Idempotency-Key", "key")
+				.contentType(MediaType.APPLICATION_JSON).content("500").accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isNoContent());
+
+		verify(ecommerceService).withdraw(1L, 500L);
+		verify(balanceBatcher, never()).withdraw(anyLong(), anyLong());
+	}
+
+	@Test
+	public void testWithdrawReplayDoesNotWithdrawAgain() throws Exception {
+		when(idempotencyStore.execute(eq("users/1/withdraw:key"), anyString(), any()))
+				.thenReturn(new IdempotencyRecord("users/1/withdraw:key", hashOf(500L), 204, null, Instant.now()));
+
+		this.mvc.perform(post("/api/users/1/withdraw").header("Idempotency-Key", "key")
+				.contentType(MediaType.APPLICATION_JSON).content("500").accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isNoContent());
+
+		verifyNoInteractions(ecommerceService, balanceBatcher);
+	}
+
+	@Test
+	public void testWithdrawWithIdempotencyKeyWhenRejectedReturns400() throws Exception {
+		executeIdempotentActions();
+		doThrow(new IllegalStateException("Not enough balance to perform withdraw")).when(ecommerceService)
+				.withdraw(anyLong(), anyLong());
+
+		this.mvc.perform(post("/api/users/1/withdraw").header("Idempotency-Key", "key")
+				.contentType(MediaType.APPLICATION_JSON).content("500").accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isBadRequest())
+				.andExpect(jsonPath("$.message", is("Not enough balance to perform withdraw")));
+	}
+
+	// Il finto store esegue l'azione e restituisce la chiave completata con il suo esito
+	private void executeIdempotentActions() {
+		when(idempotencyStore.execute(anyString(), anyString(), any())).thenAnswer(invocation -> {
+			Supplier<Outcome> action = invocation.getArgument(2);
+			Outcome outcome = action.get();
+			return new IdempotencyRecord(invocation.getArgument(0), invocation.getArgument(1), outcome.status(),
+					outcome.body(), Instant.now());
+		});
+	}
+
+	private String hashOf(Object request) throws Exception {
+		return DigestUtils.md5DigestAsHex(objectMapper.writeValueAsBytes(request));
+	}
 }
@@ -22,8 +22,13 @@ import org.springframework.test.context.junit4.SpringRunner;
 
 import com.ecommerce.manager.model.Item;
 import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.OrderSummary;
 import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.services.BalanceBatcher;
 import com.ecommerce.manager.services.EcommerceService;
+import com.ecommerce.manager.services.UserImportReport;
+import com.ecommerce.manager.services.UserImporter;
+import com.ecommerce.manager.services.UserImporter.Format;
 
 @RunWith(SpringRunner.class)
 @WebMvcTest(controllers = EcommerceWebController.class)
@@ -35,6 +40,12 @@ public class EcommerceWebControllerHtmlUnitTest {
 	@MockitoBean
 	private EcommerceService ecommerceService;
 
+	@MockitoBean
+	private BalanceBatcher balanceBatcher;
+
+	@MockitoBean
+	private UserImporter userImporter;
+
 	@Test
 	public void testHomePageTitle() throws Exception {
 		HtmlPage page = webClient.getPage("/");
@@ -138,6 +149,17 @@ public class EcommerceWebControllerHtmlUnitTest {
 		assertThat(page.getAnchorByText("New User").getHrefAttribute()).isEqualTo("/newUser");
 	}
 
+	@Test
+	public void testHomePageShouldHaveAFormForImportingUsers() throws Exception {
+		HtmlPage page = this.webClient.getPage("/");
+
+		HtmlForm form = page.getFormByName("import_users_form");
+
+		assertThat(form.getActionAttribute()).isEqualTo("/importUsers");
+		assertThat(form.getEnctypeAttribute()).isEqualTo("multipart/form-data");
+		assertThat(form.getInputByName("file").getTypeAttribute()).isEqualTo("file");
+	}
+
 	@Test
 	public void testHandleBalancePageTitle() throws Exception {
 		HtmlPage page = webClient.getPage("/1/handle_balance");
@@ -262,7 +284,7 @@ public class EcommerceWebControllerHtmlUnitTest {
 
 	@Test
 	public void testAllOrdersPageWithNoOrders() throws Exception {
-		when(ecommerceService.getAllOrders()).thenReturn(emptyList());
+		when(ecommerceService.getAllOrderSummaries()).thenReturn(emptyList());
 
 		HtmlPage page = this.webClient.getPage("/orders");
 
@@ -271,10 +293,8 @@ public class EcommerceWebControllerHtmlUnitTest {
 
 	@Test
 	public void testAllOrdersPageWithOrdersShouldShowThemInATable() throws Exception {
-		User user = new User(1L, "u1", "n1", "e1", 1000);
-
-		when(ecommerceService.getAllOrders())
-				.thenReturn(asList(new Order(1L, Item.BOX1, 100, user), new Order(2L, Item.BOX2, 200, user)));
+		when(ecommerceService.getAllOrderSummaries()).thenReturn(asList(new OrderSummary(1L, Item.BOX1, 100, 1L, "u1"),
+				new OrderSummary(2L, Item.BOX2, 200, 1L, "u1")));
 
 		HtmlPage page = this.webClient.getPage("/orders");
 
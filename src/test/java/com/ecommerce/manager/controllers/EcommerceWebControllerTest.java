@@ -4,11 +4,14 @@ import static java.util.Arrays.asList;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.flash;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
@@ -25,6 +28,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.context.junit4.rules.SpringClassRule;
 import org.springframework.test.context.junit4.rules.SpringMethodRule;
@@ -33,8 +37,13 @@ import org.springframework.test.web.servlet.MockMvc;
 
 import com.ecommerce.manager.model.Item;
 import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.OrderSummary;
 import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.services.BalanceBatcher;
 import com.ecommerce.manager.services.EcommerceService;
+import com.ecommerce.manager.services.UserImportReport;
+import com.ecommerce.manager.services.UserImporter;
+import com.ecommerce.manager.services.UserImporter.Format;
 
 import junitparams.JUnitParamsRunner;
 import junitparams.Parameters;
@@ -52,6 +61,12 @@ public class EcommerceWebControllerTest {
 	@MockitoBean
 	private EcommerceService ecommerceService;
 
+	@MockitoBean
+	private BalanceBatcher balanceBatcher;
+
+	@MockitoBean
+	private UserImporter userImporter;
+
 	@Autowired
 	private MockMvc mvc;
 
@@ -86,9 +101,9 @@ public class EcommerceWebControllerTest {
 
 	@Test
 	public void testOrdersViewShowsOrdersWhenThereAreOrders() throws Exception {
-		List<Order> orders = asList(new Order(1L, Item.BOX1, 700, new User(1L, "test", "test", "test", 1000)));
+		List<OrderSummary> orders = asList(new OrderSummary(1L, Item.BOX1, 700, 1L, "test"));
 
-		when(ecommerceService.getAllOrders()).thenReturn(orders);
+		when(ecommerceService.getAllOrderSummaries()).thenReturn(orders);
 
 		mvc.perform(get("/orders")).andExpect(view().name("all-orders")).andExpect(model().attribute("orders", orders))
 				.andExpect(model().attribute("message", ""));
@@ -96,7 +111,7 @@ public class EcommerceWebControllerTest {
 
 	@Test
 	public void testOrdersViewShowsMessageWhenThereAreNoOrders() throws Exception {
-		when(ecommerceService.getAllOrders()).thenReturn(Collections.emptyList());
+		when(ecommerceService.getAllOrderSummaries()).thenReturn(Collections.emptyList());
 
 		mvc.perform(get("/orders")).andExpect(view().name("all-orders"))
 				.andExpect(model().attribute("orders", Collections.emptyList()))
@@ -259,6 +274,25 @@ public class EcommerceWebControllerTest {
 		verify(ecommerceService).deposit(anyLong(), anyLong());
 	}
 
+	@Test
+	@Parameters({ "users.csv, CSV", "USERS.CSV, CSV", "users.ndjson, NDJSON", "users, NDJSON" })
+	public void testImportUsersShouldPickTheFormatFromTheFileName(String filename, Format format) throws Exception {
+		when(userImporter.importUsers(any(), any())).thenReturn(new UserImportReport(3, 1, List.of()));
+
+		mvc.perform(multipart("/importUsers").file(new MockMultipartFile("file", filename, null, new byte[0])))
+				.andExpect(redirectedUrl("/")).andExpect(flash().attribute("imported", "Imported 3 users, rejected 1"));
+
+		verify(userImporter).importUsers(any(), eq(format));
+	}
+
+	@Test
+	public void testImportUsersWhenHeaderIsInvalidShouldRedirectWithError() throws Exception {
+		when(userImporter.importUsers(any(), any())).thenThrow(new IllegalArgumentException("Invalid header"));
+
+		mvc.perform(multipart("/importUsers").file(new MockMultipartFile("file", "users.csv", null, new byte[0])))
+				.andExpect(redirectedUrl("/")).andExpect(flash().attribute("error", "Invalid header"));
+	}
+
 	@Test
 	public void testWithdrawWhenSuccessShouldRedirectToMappingUsers() throws Exception {
 		mvc.perform(post("/1/withdraw").param("amount", "500")).andExpect(redirectedUrl("/"));
@@ -286,4 +320,24 @@ public class EcommerceWebControllerTest {
 
 		verify(ecommerceService).withdraw(anyLong(), anyLong());
 	}
+
+	@Test
+	public void testDepositWithGroupCommitGoesThroughBatcher() throws Exception {
+		when(balanceBatcher.isEnabled()).thenReturn(true);
+
+		mvc.perform(post("/1/deposit").param("amount", "500")).andExpect(redirectedUrl("/"));
+
+		verify(balanceBatcher).deposit(1L, 500);
+		verifyNoInteractions(ecommerceService);
+	}
+
+	@Test
+	public void testWithdrawWithGroupCommitGoesThroughBatcher() throws Exception {
+		when(balanceBatcher.isEnabled()).thenReturn(true);
+
+		mvc.perform(post("/1/withdraw").param("amount", "500")).andExpect(redirectedUrl("/"));
+
+		verify(balanceBatcher).withdraw(1L, 500);
+		verifyNoInteractions(ecommerceService);
+	}
 }
@@ -0,0 +1,112 @@
+package com.ecommerce.manager.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.junit.Assert.assertThrows;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+
+import com.ecommerce.manager.jdbc.JdbcRequestReport.EndpointStatistics;
+
+public class JdbcRequestReportTest {
+
+	private static final Duration WINDOW = Duration.ofMinutes(5);
+
+	private final AtomicLong now = new AtomicLong();
+
+	private JdbcRequestReport report;
+
+	@Before
+	public void setup() {
+		report = new JdbcRequestReport(WINDOW, 2, now::get);
+	}
+
+	@Test
+	public void testEmptyWindow() {
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> new JdbcRequestReport(Duration.ZERO, 1));
+
+		assertThat(e.getMessage()).isEqualTo("Window must be positive");
+	}
+
+	@Test
+	public void testInvalidTop() {
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> new JdbcRequestReport(WINDOW, 0));
+
+		assertThat(e.getMessage()).isEqualTo("Top must be at least 1");
+	}
+
+	@Test
+	public void testRequestsOfTheSameEndpointAreAggregated() {
+		report.record("GET /api/users", statistics(2, 10, 3_000_000));
+		report.record("GET /api/users", statistics(4, 30, 1_000_000));
+
+		assertThat(report.worst(null))
+				.containsExactly(new EndpointStatistics("GET /api/users", 2, 6, 4, 40, 4.0));
+		assertThat(report.worst(null).get(0).statementsPerRequest()).isEqualTo(3.0);
+		assertThat(report.worst(null).get(0).jdbcMillisPerRequest()).isEqualTo(2.0);
+	}
+
+	@Test
+	public void testOnlyTheTopEndpointsAreReportedWorstFirst() {
+		report.record("GET /api/users", statistics(1, 100, 5_000_000));
+		report.record("GET /api/orders", statistics(50, 50, 1_000_000));
+		report.record("POST /api/users/new", statistics(2, 0, 3_000_000));
+
+		assertThat(report.worst(null)).extracting(EndpointStatistics::endpoint).containsExactly("GET /api/users",
+				"POST /api/users/new");
+		assertThat(report.worst("statements")).extracting(EndpointStatistics::endpoint)
+				.containsExactly("GET /api/orders", "POST /api/users/new");
+		assertThat(report.worst("rows")).extracting(EndpointStatistics::endpoint).containsExactly("GET /api/users",
+				"GET /api/orders");
+	}
+
+	@Test
+	public void testUnknownSort() {
+		InvalidEndpointRequestException e = assertThrows(InvalidEndpointRequestException.class,
+				() -> report.worst("name"));
+
+		assertThat(e.getMessage()).isEqualTo("Unknown sort name");
+	}
+
+	@Test
+	public void testRequestsOlderThanTheWindowAreDropped() {
+		report.record("GET /api/users", statistics(1, 1, 1));
+		now.addAndGet(WINDOW.toNanos() / 2);
+		report.record("GET /api/orders", statistics(1, 1, 1));
+
+		now.addAndGet(WINDOW.toNanos() / 2 + 1);
+
+		assertThat(report.worst(null)).extracting(EndpointStatistics::endpoint).containsExactly("GET /api/orders");
+	}
+
+	@Test
+	public void testARecycledSlotStartsEmpty() {
+		report.record("GET /api/users", statistics(1, 1, 1));
+		now.addAndGet(WINDOW.toNanos());
+		report.record("GET /api/users", statistics(3, 1, 1));
+
+		assertThat(report.worst(null)).extracting(EndpointStatistics::requests, EndpointStatistics::statements)
+				.containsExactly(tuple(1L, 3L));
+	}
+
+	private static JdbcStatistics statistics(int statements, int rows, long nanos) {
+		JdbcStatistics statistics = new JdbcStatistics();
+
+		for (int i = 0; i < statements; i++) {
+			statistics.statementExecuted(i == 0 ? nanos : 0);
+		}
+
+		for (int i = 0; i < rows; i++) {
+			statistics.rowFetched(true, 0);
+		}
+
+		return statistics;
+	}
+}
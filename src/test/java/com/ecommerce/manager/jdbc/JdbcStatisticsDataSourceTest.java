@@ -0,0 +1,174 @@
+package com.ecommerce.manager.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Duration;
+
+import org.h2.jdbc.JdbcConnection;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.boot.test.system.OutputCaptureRule;
+
+import com.ecommerce.manager.jdbc.SqlFingerprintReport.FingerprintStatistics;
+
+public class JdbcStatisticsDataSourceTest {
+
+	@Rule
+	public OutputCaptureRule output = new OutputCaptureRule();
+
+	private JdbcDataSource h2;
+
+	private JdbcStatisticsDataSource dataSource;
+
+	@Before
+	public void setup() throws SQLException {
+		h2 = new JdbcDataSource();
+		h2.setURL("jdbc:h2:mem:jdbc_statistics;DB_CLOSE_DELAY=-1");
+		h2.setUser("sa");
+		dataSource = new JdbcStatisticsDataSource(h2);
+
+		try (Connection connection = h2.getConnection(); Statement statement = connection.createStatement()) {
+			statement.execute("DROP TABLE IF EXISTS numbers");
+			statement.execute("CREATE TABLE numbers (n INT)");
+			statement.execute("INSERT INTO numbers VALUES (1), (2), (3)");
+		}
+	}
+
+	@After
+	public void tearDown() {
+		JdbcStatistics.stop();
+	}
+
+	@Test
+	public void testConnectionsOutsideARequestAreNotWrapped() throws SQLException {
+		try (Connection connection = dataSource.getConnection()) {
+			assertThat(connection).isInstanceOf(JdbcConnection.class);
+		}
+	}
+
+	@Test
+	public void testStatementsAndFetchedRowsAreCounted() throws SQLException {
+		JdbcStatistics statistics = JdbcStatistics.start();
+
+		try (Connection connection = dataSource.getConnection();
+				PreparedStatement statement = connection.prepareStatement("SELECT n FROM numbers WHERE n > ?")) {
+			statement.setInt(1, 1);
+
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					assertThat(resultSet.getInt(1)).isGreaterThan(1);
+				}
+			}
+
+			connection.createStatement().executeUpdate("UPDATE numbers SET n = n + 1");
+		}
+
+		assertThat(statistics.getStatements()).isEqualTo(2);
+		assertThat(statistics.getRows()).isEqualTo(2);
+		assertThat(statistics.getTime()).isPositive();
+	}
+
+	@Test
+	public void testABatchCountsAsOneStatement() throws SQLException {
+		JdbcStatistics statistics = JdbcStatistics.start();
+
+		try (Connection connection = dataSource.getConnection();
+				PreparedStatement statement = connection.prepareStatement("INSERT INTO numbers VALUES (?)")) {
+			for (int i = 0; i < 10; i++) {
+				statement.setInt(1, i);
+				statement.addBatch();
+			}
+
+			statement.executeBatch();
+		}
+
+		assertThat(statistics.getStatements()).isEqualTo(1);
+		assertThat(statistics.getRows()).isZero();
+	}
+
+	@Test
+	public void testFailedStatementsAreCounted() throws SQLException {
+		JdbcStatistics statistics = JdbcStatistics.start();
+
+		try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+			SQLException e = assertThrows(SQLException.class, () -> statement.executeQuery("SELECT * FROM missing"));
+
+			assertThat(e.getMessage()).contains("MISSING");
+		}
+
+		assertThat(statistics.getStatements()).isEqualTo(1);
+	}
+
+	@Test
+	public void testStatementsGoToTheRequestThatOpenedTheConnection() throws SQLException {
+		JdbcStatistics first = JdbcStatistics.start();
+
+		try (Connection connection = dataSource.getConnection()) {
+			JdbcStatistics second = JdbcStatistics.start();
+
+			connection.createStatement().execute("SELECT 1");
+
+			assertThat(first.getStatements()).isEqualTo(1);
+			assertThat(second.getStatements()).isZero();
+		}
+	}
+
+	@Test
+	public void testExecutionsOutsideARequestAreFingerprintedWithTheirParameterTypes() throws SQLException {
+		SqlFingerprintReport fingerprints = new SqlFingerprintReport(Duration.ZERO, 10, 10);
+		dataSource = new JdbcStatisticsDataSource(h2, fingerprints);
+
+		try (Connection connection = dataSource.getConnection();
+				PreparedStatement statement = connection
+						.prepareStatement("SELECT n FROM numbers WHERE n > ? OR n = ?")) {
+			statement.setLong(1, 1);
+			statement.setNull(2, Types.INTEGER);
+			statement.executeQuery().close();
+
+			connection.createStatement().execute("DELETE FROM numbers WHERE n = 3");
+		}
+
+		assertThat(fingerprints.top("count")).extracting(FingerprintStatistics::fingerprint).containsExactlyInAnyOrder(
+				"select n from numbers where n > ? or n = ?", "delete from numbers where n = ?");
+		assertThat(output.getOut()).contains("with parameters (Long, null)");
+	}
+
+	@Test
+	public void testABatchIsFingerprintedOnceWithItsRows() throws SQLException {
+		SqlFingerprintReport fingerprints = new SqlFingerprintReport(Duration.ZERO, 10, 10);
+		dataSource = new JdbcStatisticsDataSource(h2, fingerprints);
+
+		try (Connection connection = dataSource.getConnection();
+				PreparedStatement statement = connection.prepareStatement("INSERT INTO numbers VALUES (?)")) {
+			for (int i = 0; i < 3; i++) {
+				statement.setInt(1, i);
+				statement.addBatch();
+			}
+
+			statement.executeBatch();
+		}
+
+		assertThat(fingerprints.top(null)).singleElement().extracting(FingerprintStatistics::count).isEqualTo(1L);
+		assertThat(output.getOut()).contains("with parameters (Int) x 3");
+	}
+
+	@Test
+	public void testUnwrapReachesTheDriverConnection() throws SQLException {
+		JdbcStatistics.start();
+
+		try (Connection connection = dataSource.getConnection()) {
+			assertThat(connection).isNotInstanceOf(JdbcConnection.class).isEqualTo(connection);
+			assertThat(connection.unwrap(JdbcConnection.class)).isNotNull();
+		}
+	}
+}
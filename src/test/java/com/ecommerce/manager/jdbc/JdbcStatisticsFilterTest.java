@@ -0,0 +1,97 @@
+package com.ecommerce.manager.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+
+import com.ecommerce.manager.jdbc.JdbcRequestReport.EndpointStatistics;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+public class JdbcStatisticsFilterTest {
+
+	private JdbcRequestReport report;
+
+	private MockHttpServletRequest request;
+
+	private MockHttpServletResponse response;
+
+	@Before
+	public void setup() {
+		report = new JdbcRequestReport(Duration.ofMinutes(5), 10);
+		request = new MockHttpServletRequest("GET", "/api/users/1");
+		response = new MockHttpServletResponse();
+	}
+
+	@Test
+	public void testRequestIsRecordedUnderItsPattern() throws Exception {
+		new JdbcStatisticsFilter(report, false).doFilter(request, response, chain(3, 2, "/api/users/{id}"));
+
+		assertThat(report.worst(null)).extracting(EndpointStatistics::endpoint, EndpointStatistics::statements,
+				EndpointStatistics::rows).containsExactly(tuple("GET /api/users/{id}", 3L,
+						2L));
+		assertThat(response.getHeader(JdbcStatisticsFilter.STATEMENTS_HEADER)).isNull();
+		assertThat(response.getContentAsString()).isEqualTo("body");
+	}
+
+	@Test
+	public void testUnmatchedRequestsAreNotRecorded() throws Exception {
+		new JdbcStatisticsFilter(report, false).doFilter(request, response, chain(1, 0, null));
+
+		assertThat(report.worst(null)).isEmpty();
+	}
+
+	@Test
+	public void testHeadersCarryTheTotals() throws Exception {
+		new JdbcStatisticsFilter(report, true).doFilter(request, response, chain(3, 2, "/api/users/{id}"));
+
+		assertThat(response.getHeader(JdbcStatisticsFilter.STATEMENTS_HEADER)).isEqualTo("3");
+		assertThat(response.getHeader(JdbcStatisticsFilter.ROWS_HEADER)).isEqualTo("2");
+		assertThat(response.getHeader(JdbcStatisticsFilter.MILLIS_HEADER)).isEqualTo("3.000");
+		assertThat(response.getContentAsString()).isEqualTo("body");
+	}
+
+	@Test
+	public void testStatisticsAreUnboundAfterTheRequest() throws Exception {
+		new JdbcStatisticsFilter(report, false).doFilter(request, response, chain(1, 0, "/api/users/{id}"));
+
+		assertThat(JdbcStatistics.current()).isNull();
+	}
+
+	// Simula il lavoro JDBC della richiesta e scrive il body prima del ritorno al filtro
+	private static MockFilterChain chain(int statements, int rows, String pattern) {
+		return new MockFilterChain(new HttpServlet() {
+			@Override
+			protected void service(HttpServletRequest request, HttpServletResponse response)
+					throws IOException {
+				JdbcStatistics statistics = JdbcStatistics.current();
+
+				for (int i = 0; i < statements; i++) {
+					statistics.statementExecuted(1_000_000);
+				}
+
+				for (int i = 0; i < rows; i++) {
+					statistics.rowFetched(true, 0);
+				}
+
+				if (pattern != null) {
+					request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, pattern);
+				}
+
+				response.getWriter().write("body");
+				response.flushBuffer();
+			}
+		});
+	}
+}
@@ -0,0 +1,149 @@
+package com.ecommerce.manager.jdbc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.junit.Assert.assertThrows;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.test.system.OutputCaptureRule;
+
+import com.ecommerce.manager.jdbc.SqlFingerprintReport.FingerprintStatistics;
+
+public class SqlFingerprintReportTest {
+
+	private static final String FIND_BY_ID = "select u1_0.id,u1_0.username from users u1_0 where u1_0.id=?";
+
+	@Rule
+	public OutputCaptureRule output = new OutputCaptureRule();
+
+	private SqlFingerprintReport report;
+
+	@Before
+	public void setup() {
+		report = new SqlFingerprintReport(Duration.ofMillis(100), 2, 10);
+	}
+
+	@Test
+	public void testNegativeSlowThreshold() {
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> new SqlFingerprintReport(Duration.ofMillis(-1), 1, 1));
+
+		assertThat(e.getMessage()).isEqualTo("Slow threshold cannot be negative");
+	}
+
+	@Test
+	public void testInvalidTop() {
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> new SqlFingerprintReport(Duration.ZERO, 0, 1));
+
+		assertThat(e.getMessage()).isEqualTo("Top must be at least 1");
+	}
+
+	@Test
+	public void testInvalidMaxEntries() {
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> new SqlFingerprintReport(Duration.ZERO, 1, 0));
+
+		assertThat(e.getMessage()).isEqualTo("Max entries must be at least 1");
+	}
+
+	@Test
+	public void testLiteralsAreReplacedAndWhitespaceNormalized() {
+		assertThat(
+				SqlFingerprintReport.normalize("SELECT *\n  FROM users WHERE username = 'it''s'  AND balance > 10.5"))
+				.isEqualTo("select * from users where username = ? and balance > ?");
+	}
+
+	@Test
+	public void testInListsOfAnyLengthShareAFingerprint() {
+		assertThat(SqlFingerprintReport.normalize("select * from users u1_0 where u1_0.id in (?,?,?)"))
+				.isEqualTo(SqlFingerprintReport.normalize("select * from users u1_0 where u1_0.id IN ( ? )"))
+				.isEqualTo("select * from users u1_0 where u1_0.id in (?+)");
+	}
+
+	@Test
+	public void testCommentsAreDropped() {
+		assertThat(SqlFingerprintReport.normalize("/* load User */ select 1 -- trailing"))
+				.isEqualTo("select ?");
+	}
+
+	@Test
+	public void testAggregatesPerFingerprint() {
+		report.record(FIND_BY_ID, millis(2), "(Long)");
+		report.record(FIND_BY_ID.replace("?", "42"), millis(4), "()");
+
+		assertThat(report.top(null)).singleElement().satisfies(statistics -> {
+			assertThat(statistics.fingerprint()).isEqualTo(SqlFingerprintReport.normalize(FIND_BY_ID));
+			assertThat(statistics.count()).isEqualTo(2);
+			assertThat(statistics.totalMillis()).isEqualTo(6.0);
+			assertThat(statistics.maxMillis()).isEqualTo(4.0);
+			assertThat(statistics.meanMillis()).isEqualTo(3.0);
+			assertThat(statistics.p99Millis()).isCloseTo(4.0, offset(0.05));
+		});
+	}
+
+	@Test
+	public void testOnlyTheTopFingerprintsAreReportedWorstFirst() {
+		report.record("select 1 from users", millis(1), "()");
+		report.record("select 1 from users", millis(1), "()");
+		report.record("select 1 from users", millis(1), "()");
+		report.record("select 1 from orders", millis(50), "()");
+		report.record("update users set balance=?", millis(10), "(Long)");
+
+		assertThat(report.top(null)).extracting(FingerprintStatistics::fingerprint)
+				.containsExactly("select ? from orders", "update users set balance=?");
+		assertThat(report.top("count")).extracting(FingerprintStatistics::fingerprint).first()
+				.isEqualTo("select ? from users");
+	}
+
+	@Test
+	public void testUnknownSort() {
+		InvalidEndpointRequestException e = assertThrows(InvalidEndpointRequestException.class,
+				() -> report.top("name"));
+
+		assertThat(e.getMessage()).isEqualTo("Unknown sort name");
+	}
+
+	@Test
+	public void testFingerprintsBeyondMaxEntriesAreCountedAsOther() {
+		report = new SqlFingerprintReport(Duration.ofMillis(100), 10, 1);
+
+		report.record("select * from users", millis(1), "()");
+		report.record("select * from orders", millis(1), "()");
+		report.record("select * from users", millis(1), "()");
+
+		assertThat(report.top(null)).extracting(FingerprintStatistics::fingerprint, FingerprintStatistics::count)
+				.containsExactlyInAnyOrder(tuple("select * from users", 2L),
+						tuple(SqlFingerprintReport.OTHER, 1L));
+	}
+
+	@Test
+	public void testResetDropsTheAggregates() {
+		report.record(FIND_BY_ID, millis(1), "(Long)");
+
+		report.reset();
+
+		assertThat(report.top(null)).isEmpty();
+	}
+
+	@Test
+	public void testOnlySlowExecutionsAreLoggedWithTheirParameterShape() {
+		report.record("select * from users where id = 7", millis(99), "()");
+		report.record("select * from orders where price > ? and user_id = ?", millis(150), "(Long, Long)");
+
+		assertThat(output.getOut()).doesNotContain("from users")
+				.contains("Slow query took 150.000 ms: select * from orders where price > ? and user_id = ? "
+						+ "with parameters (Long, Long)");
+	}
+
+	private static long millis(long millis) {
+		return TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+}
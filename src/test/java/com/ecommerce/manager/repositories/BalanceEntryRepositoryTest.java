@@ -0,0 +1,93 @@
+package com.ecommerce.manager.repositories;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.ecommerce.manager.model.BalanceEntry;
+import com.ecommerce.manager.model.User;
+
+@DataJpaTest
+@RunWith(SpringRunner.class)
+public class BalanceEntryRepositoryTest {
+
+	@Autowired
+	private BalanceEntryRepository repository;
+
+	@Autowired
+	private TestEntityManager entityManager;
+
+	@Test
+	public void testFindByUserIdOrderByIdAsc() {
+		User user = entityManager.persistFlushFind(new User(null, "test", "test", "test", 1000));
+		BalanceEntry entry1 = entityManager.persistFlushFind(entry(user.getId(), 500, true));
+		BalanceEntry entry2 = entityManager.persistFlushFind(entry(user.getId(), -200, false));
+		entityManager.persistFlushFind(entry(user.getId() + 1, 100, false));
+
+		assertThat(repository.findByUserIdOrderByIdAsc(user.getId())).containsExactly(entry1, entry2);
+	}
+
+	@Test
+	public void testFindCurrentBalanceAddsOnlyPendingEntriesToSnapshot() {
+		User user = entityManager.persistFlushFind(new User(null, "test", "test", "test", 1000));
+		entityManager.persistFlushFind(entry(user.getId(), 500, true));
+		entityManager.persistFlushFind(entry(user.getId(), -200, false));
+		entityManager.persistFlushFind(entry(user.getId(), 50, false));
+
+		assertThat(repository.findCurrentBalance(user.getId())).isEqualTo(850L);
+	}
+
+	@Test
+	public void testFindCurrentBalanceWithoutEntriesIsTheSnapshot() {
+		User user = entityManager.persistFlushFind(new User(null, "test", "test", "test", 1000));
+
+		assertThat(repository.findCurrentBalance(user.getId())).isEqualTo(1000L);
+	}
+
+	@Test
+	public void testFindCurrentBalanceWhenUserDoesNotExist() {
+		assertThat(repository.findCurrentBalance(99L)).isNull();
+	}
+
+	@Test
+	public void testSumPendingAmounts() {
+		entityManager.persistFlushFind(entry(1L, 500, false));
+		entityManager.persistFlushFind(entry(1L, -100, false));
+		entityManager.persistFlushFind(entry(1L, 1000, true));
+		entityManager.persistFlushFind(entry(2L, 300, false));
+		entityManager.persistFlushFind(entry(3L, 700, false));
+
+		assertThat(repository.sumPendingAmount(1L)).isEqualTo(400L);
+		assertThat(repository.sumPendingAmount(4L)).isZero();
+
+		List<BalanceEntryRepository.PendingAmount> found = repository.sumPendingAmounts(List.of(1L, 2L));
+		assertThat(found).extracting("userId", "amount").containsExactlyInAnyOrder(tuple(1L, 400L), tuple(2L, 300L));
+	}
+
+	@Test
+	public void testFindUserIdsWithPendingEntriesAndMarkFolded() {
+		entityManager.persistFlushFind(entry(1L, 500, false));
+		entityManager.persistFlushFind(entry(1L, -100, false));
+		entityManager.persistFlushFind(entry(2L, 300, true));
+
+		assertThat(repository.findUserIdsWithPendingEntries()).containsExactly(1L);
+
+		assertThat(repository.markFolded(1L)).isEqualTo(2);
+		entityManager.clear();
+
+		assertThat(repository.findUserIdsWithPendingEntries()).isEmpty();
+	}
+
+	private static BalanceEntry entry(long userId, long amount, boolean folded) {
+		return new BalanceEntry(null, userId, amount, Instant.now(), folded);
+	}
+}
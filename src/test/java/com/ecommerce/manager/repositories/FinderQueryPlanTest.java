@@ -0,0 +1,165 @@
+package com.ecommerce.manager.repositories;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.ecommerce.manager.model.Item;
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.User;
+
+/**
+ * Runs H2's {@code EXPLAIN} on the SQL generated for each single-column or
+ * range finder of {@link UserRepository} and {@link OrderRepository}, so that
+ * a finder whose index is dropped or no longer usable fails here instead of
+ * becoming a table scan in production.
+ */
+@RunWith(SpringRunner.class)
+// Senza cache: ogni chiamata deve arrivare al database con il suo SQL
+@DataJpaTest(properties = { "spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+		"spring.jpa.properties.hibernate.cache.use_query_cache=false",
+		"spring.jpa.properties.hibernate.session_factory.statement_inspector="
+				+ "com.ecommerce.manager.repositories.FinderQueryPlanTest$LastStatement" })
+public class FinderQueryPlanTest {
+
+	private static final int USERS = 50;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private TestEntityManager entityManager;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private User user;
+
+	@Before
+	public void setup() {
+		// Qualche riga, così il piano non dipende da tabelle vuote
+		for (int i = 0; i < USERS; i++) {
+			user = entityManager.persist(new User(null, "username" + i, "name" + i, "email" + i, 100L * i));
+			entityManager.persist(new Order(null, i % 2 == 0 ? Item.BOX1 : Item.BOX2, 10L * i, user));
+		}
+		entityManager.flush();
+		entityManager.clear();
+	}
+
+	@Test
+	public void testFindByUsernameUsesTheUsernameIndex() {
+		userRepository.findByUsername("username1");
+
+		assertLastSelectUses("USERS_USERNAME_IDX");
+	}
+
+	@Test
+	public void testFindByEmailUsesTheEmailIndex() {
+		userRepository.findByEmail("email1");
+
+		assertLastSelectUses("USERS_EMAIL_IDX");
+	}
+
+	@Test
+	public void testFindByNameUsesTheNameIndex() {
+		userRepository.findByName("name1");
+
+		assertLastSelectUses("USERS_NAME_IDX");
+	}
+
+	@Test
+	public void testFindAllUsersWithLowBalanceUsesTheBalanceIndex() {
+		userRepository.findAllUsersWithLowBalance(200);
+
+		assertLastSelectUses("USERS_BALANCE_IDX");
+	}
+
+	@Test
+	public void testFindExistingUsernamesUsesTheUsernameIndex() {
+		userRepository.findExistingUsernames(List.of("username1", "username2"));
+
+		assertLastSelectUses("USERS_USERNAME_IDX");
+	}
+
+	@Test
+	public void testFindExistingEmailsUsesTheEmailIndex() {
+		userRepository.findExistingEmails(List.of("email1", "email2"));
+
+		assertLastSelectUses("USERS_EMAIL_IDX");
+	}
+
+	@Test
+	public void testFindByUserUsesTheUserIdIndex() {
+		orderRepository.findByUser(user);
+
+		assertLastSelectUses("ORDERS_USER_ID_IDX");
+	}
+
+	@Test
+	public void testFindByItemUsesTheItemAndUserIdIndex() {
+		orderRepository.findByItem(Item.BOX1);
+
+		assertLastSelectUses("ORDERS_ITEM_USER_ID_IDX");
+	}
+
+	@Test
+	public void testFindByItemAndUserUsesTheItemAndUserIdIndex() {
+		orderRepository.findByItemAndUser(Item.BOX1, user);
+
+		assertLastSelectUses("ORDERS_ITEM_USER_ID_IDX");
+	}
+
+	@Test
+	public void testFindByPriceUsesThePriceIndex() {
+		orderRepository.findByPrice(100);
+
+		assertLastSelectUses("ORDERS_PRICE_IDX");
+	}
+
+	@Test
+	public void testFindAllOrdersWithHighPriceUsesThePriceIndex() {
+		orderRepository.findAllOrdersWithHighPrice(400);
+
+		assertLastSelectUses("ORDERS_PRICE_IDX");
+	}
+
+	private void assertLastSelectUses(String index) {
+		String sql = LastStatement.SQL.get();
+		assertThat(sql).startsWith("select");
+
+		// I parametri restano da legare: con null H2 pianifica la query senza eseguirla
+		int parameters = (int) sql.chars().filter(c -> c == '?').count();
+		String plan = jdbcTemplate.queryForObject("EXPLAIN " + sql, String.class,
+				Collections.nCopies(parameters, null).toArray());
+
+		assertThat(plan).as(sql).doesNotContain(".tableScan").contains(index);
+	}
+
+	public static class LastStatement implements StatementInspector {
+
+		private static final long serialVersionUID = 1L;
+
+		static final AtomicReference<String> SQL = new AtomicReference<>();
+
+		@Override
+		public String inspect(String sql) {
+			SQL.set(sql);
+			return sql;
+		}
+	}
+}
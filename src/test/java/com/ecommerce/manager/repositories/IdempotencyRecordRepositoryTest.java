@@ -0,0 +1,36 @@
+package com.ecommerce.manager.repositories;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Instant;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.ecommerce.manager.model.IdempotencyRecord;
+
+@DataJpaTest
+@RunWith(SpringRunner.class)
+public class IdempotencyRecordRepositoryTest {
+
+	@Autowired
+	private IdempotencyRecordRepository repository;
+
+	@Autowired
+	private TestEntityManager entityManager;
+
+	@Test
+	public void testDeleteCreatedBeforeRemovesOnlyOlderRecords() {
+		Instant now = Instant.now();
+		entityManager.persistFlushFind(new IdempotencyRecord("old", "hash", 204, null, now.minusSeconds(60)));
+		IdempotencyRecord recent = entityManager
+				.persistFlushFind(new IdempotencyRecord("recent", "hash", 200, "{}", now));
+
+		assertThat(repository.deleteCreatedBefore(now.minusSeconds(30))).isEqualTo(1);
+		assertThat(repository.findAll()).containsExactly(recent);
+	}
+}
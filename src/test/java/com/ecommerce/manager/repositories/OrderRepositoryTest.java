@@ -4,16 +4,19 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.Limit;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import com.ecommerce.manager.model.Item;
 import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.OrderSummary;
 import com.ecommerce.manager.model.User;
 
 @DataJpaTest
@@ -112,4 +115,58 @@ public class OrderRepositoryTest {
 		List<Order> orders = repository.findAllOrdersWithHighPrice(1500L);
 		assertThat(orders).containsExactly(order1, order2);
 	}
+
+	@Test
+	public void testFindAllSummaries() {
+		User user1 = entityManager.persistFlushFind(new User(null, "u1", "test", "e1", 4000));
+		User user2 = entityManager.persistFlushFind(new User(null, "u2", "test", "e2", 4000));
+		Order order1 = entityManager.persistFlushFind(new Order(null, Item.BOX1, 500, user1));
+		Order order2 = entityManager.persistFlushFind(new Order(null, Item.BOX2, 700, user2));
+
+		assertThat(repository.findAllSummaries()).containsExactly(
+				new OrderSummary(order1.getId(), Item.BOX1, 500, user1.getId(), "u1"),
+				new OrderSummary(order2.getId(), Item.BOX2, 700, user2.getId(), "u2"));
+	}
+
+	@Test
+	public void testFindSummariesByIdGreaterThanSeeksFromTheCursorInIdOrder() {
+		User user = entityManager.persistFlushFind(new User(null, "test", "test", "test", 4000));
+		Order order1 = entityManager.persistFlushFind(new Order(null, Item.BOX1, 500, user));
+		Order order2 = entityManager.persistFlushFind(new Order(null, Item.BOX2, 500, user));
+		Order order3 = entityManager.persistFlushFind(new Order(null, Item.BOX3, 500, user));
+
+		assertThat(repository.findSummariesByIdGreaterThan(Long.MIN_VALUE, Limit.of(2)))
+				.extracting(OrderSummary::id).containsExactly(order1.getId(), order2.getId());
+		assertThat(repository.findSummariesByIdGreaterThan(order2.getId(), Limit.of(5))).extracting(OrderSummary::id)
+				.containsExactly(order3.getId());
+	}
+
+	@Test
+	public void testFindSummaryById() {
+		User user = entityManager.persistFlushFind(new User(null, "test", "test", "test", 4000));
+		Order order = entityManager.persistFlushFind(new Order(null, Item.BOX1, 500, user));
+
+		assertThat(repository.findSummaryById(order.getId()))
+				.contains(new OrderSummary(order.getId(), Item.BOX1, 500, user.getId(), "test"));
+		assertThat(repository.findSummaryById(order.getId() + 1)).isEmpty();
+	}
+
+	@Test
+	public void testStreamOrdersByPriceAndItem() {
+		User user = entityManager.persistFlushFind(new User(null, "test", "test", "test", 4000));
+		Order order1 = entityManager.persistFlushFind(new Order(null, Item.BOX1, 500, user));
+		Order order2 = entityManager.persistFlushFind(new Order(null, Item.BOX2, 900, user));
+		Order order3 = entityManager.persistFlushFind(new Order(null, Item.BOX1, 800, user));
+		entityManager.clear();
+
+		try (Stream<Order> orders = repository.streamByPriceGreaterThan(Long.MIN_VALUE)) {
+			assertThat(orders).containsExactly(order1, order2, order3);
+		}
+		try (Stream<Order> orders = repository.streamByPriceGreaterThan(600)) {
+			assertThat(orders).containsExactly(order2, order3);
+		}
+		try (Stream<Order> orders = repository.streamByItemAndPriceGreaterThan(Item.BOX1, 600)) {
+			assertThat(orders).containsExactly(order3);
+		}
+	}
 }
@@ -0,0 +1,72 @@
+package com.ecommerce.manager.repositories;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.Limit;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.ecommerce.manager.model.Item;
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.User;
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@RunWith(SpringRunner.class)
+public class OrderSummaryQueryCountTest {
+
+	private static final int ORDERS = 20;
+
+	@Autowired
+	private OrderRepository repository;
+
+	@Autowired
+	private TestEntityManager entityManager;
+
+	private Statistics statistics;
+
+	@Before
+	public void setup() {
+		// Ogni ordine ha il suo user, così un caricamento per riga si vedrebbe nel conteggio
+		for (int i = 0; i < ORDERS; i++) {
+			User user = entityManager.persist(new User(null, "user" + i, "test", "email" + i, 4000));
+			entityManager.persist(new Order(null, Item.BOX1, 100 + i, user));
+		}
+		entityManager.flush();
+		entityManager.clear();
+
+		statistics = entityManager.getEntityManager().getEntityManagerFactory().unwrap(SessionFactory.class)
+				.getStatistics();
+		statistics.clear();
+	}
+
+	@Test
+	public void testFindAllSummariesRunsOneStatement() {
+		assertThat(repository.findAllSummaries()).hasSize(ORDERS);
+
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+		assertThat(statistics.getEntityLoadCount()).isZero();
+	}
+
+	@Test
+	public void testFindSummariesByIdGreaterThanRunsOneStatement() {
+		assertThat(repository.findSummariesByIdGreaterThan(Long.MIN_VALUE, Limit.of(ORDERS))).hasSize(ORDERS);
+
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+		assertThat(statistics.getEntityLoadCount()).isZero();
+	}
+
+	@Test
+	public void testFindAllEntitiesFetchesTheUsersInTheSameStatement() {
+		assertThat(repository.findAll()).hasSize(ORDERS);
+
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+		assertThat(statistics.getEntityLoadCount()).isEqualTo(2L * ORDERS);
+	}
+}
@@ -1,6 +1,7 @@
 package com.ecommerce.manager.repositories;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
 
 import java.util.Collection;
 import java.util.List;
@@ -10,10 +11,13 @@ import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.Limit;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import com.ecommerce.manager.model.User;
 
+import jakarta.persistence.PersistenceException;
+
 @DataJpaTest
 @RunWith(SpringRunner.class)
 public class UserRepositoryTest {
@@ -40,6 +44,22 @@ public class UserRepositoryTest {
 		assertThat(userFound).isEqualTo(userShouldBeFound);
 	}
 
+	@Test
+	public void testUsernameIsUnique() {
+		entityManager.persistAndFlush(new User(null, "test", "test", "e1", 4000));
+
+		assertThrows(PersistenceException.class,
+				() -> entityManager.persistAndFlush(new User(null, "test", "test", "e2", 4000)));
+	}
+
+	@Test
+	public void testEmailIsUnique() {
+		entityManager.persistAndFlush(new User(null, "u1", "test", "test", 4000));
+
+		assertThrows(PersistenceException.class,
+				() -> entityManager.persistAndFlush(new User(null, "u2", "test", "test", 4000)));
+	}
+
 	@Test
 	public void testFindUserByName() {
 		User userShouldBeFound = entityManager.persistFlushFind(new User(null, "test", "ABC", "test", 4000));
@@ -59,8 +79,8 @@ public class UserRepositoryTest {
 
 	@Test
 	public void testFindUserByUsernameOrName() {
-		User user1 = entityManager.persistFlushFind(new User(null, "username", "test", "test", 2000));
-		User user2 = entityManager.persistFlushFind(new User(null, "test", "name", "test", 1000));
+		User user1 = entityManager.persistFlushFind(new User(null, "username", "test", "test1", 2000));
+		User user2 = entityManager.persistFlushFind(new User(null, "test", "name", "test2", 1000));
 		entityManager.persistFlushFind(
 				new User(null, "Should Not Be Found", "Should Not Be Found", "Should Not Be Found", 1000));
 
@@ -81,8 +101,8 @@ public class UserRepositoryTest {
 
 	@Test
 	public void testFindUserByNameOrEmail() {
-		User user1 = entityManager.persistFlushFind(new User(null, "test", "name", "test", 2000));
-		User user2 = entityManager.persistFlushFind(new User(null, "test", "test", "email", 1000));
+		User user1 = entityManager.persistFlushFind(new User(null, "test1", "name", "test", 2000));
+		User user2 = entityManager.persistFlushFind(new User(null, "test2", "test", "email", 1000));
 		entityManager.persistFlushFind(
 				new User(null, "Should Not Be Found", "Should Not Be Found", "Should Not Be Found", 1000));
 
@@ -92,9 +112,9 @@ public class UserRepositoryTest {
 
 	@Test
 	public void testFindUserByUsernameOrNameOrEmail() {
-		User user1 = entityManager.persistFlushFind(new User(null, "username", "test", "test", 2000));
-		User user2 = entityManager.persistFlushFind(new User(null, "test", "name", "test", 500));
-		User user3 = entityManager.persistFlushFind(new User(null, "test", "test", "email", 1000));
+		User user1 = entityManager.persistFlushFind(new User(null, "username", "test", "test1", 2000));
+		User user2 = entityManager.persistFlushFind(new User(null, "test2", "name", "test2", 500));
+		User user3 = entityManager.persistFlushFind(new User(null, "test3", "test", "email", 1000));
 		entityManager.persistFlushFind(
 				new User(null, "Should Not Be Found", "Should Not Be Found", "Should Not Be Found", 800));
 
@@ -104,14 +124,74 @@ public class UserRepositoryTest {
 
 	@Test
 	public void testFindAllUsersWithLowBalance() {
-		User user1 = entityManager.persistFlushFind(new User(null, "test", "test", "test", 500));
-		User user2 = entityManager.persistFlushFind(new User(null, "test", "test", "test", 800));
+		User user1 = entityManager.persistFlushFind(new User(null, "test1", "test", "test1", 500));
+		User user2 = entityManager.persistFlushFind(new User(null, "test2", "test", "test2", 800));
 		entityManager.persistFlushFind(
-				new User(null, "Should Not Be Found", "Should Not Be Found", "Should Not Be Found", 1300));
+				new User(null, "Should Not Be Found 1", "Should Not Be Found", "Should Not Be Found 1", 1300));
 		entityManager.persistFlushFind(
-				new User(null, "Should Not Be Found", "Should Not Be Found", "Should Not Be Found", 1000));
+				new User(null, "Should Not Be Found 2", "Should Not Be Found", "Should Not Be Found 2", 1000));
 
 		List<User> found = repository.findAllUsersWithLowBalance(1000L);
 		assertThat(found).containsExactly(user1, user2);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testUpdateBalanceIfNotNegativeWhenResultIsNotNegative() {
+		User user = entityManager.persistFlushFind(new User(null, "test", "test", "test", 1000));
+
+		int updated = repository.updateBalanceIfNotNegative(user.getId(), -1000L);
+
+		assertThat(updated).isEqualTo(1);
+
+		User updatedUser = entityManager.find(User.class, user.getId());
+		assertThat(updatedUser.getBalance()).isZero();
+		assertThat(updatedUser.getVersion()).isEqualTo(user.getVersion() + 1);
+	}
+
+	@Test
+	public void testUpdateBalanceIfNotNegativeWhenResultWouldBeNegative() {
+		User user = entityManager.persistFlushFind(new User(null, "test", "test", "test", 1000));
+
+		int updated = repository.updateBalanceIfNotNegative(user.getId(), -1001L);
+
+		assertThat(updated).isZero();
+		assertThat(entityManager.find(User.class, user.getId()).getBalance()).isEqualTo(1000);
+	}
+
+	@Test
+	public void testUpdateBalanceIfNotNegativeWhenUserDoesNotExist() {
+		assertThat(repository.updateBalanceIfNotNegative(99L, 500L)).isZero();
+	}
+
+	@Test
+	public void testUpdateBalanceAppliesTheAmountEvenBelowZero() {
+		User user = entityManager.persistFlushFind(new User(null, "test", "test", "test", -500));
+
+		assertThat(repository.updateBalance(user.getId(), -100L)).isEqualTo(1);
+
+		User updatedUser = entityManager.find(User.class, user.getId());
+		assertThat(updatedUser.getBalance()).isEqualTo(-600);
+		assertThat(updatedUser.getVersion()).isEqualTo(user.getVersion() + 1);
+	}
+
+	@Test
+	public void testFindExistingUsernamesAndEmails() {
+		entityManager.persistFlushFind(new User(null, "u1", "test", "e1", 4000));
+		entityManager.persistFlushFind(new User(null, "u2", "test", "e2", 4000));
+
+		assertThat(repository.findExistingUsernames(List.of("u1", "u3"))).containsExactly("u1");
+		assertThat(repository.findExistingEmails(List.of("e2", "e3"))).containsExactly("e2");
+	}
+
+	@Test
+	public void testFindByIdGreaterThanSeeksFromTheCursorInIdOrder() {
+		User user1 = entityManager.persistFlushFind(new User(null, "u1", "test", "e1", 4000));
+		User user2 = entityManager.persistFlushFind(new User(null, "u2", "test", "e2", 4000));
+		User user3 = entityManager.persistFlushFind(new User(null, "u3", "test", "e3", 4000));
+		entityManager.persistFlushFind(new User(null, "u4", "test", "e4", 4000));
+
+		assertThat(repository.findByIdGreaterThanOrderByIdAsc(Long.MIN_VALUE, Limit.of(2))).containsExactly(user1,
+				user2);
+		assertThat(repository.findByIdGreaterThanOrderByIdAsc(user2.getId(), Limit.of(1))).containsExactly(user3);
+	}
+}
@@ -0,0 +1,247 @@
+package com.ecommerce.manager.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.transaction.support.TransactionOperations;
+
+import com.ecommerce.manager.services.BalanceBatcher.BalanceOperation;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class BalanceBatcherTest {
+
+	@Rule
+	public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+	@Mock
+	private EcommerceService ecommerceService;
+
+	@Mock
+	private UserLockManager userLocks;
+
+	@Mock
+	private TransactionOperations transactionOperations;
+
+	private MeterRegistry meterRegistry;
+
+	private BalanceBatcher batcher;
+
+	private ExecutorService callers;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setup() {
+		meterRegistry = new SimpleMeterRegistry();
+		callers = Executors.newFixedThreadPool(8);
+
+		doAnswer(invocation -> {
+			invocation.getArgument(0, Consumer.class).accept(null);
+			return null;
+		}).when(transactionOperations).executeWithoutResult(any());
+
+		batcher = newBatcher(true, 8, Duration.ofMillis(50));
+	}
+
+	@After
+	public void tearDown() {
+		batcher.stop();
+		callers.shutdownNow();
+	}
+
+	@Test
+	public void testCommitAppliesEveryOperationInOneTransactionAfterLockingTheirUsers() {
+		BalanceOperation deposit = operation(2L, 500L, true);
+		BalanceOperation withdraw = operation(1L, 300L, false);
+
+		batcher.commit(List.of(deposit, withdraw));
+
+		InOrder inOrder = inOrder(transactionOperations, userLocks, ecommerceService);
+		inOrder.verify(transactionOperations).executeWithoutResult(any());
+		inOrder.verify(userLocks).lockUntilCompletion(2L, 1L);
+		inOrder.verify(ecommerceService).deposit(2L, 500L);
+		inOrder.verify(ecommerceService).withdraw(1L, 300L);
+
+		assertThat(deposit.result()).isCompleted();
+		assertThat(withdraw.result()).isCompleted();
+		assertThat(meterRegistry.get(BalanceBatcher.BATCH_SIZE_METRIC).summary().totalAmount()).isEqualTo(2.0);
+		assertThat(meterRegistry.get(BalanceBatcher.COMMIT_METRIC).timer().count()).isEqualTo(1);
+	}
+
+	@Test
+	public void testCommitRejectsOnlyTheFailingOperation() {
+		IllegalStateException notEnough = new IllegalStateException("Not enough balance to perform withdraw");
+		doThrow(notEnough).when(ecommerceService).withdraw(1L, 300L);
+
+		BalanceOperation deposit = operation(2L, 500L, true);
+		BalanceOperation withdraw = operation(1L, 300L, false);
+
+		batcher.commit(List.of(deposit, withdraw));
+
+		assertThat(deposit.result()).isCompleted();
+		assertThat(withdraw.result()).isCompletedExceptionally();
+		assertThat(failureOf(withdraw)).isSameAs(notEnough);
+	}
+
+	@Test
+	public void testCommitWhenTransactionFailsShouldFailTheWholeBatch() {
+		DataAccessResourceFailureException failure = new DataAccessResourceFailureException("down");
+		doThrow(failure).when(transactionOperations).executeWithoutResult(any());
+
+		BalanceOperation deposit = operation(2L, 500L, true);
+		BalanceOperation withdraw = operation(1L, 300L, false);
+
+		batcher.commit(List.of(deposit, withdraw));
+
+		assertThat(failureOf(deposit)).isSameAs(failure);
+		assertThat(failureOf(withdraw)).isSameAs(failure);
+	}
+
+	@Test
+	public void testConcurrentCallersAreGroupedInBatches() throws Exception {
+		batcher.start();
+
+		List<Future<?>> results = new ArrayList<>();
+		for (long userId = 1; userId <= 16; userId++) {
+			long id = userId;
+			results.add(callers.submit(() -> batcher.deposit(id, 100L)));
+		}
+		for (Future<?> result : results) {
+			result.get(5, TimeUnit.SECONDS);
+		}
+
+		for (long userId = 1; userId <= 16; userId++) {
+			verify(ecommerceService).deposit(userId, 100L);
+		}
+
+		// Con 8 chiamanti concorrenti e linger di 50ms servono meno batch che operazioni
+		long batches = meterRegistry.get(BalanceBatcher.BATCH_SIZE_METRIC).summary().count();
+		assertThat(batches).isLessThan(16);
+		assertThat(meterRegistry.get(BalanceBatcher.BATCH_SIZE_METRIC).summary().max()).isLessThanOrEqualTo(8.0);
+	}
+
+	@Test
+	public void testCallerGetsItsOwnRejection() {
+		doThrow(new IllegalStateException("Not enough balance to perform withdraw")).when(ecommerceService)
+				.withdraw(anyLong(), anyLong());
+		batcher.start();
+
+		IllegalStateException ex = assertThrows(IllegalStateException.class, () -> batcher.withdraw(1L, 500L));
+
+		assertThat(ex.getMessage()).isEqualTo("Not enough balance to perform withdraw");
+		assertThat(meterRegistry.get(BalanceBatcher.WAIT_METRIC).timer().count()).isEqualTo(1);
+	}
+
+	@Test
+	public void testStopDrainsQueuedOperations() throws Exception {
+		batcher = newBatcher(true, 1, Duration.ZERO);
+		batcher.start();
+
+		Future<?> result = callers.submit(() -> batcher.deposit(1L, 100L));
+		result.get(5, TimeUnit.SECONDS);
+		batcher.stop();
+
+		assertThat(batcher.isRunning()).isFalse();
+		verify(ecommerceService).deposit(1L, 100L);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testCallersStopWaitingAfterTheTimeout() throws Exception {
+		CountDownLatch committing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			committing.countDown();
+			release.await();
+			invocation.getArgument(0, Consumer.class).accept(null);
+			return null;
+		}).when(transactionOperations).executeWithoutResult(any());
+		batcher = newBatcher(true, 1, Duration.ZERO, Duration.ofMillis(200));
+		batcher.start();
+
+		// Il primo blocca il writer nel suo batch, il secondo resta in coda
+		Future<?> inFlight = callers.submit(() -> batcher.deposit(1L, 100L));
+		assertThat(committing.await(5, TimeUnit.SECONDS)).isTrue();
+		IllegalStateException queued = assertThrows(IllegalStateException.class, () -> batcher.deposit(2L, 100L));
+		Throwable unknown = assertThrows(Exception.class, () -> inFlight.get(5, TimeUnit.SECONDS)).getCause();
+		release.countDown();
+		batcher.stop();
+
+		assertThat(queued.getMessage()).startsWith("Group commit did not reach the balance operation");
+		assertThat(unknown).hasMessageEndingWith("outcome unknown");
+		// Tolta dalla coda: non viene applicata nemmeno dopo
+		verify(ecommerceService).deposit(1L, 100L);
+		verify(ecommerceService, never()).deposit(2L, 100L);
+	}
+
+	@Test
+	public void testSubmitWhenNotRunningShouldThrowException() {
+		IllegalStateException ex = assertThrows(IllegalStateException.class, () -> batcher.deposit(1L, 100L));
+
+		assertThat(ex.getMessage()).isEqualTo("Group commit is not running");
+	}
+
+	@Test
+	public void testStartWhenDisabledShouldNotRun() {
+		batcher = newBatcher(false, 8, Duration.ZERO);
+		batcher.start();
+
+		assertThat(batcher.isEnabled()).isFalse();
+		assertThat(batcher.isRunning()).isFalse();
+		verifyNoInteractions(ecommerceService);
+	}
+
+	@Test
+	public void testBatchSizeLowerThanOneShouldBeRejected() {
+		IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
+				() -> newBatcher(true, 0, Duration.ZERO));
+
+		assertThat(ex.getMessage()).isEqualTo("Batch size must be at least 1");
+	}
+
+	private BalanceBatcher newBatcher(boolean enabled, int batchSize, Duration linger) {
+		return newBatcher(enabled, batchSize, linger, Duration.ofSeconds(30));
+	}
+
+	private BalanceBatcher newBatcher(boolean enabled, int batchSize, Duration linger, Duration timeout) {
+		return new BalanceBatcher(ecommerceService, userLocks, transactionOperations, meterRegistry, enabled,
+				batchSize, linger, 64, timeout);
+	}
+
+	private static BalanceOperation operation(long userId, long amount, boolean deposit) {
+		return new BalanceOperation(userId, amount, deposit, new CompletableFuture<>());
+	}
+
+	private static Throwable failureOf(BalanceOperation operation) {
+		return operation.result().handle((result, failure) -> failure).join();
+	}
+}
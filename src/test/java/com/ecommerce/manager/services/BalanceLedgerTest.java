@@ -0,0 +1,230 @@
+package com.ecommerce.manager.services;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.transaction.support.TransactionOperations;
+
+import com.ecommerce.manager.model.BalanceEntry;
+import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.repositories.BalanceEntryRepository;
+import com.ecommerce.manager.repositories.BalanceEntryRepository.PendingAmount;
+import com.ecommerce.manager.repositories.UserRepository;
+
+public class BalanceLedgerTest {
+
+	@Rule
+	public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+	@Mock
+	private BalanceEntryRepository entryRepository;
+
+	@Mock
+	private UserRepository userRepository;
+
+	@Mock
+	private UserLockManager userLocks;
+
+	@Mock
+	private TransactionOperations transactionOperations;
+
+	@Mock
+	private EntityCache cache;
+
+	private BalanceLedger ledger;
+
+	@Before
+	public void setup() {
+		ledger = new BalanceLedger(entryRepository, userRepository, userLocks, transactionOperations, cache, true);
+	}
+
+	@Test
+	public void testDepositAppendsPendingEntry() {
+		when(entryRepository.findCurrentBalance(1L)).thenReturn(1000L);
+
+		ledger.deposit(1L, 500L);
+
+		BalanceEntry entry = savedEntry();
+		assertThat(entry.getUserId()).isEqualTo(1L);
+		assertThat(entry.getAmount()).isEqualTo(500L);
+		assertThat(entry.isFolded()).isFalse();
+		assertThat(entry.getCreatedAt()).isNotNull();
+	}
+
+	@Test
+	public void testDepositWhenUserNotFoundShouldThrowException() {
+		when(entryRepository.findCurrentBalance(1L)).thenReturn(null);
+
+		IllegalStateException ex = assertThrows(IllegalStateException.class, () -> ledger.deposit(1L, 500L));
+
+		assertThat(ex.getMessage()).isEqualTo("User not found");
+		verify(entryRepository, never()).save(any());
+	}
+
+	@Test
+	public void testWithdrawAppendsNegativeEntry() {
+		when(entryRepository.findCurrentBalance(1L)).thenReturn(500L);
+
+		ledger.withdraw(1L, 500L);
+
+		assertThat(savedEntry().getAmount()).isEqualTo(-500L);
+	}
+
+	@Test
+	public void testWithdrawWhenUserNotFoundShouldThrowException() {
+		when(entryRepository.findCurrentBalance(1L)).thenReturn(null);
+
+		IllegalStateException ex = assertThrows(IllegalStateException.class, () -> ledger.withdraw(1L, 500L));
+
+		assertThat(ex.getMessage()).isEqualTo("User not found");
+		verify(entryRepository, never()).save(any());
+	}
+
+	@Test
+	public void testWithdrawWhenCurrentBalanceIsNotEnoughShouldThrowException() {
+		when(entryRepository.findCurrentBalance(1L)).thenReturn(499L);
+
+		IllegalStateException ex = assertThrows(IllegalStateException.class, () -> ledger.withdraw(1L, 500L));
+
+		assertThat(ex.getMessage()).isEqualTo("Not enough balance to perform withdraw");
+		verify(entryRepository, never()).save(any());
+	}
+
+	@Test
+	public void testRecordAdjustmentAppendsFoldedEntry() {
+		ledger.recordAdjustment(1L, -300L);
+
+		BalanceEntry entry = savedEntry();
+		assertThat(entry.getAmount()).isEqualTo(-300L);
+		assertThat(entry.isFolded()).isTrue();
+	}
+
+	@Test
+	public void testRecordAdjustmentWhenAmountIsZeroShouldNotAppend() {
+		ledger.recordAdjustment(1L, 0L);
+
+		verifyNoInteractions(entryRepository);
+	}
+
+	@Test
+	public void testFoldAddsPendingAmountToSnapshot() {
+		when(entryRepository.sumPendingAmount(1L)).thenReturn(-200L);
+		when(entryRepository.markFolded(1L)).thenReturn(3);
+
+		ledger.fold(1L);
+
+		InOrder inOrder = inOrder(entryRepository, userRepository, cache);
+		inOrder.verify(entryRepository).sumPendingAmount(1L);
+		inOrder.verify(entryRepository).markFolded(1L);
+		inOrder.verify(userRepository).updateBalance(1L, -200L);
+		inOrder.verify(cache).evictUser(1L);
+	}
+
+	@Test
+	public void testFoldWhenNothingIsPendingShouldNotTouchSnapshot() {
+		ledger.fold(1L);
+
+		verifyNoInteractions(userRepository, cache);
+	}
+
+	@Test
+	public void testWithCurrentBalancesAddsPendingAmountOncePerUser() {
+		User user1 = new User(1L, "u1", "n1", "e1", 1000);
+		User user2 = new User(2L, "u2", "n2", "e2", 2000);
+
+		when(entryRepository.sumPendingAmounts(Set.of(1L, 2L))).thenReturn(asList(pending(1L, -300L)));
+
+		List<User> result = ledger.withCurrentBalances(asList(user1, user2, user1));
+
+		assertThat(result).containsExactly(user1, user2, user1);
+		assertThat(user1.getBalance()).isEqualTo(700);
+		assertThat(user2.getBalance()).isEqualTo(2000);
+	}
+
+	@Test
+	public void testWithCurrentBalancesWhenEmptyShouldNotQuery() {
+		assertThat(ledger.withCurrentBalances(List.of())).isEmpty();
+
+		verifyNoInteractions(entryRepository);
+	}
+
+	@Test
+	public void testWithCurrentBalanceOfSingleUser() {
+		User user = new User(1L, "u1", "n1", "e1", 1000);
+
+		when(entryRepository.sumPendingAmounts(Set.of(1L))).thenReturn(asList(pending(1L, 250L)));
+
+		assertThat(ledger.withCurrentBalance(user)).isSameAs(user);
+		assertThat(user.getBalance()).isEqualTo(1250);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testSnapshotFoldsEveryUserWithPendingEntriesUnderItsLock() {
+		when(entryRepository.findUserIdsWithPendingEntries()).thenReturn(asList(1L, 2L));
+		doAnswer(invocation -> {
+			invocation.getArgument(0, Consumer.class).accept(null);
+			return null;
+		}).when(transactionOperations).executeWithoutResult(any());
+		when(entryRepository.markFolded(anyLong())).thenReturn(1);
+
+		ledger.snapshot();
+
+		InOrder inOrder = inOrder(userLocks, entryRepository);
+		inOrder.verify(userLocks).lockUntilCompletion(1L);
+		inOrder.verify(entryRepository).markFolded(1L);
+		inOrder.verify(userLocks).lockUntilCompletion(2L);
+		inOrder.verify(entryRepository).markFolded(2L);
+	}
+
+	@Test
+	public void testSnapshotWhenDisabledShouldDoNothing() {
+		ledger = new BalanceLedger(entryRepository, userRepository, userLocks, transactionOperations, cache, false);
+
+		ledger.snapshot();
+
+		assertThat(ledger.isEnabled()).isFalse();
+		verifyNoInteractions(entryRepository, transactionOperations);
+	}
+
+	private BalanceEntry savedEntry() {
+		ArgumentCaptor<BalanceEntry> captor = ArgumentCaptor.forClass(BalanceEntry.class);
+		verify(entryRepository).save(captor.capture());
+		return captor.getValue();
+	}
+
+	private static PendingAmount pending(long userId, long amount) {
+		return new PendingAmount() {
+			@Override
+			public long getUserId() {
+				return userId;
+			}
+
+			@Override
+			public long getAmount() {
+				return amount;
+			}
+		};
+	}
+}
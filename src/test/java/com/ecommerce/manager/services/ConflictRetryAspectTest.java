@@ -0,0 +1,132 @@
+package com.ecommerce.manager.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ConflictRetryAspectTest {
+
+	private MeterRegistry meterRegistry;
+
+	private ProceedingJoinPoint joinPoint;
+
+	private ConflictRetryAspect aspect;
+
+	@Before
+	public void setup() {
+		meterRegistry = new SimpleMeterRegistry();
+		joinPoint = mock(ProceedingJoinPoint.class);
+
+		Signature signature = mock(Signature.class);
+		when(signature.getName()).thenReturn("updateOrderById");
+		when(joinPoint.getSignature()).thenReturn(signature);
+
+		aspect = new ConflictRetryAspect(meterRegistry, 3, Duration.ZERO, Duration.ZERO);
+	}
+
+	@Test
+	public void testRetryOnConflictWhenFirstAttemptSucceedsShouldNotRetry() throws Throwable {
+		when(joinPoint.proceed()).thenReturn("result");
+
+		assertThat(aspect.retryOnConflict(joinPoint)).isEqualTo("result");
+
+		verify(joinPoint, times(1)).proceed();
+		assertThat(meterRegistry.find(ConflictRetryAspect.RETRIES_METRIC).counter()).isNull();
+	}
+
+	@Test
+	public void testRetryOnConflictWhenConflictIsTransientShouldRetryAndCountRetries() throws Throwable {
+		when(joinPoint.proceed()).thenThrow(new OptimisticLockingFailureException("conflict"))
+				.thenThrow(new OptimisticLockingFailureException("conflict")).thenReturn("result");
+
+		assertThat(aspect.retryOnConflict(joinPoint)).isEqualTo("result");
+
+		verify(joinPoint, times(3)).proceed();
+		assertThat(meterRegistry.get(ConflictRetryAspect.RETRIES_METRIC).tag("operation", "updateOrderById")
+				.counter().count()).isEqualTo(2.0);
+	}
+
+	@Test
+	public void testRetryOnConflictWhenAttemptsAreExhaustedShouldRethrowConflict() throws Throwable {
+		OptimisticLockingFailureException conflict = new OptimisticLockingFailureException("conflict");
+		when(joinPoint.proceed()).thenThrow(conflict);
+
+		OptimisticLockingFailureException ex = assertThrows(OptimisticLockingFailureException.class,
+				() -> aspect.retryOnConflict(joinPoint));
+
+		assertThat(ex).isSameAs(conflict);
+		verify(joinPoint, times(3)).proceed();
+	}
+
+	@Test
+	public void testRetryOnConflictInsideAnActiveTransactionShouldNotRetry() throws Throwable {
+		OptimisticLockingFailureException conflict = new OptimisticLockingFailureException("conflict");
+		when(joinPoint.proceed()).thenThrow(conflict);
+
+		TransactionSynchronizationManager.setActualTransactionActive(true);
+		try {
+			assertThat(assertThrows(OptimisticLockingFailureException.class, () -> aspect.retryOnConflict(joinPoint)))
+					.isSameAs(conflict);
+		} finally {
+			TransactionSynchronizationManager.setActualTransactionActive(false);
+		}
+
+		verify(joinPoint, times(1)).proceed();
+	}
+
+	@Test
+	public void testRetryOnConflictShouldNotRetryOtherExceptions() throws Throwable {
+		when(joinPoint.proceed()).thenThrow(new IllegalStateException("User not found"));
+
+		assertThrows(IllegalStateException.class, () -> aspect.retryOnConflict(joinPoint));
+
+		verify(joinPoint, times(1)).proceed();
+	}
+
+	@Test
+	public void testRetryOnConflictWhenInterruptedShouldRethrowConflict() throws Throwable {
+		aspect = new ConflictRetryAspect(meterRegistry, 3, Duration.ofMillis(50), Duration.ofMillis(50));
+		when(joinPoint.proceed()).thenThrow(new OptimisticLockingFailureException("conflict"));
+
+		Thread.currentThread().interrupt();
+		try {
+			assertThrows(OptimisticLockingFailureException.class, () -> aspect.retryOnConflict(joinPoint));
+		} finally {
+			assertThat(Thread.interrupted()).isTrue();
+		}
+	}
+
+	@Test
+	public void testBackoffIsBoundedByExponentialAndMaxBackoff() {
+		aspect = new ConflictRetryAspect(meterRegistry, 10, Duration.ofMillis(10), Duration.ofMillis(30));
+
+		for (int i = 0; i < 100; i++) {
+			assertThat(aspect.backoffMillis(1)).isBetween(0L, 10L);
+			assertThat(aspect.backoffMillis(2)).isBetween(0L, 20L);
+			assertThat(aspect.backoffMillis(5)).isBetween(0L, 30L);
+		}
+	}
+
+	@Test
+	public void testMaxAttemptsLowerThanOneShouldBeRejected() {
+		IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
+				() -> new ConflictRetryAspect(meterRegistry, 0, Duration.ZERO, Duration.ZERO));
+
+		assertThat(ex.getMessage()).isEqualTo("Max attempts must be at least 1");
+	}
+}
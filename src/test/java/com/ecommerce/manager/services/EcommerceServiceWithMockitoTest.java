@@ -10,10 +10,13 @@ import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
 
 import org.junit.Rule;
@@ -25,15 +28,23 @@ import junitparams.Parameters;
 import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
 import com.ecommerce.manager.model.Item;
 import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.OrderSummary;
 import com.ecommerce.manager.model.User;
 import com.ecommerce.manager.repositories.OrderRepository;
 import com.ecommerce.manager.repositories.UserRepository;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 @RunWith(JUnitParamsRunner.class)
 public class EcommerceServiceWithMockitoTest {
 
@@ -46,6 +57,15 @@ public class EcommerceServiceWithMockitoTest {
 	@Mock
 	private OrderRepository orderRepository;
 
+	@Mock
+	private UserLockManager userLocks;
+
+	@Mock
+	private BalanceLedger ledger;
+
+	@Spy
+	private EntityCache cache = new EntityCache(new SimpleMeterRegistry(), 100, Duration.ofMinutes(1));
+
 	@InjectMocks
 	private EcommerceService ecommerceService;
 
@@ -59,6 +79,51 @@ public class EcommerceServiceWithMockitoTest {
 		assertThat(ecommerceService.getAllUsers()).containsExactly(user1, user2);
 	}
 
+	@Test
+	public void testGetUsersAfter() {
+		List<User> users = asList(new User(3L, "test", "test", "test", 5000));
+		when(userRepository.findByIdGreaterThanOrderByIdAsc(2L, Limit.of(10))).thenReturn(users);
+
+		assertThat(ecommerceService.getUsersAfter(2L, 10)).isSameAs(users);
+	}
+
+	@Test
+	public void testGetUsersAfterWithLedgerAddsPendingEntries() {
+		when(ledger.isEnabled()).thenReturn(true);
+		List<User> users = asList(new User(1L, "test", "test", "test", 5000));
+		List<User> withBalances = asList(new User(1L, "test", "test", "test", 5500));
+		when(userRepository.findByIdGreaterThanOrderByIdAsc(0L, Limit.of(10))).thenReturn(users);
+		when(ledger.withCurrentBalances(users)).thenReturn(withBalances);
+
+		assertThat(ecommerceService.getUsersAfter(0L, 10)).isSameAs(withBalances);
+	}
+
+	@Test
+	public void testGetAllOrderSummaries() {
+		List<OrderSummary> summaries = asList(new OrderSummary(1L, Item.BOX1, 700, 1L, "test"));
+		when(orderRepository.findAllSummaries()).thenReturn(summaries);
+
+		assertThat(ecommerceService.getAllOrderSummaries()).isSameAs(summaries);
+		verifyNoInteractions(ledger);
+	}
+
+	@Test
+	public void testGetOrderSummariesAfter() {
+		List<OrderSummary> summaries = asList(new OrderSummary(3L, Item.BOX1, 700, 1L, "test"));
+		when(orderRepository.findSummariesByIdGreaterThan(2L, Limit.of(10))).thenReturn(summaries);
+
+		assertThat(ecommerceService.getOrderSummariesAfter(2L, 10)).isSameAs(summaries);
+	}
+
+	@Test
+	public void testGetOrderSummaryById() {
+		OrderSummary summary = new OrderSummary(3L, Item.BOX1, 700, 1L, "test");
+		when(orderRepository.findSummaryById(3L)).thenReturn(Optional.of(summary));
+
+		assertThat(ecommerceService.getOrderSummaryById(3L)).isSameAs(summary);
+		assertThat(ecommerceService.getOrderSummaryById(4L)).isNull();
+	}
+
 	@Test
 	public void testGetAllOrders() {
 		User user = new User(1L, "test", "test", "test", 5000);
@@ -91,18 +156,60 @@ public class EcommerceServiceWithMockitoTest {
 	public void testGetOrderByIdCorrectlyFound() {
 		Order order = new Order(1L, Item.BOX1, 700, new User(1L, "test", "test", "test", 5000));
 
-		when(orderRepository.findById(1L)).thenReturn(Optional.of(order));
+		when(orderRepository.findForEditingById(1L)).thenReturn(Optional.of(order));
 
 		assertThat(ecommerceService.getOrderById(1)).isSameAs(order);
 	}
 
 	@Test
 	public void testGetOrderByIdNotFound() {
-		when(orderRepository.findById(anyLong())).thenReturn(Optional.empty());
+		when(orderRepository.findForEditingById(anyLong())).thenReturn(Optional.empty());
 
 		assertThat(ecommerceService.getOrderById(1)).isNull();
 	}
 
+	@Test
+	public void testGetUserByIdIsServedFromTheCacheUntilTheBalanceChanges() {
+		when(userRepository.findById(1L)).thenReturn(Optional.of(new User(1L, "test", "test", "test", 5000)));
+		when(userRepository.updateBalanceIfNotNegative(1L, -500L)).thenReturn(1);
+
+		ecommerceService.getUserById(1);
+		assertThat(ecommerceService.getUserById(1).getBalance()).isEqualTo(5000);
+		verify(userRepository, times(1)).findById(1L);
+
+		ecommerceService.withdraw(1L, 500);
+
+		ecommerceService.getUserById(1);
+		verify(userRepository, times(2)).findById(1L);
+	}
+
+	@Test
+	public void testGetOrderByIdIsServedFromTheCacheUntilItsUserChanges() {
+		when(orderRepository.findForEditingById(1L))
+				.thenReturn(Optional.of(new Order(1L, Item.BOX1, 700, new User(2L, "test", "test", "test", 5000))));
+		when(userRepository.updateBalance(2L, 500L)).thenReturn(1);
+
+		ecommerceService.getOrderById(1);
+		ecommerceService.getOrderById(1);
+		verify(orderRepository, times(1)).findForEditingById(1L);
+
+		ecommerceService.deposit(2L, 500);
+
+		ecommerceService.getOrderById(1);
+		verify(orderRepository, times(2)).findForEditingById(1L);
+	}
+
+	@Test
+	public void testWithdrawThatFailsKeepsTheCachedUser() {
+		when(userRepository.findById(1L)).thenReturn(Optional.of(new User(1L, "test", "test", "test", 500)));
+		when(userRepository.existsById(1L)).thenReturn(true);
+
+		ecommerceService.getUserById(1);
+		assertThrows(IllegalStateException.class, () -> ecommerceService.withdraw(1L, 1000));
+
+		verify(cache, never()).evictUser(anyLong());
+	}
+
 	@Test
 	public void testInsertNewUserShouldSetIdToNullAndReturnsSavedUser() {
 		User userToSave = spy(new User(70L, "", "", "", 0));
@@ -119,6 +226,16 @@ public class EcommerceServiceWithMockitoTest {
 		inOrder.verify(userRepository).save(userToSave);
 	}
 
+	@Test
+	public void testInsertNewUserWithUsernameOrEmailTakenShouldThrowIllegalArgumentException() {
+		when(userRepository.save(any(User.class))).thenThrow(new DataIntegrityViolationException("unique"));
+
+		IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
+				() -> ecommerceService.insertNewUser(new User(null, "taken", "name", "email", 0)));
+
+		assertThat(ex.getMessage()).isEqualTo("Username or email already exists");
+	}
+
 	@Test
 	public void testInsertNewOrderWhenSuccessShouldSetIdToNullAndReturnsSavedOrder() {
 		User user = new User(1L, "test", "test", "test", 5000);
@@ -161,11 +278,15 @@ public class EcommerceServiceWithMockitoTest {
 	}
 
 	@Test
-	public void testUpdateUserByIdSetsIdToArgumentAndReturnsSavedUser() {
+	public void testUpdateUserByIdSetsIdAndCurrentVersionAndReturnsSavedUser() {
+		User existing = new User(1L, "username", "name", "email", 3000);
+		existing.setVersion(4L);
+
 		User replacement = spy(new User(null, "replacement", "replacement", "replacement", 2000));
 		User replaced = new User(1L, "username", "name", "email", 3000);
 
-		when(userRepository.save(any(User.class))).thenReturn(replaced);
+		when(userRepository.findById(1L)).thenReturn(Optional.of(existing));
+		when(userRepository.saveAndFlush(any(User.class))).thenReturn(replaced);
 
 		User result = ecommerceService.updateUserById(1L, replacement);
 
@@ -173,56 +294,127 @@ public class EcommerceServiceWithMockitoTest {
 
 		InOrder inOrder = inOrder(replacement, userRepository);
 		inOrder.verify(replacement).setId(1L);
-		inOrder.verify(userRepository).save(replacement);
+		inOrder.verify(replacement).setVersion(4L);
+		inOrder.verify(userRepository).saveAndFlush(replacement);
 	}
 
 	@Test
-	public void testUpdateOrderByIdWhenSuccessSetsIdToArgumentAndReturnsSavedOrder() {
+	public void testUpdateUserByIdWhenUserNotFoundShouldThrowException() {
+		User replacement = new User(null, "replacement", "replacement", "replacement", 2000);
+
+		when(userRepository.findById(anyLong())).thenReturn(Optional.empty());
+
+		IllegalStateException ex = assertThrows(IllegalStateException.class,
+				() -> ecommerceService.updateUserById(1L, replacement));
+
+		assertThat(ex.getMessage()).isEqualTo("User not found");
+		verify(userRepository, never()).saveAndFlush(any());
+	}
+
+	@Test
+	public void testUpdateUserByIdWithUsernameOrEmailTakenShouldThrowIllegalArgumentException() {
+		when(userRepository.findById(1L)).thenReturn(Optional.of(new User(1L, "username", "name", "email", 3000)));
+		when(userRepository.saveAndFlush(any(User.class))).thenThrow(new DataIntegrityViolationException("unique"));
+
+		IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
+				() -> ecommerceService.updateUserById(1L, new User(null, "taken", "name", "email", 3000)));
+
+		assertThat(ex.getMessage()).isEqualTo("Username or email already exists");
+	}
+
+	@Test
+	public void testUpdateOrderByIdWhenSuccessAppliesReplacementToTheReloadedOrder() {
 		User user1 = new User(1L, "test", "test", "test", 5000);
 		User user2 = new User(2L, "test", "test", "test", 5000);
 
-		Order replacement = spy(new Order(null, Item.BOX1, 500, user1));
+		Order replacement = new Order(null, Item.BOX1, 500, new User(1L, null, null, null, 0));
 		Order replaced = new Order(1L, Item.BOX2, 700, user2);
+		Order reloaded = new Order(1L, Item.BOX2, 700, user2);
+		replaced.setVersion(2L);
+		reloaded.setVersion(2L);
 
 		EcommerceService ecommerceServiceSpy = spy(ecommerceService);
 		doNothing().when(ecommerceServiceSpy).withdraw(anyLong(), anyLong());
 		doNothing().when(ecommerceServiceSpy).deposit(anyLong(), anyLong());
 
-		when(orderRepository.findById(1L)).thenReturn(Optional.of(replaced));
-		when(orderRepository.save(any(Order.class))).thenReturn(replacement);
+		when(orderRepository.findForPlacementById(1L)).thenReturn(Optional.of(replaced), Optional.of(reloaded));
+		when(userRepository.findById(1L)).thenReturn(Optional.of(user1));
+		when(orderRepository.save(reloaded)).thenReturn(reloaded);
 
 		Order result = ecommerceServiceSpy.updateOrderById(1L, replacement);
 
-		assertThat(result).isSameAs(replacement);
+		assertThat(result).isSameAs(reloaded);
+		assertThat(result.getItem()).isEqualTo(Item.BOX1);
+		assertThat(result.getPrice()).isEqualTo(500);
+		assertThat(result.getUser()).isSameAs(user1);
 
-		InOrder inOrder = inOrder(replacement, ecommerceServiceSpy, orderRepository);
-		inOrder.verify(replacement).setId(1L);
+		InOrder inOrder = inOrder(userLocks, ecommerceServiceSpy, orderRepository);
+		inOrder.verify(orderRepository).findForPlacementById(1L);
+		inOrder.verify(userLocks).lockUntilCompletion(2L, 1L);
 		inOrder.verify(ecommerceServiceSpy).deposit(2L, 700);
 		inOrder.verify(ecommerceServiceSpy).withdraw(1L, 500);
-		inOrder.verify(orderRepository).save(replacement);
+		inOrder.verify(orderRepository).findForPlacementById(1L);
+		inOrder.verify(orderRepository).save(reloaded);
+		verify(cache).evictOrder(1L);
+	}
+
+	@Test
+	public void testUpdateOrderByIdWithSameUserDoesNotReloadTheUser() {
+		User user = new User(1L, "test", "test", "test", 5000);
+
+		Order replacement = new Order(null, Item.BOX1, 500, new User(1L, null, null, null, 0));
+		Order replaced = new Order(1L, Item.BOX2, 700, user);
+
+		when(orderRepository.findForPlacementById(1L)).thenReturn(Optional.of(replaced));
+		when(userRepository.updateBalanceIfNotNegative(anyLong(), anyLong())).thenReturn(1);
+		when(userRepository.updateBalance(anyLong(), anyLong())).thenReturn(1);
+		when(orderRepository.save(replaced)).thenReturn(replaced);
+
+		assertThat(ecommerceService.updateOrderById(1L, replacement)).isSameAs(replaced);
+
+		assertThat(replaced.getUser()).isSameAs(user);
+		verify(orderRepository, times(2)).findForPlacementById(1L);
+		verify(userRepository, never()).findById(anyLong());
+	}
+
+	@Test
+	public void testUpdateOrderByIdWhenTheOrderChangedMeanwhileShouldRetry() {
+		User user = new User(1L, "test", "test", "test", 5000);
+
+		Order replaced = new Order(1L, Item.BOX2, 700, user);
+		Order changed = new Order(1L, Item.BOX3, 900, user);
+		changed.setVersion(1L);
+
+		when(orderRepository.findForPlacementById(1L)).thenReturn(Optional.of(replaced), Optional.of(changed));
+		when(userRepository.updateBalanceIfNotNegative(anyLong(), anyLong())).thenReturn(1);
+		when(userRepository.updateBalance(anyLong(), anyLong())).thenReturn(1);
+
+		Order replacement = new Order(null, Item.BOX1, 500, user);
+		assertThrows(ObjectOptimisticLockingFailureException.class,
+				() -> ecommerceService.updateOrderById(1L, replacement));
+
+		verify(orderRepository, never()).save(any());
 	}
 
 	@Test
 	public void testUpdateOrderWhenDepositFailsShouldThrowIllegalStateException() {
 		User user = new User(1L, "test", "test", "test", 5000);
 
-		Order replacement = spy(new Order(null, Item.BOX1, 700, user));
+		Order replacement = new Order(null, Item.BOX1, 700, user);
 		Order replaced = new Order(1L, Item.BOX2, 900, user);
 
 		EcommerceService ecommerceServiceSpy = spy(ecommerceService);
 		doThrow(new IllegalStateException("Unable to update the order")).when(ecommerceServiceSpy).deposit(anyLong(),
 				anyLong());
 
-		when(orderRepository.findById(1L)).thenReturn(Optional.of(replaced));
+		when(orderRepository.findForPlacementById(1L)).thenReturn(Optional.of(replaced));
 
 		IllegalStateException ex = assertThrows(IllegalStateException.class,
 				() -> ecommerceServiceSpy.updateOrderById(1L, replacement));
 
 		assertThat(ex.getMessage()).isEqualTo("Unable to update the order");
 
-		InOrder inOrder = inOrder(replacement, ecommerceServiceSpy);
-		inOrder.verify(replacement).setId(1L);
-		inOrder.verify(ecommerceServiceSpy).deposit(1L, 900);
+		verify(ecommerceServiceSpy).deposit(1L, 900);
 
 		verify(ecommerceServiceSpy, never()).withdraw(anyLong(), anyLong());
 		verify(orderRepository, never()).save(any());
@@ -232,7 +424,7 @@ public class EcommerceServiceWithMockitoTest {
 	public void testUpdateOrderWhenWithdrawFailsShouldThrowIllegalStateException() {
 		User user = new User(1L, "test", "test", "test", 5000);
 
-		Order replacement = spy(new Order(null, Item.BOX1, 700, user));
+		Order replacement = new Order(null, Item.BOX1, 700, user);
 		Order replaced = new Order(1L, Item.BOX2, 1000, user);
 
 		EcommerceService ecommerceServiceSpy = spy(ecommerceService);
@@ -240,15 +432,14 @@ public class EcommerceServiceWithMockitoTest {
 		doThrow(new IllegalStateException("Unable to update the order")).when(ecommerceServiceSpy).withdraw(anyLong(),
 				anyLong());
 
-		when(orderRepository.findById(1L)).thenReturn(Optional.of(replaced));
+		when(orderRepository.findForPlacementById(1L)).thenReturn(Optional.of(replaced));
 
 		IllegalStateException ex = assertThrows(IllegalStateException.class,
 				() -> ecommerceServiceSpy.updateOrderById(1L, replacement));
 
 		assertThat(ex.getMessage()).isEqualTo("Unable to update the order");
 
-		InOrder inOrder = inOrder(replacement, ecommerceServiceSpy);
-		inOrder.verify(replacement).setId(1L);
+		InOrder inOrder = inOrder(ecommerceServiceSpy);
 		inOrder.verify(ecommerceServiceSpy).deposit(1L, 1000);
 		inOrder.verify(ecommerceServiceSpy).withdraw(1L, 700);
 
@@ -256,19 +447,17 @@ public class EcommerceServiceWithMockitoTest {
 	}
 
 	@Test
-	@Parameters({ "500, 2500", "0, 2000" })
-	public void testDepositwWhenParameterizedAmountIsCorrectShouldCorrectlyUpdateBalance(long amount,
-			long expectedBalance) {
-		User user = spy(new User(1L, "test", "test", "test", 2000));
-
-		when(userRepository.findById(1L)).thenReturn(Optional.of(user));
-		when(userRepository.save(any(User.class))).thenReturn(user);
+	@Parameters({ "500", "0" })
+	public void testDepositWhenParameterizedAmountIsCorrectShouldAtomicallyUpdateBalance(long amount) {
+		when(userRepository.updateBalance(1L, amount)).thenReturn(1);
 
 		ecommerceService.deposit(1L, amount);
 
-		InOrder inOrder = inOrder(user, userRepository);
-		inOrder.verify(user).setBalance(expectedBalance);
-		inOrder.verify(userRepository).save(user);
+		InOrder inOrder = inOrder(userLocks, userRepository);
+		inOrder.verify(userLocks).lockUntilCompletion(1L);
+		inOrder.verify(userRepository).updateBalance(1L, amount);
+		verify(userRepository, never()).findById(anyLong());
+		verify(userRepository, never()).save(any());
 	}
 
 	@Test
@@ -277,33 +466,30 @@ public class EcommerceServiceWithMockitoTest {
 				() -> ecommerceService.deposit(1L, -500L));
 
 		assertThat(ex.getMessage()).isEqualTo("Deposit amount cannot be negative");
-		verifyNoInteractions(userRepository);
+		verifyNoInteractions(userRepository, userLocks);
 	}
 
 	@Test
 	public void testDepositWhenUserNotFoundShouldThrowException() {
-		when(userRepository.findById(anyLong())).thenReturn(Optional.empty());
+		when(userRepository.updateBalance(anyLong(), anyLong())).thenReturn(0);
 
 		IllegalStateException ex = assertThrows(IllegalStateException.class, () -> ecommerceService.deposit(1L, 500L));
 
 		assertThat(ex.getMessage()).isEqualTo("User not found");
-		verify(userRepository, never()).save(any());
 	}
 
 	@Test
-	@Parameters({ "2000, 0", "500, 1500", "0, 2000" })
-	public void testWithdrawWhenParameterizedAmountIsCorrectShouldCorrectlyUpdateBalance(long amount,
-			long expectedBalance) {
-		User user = spy(new User(1L, "test", "test", "test", 2000));
-
-		when(userRepository.findById(1L)).thenReturn(Optional.of(user));
-		when(userRepository.save(any(User.class))).thenReturn(user);
+	@Parameters({ "2000", "500", "0" })
+	public void testWithdrawWhenParameterizedAmountIsCorrectShouldAtomicallyUpdateBalance(long amount) {
+		when(userRepository.updateBalanceIfNotNegative(1L, -amount)).thenReturn(1);
 
 		ecommerceService.withdraw(1L, amount);
 
-		InOrder inOrder = inOrder(user, userRepository);
-		inOrder.verify(user).setBalance(expectedBalance);
-		inOrder.verify(userRepository).save(user);
+		InOrder inOrder = inOrder(userLocks, userRepository);
+		inOrder.verify(userLocks).lockUntilCompletion(1L);
+		inOrder.verify(userRepository).updateBalanceIfNotNegative(1L, -amount);
+		verify(userRepository, never()).existsById(anyLong());
+		verify(userRepository, never()).save(any());
 	}
 
 	@Test
@@ -312,27 +498,259 @@ public class EcommerceServiceWithMockitoTest {
 				() -> ecommerceService.withdraw(1L, -500L));
 
 		assertThat(ex.getMessage()).isEqualTo("Withdraw amount cannot be negative");
-		verifyNoInteractions(userRepository);
+		verifyNoInteractions(userRepository, userLocks);
 	}
 
 	@Test
 	public void testWithdrawWhenUserNotFoundShouldThrowException() {
-		when(userRepository.findById(anyLong())).thenReturn(Optional.empty());
+		when(userRepository.updateBalanceIfNotNegative(anyLong(), anyLong())).thenReturn(0);
+		when(userRepository.existsById(1L)).thenReturn(false);
 
 		IllegalStateException ex = assertThrows(IllegalStateException.class, () -> ecommerceService.withdraw(1L, 500L));
 
 		assertThat(ex.getMessage()).isEqualTo("User not found");
-		verify(userRepository, never()).save(any());
 	}
 
 	@Test
 	public void testWithdrawWhenBalanceIsNotEnoughShouldThrowException() {
-		User user = new User(1L, "test", "test", "test", 300);
-
-		when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+		when(userRepository.updateBalanceIfNotNegative(1L, -500L)).thenReturn(0);
+		when(userRepository.existsById(1L)).thenReturn(true);
 
 		IllegalStateException ex = assertThrows(IllegalStateException.class, () -> ecommerceService.withdraw(1L, 500L));
 		assertThat(ex.getMessage()).isEqualTo("Not enough balance to perform withdraw");
-		verify(userRepository, never()).save(any());
+	}
+
+	@Test
+	public void testGetAllUsersWithLedgerAddsPendingEntries() {
+		List<User> users = asList(new User(1L, "test", "test", "test", 5000));
+
+		when(ledger.isEnabled()).thenReturn(true);
+		when(userRepository.findAll()).thenReturn(users);
+		when(ledger.withCurrentBalances(users)).thenReturn(users);
+
+		assertThat(ecommerceService.getAllUsers()).isSameAs(users);
+		verify(ledger).withCurrentBalances(users);
+	}
+
+	@Test
+	public void testGetAllOrdersWithLedgerAddsPendingEntriesToTheirUsers() {
+		User user = new User(1L, "test", "test", "test", 5000);
+		Order order1 = new Order(1L, Item.BOX1, 700, user);
+		Order order2 = new Order(2L, Item.BOX2, 900, user);
+
+		when(ledger.isEnabled()).thenReturn(true);
+		when(orderRepository.findAll()).thenReturn(asList(order1, order2));
+
+		assertThat(ecommerceService.getAllOrders()).containsExactly(order1, order2);
+		verify(ledger).withCurrentBalances(asList(user, user));
+	}
+
+	@Test
+	public void testGetUserByIdWithLedgerAddsPendingEntries() {
+		User user = new User(1L, "test", "test", "test", 5000);
+		User current = new User(1L, "test", "test", "test", 5500);
+
+		when(ledger.isEnabled()).thenReturn(true);
+		when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+		when(ledger.withCurrentBalance(user)).thenReturn(current);
+
+		assertThat(ecommerceService.getUserById(1)).isSameAs(current);
+	}
+
+	@Test
+	public void testGetUserByIdWithLedgerWhenNotFound() {
+		when(ledger.isEnabled()).thenReturn(true);
+		when(userRepository.findById(anyLong())).thenReturn(Optional.empty());
+
+		assertThat(ecommerceService.getUserById(1)).isNull();
+		verify(ledger, never()).withCurrentBalance(any());
+	}
+
+	@Test
+	public void testGetOrderByIdWithLedgerAddsPendingEntriesToItsUser() {
+		User user = new User(1L, "test", "test", "test", 5000);
+		Order order = new Order(1L, Item.BOX1, 700, user);
+
+		when(ledger.isEnabled()).thenReturn(true);
+		when(orderRepository.findForEditingById(1L)).thenReturn(Optional.of(order));
+
+		assertThat(ecommerceService.getOrderById(1)).isSameAs(order);
+		verify(ledger).withCurrentBalance(user);
+	}
+
+	@Test
+	public void testGetOrderByIdWithLedgerWhenNotFound() {
+		when(ledger.isEnabled()).thenReturn(true);
+		when(orderRepository.findForEditingById(anyLong())).thenReturn(Optional.empty());
+
+		assertThat(ecommerceService.getOrderById(1)).isNull();
+		verify(ledger, never()).withCurrentBalance(any());
+	}
+
+	@Test
+	public void testUpdateUserByIdWithLedgerFoldsPendingEntriesAndRecordsAdjustment() {
+		User existing = new User(1L, "username", "name", "email", 3000);
+		User replacement = new User(null, "replacement", "replacement", "replacement", 2000);
+
+		when(ledger.isEnabled()).thenReturn(true);
+		when(userRepository.findById(1L)).thenReturn(Optional.of(existing));
+		when(userRepository.saveAndFlush(replacement)).thenReturn(replacement);
+
+		assertThat(ecommerceService.updateUserById(1L, replacement)).isSameAs(replacement);
+
+		InOrder inOrder = inOrder(userLocks, ledger, userRepository);
+		inOrder.verify(userLocks).lockUntilCompletion(1L);
+		inOrder.verify(ledger).fold(1L);
+		inOrder.verify(userRepository).findById(1L);
+		inOrder.verify(ledger).recordAdjustment(1L, -1000L);
+		inOrder.verify(userRepository).saveAndFlush(replacement);
+	}
+
+	@Test
+	public void testDepositWithLedgerAppendsEntryInsteadOfUpdatingBalance() {
+		when(ledger.isEnabled()).thenReturn(true);
+
+		ecommerceService.deposit(1L, 500L);
+
+		InOrder inOrder = inOrder(userLocks, ledger);
+		inOrder.verify(userLocks).lockUntilCompletion(1L);
+		inOrder.verify(ledger).deposit(1L, 500L);
+		verifyNoInteractions(userRepository);
+	}
+
+	@Test
+	public void testWithdrawWithLedgerAppendsEntryInsteadOfUpdatingBalance() {
+		when(ledger.isEnabled()).thenReturn(true);
+
+		ecommerceService.withdraw(1L, 500L);
+
+		InOrder inOrder = inOrder(userLocks, ledger);
+		inOrder.verify(userLocks).lockUntilCompletion(1L);
+		inOrder.verify(ledger).withdraw(1L, 500L);
+		verifyNoInteractions(userRepository);
+	}
+
+	@Test
+	public void testInsertNewOrdersDebitsEachUserOnceAndReportsEveryRecord() {
+		User user1 = new User(1L, "test", "test", "test", 1000);
+		User user2 = new User(2L, "test", "test", "test", 300);
+		Order order1 = new Order(7L, Item.BOX1, 400, new User(1L, null, null, null, 0));
+		Order order2 = new Order(null, Item.BOX2, 500, new User(2L, null, null, null, 0));
+		Order order3 = new Order(null, Item.BOX3, 600, new User(1L, null, null, null, 0));
+		Order order4 = new Order(null, Item.BOX1, 100, new User(2L, null, null, null, 0));
+		when(userRepository.findAllById(List.of(1L, 2L))).thenReturn(asList(user1, user2));
+		when(userRepository.updateBalanceIfNotNegative(anyLong(), anyLong())).thenReturn(1);
+		when(orderRepository.saveAll(asList(order1, order3, order4))).thenReturn(asList(
+				new Order(10L, Item.BOX1, 400, user1), new Order(11L, Item.BOX3, 600, user1),
+				new Order(12L, Item.BOX1, 100, user2)));
+
+		List<OrderImportResult> results = ecommerceService.insertNewOrders(asList(order1, order2, order3, order4));
+
+		assertThat(results).containsExactly(OrderImportResult.created(0, 10L),
+				OrderImportResult.failed(1, "Not enough balance to perform withdraw"),
+				OrderImportResult.created(2, 11L), OrderImportResult.created(3, 12L));
+		assertThat(order1.getId()).isNull();
+		assertThat(order1.getUser()).isSameAs(user1);
+		InOrder inOrder = inOrder(userLocks, userRepository, orderRepository);
+		inOrder.verify(userLocks).lockUntilCompletion(1L, 2L);
+		inOrder.verify(userRepository).updateBalanceIfNotNegative(1L, -1000L);
+		inOrder.verify(userRepository).updateBalanceIfNotNegative(2L, -100L);
+		inOrder.verify(orderRepository).saveAll(asList(order1, order3, order4));
+		verify(ledger, never()).fold(anyLong());
+	}
+
+	@Test
+	public void testInsertNewOrdersRejectsInvalidOrdersAndUnknownUsers() {
+		Order noUser = new Order(null, Item.BOX1, 100, null);
+		Order noUserId = new Order(null, Item.BOX1, 100, new User(null, null, null, null, 0));
+		Order noItem = new Order(null, null, 100, new User(1L, null, null, null, 0));
+		Order negativePrice = new Order(null, Item.BOX1, -100, new User(1L, null, null, null, 0));
+		Order unknownUser = new Order(null, Item.BOX1, 100, new User(3L, null, null, null, 0));
+		when(userRepository.findAllById(List.of(3L))).thenReturn(List.of());
+
+		List<OrderImportResult> results = ecommerceService
+				.insertNewOrders(asList(noUser, noUserId, noItem, negativePrice, unknownUser));
+
+		assertThat(results).containsExactly(OrderImportResult.failed(0, "Invalid order"),
+				OrderImportResult.failed(1, "Invalid order"), OrderImportResult.failed(2, "Invalid order"),
+				OrderImportResult.failed(3, "Invalid order"), OrderImportResult.failed(4, "User not found"));
+		verify(userLocks).lockUntilCompletion(3L);
+		verify(userRepository, never()).updateBalanceIfNotNegative(anyLong(), anyLong());
+		verify(orderRepository).saveAll(List.of());
+	}
+
+	@Test
+	public void testInsertNewOrdersWhenDebitIsNotAppliedShouldThrowConflict() {
+		User user = new User(1L, "test", "test", "test", 1000);
+		when(userRepository.findAllById(List.of(1L))).thenReturn(List.of(user));
+		when(userRepository.updateBalanceIfNotNegative(1L, -400L)).thenReturn(0);
+
+		List<Order> orders = List.of(new Order(null, Item.BOX1, 400, user));
+		assertThrows(ObjectOptimisticLockingFailureException.class, () -> ecommerceService.insertNewOrders(orders));
+
+		verify(orderRepository, never()).saveAll(any());
+	}
+
+	@Test
+	public void testInsertNewOrdersWithLedgerFoldsUsersAndRecordsTheDebits() {
+		User user = new User(1L, "test", "test", "test", 1000);
+		Order order = new Order(null, Item.BOX1, 400, user);
+		when(ledger.isEnabled()).thenReturn(true);
+		when(userRepository.findAllById(List.of(1L))).thenReturn(List.of(user));
+		when(userRepository.updateBalanceIfNotNegative(1L, -400L)).thenReturn(1);
+		when(orderRepository.saveAll(List.of(order))).thenReturn(List.of(new Order(5L, Item.BOX1, 400, user)));
+
+		assertThat(ecommerceService.insertNewOrders(List.of(order))).containsExactly(OrderImportResult.created(0, 5L));
+
+		InOrder inOrder = inOrder(userLocks, ledger, userRepository);
+		inOrder.verify(userLocks).lockUntilCompletion(1L);
+		inOrder.verify(ledger).fold(1L);
+		inOrder.verify(userRepository).findAllById(List.of(1L));
+		inOrder.verify(userRepository).updateBalanceIfNotNegative(1L, -400L);
+		inOrder.verify(ledger).recordAdjustment(1L, -400L);
+	}
+
+	@Test
+	public void testInsertNewUsersSkipsUsernamesAndEmailsAlreadyTaken() {
+		User user1 = new User(5L, "u1", "n1", "e1", 100);
+		User user2 = new User(null, "taken", "n2", "e2", 100);
+		User user3 = new User(null, "u3", "n3", "taken", 100);
+		when(userRepository.findExistingUsernames(List.of("u1", "taken", "u3"))).thenReturn(List.of("taken"));
+		when(userRepository.findExistingEmails(List.of("e1", "e2", "taken"))).thenReturn(List.of("taken"));
+
+		assertThat(ecommerceService.insertNewUsers(asList(user1, user2, user3))).containsExactly(null,
+				"Username already exists", "Email already exists");
+
+		assertThat(user1.getId()).isNull();
+		verify(userRepository).saveAllAndFlush(List.of(user1));
+	}
+
+	@Test
+	public void testInsertNewUsersSkipsUsernamesAndEmailsRepeatedInTheChunk() {
+		User user1 = new User(null, "u1", "n1", "e1", 100);
+		User user2 = new User(null, "u1", "n2", "e2", 100);
+		User user3 = new User(null, "u3", "n3", "e1", 100);
+		when(userRepository.findExistingUsernames(List.of("u1", "u1", "u3"))).thenReturn(List.of());
+		when(userRepository.findExistingEmails(List.of("e1", "e2", "e1"))).thenReturn(List.of());
+
+		assertThat(ecommerceService.insertNewUsers(asList(user1, user2, user3))).containsExactly(null,
+				"Username already exists", "Email already exists");
+
+		verify(userRepository).saveAllAndFlush(List.of(user1));
+	}
+
+	@Test
+	public void testInsertNewUsersWhenAUserIsInsertedConcurrentlyShouldConflictToReadTheChunkAgain() {
+		User user = new User(null, "u1", "n1", "e1", 100);
+		when(userRepository.findExistingUsernames(List.of("u1"))).thenReturn(List.of());
+		when(userRepository.findExistingEmails(List.of("e1"))).thenReturn(List.of());
+		when(userRepository.saveAllAndFlush(List.of(user)))
+				.thenThrow(new DataIntegrityViolationException("duplicate username"));
+
+		List<User> users = List.of(user);
+		ObjectOptimisticLockingFailureException ex = assertThrows(ObjectOptimisticLockingFailureException.class,
+				() -> ecommerceService.insertNewUsers(users));
+
+		assertThat(ex.getCause()).isInstanceOf(DataIntegrityViolationException.class);
 	}
 }
@@ -0,0 +1,195 @@
+package com.ecommerce.manager.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import com.ecommerce.manager.model.Item;
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.User;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class EntityCacheTest {
+
+	private MeterRegistry meterRegistry;
+
+	private EntityCache cache;
+
+	private AtomicInteger loads;
+
+	@Before
+	public void setup() {
+		meterRegistry = new SimpleMeterRegistry();
+		cache = new EntityCache(meterRegistry, 2, Duration.ofMinutes(1));
+		loads = new AtomicInteger();
+	}
+
+	@After
+	public void tearDown() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	@Test
+	public void testInvalidMaxEntries() {
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> new EntityCache(meterRegistry, 0, Duration.ofMinutes(1)));
+
+		assertThat(e.getMessage()).isEqualTo("Max entries must be at least 1");
+	}
+
+	@Test
+	public void testNegativeTtl() {
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> new EntityCache(meterRegistry, 1, Duration.ofSeconds(-1)));
+
+		assertThat(e.getMessage()).isEqualTo("TTL cannot be negative");
+	}
+
+	@Test
+	public void testSecondReadIsAHitAndReturnsACopy() {
+		User loaded = cache.getUser(1L, userLoader(1L, 1000));
+		User cached = cache.getUser(1L, userLoader(1L, 1000));
+
+		assertThat(loads).hasValue(1);
+		assertThat(cached).isNotSameAs(loaded).usingRecursiveComparison().isEqualTo(loaded);
+		assertThat(counter(EntityCache.HITS_METRIC, "users")).isEqualTo(1.0);
+		assertThat(counter(EntityCache.MISSES_METRIC, "users")).isEqualTo(1.0);
+	}
+
+	@Test
+	public void testChangesToAReturnedCopyDoNotReachTheCache() {
+		cache.getUser(1L, userLoader(1L, 1000)).setBalance(0);
+
+		cache.getUser(1L, userLoader(1L, 1000)).setBalance(0);
+
+		assertThat(cache.getUser(1L, userLoader(1L, 1000)).getBalance()).isEqualTo(1000);
+	}
+
+	@Test
+	public void testMissingEntitiesAreNotCached() {
+		cache.getUser(1L, () -> {
+			loads.incrementAndGet();
+			return null;
+		});
+		cache.getUser(1L, userLoader(1L, 1000));
+
+		assertThat(loads).hasValue(2);
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEntryIsEvictedBeyondMaxEntries() {
+		cache.getUser(1L, userLoader(1L, 1000));
+		cache.getUser(2L, userLoader(2L, 1000));
+		cache.getUser(1L, userLoader(1L, 1000));
+		cache.getUser(3L, userLoader(3L, 1000));
+
+		cache.getUser(1L, userLoader(1L, 1000));
+		cache.getUser(2L, userLoader(2L, 1000));
+
+		assertThat(loads).hasValue(4);
+		assertThat(evictions("users", "size")).isEqualTo(2.0);
+	}
+
+	@Test
+	public void testExpiredEntryIsLoadedAgain() {
+		cache = new EntityCache(meterRegistry, 2, Duration.ZERO);
+
+		cache.getUser(1L, userLoader(1L, 1000));
+		cache.getUser(1L, userLoader(1L, 1000));
+
+		assertThat(loads).hasValue(2);
+		assertThat(evictions("users", "expired")).isEqualTo(1.0);
+	}
+
+	@Test
+	public void testEvictUserAlsoEvictsItsOrders() {
+		cache.getOrder(10L, orderLoader(10L, 1L));
+		cache.getOrder(20L, orderLoader(20L, 2L));
+
+		cache.evictUser(1L);
+
+		cache.getOrder(10L, orderLoader(10L, 1L));
+		cache.getOrder(20L, orderLoader(20L, 2L));
+
+		assertThat(loads).hasValue(3);
+		assertThat(counter(EntityCache.INVALIDATIONS_METRIC, "orders")).isEqualTo(1.0);
+	}
+
+	@Test
+	public void testEvictOrderLeavesTheOthersCached() {
+		cache.getOrder(10L, orderLoader(10L, 1L));
+		cache.getOrder(20L, orderLoader(20L, 1L));
+
+		cache.evictOrder(10L);
+
+		cache.getOrder(10L, orderLoader(10L, 1L));
+		cache.getOrder(20L, orderLoader(20L, 1L));
+
+		assertThat(loads).hasValue(3);
+	}
+
+	@Test
+	public void testLoadOverlappingAnEvictionIsNotStored() {
+		cache.getUser(1L, () -> {
+			// Una scrittura concorrente invalida mentre il valore vecchio viene letto
+			cache.evictUser(1L);
+			return userLoader(1L, 1000).get();
+		});
+
+		cache.getUser(1L, userLoader(1L, 500));
+
+		assertThat(loads).hasValue(2);
+	}
+
+	@Test
+	public void testEvictionIsRepeatedWhenTheTransactionCompletes() {
+		TransactionSynchronizationManager.initSynchronization();
+		cache.evictUser(1L);
+
+		// Prima del commit un altro lettore ricarica il valore vecchio
+		cache.getUser(1L, userLoader(1L, 1000));
+
+		TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+				TransactionSynchronization.STATUS_COMMITTED);
+		TransactionSynchronizationManager.clearSynchronization();
+
+		assertThat(cache.getUser(1L, userLoader(1L, 500)).getBalance()).isEqualTo(500);
+	}
+
+	private Supplier<User> userLoader(long id, long balance) {
+		return () -> {
+			loads.incrementAndGet();
+			return new User(id, "u" + id, "n" + id, "e" + id, balance);
+		};
+	}
+
+	private Supplier<Order> orderLoader(long id, long userId) {
+		return () -> {
+			loads.incrementAndGet();
+			return new Order(id, Item.BOX1, 100, new User(userId, "u", "n", "e", 1000));
+		};
+	}
+
+	private double counter(String name, String cacheName) {
+		return meterRegistry.get(name).tag("cache", cacheName).counter().count();
+	}
+
+	private double evictions(String cacheName, String cause) {
+		return meterRegistry.get(EntityCache.EVICTIONS_METRIC).tag("cache", cacheName).tag("cause", cause).counter()
+				.count();
+	}
+}
@@ -0,0 +1,220 @@
+package com.ecommerce.manager.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import com.ecommerce.manager.model.IdempotencyRecord;
+import com.ecommerce.manager.repositories.IdempotencyRecordRepository;
+import com.ecommerce.manager.services.IdempotencyStore.Outcome;
+
+public class IdempotencyStoreTest {
+
+	@Rule
+	public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+	@Mock
+	private IdempotencyRecordRepository repository;
+
+	@Mock
+	private PlatformTransactionManager transactionManager;
+
+	private IdempotencyStore store;
+
+	@Before
+	public void setup() {
+		when(repository.saveAndFlush(any(IdempotencyRecord.class)))
+				.thenAnswer(invocation -> invocation.getArgument(0));
+		when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+		store = new IdempotencyStore(repository, transactionManager, 2, Duration.ofHours(1));
+	}
+
+	@Test
+	public void testInvalidMaxEntries() {
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> new IdempotencyStore(repository, transactionManager, 0, Duration.ofHours(1)));
+
+		assertThat(e.getMessage()).isEqualTo("Max entries must be at least 1");
+	}
+
+	@Test
+	public void testExecuteInsertsThePendingKeyRunsTheActionAndCommitsBoth() {
+		IdempotencyRecord executed = store.execute("key", "hash", () -> {
+			ArgumentCaptor<IdempotencyRecord> inserted = ArgumentCaptor.forClass(IdempotencyRecord.class);
+			verify(repository).saveAndFlush(inserted.capture());
+			assertThat(inserted.getValue().isPending()).isTrue();
+			// Solo la transazione della ricerca della chiave
+			verify(transactionManager, times(1)).commit(any());
+			return new Outcome(200, "{}");
+		});
+
+		assertThat(executed.getKey()).isEqualTo("key");
+		assertThat(executed.getRequestHash()).isEqualTo("hash");
+		assertThat(executed.getStatus()).isEqualTo(200);
+		assertThat(executed.getBody()).isEqualTo("{}");
+		verify(transactionManager, times(2)).commit(any());
+	}
+
+	@Test
+	public void testExecuteCachesTheOutcome() {
+		IdempotencyRecord executed = store.execute("key", "hash", () -> new Outcome(204, null));
+
+		assertThat(store.find("key")).contains(executed);
+		verify(repository, times(1)).findById(anyString());
+	}
+
+	@Test
+	public void testExecuteWithStoredKeyReturnsItWithoutRunningTheAction() {
+		IdempotencyRecord persisted = new IdempotencyRecord("key", "hash", 204, null, Instant.now());
+		when(repository.findById("key")).thenReturn(Optional.of(persisted));
+
+		assertThat(store.execute("key", "hash", () -> {
+			throw new AssertionError("Action must not run");
+		})).isSameAs(persisted);
+
+		verify(repository, never()).saveAndFlush(any());
+	}
+
+	@Test
+	public void testExecuteWhenTheKeyIsInsertedConcurrentlyReturnsItsCommittedOutcome() {
+		IdempotencyRecord committed = new IdempotencyRecord("key", "hash", 204, null, Instant.now());
+		when(repository.findById("key")).thenReturn(Optional.empty(), Optional.of(committed));
+		when(repository.saveAndFlush(any(IdempotencyRecord.class)))
+				.thenThrow(new DataIntegrityViolationException("duplicate key"));
+
+		assertThat(store.execute("key", "hash", () -> {
+			throw new AssertionError("Action must not run");
+		})).isSameAs(committed);
+
+		// Il template lascia decidere al transaction manager, che con il rollback-only annulla l'insert
+		verify(transactionManager).commit(argThat(TransactionStatus::isRollbackOnly));
+	}
+
+	@Test
+	public void testExecuteWhenTheKeyIsStillRunningElsewhereReturnsItAsPending() {
+		when(repository.saveAndFlush(any(IdempotencyRecord.class)))
+				.thenThrow(new DataIntegrityViolationException("duplicate key"));
+
+		IdempotencyRecord running = store.execute("key", "hash", () -> {
+			throw new AssertionError("Action must not run");
+		});
+
+		assertThat(running.isPending()).isTrue();
+		assertThat(running.getRequestHash()).isEqualTo("hash");
+	}
+
+	@Test
+	public void testExecuteWhenTheActionFailsRollsBackTheKeyAndCachesNothing() {
+		IllegalStateException failure = new IllegalStateException("Not enough balance to perform withdraw");
+
+		assertThat(assertThrows(IllegalStateException.class, () -> store.execute("key", "hash", () -> {
+			throw failure;
+		}))).isSameAs(failure);
+
+		verify(transactionManager).rollback(any());
+		store.find("key");
+		verify(repository, times(2)).findById("key");
+	}
+
+	@Test
+	public void testFindFallsBackToThePersistedRecordAndCachesIt() {
+		IdempotencyRecord persisted = new IdempotencyRecord("key", "hash", 204, null, Instant.now());
+		when(repository.findById("key")).thenReturn(Optional.of(persisted));
+
+		assertThat(store.find("key")).contains(persisted);
+		assertThat(store.find("key")).contains(persisted);
+
+		verify(repository, times(1)).findById("key");
+	}
+
+	@Test
+	public void testFindReadsThePersistedRecordInAReadWriteTransaction() {
+		when(repository.findById("key")).thenReturn(Optional.empty());
+
+		store.find("key");
+
+		// Le transazioni in sola lettura vanno sulla replica
+		InOrder inOrder = inOrder(transactionManager, repository);
+		inOrder.verify(transactionManager).getTransaction(argThat(definition -> !definition.isReadOnly()));
+		inOrder.verify(repository).findById("key");
+		inOrder.verify(transactionManager).commit(any());
+	}
+
+	@Test
+	public void testFindIgnoresExpiredPersistedRecord() {
+		when(repository.findById("key")).thenReturn(Optional
+				.of(new IdempotencyRecord("key", "hash", 204, null, Instant.now().minus(Duration.ofHours(2)))));
+
+		assertThat(store.find("key")).isEmpty();
+	}
+
+	@Test
+	public void testFindIgnoresExpiredCachedRecord() {
+		store = new IdempotencyStore(repository, transactionManager, 2, Duration.ZERO);
+		store.execute("key", "hash", () -> new Outcome(204, null));
+
+		assertThat(store.find("key")).isEmpty();
+	}
+
+	@Test
+	public void testCacheEvictsLeastRecentlyUsedBeyondMaxEntries() {
+		store.execute("key1", "hash", () -> new Outcome(204, null));
+		store.execute("key2", "hash", () -> new Outcome(204, null));
+		store.find("key1");
+		store.execute("key3", "hash", () -> new Outcome(204, null));
+
+		store.find("key1");
+		store.find("key2");
+
+		// Una lettura per chiave dall'execute, una per key2 uscita dalla cache
+		verify(repository, times(1)).findById("key1");
+		verify(repository, times(2)).findById("key2");
+	}
+
+	@Test
+	public void testPurgeExpiredDeletesRecordsOlderThanTtl() {
+		Instant before = Instant.now();
+
+		store.purgeExpired();
+
+		ArgumentCaptor<Instant> threshold = ArgumentCaptor.forClass(Instant.class);
+		verify(repository).deleteCreatedBefore(threshold.capture());
+		assertThat(threshold.getValue()).isBetween(before.minus(Duration.ofHours(1)),
+				Instant.now().minus(Duration.ofHours(1)));
+	}
+
+	@Test
+	public void testPurgeExpiredEvictsExpiredCachedRecords() {
+		store = new IdempotencyStore(repository, transactionManager, 2, Duration.ZERO);
+		store.execute("key", "hash", () -> new Outcome(204, null));
+
+		store.purgeExpired();
+		store.find("key");
+
+		verify(repository, times(2)).findById("key");
+	}
+}
@@ -0,0 +1,114 @@
+package com.ecommerce.manager.services;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import com.ecommerce.manager.model.Item;
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.repositories.OrderRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.persistence.EntityManager;
+
+public class OrderExporterTest {
+
+	@Rule
+	public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+	@Mock
+	private OrderRepository orderRepository;
+
+	@Mock
+	private BalanceLedger ledger;
+
+	@Mock
+	private EntityManager entityManager;
+
+	private OrderExporter exporter;
+
+	private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+	@Before
+	public void setup() {
+		exporter = new OrderExporter(orderRepository, ledger, entityManager, new ObjectMapper());
+	}
+
+	@Test
+	public void testExportWritesOneLinePerOrderAndDetachesIt() throws Exception {
+		User user = new User(1L, "u", "n", "e", 1000);
+		Order order1 = new Order(1L, Item.BOX1, 100, user);
+		Order order2 = new Order(2L, Item.BOX2, 200, user);
+		AtomicBoolean closed = new AtomicBoolean();
+		when(orderRepository.streamByPriceGreaterThan(Long.MIN_VALUE))
+				.thenReturn(Stream.of(order1, order2).onClose(() -> closed.set(true)));
+
+		assertThat(exporter.exportOrders(null, null, output)).isEqualTo(2);
+
+		assertThat(closed).isTrue();
+		assertThat(output.toString()).isEqualTo("""
+				{"id":1,"item":"BOX1","price":100,"user":{"id":1,"username":"u","name":"n","email":"e","balance":1000}}
+				{"id":2,"item":"BOX2","price":200,"user":{"id":1,"username":"u","name":"n","email":"e","balance":1000}}
+				""");
+		InOrder inOrder = inOrder(entityManager);
+		inOrder.verify(entityManager).detach(order1);
+		inOrder.verify(entityManager).detach(order2);
+		verify(ledger, never()).withCurrentBalances(any());
+	}
+
+	@Test
+	public void testExportFiltersByItemAndPrice() throws Exception {
+		Order order = new Order(3L, Item.BOX3, 700, new User(1L, "u", "n", "e", 1000));
+		when(orderRepository.streamByItemAndPriceGreaterThan(Item.BOX3, 500L)).thenReturn(Stream.of(order));
+
+		assertThat(exporter.exportOrders(Item.BOX3, 500L, output)).isEqualTo(1);
+
+		assertThat(output.toString()).startsWith("{\"id\":3,");
+	}
+
+	@Test
+	public void testExportFiltersByPriceOnly() throws Exception {
+		when(orderRepository.streamByPriceGreaterThan(500L)).thenReturn(Stream.empty());
+
+		assertThat(exporter.exportOrders(null, 500L, output)).isZero();
+
+		assertThat(output.toString()).isEmpty();
+	}
+
+	@Test
+	public void testExportWithLedgerAddsPendingEntriesToTheUsersOncePerPage() throws Exception {
+		int pageSize = Integer.parseInt(OrderRepository.EXPORT_FETCH_SIZE);
+		User user1 = new User(1L, "u1", "n1", "e1", 1000);
+		User user2 = new User(2L, "u2", "n2", "e2", 1000);
+		List<Order> orders = LongStream.rangeClosed(1, pageSize + 1)
+				.mapToObj(id -> new Order(id, Item.BOX1, 100, id % 2 == 0 ? user2 : user1)).toList();
+		when(ledger.isEnabled()).thenReturn(true);
+		when(orderRepository.streamByPriceGreaterThan(Long.MIN_VALUE)).thenReturn(orders.stream());
+
+		assertThat(exporter.exportOrders(null, null, output)).isEqualTo(pageSize + 1);
+
+		// Una query per pagina invece che una per ordine
+		verify(ledger).withCurrentBalances(orders.subList(0, pageSize).stream().map(Order::getUser).toList());
+		verify(ledger).withCurrentBalances(List.of(user1));
+		verify(ledger, never()).withCurrentBalance(any());
+	}
+}
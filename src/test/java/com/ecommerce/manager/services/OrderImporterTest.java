@@ -0,0 +1,110 @@
+package com.ecommerce.manager.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import com.ecommerce.manager.model.Item;
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class OrderImporterTest {
+
+	@Rule
+	public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+	@Mock
+	private EcommerceService ecommerceService;
+
+	private OrderImporter importer;
+
+	private final List<List<Order>> chunks = new ArrayList<>();
+
+	@Before
+	public void setup() {
+		importer = new OrderImporter(ecommerceService, new ObjectMapper(), 2);
+
+		// Ogni record viene creato con id pari alla sua posizione nel chunk
+		when(ecommerceService.insertNewOrders(anyList())).thenAnswer(invocation -> {
+			List<Order> chunk = new ArrayList<>(invocation.getArgument(0));
+			chunks.add(chunk);
+			return IntStream.range(0, chunk.size()).mapToObj(i -> OrderImportResult.created(i, i)).toList();
+		});
+	}
+
+	@Test
+	public void testInvalidChunkSize() {
+		ObjectMapper objectMapper = new ObjectMapper();
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> new OrderImporter(ecommerceService, objectMapper, 0));
+
+		assertThat(e.getMessage()).isEqualTo("Chunk size must be at least 1");
+	}
+
+	@Test
+	public void testImportJsonArrayInChunks() throws Exception {
+		List<OrderImportResult> results = importer.importOrders(input("[" + order(100) + "," + order(200) + ","
+				+ order(300) + "]"));
+
+		assertThat(chunks).hasSize(2);
+		assertThat(chunks.get(0)).extracting(Order::getPrice).containsExactly(100L, 200L);
+		assertThat(chunks.get(1)).extracting(Order::getPrice).containsExactly(300L);
+		assertThat(chunks.get(1).get(0).getUser()).isEqualTo(new User(1L, "user", "name", "email", 1000));
+		assertThat(results).containsExactly(OrderImportResult.created(0, 0), OrderImportResult.created(1, 1),
+				OrderImportResult.created(2, 0));
+	}
+
+	@Test
+	public void testImportNdjson() throws Exception {
+		List<OrderImportResult> results = importer
+				.importOrders(input(order(100) + "\n" + order(200) + "\n" + order(300) + "\n"));
+
+		assertThat(chunks).extracting(List::size).containsExactly(2, 1);
+		assertThat(results).extracting(OrderImportResult::index).containsExactly(0, 1, 2);
+	}
+
+	@Test
+	public void testImportEmptyPayload() throws Exception {
+		assertThat(importer.importOrders(input("[]"))).isEmpty();
+		assertThat(importer.importOrders(input(""))).isEmpty();
+
+		verifyNoInteractions(ecommerceService);
+	}
+
+	@Test
+	public void testImportStopsAtMalformedRecordAfterInsertingThePreviousOnes() throws Exception {
+		List<OrderImportResult> results = importer.importOrders(input(order(100) + "\n{\"item\":\"BOX9\"}\n"
+				+ order(300) + "\n"));
+
+		assertThat(results).containsExactly(OrderImportResult.created(0, 0),
+				OrderImportResult.failed(1, "Malformed order"));
+		verify(ecommerceService).insertNewOrders(anyList());
+	}
+
+	private static String order(long price) {
+		return "{\"item\":\"BOX1\",\"price\":" + price
+				+ ",\"user\":{\"id\":1,\"username\":\"user\",\"name\":\"name\",\"email\":\"email\",\"balance\":1000}}";
+	}
+
+	private static InputStream input(String body) {
+		return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+	}
+}
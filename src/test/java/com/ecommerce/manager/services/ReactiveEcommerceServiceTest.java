@@ -0,0 +1,235 @@
+package com.ecommerce.manager.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+import com.ecommerce.manager.model.Item;
+import com.ecommerce.manager.model.Order;
+import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.repositories.ReactiveOrderRepository;
+import com.ecommerce.manager.repositories.ReactiveUserRepository;
+
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+public class ReactiveEcommerceServiceTest {
+
+	@Rule
+	public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+	@Mock
+	private ReactiveUserRepository userRepository;
+
+	@Mock
+	private ReactiveOrderRepository orderRepository;
+
+	@Mock
+	private TransactionalOperator transactions;
+
+	private ReactiveEcommerceService ecommerceService;
+
+	@Before
+	public void setup() {
+		// Le transazioni sono verificate nell'IT: qui il publisher viene restituito così com'è
+		when(transactions.transactional(any(Mono.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+		ecommerceService = new ReactiveEcommerceService(userRepository, orderRepository, transactions, false, 3,
+				Duration.ZERO, Duration.ZERO);
+	}
+
+	@Test
+	public void testLedgerIsNotSupported() {
+		IllegalStateException e = assertThrows(IllegalStateException.class,
+				() -> new ReactiveEcommerceService(userRepository, orderRepository, transactions, true, 3,
+						Duration.ZERO, Duration.ZERO));
+
+		assertThat(e.getMessage()).isEqualTo("The reactive API does not support the balance ledger");
+	}
+
+	@Test
+	public void testWithdrawWithNegativeAmount() {
+		StepVerifier.create(ecommerceService.withdraw(1L, -1))
+				.verifyErrorMessage("Withdraw amount cannot be negative");
+	}
+
+	@Test
+	public void testWithdrawWithNotEnoughBalance() {
+		when(userRepository.updateBalanceIfNotNegative(1L, -500)).thenReturn(Mono.just(0L));
+		when(userRepository.existsById(1L)).thenReturn(Mono.just(true));
+
+		StepVerifier.create(ecommerceService.withdraw(1L, 500))
+				.verifyErrorMessage("Not enough balance to perform withdraw");
+	}
+
+	@Test
+	public void testWithdrawWithUserNotFound() {
+		when(userRepository.updateBalanceIfNotNegative(1L, -500)).thenReturn(Mono.just(0L));
+		when(userRepository.existsById(1L)).thenReturn(Mono.just(false));
+
+		StepVerifier.create(ecommerceService.withdraw(1L, 500)).verifyErrorMessage("User not found");
+	}
+
+	@Test
+	public void testDepositWithUserNotFound() {
+		when(userRepository.updateBalance(1L, 500)).thenReturn(Mono.just(0L));
+
+		StepVerifier.create(ecommerceService.deposit(1L, 500)).verifyErrorMessage("User not found");
+	}
+
+	@Test
+	public void testInsertNewUserWithDuplicateUsernameOrEmail() {
+		User user = new User(null, "u", "n", "e", 100);
+		when(userRepository.insert(user)).thenReturn(Mono.error(new DataIntegrityViolationException("duplicate")));
+
+		StepVerifier.create(ecommerceService.insertNewUser(user)).expectErrorSatisfies(e -> assertThat(e)
+				.isInstanceOf(IllegalArgumentException.class).hasMessage("Username or email already exists"))
+				.verify();
+	}
+
+	@Test
+	public void testUpdateUserWithDuplicateUsernameOrEmail() {
+		User replacement = new User(null, "u", "n", "e", 100);
+		when(userRepository.update(1L, replacement))
+				.thenReturn(Mono.error(new DataIntegrityViolationException("duplicate")));
+
+		StepVerifier.create(ecommerceService.updateUserById(1L, replacement)).expectErrorSatisfies(e -> assertThat(e)
+				.isInstanceOf(IllegalArgumentException.class).hasMessage("Username or email already exists"))
+				.verify();
+
+		verify(userRepository, never()).findById(anyLong());
+	}
+
+	@Test
+	public void testInsertNewOrderWhenWithdrawIsRejectedDoesNotInsert() {
+		User user = new User(1L, "u", "n", "e", 100);
+		when(userRepository.updateBalanceIfNotNegative(1L, -500)).thenReturn(Mono.just(0L));
+		when(userRepository.existsById(1L)).thenReturn(Mono.just(true));
+		when(orderRepository.insert(Item.BOX1, 500, 1L)).thenReturn(Mono.just(10L));
+
+		StepVerifier.create(ecommerceService.insertNewOrder(new Order(null, Item.BOX1, 500, user)))
+				.verifyErrorMessage("Unable to insert new order");
+
+		verify(userRepository, never()).findById(anyLong());
+	}
+
+	@Test
+	public void testInsertNewOrderReturnsTheOrderWithTheChargedUser() {
+		User charged = new User(1L, "u", "n", "e", 500);
+		when(userRepository.updateBalanceIfNotNegative(1L, -500)).thenReturn(Mono.just(1L));
+		when(orderRepository.insert(Item.BOX1, 500, 1L)).thenReturn(Mono.just(10L));
+		when(userRepository.findById(1L)).thenReturn(Mono.just(charged));
+
+		StepVerifier.create(ecommerceService.insertNewOrder(new Order(null, Item.BOX1, 500, new User(1L, null, null,
+				null, 0)))).assertNext(order -> {
+					assertThat(order.getId()).isEqualTo(10L);
+					assertThat(order.getUser().getBalance()).isEqualTo(500);
+				}).verifyComplete();
+	}
+
+	@Test
+	public void testUpdateOrderWithSameUserChargesOnlyTheDifference() {
+		User user = new User(1L, "u", "n", "e", 1000);
+		Order existing = new Order(10L, Item.BOX1, 300, user);
+		when(orderRepository.findById(10L)).thenReturn(Mono.just(existing));
+		when(userRepository.updateBalanceIfNotNegative(1L, -200)).thenReturn(Mono.just(1L));
+		when(orderRepository.updateIfVersion(10L, 0, Item.BOX2, 500, 1L)).thenReturn(Mono.just(1L));
+
+		StepVerifier.create(ecommerceService.updateOrderById(10L, new Order(null, Item.BOX2, 500, user)))
+				.expectNext(existing).verifyComplete();
+
+		verify(userRepository, times(1)).updateBalanceIfNotNegative(anyLong(), anyLong());
+	}
+
+	@Test
+	public void testUpdateOrderWithAnotherUserUpdatesTheBalancesInIdOrder() {
+		Order existing = new Order(10L, Item.BOX1, 300, new User(2L, "u2", "n", "e", 1000));
+		when(orderRepository.findById(10L)).thenReturn(Mono.just(existing));
+		when(userRepository.updateBalanceIfNotNegative(1L, -500)).thenReturn(Mono.just(1L));
+		when(userRepository.updateBalance(2L, 300)).thenReturn(Mono.just(1L));
+		when(orderRepository.updateIfVersion(10L, 0, Item.BOX2, 500, 1L)).thenReturn(Mono.just(1L));
+
+		StepVerifier.create(ecommerceService.updateOrderById(10L,
+				new Order(null, Item.BOX2, 500, new User(1L, "u1", "n", "e", 1000)))).expectNextCount(1)
+				.verifyComplete();
+
+		InOrder inOrder = inOrder(userRepository);
+		inOrder.verify(userRepository).updateBalanceIfNotNegative(1L, -500);
+		inOrder.verify(userRepository).updateBalance(2L, 300);
+	}
+
+	@Test
+	public void testUpdateOrderWhenTheNewUserCannotPay() {
+		Order existing = new Order(10L, Item.BOX1, 300, new User(1L, "u1", "n", "e", 1000));
+		when(orderRepository.findById(10L)).thenReturn(Mono.just(existing));
+		when(userRepository.updateBalance(1L, 300)).thenReturn(Mono.just(1L));
+		when(userRepository.updateBalanceIfNotNegative(2L, -5000)).thenReturn(Mono.just(0L));
+		when(userRepository.existsById(2L)).thenReturn(Mono.just(true));
+		when(orderRepository.updateIfVersion(10L, 0, Item.BOX2, 5000, 2L)).thenReturn(Mono.just(1L));
+
+		StepVerifier.create(ecommerceService.updateOrderById(10L,
+				new Order(null, Item.BOX2, 5000, new User(2L, "u2", "n", "e", 0))))
+				.verifyErrorMessage("Unable to update the order");
+
+		verify(orderRepository, never()).findSummaryById(anyLong());
+	}
+
+	@Test
+	public void testUpdateOrderNotFound() {
+		when(orderRepository.findById(10L)).thenReturn(Mono.empty());
+
+		StepVerifier.create(ecommerceService.updateOrderById(10L,
+				new Order(null, Item.BOX2, 500, new User(1L, "u", "n", "e", 0)))).verifyErrorMessage("Order not found");
+	}
+
+	@Test
+	public void testUpdateOrderIsRetriedOnConcurrentUpdate() {
+		User user = new User(1L, "u", "n", "e", 1000);
+		Order existing = new Order(10L, Item.BOX1, 300, user);
+		when(orderRepository.findById(10L)).thenReturn(Mono.just(existing));
+		when(userRepository.updateBalanceIfNotNegative(1L, -200)).thenReturn(Mono.just(1L));
+		when(orderRepository.updateIfVersion(10L, 0, Item.BOX2, 500, 1L)).thenReturn(Mono.just(0L),
+				Mono.just(1L));
+
+		StepVerifier.create(ecommerceService.updateOrderById(10L, new Order(null, Item.BOX2, 500, user)))
+				.expectNext(existing).verifyComplete();
+	}
+
+	@Test
+	public void testUpdateOrderConflictIsRethrownWhenAttemptsAreExhausted() {
+		User user = new User(1L, "u", "n", "e", 1000);
+		when(orderRepository.findById(10L)).thenReturn(Mono.just(new Order(10L, Item.BOX1, 300, user)));
+		when(userRepository.updateBalanceIfNotNegative(1L, -200)).thenReturn(Mono.just(1L));
+		when(orderRepository.updateIfVersion(10L, 0, Item.BOX2, 500, 1L)).thenReturn(Mono.just(0L));
+
+		StepVerifier.create(ecommerceService.updateOrderById(10L, new Order(null, Item.BOX2, 500, user)))
+				.verifyError(ObjectOptimisticLockingFailureException.class);
+	}
+
+	@Test
+	public void testUpdateUserNotFound() {
+		when(userRepository.update(any(Long.class), any(User.class))).thenReturn(Mono.just(0L));
+
+		StepVerifier.create(ecommerceService.updateUserById(1L, new User(null, "u", "n", "e", 0)))
+				.verifyErrorMessage("User not found");
+	}
+}
@@ -0,0 +1,149 @@
+package com.ecommerce.manager.services;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ServiceMetricsAspectTest {
+
+	private MeterRegistry meterRegistry;
+
+	private ProceedingJoinPoint joinPoint;
+
+	private Signature signature;
+
+	private ServiceMetricsAspect aspect;
+
+	@Before
+	public void setup() {
+		meterRegistry = new SimpleMeterRegistry();
+		joinPoint = mock(ProceedingJoinPoint.class);
+		signature = mock(Signature.class);
+		when(joinPoint.getSignature()).thenReturn(signature);
+
+		aspect = new ServiceMetricsAspect(meterRegistry);
+	}
+
+	@Test
+	public void testSuccessfulCallIsTimed() throws Throwable {
+		when(signature.getName()).thenReturn("getAllUsers");
+		when(joinPoint.proceed()).thenReturn("result");
+
+		assertThat(aspect.measure(joinPoint)).isEqualTo("result");
+
+		Timer timer = meterRegistry.get(ServiceMetricsAspect.CALLS_METRIC).tag("operation", "getAllUsers")
+				.tag("outcome", "success").tag("exception", "none").timer();
+		assertThat(timer.count()).isEqualTo(1);
+	}
+
+	@Test
+	public void testFailedCallIsTimedWithTheExceptionClass() throws Throwable {
+		when(signature.getName()).thenReturn("updateOrderById");
+		when(joinPoint.proceed()).thenThrow(new IllegalArgumentException("Invalid"));
+
+		assertThrows(IllegalArgumentException.class, () -> aspect.measure(joinPoint));
+
+		assertThat(meterRegistry.get(ServiceMetricsAspect.CALLS_METRIC).tag("operation", "updateOrderById")
+				.tag("outcome", "error").tag("exception", "IllegalArgumentException").timer().count()).isEqualTo(1);
+	}
+
+	@Test
+	public void testRejectedWithdrawalIsCounted() throws Throwable {
+		when(signature.getName()).thenReturn("withdraw");
+		when(joinPoint.proceed()).thenThrow(new IllegalStateException("Not enough balance to perform withdraw"));
+
+		assertThrows(IllegalStateException.class, () -> aspect.measure(joinPoint));
+
+		assertThat(count(ServiceMetricsAspect.REJECTED_WITHDRAWALS_METRIC, "withdraw")).isEqualTo(1.0);
+	}
+
+	@Test
+	public void testFailedOrderInsertIsCounted() throws Throwable {
+		when(signature.getName()).thenReturn("insertNewOrder");
+		when(joinPoint.proceed()).thenThrow(new IllegalStateException("Unable to insert new order"));
+
+		assertThrows(IllegalStateException.class, () -> aspect.measure(joinPoint));
+
+		assertThat(count(ServiceMetricsAspect.FAILED_ORDER_INSERTS_METRIC, "insertNewOrder")).isEqualTo(1.0);
+	}
+
+	@Test
+	public void testRejectedRecordsOfAnOrderImportAreCounted() throws Throwable {
+		when(signature.getName()).thenReturn("insertNewOrders");
+		when(joinPoint.proceed()).thenReturn(asList(OrderImportResult.created(0, 1L),
+				OrderImportResult.failed(1, "User not found"), OrderImportResult.failed(2, "Invalid order")));
+
+		aspect.measure(joinPoint);
+
+		assertThat(count(ServiceMetricsAspect.FAILED_ORDER_INSERTS_METRIC, "insertNewOrders")).isEqualTo(2.0);
+	}
+
+	@Test
+	public void testUserNotFoundIsCounted() throws Throwable {
+		when(signature.getName()).thenReturn("deposit");
+		when(joinPoint.proceed()).thenThrow(new IllegalStateException("User not found"));
+
+		assertThrows(IllegalStateException.class, () -> aspect.measure(joinPoint));
+
+		assertThat(count(ServiceMetricsAspect.USERS_NOT_FOUND_METRIC, "deposit")).isEqualTo(1.0);
+	}
+
+	@Test
+	public void testMissingUserReadByIdIsCounted() throws Throwable {
+		when(signature.getName()).thenReturn("getUserById");
+		when(joinPoint.proceed()).thenReturn(null);
+
+		aspect.measure(joinPoint);
+
+		assertThat(count(ServiceMetricsAspect.USERS_NOT_FOUND_METRIC, "getUserById")).isEqualTo(1.0);
+	}
+
+	@Test
+	public void testOtherFailuresAreNotCounted() throws Throwable {
+		when(signature.getName()).thenReturn("updateUserById");
+		when(joinPoint.proceed()).thenThrow(new IllegalStateException("Username already exists"));
+
+		assertThrows(IllegalStateException.class, () -> aspect.measure(joinPoint));
+
+		assertThat(meterRegistry.find(ServiceMetricsAspect.USERS_NOT_FOUND_METRIC).counter()).isNull();
+		assertThat(meterRegistry.find(ServiceMetricsAspect.REJECTED_WITHDRAWALS_METRIC).counter()).isNull();
+		assertThat(meterRegistry.find(ServiceMetricsAspect.FAILED_ORDER_INSERTS_METRIC).counter()).isNull();
+	}
+
+	@Test
+	public void testBalanceOperationIsInFlightUntilItReturns() throws Throwable {
+		AtomicReference<Double> during = new AtomicReference<>();
+		when(signature.getName()).thenReturn("deposit");
+		when(joinPoint.proceed()).thenAnswer(invocation -> {
+			during.set(inFlight("deposit"));
+			throw new IllegalStateException("User not found");
+		});
+
+		assertThrows(IllegalStateException.class, () -> aspect.measure(joinPoint));
+
+		assertThat(during.get()).isEqualTo(1.0);
+		assertThat(inFlight("deposit")).isZero();
+		assertThat(inFlight("withdraw")).isZero();
+	}
+
+	private double count(String name, String operation) {
+		return meterRegistry.get(name).tag("operation", operation).counter().count();
+	}
+
+	private double inFlight(String operation) {
+		return meterRegistry.get(ServiceMetricsAspect.IN_FLIGHT_METRIC).tag("operation", operation).gauge().value();
+	}
+}
@@ -0,0 +1,71 @@
+package com.ecommerce.manager.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import com.ecommerce.manager.model.TableState;
+import com.ecommerce.manager.repositories.BalanceEntryRepository;
+import com.ecommerce.manager.repositories.OrderRepository;
+import com.ecommerce.manager.repositories.UserRepository;
+
+public class TableChangeMarkersTest {
+
+	@Rule
+	public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+	@Mock
+	private UserRepository userRepository;
+
+	@Mock
+	private OrderRepository orderRepository;
+
+	@Mock
+	private BalanceEntryRepository entryRepository;
+
+	@Mock
+	private BalanceLedger ledger;
+
+	private TableChangeMarkers markers;
+
+	@Before
+	public void setup() {
+		markers = new TableChangeMarkers(userRepository, orderRepository, entryRepository, ledger);
+		when(userRepository.findTableState()).thenReturn(new TableState(2, 3, 36));
+		when(orderRepository.findTableState()).thenReturn(new TableState(1, 35, 0));
+	}
+
+	@Test
+	public void testMarkersAreTheAggregatesOfTheTables() {
+		assertThat(markers.users()).isEqualTo("2.3.10");
+		// Le liste degli ordini cambiano anche con gli users
+		assertThat(markers.orders()).isEqualTo("1.z.0-2.3.10");
+		verifyNoInteractions(entryRepository);
+	}
+
+	@Test
+	public void testUsersMarkerWithLedgerIncludesTheEntries() {
+		when(ledger.isEnabled()).thenReturn(true);
+		when(entryRepository.findTableState()).thenReturn(new TableState(4, 10, 0));
+
+		assertThat(markers.users()).isEqualTo("2.3.10-4.a.0");
+	}
+
+	@Test
+	public void testMarkerChangesWithEveryKindOfWrite() {
+		String marker = new TableState(2, 3, 5).marker();
+
+		// Insert, delete, insert insieme a un delete e update
+		assertThat(new TableState(3, 7, 5).marker()).isNotEqualTo(marker);
+		assertThat(new TableState(1, 1, 5).marker()).isNotEqualTo(marker);
+		assertThat(new TableState(2, 6, 5).marker()).isNotEqualTo(marker);
+		assertThat(new TableState(2, 3, 6).marker()).isNotEqualTo(marker);
+	}
+}
@@ -0,0 +1,178 @@
+package com.ecommerce.manager.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import com.ecommerce.manager.model.User;
+import com.ecommerce.manager.services.UserImportReport.RejectedRecord;
+import com.ecommerce.manager.services.UserImporter.Format;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class UserImporterTest {
+
+	@Rule
+	public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+	@Mock
+	private EcommerceService ecommerceService;
+
+	private UserImporter importer;
+
+	private final List<List<User>> chunks = new ArrayList<>();
+
+	@Before
+	public void setup() {
+		importer = new UserImporter(ecommerceService, new ObjectMapper(), 2);
+
+		when(ecommerceService.insertNewUsers(anyList())).thenAnswer(invocation -> {
+			List<User> chunk = new ArrayList<>(invocation.getArgument(0));
+			chunks.add(chunk);
+			return Collections.nCopies(chunk.size(), null);
+		});
+	}
+
+	@Test
+	public void testInvalidChunkSize() {
+		ObjectMapper objectMapper = new ObjectMapper();
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> new UserImporter(ecommerceService, objectMapper, 0));
+
+		assertThat(e.getMessage()).isEqualTo("Chunk size must be at least 1");
+	}
+
+	@Test
+	public void testImportCsvInChunks() throws Exception {
+		UserImportReport report = importer.importUsers(input("""
+				username,name,email,balance
+				u1,n1,e1,100
+				u2,"Doe, ""John""\",e2,200
+
+				u3,n3,e3,300
+				"""), Format.CSV);
+
+		assertThat(report).isEqualTo(new UserImportReport(3, 0, List.of()));
+		assertThat(chunks).hasSize(2);
+		assertThat(chunks.get(0)).containsExactly(new User(null, "u1", "n1", "e1", 100),
+				new User(null, "u2", "Doe, \"John\"", "e2", 200));
+		assertThat(chunks.get(1)).containsExactly(new User(null, "u3", "n3", "e3", 300));
+	}
+
+	@Test
+	public void testImportCsvWithColumnsInAnyOrder() throws Exception {
+		importer.importUsers(input("Email,Balance,Username,Name\ne1,100,u1,n1\n"), Format.CSV);
+
+		assertThat(chunks.get(0)).containsExactly(new User(null, "u1", "n1", "e1", 100));
+	}
+
+	@Test
+	public void testImportCsvWithoutRequiredColumns() {
+		InputStream input = input("username,name,email\nu1,n1,e1\n");
+
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> importer.importUsers(input, Format.CSV));
+
+		assertThat(e.getMessage()).isEqualTo("CSV header must contain the columns username,name,email,balance");
+		verifyNoInteractions(ecommerceService);
+	}
+
+	@Test
+	public void testImportEmptyCsv() throws Exception {
+		assertThat(importer.importUsers(input(""), Format.CSV)).isEqualTo(new UserImportReport(0, 0, List.of()));
+
+		verifyNoInteractions(ecommerceService);
+	}
+
+	@Test
+	public void testImportNdjson() throws Exception {
+		UserImportReport report = importer.importUsers(input("""
+				{"username":"u1","name":"n1","email":"e1","balance":100}
+				{"username":"u2","name":"n2","email":"e2","balance":200}
+				"""), Format.NDJSON);
+
+		assertThat(report.imported()).isEqualTo(2);
+		assertThat(chunks.get(0)).containsExactly(new User(null, "u1", "n1", "e1", 100),
+				new User(null, "u2", "n2", "e2", 200));
+	}
+
+	@Test
+	public void testImportRejectsInvalidAndMalformedRows() throws Exception {
+		UserImportReport report = importer.importUsers(input("""
+				username,name,email,balance
+				u1,n1,e1,100
+				u2,n2,e2
+				u3,n3,e3,abc
+				,n4,e4,100
+				u5,n5,,100
+				u6,n6,e6,-1
+				u7,n7,e7,100
+				"""), Format.CSV);
+
+		assertThat(report).isEqualTo(new UserImportReport(2, 5,
+				List.of(new RejectedRecord(1, "Malformed user"), new RejectedRecord(2, "Malformed user"),
+						new RejectedRecord(3, "Invalid user"), new RejectedRecord(4, "Invalid user"),
+						new RejectedRecord(5, "Invalid user"))));
+		assertThat(chunks).flatExtracting(chunk -> chunk).extracting(User::getUsername).containsExactly("u1",
+				"u7");
+	}
+
+	@Test
+	public void testImportMalformedJsonLineIsRejected() throws Exception {
+		UserImportReport report = importer.importUsers(input("""
+				{"username":"u1",
+				{"username":"u2","name":"n2","email":"e2","balance":200}
+				"""), Format.NDJSON);
+
+		assertThat(report).isEqualTo(new UserImportReport(1, 1, List.of(new RejectedRecord(0, "Malformed user"))));
+	}
+
+	@Test
+	public void testImportReportsRejectionsOfTheService() throws Exception {
+		when(ecommerceService.insertNewUsers(anyList())).thenReturn(List.of("Username already exists"));
+
+		UserImportReport report = importer.importUsers(input("""
+				{"username":"u1","name":"n1","email":"e1","balance":100}
+				"""), Format.NDJSON);
+
+		assertThat(report).isEqualTo(
+				new UserImportReport(0, 1, List.of(new RejectedRecord(0, "Username already exists"))));
+	}
+
+	@Test
+	public void testImportDetailsOnlyTheFirstRejections() throws Exception {
+		StringBuilder body = new StringBuilder("username,name,email,balance\n");
+		for (int i = 0; i < UserImporter.MAX_REPORTED_ERRORS + 10; i++) {
+			body.append("u,n,e,-1\n");
+		}
+
+		UserImportReport report = importer.importUsers(input(body.toString()), Format.CSV);
+
+		assertThat(report.rejected()).isEqualTo(UserImporter.MAX_REPORTED_ERRORS + 10);
+		assertThat(report.errors()).hasSize(UserImporter.MAX_REPORTED_ERRORS);
+	}
+
+	@Test
+	public void testSplitCsv() {
+		assertThat(UserImporter.splitCsv("a,\"b,c\",,\"d\"\"e\"")).containsExactly("a", "b,c", "", "d\"e");
+	}
+
+	private static InputStream input(String body) {
+		return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,152 @@
+package com.ecommerce.manager.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class UserLockManagerTest {
+
+	private MeterRegistry meterRegistry;
+
+	private UserLockManager userLocks;
+
+	private ExecutorService executor;
+
+	@Before
+	public void setup() {
+		meterRegistry = new SimpleMeterRegistry();
+		userLocks = new UserLockManager(meterRegistry, 16);
+		executor = Executors.newSingleThreadExecutor();
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	@Test
+	public void testLockWithoutActiveTransactionShouldThrowException() {
+		IllegalStateException ex = assertThrows(IllegalStateException.class, () -> userLocks.lockUntilCompletion(1L));
+
+		assertThat(ex.getMessage()).isEqualTo("User locks require an active transaction");
+	}
+
+	@Test
+	public void testSameUserIsSerializedUntilTransactionCompletes() throws Exception {
+		TransactionSynchronizationManager.initSynchronization();
+		userLocks.lockUntilCompletion(1L);
+
+		Future<?> other = executor.submit(() -> inTransaction(() -> userLocks.lockUntilCompletion(1L)));
+
+		assertThrows(TimeoutException.class, () -> other.get(200, TimeUnit.MILLISECONDS));
+
+		completeTransaction();
+
+		other.get(5, TimeUnit.SECONDS);
+		assertThat(meterRegistry.get(UserLockManager.CONTENDED_METRIC).counter().count()).isEqualTo(1.0);
+		assertThat(meterRegistry.get(UserLockManager.WAIT_METRIC).timer().count()).isEqualTo(1);
+	}
+
+	@Test
+	public void testUsersOnDifferentStripesProceedInParallel() throws Exception {
+		long first = 1L;
+		long second = userOnAnotherStripe(first);
+
+		TransactionSynchronizationManager.initSynchronization();
+		userLocks.lockUntilCompletion(first);
+
+		executor.submit(() -> inTransaction(() -> userLocks.lockUntilCompletion(second))).get(5, TimeUnit.SECONDS);
+
+		completeTransaction();
+		assertThat(meterRegistry.get(UserLockManager.ACQUIRED_METRIC).counter().count()).isEqualTo(2.0);
+		assertThat(meterRegistry.get(UserLockManager.CONTENDED_METRIC).counter().count()).isZero();
+	}
+
+	@Test
+	public void testLockIsReentrantForTheSameTransaction() {
+		TransactionSynchronizationManager.initSynchronization();
+
+		userLocks.lockUntilCompletion(1L, 1L);
+		userLocks.lockUntilCompletion(1L);
+
+		completeTransaction();
+		assertThat(meterRegistry.get(UserLockManager.CONTENDED_METRIC).counter().count()).isZero();
+	}
+
+	@Test
+	public void testPairsLockedInOppositeOrderDoNotDeadlock() throws Exception {
+		long first = 1L;
+		long second = userOnAnotherStripe(first);
+		CountDownLatch firstLocked = new CountDownLatch(1);
+
+		TransactionSynchronizationManager.initSynchronization();
+		userLocks.lockUntilCompletion(first, second);
+
+		Future<?> other = executor.submit(() -> inTransaction(() -> {
+			firstLocked.countDown();
+			userLocks.lockUntilCompletion(second, first);
+		}));
+
+		firstLocked.await(5, TimeUnit.SECONDS);
+		completeTransaction();
+
+		other.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testStripeIndexIsStableAndInRange() {
+		for (long id = -100; id < 1000; id++) {
+			assertThat(userLocks.stripeIndex(id)).isBetween(0, 15).isEqualTo(userLocks.stripeIndex(id));
+		}
+	}
+
+	@Test
+	public void testStripeCountLowerThanOneShouldBeRejected() {
+		IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
+				() -> new UserLockManager(meterRegistry, 0));
+
+		assertThat(ex.getMessage()).isEqualTo("Stripe count must be at least 1");
+	}
+
+	private long userOnAnotherStripe(long userId) {
+		long other = userId + 1;
+		while (userLocks.stripeIndex(other) == userLocks.stripeIndex(userId)) {
+			other++;
+		}
+		return other;
+	}
+
+	private static void inTransaction(Runnable action) {
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			action.run();
+		} finally {
+			completeTransaction();
+		}
+	}
+
+	private static void completeTransaction() {
+		TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+				TransactionSynchronization.STATUS_COMMITTED);
+		TransactionSynchronizationManager.clearSynchronization();
+	}
+}